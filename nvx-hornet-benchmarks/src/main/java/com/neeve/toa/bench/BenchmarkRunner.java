@@ -0,0 +1,122 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the Hornet benchmarks with the JMH GC profiler and checks the normalized
+ * allocation rate (bytes allocated per operation) of each benchmark against the
+ * thresholds configured in <code>/allocation-thresholds.properties</code>.
+ * <p>
+ * The runner exits with a non zero exit code if any benchmark allocates more than 
+ * its configured threshold so that allocation regressions in the send path fail 
+ * the build when run via the <code>benchmarks</code> profile.
+ * <p>
+ * Usage: <code>BenchmarkRunner [resultFile] [includeRegex]</code>
+ */
+public class BenchmarkRunner {
+    /**
+     * The name of the GC profiler's normalized allocation rate secondary result. 
+     * JMH prefixes secondary results with a middle dot. 
+     */
+    static final String ALLOC_RATE_NORM = "\u00b7gc.alloc.rate.norm";
+
+    /**
+     * The classpath resource holding allocation thresholds keyed by 
+     * <code>{BenchmarkClass}.{benchmarkMethod}</code> with the maximum 
+     * number of bytes per operation as the value.
+     */
+    static final String THRESHOLDS_RESOURCE = "/allocation-thresholds.properties";
+
+    public static void main(String[] args) throws Exception {
+        final ChainedOptionsBuilder options = new OptionsBuilder();
+        options.include(args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + ".*");
+        options.addProfiler(GCProfiler.class);
+        if (args.length > 0) {
+            options.resultFormat(ResultFormatType.JSON);
+            options.result(args[0]);
+        }
+
+        final Collection<RunResult> results = new Runner(options.build()).run();
+        final List<String> failures = checkAllocationThresholds(results, loadThresholds());
+        if (!failures.isEmpty()) {
+            System.err.println("Allocation thresholds exceeded:");
+            for (String failure : failures) {
+                System.err.println("   " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    static final Properties loadThresholds() throws Exception {
+        final Properties thresholds = new Properties();
+        final InputStream is = BenchmarkRunner.class.getResourceAsStream(THRESHOLDS_RESOURCE);
+        if (is != null) {
+            try {
+                thresholds.load(is);
+            }
+            finally {
+                is.close();
+            }
+        }
+        return thresholds;
+    }
+
+    static final List<String> checkAllocationThresholds(final Collection<RunResult> results, final Properties thresholds) {
+        final List<String> failures = new ArrayList<String>();
+        for (RunResult result : results) {
+            final String benchmark = result.getParams().getBenchmark();
+            final String key = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+            final String threshold = thresholds.getProperty(key);
+            if (threshold == null) {
+                continue;
+            }
+
+            final Map<String, Result> secondary = result.getSecondaryResults();
+            final Result allocated = secondary.get(ALLOC_RATE_NORM);
+            if (allocated == null) {
+                failures.add(key + ": no allocation result (is the GC profiler supported by this JVM?)");
+                continue;
+            }
+
+            final double maxBytesPerOp = Double.parseDouble(threshold.trim());
+            if (allocated.getScore() > maxBytesPerOp) {
+                failures.add(key + ": allocated " + String.format("%.1f", allocated.getScore()) + " bytes/op, threshold is " + threshold.trim() + " bytes/op");
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.net.URL;
+import java.util.Set;
+
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
+import com.neeve.toa.spi.ServiceDefinitionLocator;
+
+/**
+ * The {@link TopicOrientedApplication} started by the startup benchmarks.
+ * <p>
+ * The application declares no event handlers and sends the messages of a 
+ * service with a large catalog of message types.
+ */
+public class CatalogApp extends TopicOrientedApplication {
+
+    private static class CatalogServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(getClass().getResource("/services/catalogService.xml"));
+        }
+
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.TopicOrientedApplication#getServiceDefinitionLocator()
+     */
+    @Override
+    protected ServiceDefinitionLocator getServiceDefinitionLocator() {
+        return new CatalogServiceDefinitionLocator();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neeve.ci.XRuntime;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.test.unit.SingleAppToaServer;
+
+/**
+ * Measures starting an application that sends the messages of a large catalog of 
+ * message types, with and without {@link TopicOrientedApplication#PROP_LAZY_MESSAGE_RESOLUTION}.
+ * <p>
+ * Each operation starts the application (with send stats enabled) and waits for its 
+ * messaging to start. The <code>retainedHeapBytes</code> counter reports the heap still 
+ * in use once the application has started, after a full GC, relative to the heap in 
+ * use before it was started, and the GC profiler's normalized allocation rate reports 
+ * the garbage produced while starting it. 
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class CatalogStartupBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean lazyMessageResolution;
+
+    /**
+     * The heap retained by the most recently started application.
+     */
+    public long retainedHeapBytes;
+
+    private SingleAppToaServer<CatalogApp> server;
+    private long baselineHeapBytes;
+
+    private static final long usedHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_LAZY_MESSAGE_RESOLUTION, String.valueOf(lazyMessageResolution));
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_ENABLE_SEND_STATS, "true");
+    }
+
+    @Setup(Level.Invocation)
+    public void measureBaseline() {
+        baselineHeapBytes = usedHeapBytes();
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() throws Throwable {
+        if (server != null) {
+            retainedHeapBytes = usedHeapBytes() - baselineHeapBytes;
+            server.shutdown();
+            server = null;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() {
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_LAZY_MESSAGE_RESOLUTION);
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_ENABLE_SEND_STATS);
+    }
+
+    @Benchmark
+    public void start() throws Throwable {
+        server = SingleAppToaServer.create("hornet-catalog-benchmark", "primary", CatalogApp.class, null);
+        server.start();
+        server.getApplication().getEngine().waitForMessagingToStart();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neeve.rog.IRogMessage;
+import com.neeve.toa.bench.messages.MultiChannelMessage;
+
+/**
+ * Measures creating the message sent on an additional channel of a message that is 
+ * sent on multiple channels. 
+ * <p>
+ * The <code>copy</code> benchmark creates it the way the application does, with the 
+ * message's <code>copy()</code> method. The <code>encodeAndDecode</code> benchmark 
+ * creates it by encoding the message with <code>serializeToByteArray()</code> and
+ * decoding a new message from the encoding, as the application previously did. The 
+ * engine encodes each message it sends, so the replica's encoding is paid for on top 
+ * of the send either way. 
+ * <p>
+ * Both benchmarks invoke the message's methods reflectively, as the application does 
+ * for message types it only knows by class. 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class MessageReplicationBenchmark {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private MultiChannelMessage message;
+    private Method copy;
+    private Method serialize;
+    private Method create;
+    private Method deserialize;
+
+    @Setup
+    public void setup() throws Exception {
+        message = MultiChannelMessage.create();
+        message.setRegion("EMEA");
+        message.setSymbol("VOD.L");
+        message.setSequence(1);
+        message.setPrice(101.25d);
+        message.setQuantity(100);
+
+        copy = MultiChannelMessage.class.getMethod("copy");
+        serialize = MultiChannelMessage.class.getMethod("serializeToByteArray");
+        deserialize = MultiChannelMessage.class.getMethod("deserializeFromByteArray", byte[].class);
+        if (!Modifier.isStatic(deserialize.getModifiers())) {
+            create = MultiChannelMessage.class.getMethod("create");
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        message.dispose();
+    }
+
+    @Benchmark
+    public void copy() throws Exception {
+        ((IRogMessage)copy.invoke(message, NO_ARGS)).dispose();
+    }
+
+    @Benchmark
+    public void encodeAndDecode() throws Exception {
+        final Object encoding = serialize.invoke(message, NO_ARGS);
+        if (create == null) {
+            ((IRogMessage)deserialize.invoke(null, encoding)).dispose();
+        }
+        else {
+            final IRogMessage replica = (IRogMessage)create.invoke(null, NO_ARGS);
+            deserialize.invoke(replica, encoding);
+            replica.dispose();
+        }
+    }
+}
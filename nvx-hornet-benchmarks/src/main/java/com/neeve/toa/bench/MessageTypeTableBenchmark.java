@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neeve.lang.XLongLinkedHashMap;
+import com.neeve.toa.MessageTypeTableView;
+import com.neeve.toa.TopicOrientedApplication;
+
+/**
+ * Compares the send context lookup done by {@link TopicOrientedApplication} via its 
+ * message type table against the {@link XLongLinkedHashMap} keyed by unique message 
+ * id that it replaced. 
+ * <p>
+ * Types are spread across a handful of factories, with each lookup picking the next 
+ * type from a shuffled sequence so that the branch predictor can't learn the access 
+ * pattern. The table, which is package private, is reached through its public 
+ * {@link MessageTypeTableView}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class MessageTypeTableBenchmark {
+
+    private static final int FACTORIES = 4;
+    private static final int FIRST_FACTORY_ID = 100;
+    private static final int LOOKUPS = 1024;
+
+    @Param({ "10", "500", "5000" })
+    public int types;
+
+    private XLongLinkedHashMap<Object> map;
+    private MessageTypeTableView<Object> table;
+    private final int[] factoryIds = new int[LOOKUPS];
+    private final int[] messageIds = new int[LOOKUPS];
+    private int next;
+
+    @Setup
+    public void setup() {
+        map = XLongLinkedHashMap.newInstance();
+        final LinkedHashMap<Long, Object> values = new LinkedHashMap<Long, Object>();
+        for (int i = 0; i < types; i++) {
+            final long uniqueId = uniqueId(FIRST_FACTORY_ID + i % FACTORIES, 1 + i / FACTORIES);
+            final Object value = new Object();
+            map.put(uniqueId, value);
+            values.put(uniqueId, value);
+        }
+        table = new MessageTypeTableView<Object>(values);
+
+        final Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            final int type = random.nextInt(types);
+            factoryIds[i] = FIRST_FACTORY_ID + type % FACTORIES;
+            messageIds[i] = 1 + type / FACTORIES;
+        }
+    }
+
+    private static final long uniqueId(final int factoryId, final int messageId) {
+        return (((long)factoryId) << 32) | messageId;
+    }
+
+    @Benchmark
+    public Object mapLookup() {
+        final int i = next++ & (LOOKUPS - 1);
+        return map.get(uniqueId(factoryIds[i], messageIds[i]));
+    }
+
+    @Benchmark
+    public Object tableLookup() {
+        final int i = next++ & (LOOKUPS - 1);
+        return table.get(factoryIds[i], messageIds[i]);
+    }
+}
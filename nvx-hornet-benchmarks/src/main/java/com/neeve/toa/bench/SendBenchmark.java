@@ -0,0 +1,198 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neeve.lang.XString;
+import com.neeve.sma.MessageBusBindingFactory;
+import com.neeve.sma.MessageChannel.RawKeyResolutionTable;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.bench.messages.DynamicKeyMessage;
+import com.neeve.toa.bench.messages.KRTKeyMessage;
+import com.neeve.toa.bench.messages.MultiChannelMessage;
+import com.neeve.toa.bench.messages.StaticKeyMessage;
+import com.neeve.toa.test.unit.SingleAppToaServer;
+
+/**
+ * Measures the {@link TopicOrientedApplication} send path for each of the 
+ * <code>sendMessage</code> overloads. 
+ * <p>
+ * Each benchmark creates a message, populates it and sends it through 
+ * the application to a loopback bus, so the measured cost covers the send
+ * context lookup, topic resolution and the engine's send. The 
+ * {@link #createMessage()} benchmark measures message creation and population
+ * alone so that it can be subtracted from the send benchmarks.
+ * <p>
+ * Sends are issued from the benchmark thread (outside of a message handler) 
+ * which is the same way that unsolicited senders such as market data feeds
+ * drive a Hornet application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class SendBenchmark {
+
+    private static final String REGION = "EMEA";
+    private static final String SYMBOL = "VOD.L";
+    private static final String VENUE = "XLON";
+
+    private SingleAppToaServer<BenchmarkApp> server;
+    private BenchmarkApp app;
+
+    private final String stringTopic = "bench/static/" + SYMBOL;
+    private final XString xstringTopic = XString.create("bench/static/" + SYMBOL, true, true);
+    private final Properties krt = new Properties();
+    private final RawKeyResolutionTable rawKrt = MessageBusBindingFactory.createRawKeyResolutionTable();
+
+    private long sequence;
+
+    @Setup
+    public void setup() throws Throwable {
+        krt.put("Venue", VENUE);
+        rawKrt.put("Venue", XString.create(VENUE, true, true));
+
+        server = SingleAppToaServer.create("hornet-benchmark", "primary", BenchmarkApp.class, null);
+        server.start();
+        app = server.getApplication();
+        app.getEngine().waitForMessagingToStart();
+    }
+
+    @TearDown
+    public void teardown() throws Throwable {
+        if (server != null) {
+            server.shutdown();
+            server = null;
+        }
+    }
+
+    private final StaticKeyMessage populate(final StaticKeyMessage message) {
+        message.setRegion(REGION);
+        message.setSymbol(SYMBOL);
+        message.setSequence(++sequence);
+        message.setPrice(101.25d);
+        message.setQuantity(100);
+        return message;
+    }
+
+    private final DynamicKeyMessage populate(final DynamicKeyMessage message) {
+        message.setRegion(REGION);
+        message.setSymbol(SYMBOL);
+        message.setSequence(++sequence);
+        message.setPrice(101.25d);
+        message.setQuantity(100);
+        return message;
+    }
+
+    private final KRTKeyMessage populate(final KRTKeyMessage message) {
+        message.setRegion(REGION);
+        message.setSymbol(SYMBOL);
+        message.setSequence(++sequence);
+        message.setPrice(101.25d);
+        message.setQuantity(100);
+        return message;
+    }
+
+    private final MultiChannelMessage populate(final MultiChannelMessage message) {
+        message.setRegion(REGION);
+        message.setSymbol(SYMBOL);
+        message.setSequence(++sequence);
+        message.setPrice(101.25d);
+        message.setQuantity(100);
+        return message;
+    }
+
+    /**
+     * Baseline: message creation and population without a send.
+     */
+    @Benchmark
+    public void createMessage() {
+        populate(DynamicKeyMessage.create()).dispose();
+    }
+
+    /**
+     * {@link TopicOrientedApplication#sendMessage(com.neeve.rog.IRogMessage)}
+     * with the topic resolved from the message's fields.
+     */
+    @Benchmark
+    public void sendNoTopic() {
+        app.sendMessage(populate(DynamicKeyMessage.create()));
+    }
+
+    /**
+     * {@link TopicOrientedApplication#sendMessage(com.neeve.rog.IRogMessage, String)}
+     */
+    @Benchmark
+    public void sendStringTopic() {
+        app.sendMessage(populate(StaticKeyMessage.create()), stringTopic);
+    }
+
+    /**
+     * {@link TopicOrientedApplication#sendMessage(com.neeve.rog.IRogMessage, XString)}
+     */
+    @Benchmark
+    public void sendXStringTopic() {
+        app.sendMessage(populate(StaticKeyMessage.create()), xstringTopic);
+    }
+
+    /**
+     * {@link TopicOrientedApplication#sendMessage(com.neeve.rog.IRogMessage, Properties)}
+     */
+    @Benchmark
+    public void sendPropertiesKRT() {
+        app.sendMessage(populate(KRTKeyMessage.create()), krt);
+    }
+
+    /**
+     * {@link TopicOrientedApplication#sendMessage(com.neeve.rog.IRogMessage, RawKeyResolutionTable)}
+     */
+    @Benchmark
+    public void sendRawKRT() {
+        app.sendMessage(populate(KRTKeyMessage.create()), rawKrt);
+    }
+
+    /**
+     * {@link TopicOrientedApplication#sendMessage(com.neeve.rog.IRogMessage)}
+     * for a message mapped to two channels, which sends a copy of the message
+     * on its additional channel.
+     */
+    @Benchmark
+    public void sendMultiChannel() {
+        app.sendMessage(populate(MultiChannelMessage.create()));
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.neeve.toa.service.ToaServiceParser;
+import com.neeve.toa.service.jaxb.Service;
+
+/**
+ * Measures validating and unmarshalling a set of service definitions, as done when a
+ * service definition locator validates the definitions it finds and the application 
+ * then unmarshals them. 
+ * <p>
+ * The <code>perServiceContext</code> benchmark does this the way it was done before the 
+ * {@link ToaServiceParser} was introduced: validating with a new validator (reading the 
+ * definition), then unmarshalling with a new {@link JAXBContext} (reading it again). The 
+ * <code>sharedParser</code> benchmark does it via the {@link ToaServiceParser} which 
+ * shares a single context and schema, pools its unmarshallers and hands the service 
+ * unmarshalled while validating a definition to its unmarshal, so that each definition 
+ * is parsed once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ServiceParsingBenchmark {
+
+    @Param({ "500" })
+    public int services;
+
+    private File directory;
+    private final List<URL> urls = new ArrayList<URL>();
+    private Schema schema;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = File.createTempFile("hornet-service-parsing", "");
+        directory.delete();
+        directory.mkdirs();
+        for (int i = 0; i < services; i++) {
+            final File file = new File(directory, "service" + i + ".xml");
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(serviceXml(i));
+            }
+            finally {
+                writer.close();
+            }
+            urls.add(file.toURI().toURL());
+        }
+        schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(getClass().getResource("/x-tsml.xsd"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (URL url : urls) {
+            new File(url.getPath()).delete();
+        }
+        directory.delete();
+    }
+
+    private static final String serviceXml(final int i) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>\n");
+        sb.append("<Service xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://www.neeveresearch.com/schema/x-tsml\" namespace=\"com.neeve.toa.bench\" name=\"BenchmarkService").append(i).append("\">\n");
+        sb.append("    <Models>\n");
+        sb.append("        <Model file=\"com/neeve/toa/bench/benchmarkModel.xml\"/>\n");
+        sb.append("    </Models>\n");
+        sb.append("    <Channels>\n");
+        sb.append("        <Channel name=\"StaticChannel\" key=\"bench").append(i).append("/static\"/>\n");
+        sb.append("        <Channel name=\"DynamicChannel\" key=\"bench").append(i).append("/${Region}/${Symbol}\"/>\n");
+        sb.append("        <Channel name=\"KRTChannel\" key=\"bench").append(i).append("/${Region}/${Venue}\"/>\n");
+        sb.append("    </Channels>\n");
+        sb.append("    <Roles>\n");
+        sb.append("        <To role=\"Receiver\">\n");
+        sb.append("            <Message name=\"StaticKeyMessage\" channel=\"StaticChannel\"/>\n");
+        sb.append("            <Message name=\"DynamicKeyMessage\" channel=\"DynamicChannel\"/>\n");
+        sb.append("            <Message name=\"KRTKeyMessage\" channel=\"KRTChannel\"/>\n");
+        sb.append("        </To>\n");
+        sb.append("    </Roles>\n");
+        sb.append("</Service>\n");
+        return sb.toString();
+    }
+
+    @Benchmark
+    public void perServiceContext(final Blackhole blackhole) throws Exception {
+        for (URL url : urls) {
+            // validate (the stream opened first was previously leaked, here it is closed)
+            final Validator validator = schema.newValidator();
+            final InputStream is = url.openStream();
+            try {
+                final InputStream validated = url.openStream();
+                try {
+                    validator.validate(new StreamSource(validated));
+                }
+                finally {
+                    validated.close();
+                }
+            }
+            finally {
+                is.close();
+            }
+
+            // unmarshal
+            final InputStream unmarshalled = new BufferedInputStream(url.openStream());
+            try {
+                blackhole.consume((Service)JAXBContext.newInstance(Service.class).createUnmarshaller().unmarshal(unmarshalled));
+            }
+            finally {
+                unmarshalled.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public void sharedParser(final Blackhole blackhole) throws Exception {
+        final ToaServiceParser parser = ToaServiceParser.getInstance();
+        for (URL url : urls) {
+            parser.validate(url);
+            blackhole.consume(parser.unmarshal(url));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neeve.lang.XString;
+import com.neeve.sma.MessageView;
+import com.neeve.toa.CompiledTopicResolverProvider;
+import com.neeve.toa.bench.messages.DynamicKeyMessage;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.TopicResolver;
+
+/**
+ * Measures topic resolution by the {@link CompiledTopicResolverProvider}'s resolvers 
+ * in isolation from the send path. 
+ * <p>
+ * The channel key mixes String, long and int key variables so that the allocation 
+ * threshold checks that fields are read without reflection or boxing. 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class TopicResolutionBenchmark {
+
+    private TopicResolver<MessageView> resolver;
+    private DynamicKeyMessage message;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() throws Exception {
+        final ToaService service = ToaService.unmarshal(getClass().getResource("/services/benchmarkService.xml"));
+        final ToaServiceChannel channel = new ToaServiceChannel(service, null, "ResolutionChannel", "bench/${Region}/${Symbol}/${Sequence}/${Quantity}");
+        channel.setInitiallyResolvedKey(channel.getKey());
+        resolver = (TopicResolver<MessageView>)new CompiledTopicResolverProvider().getTopicResolver(service, channel, DynamicKeyMessage.class);
+        resolver.initialize(channel);
+
+        message = DynamicKeyMessage.create();
+        message.setRegion("EMEA");
+        message.setSymbol("VOD.L");
+        message.setSequence(1234567890123L);
+        message.setQuantity(100);
+    }
+
+    @TearDown
+    public void teardown() {
+        if (message != null) {
+            message.dispose();
+            message = null;
+        }
+    }
+
+    /**
+     * Resolves the message's topic from its fields.
+     */
+    @Benchmark
+    public XString resolveTopic() throws Exception {
+        return resolver.resolveTopic(message, (Properties)null);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.neeve.toa.DefaultServiceDefinitionLocator;
+import com.neeve.toa.ToaException;
+import com.neeve.toa.tools.ServiceIndexGenerator;
+
+/**
+ * Generates a service definition index ({@value DefaultServiceDefinitionLocator#SERVICE_INDEX_RESOURCE}) 
+ * for the service definitions in a project's <code>services</code> output directory. 
+ * <p>
+ * When an index is present on the classpath, the {@link DefaultServiceDefinitionLocator} reads 
+ * the services it lists rather than scanning and validating every xml file on the classpath. 
+ * 
+ * @see ServiceIndexGenerator
+ */
+@Mojo(name = "index-services", defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
+public class IndexServicesMojo extends AbstractMojo {
+    /**
+     * The classes directory containing the <code>services</code> directory to index. The index 
+     * is written to this directory.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File outputDirectory;
+
+    /**
+     * Whether to fail the build if the services directory contains xml that isn't a valid 
+     * service definition. Otherwise such files are left out of the index.
+     */
+    @Parameter(property = "hornet.index.failOnInvalid", defaultValue = "false")
+    private boolean failOnInvalid;
+
+    /**
+     * Skips generation of the index.
+     */
+    @Parameter(property = "hornet.index.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping service definition indexing");
+            return;
+        }
+
+        // the parser loads the service schema and jaxb classes from the plugin's class loader:
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(ServiceIndexGenerator.class.getClassLoader());
+        try {
+            final List<String> indexed = ServiceIndexGenerator.generate(outputDirectory, failOnInvalid);
+            getLog().info("Indexed " + indexed.size() + " service definition(s) in " + outputDirectory);
+        }
+        catch (ToaException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Failed to generate service definition index in " + outputDirectory, e);
+        }
+        finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates compiled event dispatchers for event handler containers. 
+ * <p>
+ * For each concrete class that declares or inherits <code>@EventHandler</code> methods this 
+ * processor generates a <code>&lt;ContainerBinaryName&gt;$HornetDispatcher</code> class in the 
+ * container's package that extends <code>com.neeve.toa.CompiledEventDispatcher</code>. The 
+ * generated dispatcher declares a single message handler that switches on the message's 
+ * factory id and type id (which together make up its unique message id) and invokes the 
+ * container's handlers for the type directly, along with a forwarding handler for each of 
+ * the container's non message event handlers. A TopicOrientedApplication registers the 
+ * generated dispatcher with its engine in place of the container. 
+ * <p>
+ * The generated handlers carry the attribute values (e.g. <code>localOnly</code>) with which 
+ * the container's handlers are annotated. Message handlers annotated with different attribute 
+ * values are dispatched to by separate generated message handlers, one for each distinct set of
+ * attribute values, each of which switches only on the message types of its own handlers. 
+ * <p>
+ * A dispatcher is not generated (and the container is dispatched to reflectively) if any 
+ * of the container's handlers can't be invoked from generated code in the container's 
+ * package, or if a handled message type doesn't carry the <code>AdmFactoryInfo</code> annotation
+ * from which its ids are read. Handlers declared by <code>TopicOrientedApplication</code> itself are
+ * excluded; the application registers those on its own. 
+ * <p>
+ * To use the processor, add this module to the application's compile classpath, for example 
+ * as a <code>provided</code> scoped dependency. 
+ */
+@SupportedAnnotationTypes("*")
+public class EventDispatcherProcessor extends AbstractProcessor {
+    /**
+     * The suffix appended to a container's binary name to name its dispatcher 
+     * (must match <code>CompiledEventDispatcher.CLASS_NAME_SUFFIX</code>).
+     */
+    static final String CLASS_NAME_SUFFIX = "$HornetDispatcher";
+
+    private static final String EVENT_HANDLER_ANNOTATION = "com.neeve.aep.annotations.EventHandler";
+    private static final String FACTORY_INFO_ANNOTATION = "com.neeve.adm.runtime.annotations.AdmFactoryInfo";
+    private static final String MESSAGE_VIEW = "com.neeve.sma.MessageView";
+    private static final String DISPATCHER_BASE_CLASS = "com.neeve.toa.CompiledEventDispatcher";
+    private static final String APPLICATION_CLASS = "com.neeve.toa.TopicOrientedApplication";
+
+    /**
+     * A handler method to be invoked by a generated dispatcher.
+     */
+    private static final class Handler {
+        final ExecutableElement method;
+        final String annotation; // the handler's EventHandler annotation, as source
+        final String parameterType;
+        final boolean typedMessage;
+        final int factoryId; // only for typed message handlers
+        final int typeId; // only for typed message handlers
+
+        Handler(final ExecutableElement method, final String annotation, final String parameterType) {
+            this.method = method;
+            this.annotation = annotation;
+            this.parameterType = parameterType;
+            this.typedMessage = false;
+            this.factoryId = 0;
+            this.typeId = 0;
+        }
+
+        Handler(final ExecutableElement method, final String annotation, final String parameterType, final int factoryId, final int typeId) {
+            this.method = method;
+            this.annotation = annotation;
+            this.parameterType = parameterType;
+            this.typedMessage = true;
+            this.factoryId = factoryId;
+            this.typeId = typeId;
+        }
+    }
+
+    /**
+     * Thrown when a dispatcher can't be generated for a container. 
+     */
+    private static final class UnsupportedContainerException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedContainerException(final String reason) {
+            super(reason);
+        }
+    }
+
+    private final Set<String> processed = new HashSet<String>();
+
+    /* (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /* (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
+     */
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        if (processingEnv.getElementUtils().getTypeElement(DISPATCHER_BASE_CLASS) == null) {
+            // hornet isn't on the classpath, nothing to do:
+            return false;
+        }
+
+        final List<TypeElement> types = new ArrayList<TypeElement>();
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collectTypes(type, types);
+        }
+
+        for (TypeElement type : types) {
+            if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            final TypeElement superclass = superclassOf(type);
+            if (superclass != null && superclass.getQualifiedName().contentEquals(DISPATCHER_BASE_CLASS)) {
+                // a generated dispatcher:
+                continue;
+            }
+            final String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+            if (!processed.add(binaryName)) {
+                continue;
+            }
+
+            try {
+                final List<Handler> handlers = findHandlers(type);
+                if (!handlers.isEmpty()) {
+                    generateDispatcher(type, binaryName, handlers);
+                }
+            }
+            catch (UnsupportedContainerException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No compiled event dispatcher generated for '" + type.getQualifiedName() + "', it will be dispatched to reflectively: " + e.getMessage(), type);
+            }
+            catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to generate compiled event dispatcher for '" + type.getQualifiedName() + "': " + e.getMessage(), type);
+            }
+        }
+
+        // other processors may be interested in the same elements:
+        return false;
+    }
+
+    private static void collectTypes(final TypeElement type, final List<TypeElement> types) {
+        types.add(type);
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collectTypes(member, types);
+        }
+    }
+
+    /**
+     * Finds the handlers to be invoked by a container's dispatcher, base class handlers first. 
+     */
+    private List<Handler> findHandlers(final TypeElement container) throws UnsupportedContainerException {
+        final Elements elements = processingEnv.getElementUtils();
+        final Types types = processingEnv.getTypeUtils();
+        final TypeElement messageViewElement = elements.getTypeElement(MESSAGE_VIEW);
+        final TypeMirror messageView = messageViewElement != null ? types.erasure(messageViewElement.asType()) : null;
+        final PackageElement containerPackage = elements.getPackageOf(container);
+
+        for (Element element = container; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new UnsupportedContainerException("the class is not accessible from its package");
+            }
+        }
+
+        // walk from the container up, skipping methods overridden lower in the hierarchy:
+        final List<List<Handler>> handlersByLevel = new ArrayList<List<Handler>>();
+        final Set<String> signatures = new HashSet<String>();
+        for (TypeElement type = container; type != null; type = superclassOf(type)) {
+            final String typeName = type.getQualifiedName().toString();
+            if (typeName.equals(APPLICATION_CLASS) || typeName.equals(Object.class.getName())) {
+                break;
+            }
+
+            final List<Handler> levelHandlers = new ArrayList<Handler>();
+            for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                final AnnotationMirror eventHandler = findAnnotation(method, EVENT_HANDLER_ANNOTATION);
+                if (eventHandler == null) {
+                    continue;
+                }
+                final String annotation = annotationSource(eventHandler);
+
+                final String methodDescription = typeName + "." + method.getSimpleName();
+                if (method.getParameters().size() != 1) {
+                    throw new UnsupportedContainerException("handler '" + methodDescription + "' doesn't take a single parameter");
+                }
+                final TypeMirror parameterType = types.erasure(method.getParameters().get(0).asType());
+                if (!signatures.add(method.getSimpleName() + "(" + parameterType + ")")) {
+                    continue;
+                }
+
+                if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                    throw new UnsupportedContainerException("handler '" + methodDescription + "' is private");
+                }
+                if (!method.getModifiers().contains(Modifier.PUBLIC) && !elements.getPackageOf(type).equals(containerPackage)) {
+                    throw new UnsupportedContainerException("handler '" + methodDescription + "' is not accessible from the container's package");
+                }
+                if (parameterType.getKind() != TypeKind.DECLARED) {
+                    throw new UnsupportedContainerException("handler '" + methodDescription + "' doesn't take an event or message");
+                }
+                final TypeElement parameterElement = (TypeElement)((DeclaredType)parameterType).asElement();
+                if (!parameterElement.getModifiers().contains(Modifier.PUBLIC) && !elements.getPackageOf(parameterElement).equals(containerPackage)) {
+                    throw new UnsupportedContainerException("the type handled by '" + methodDescription + "' is not accessible from the container's package");
+                }
+
+                if (messageView != null && types.isSameType(parameterType, messageView)) {
+                    // generic message handler:
+                    levelHandlers.add(new Handler(method, annotation, MESSAGE_VIEW));
+                }
+                else if (messageView != null && types.isAssignable(parameterType, messageView)) {
+                    // typed message handler, dispatched by unique message id:
+                    final AnnotationMirror factoryInfo = findAnnotation(parameterElement, FACTORY_INFO_ANNOTATION);
+                    if (parameterElement.getKind() != ElementKind.CLASS || factoryInfo == null) {
+                        throw new UnsupportedContainerException("the message type handled by '" + methodDescription + "' has no AdmFactoryInfo annotation");
+                    }
+                    levelHandlers.add(new Handler(method, annotation, parameterElement.getQualifiedName().toString(), intValue(factoryInfo, "vfid"), intValue(factoryInfo, "typeId")));
+                }
+                else {
+                    // other events are forwarded:
+                    levelHandlers.add(new Handler(method, annotation, parameterElement.getQualifiedName().toString()));
+                }
+            }
+            handlersByLevel.add(levelHandlers);
+        }
+
+        final List<Handler> handlers = new ArrayList<Handler>();
+        Collections.reverse(handlersByLevel);
+        for (List<Handler> levelHandlers : handlersByLevel) {
+            handlers.addAll(levelHandlers);
+        }
+        return handlers;
+    }
+
+    private static TypeElement superclassOf(final TypeElement type) {
+        final TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement)((DeclaredType)superclass).asElement() : null;
+    }
+
+    private static AnnotationMirror findAnnotation(final Element element, final String annotationType) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement)annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationType)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renders an annotation as source, with the attribute values explicitly specified for it 
+     * (sorted by attribute name so that equal annotations render equally). 
+     */
+    private static String annotationSource(final AnnotationMirror annotation) {
+        final TreeMap<String, String> values = new TreeMap<String, String>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+            values.put(entry.getKey().getSimpleName().toString(), entry.getValue().toString());
+        }
+
+        final StringBuilder source = new StringBuilder("@").append(((TypeElement)annotation.getAnnotationType().asElement()).getQualifiedName());
+        if (!values.isEmpty()) {
+            source.append("(");
+            for (Map.Entry<String, String> value : values.entrySet()) {
+                source.append(value.getKey()).append(" = ").append(value.getValue()).append(", ");
+            }
+            source.setLength(source.length() - 2);
+            source.append(")");
+        }
+        return source.toString();
+    }
+
+    private int intValue(final AnnotationMirror annotation, final String name) throws UnsupportedContainerException {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name) && entry.getValue().getValue() instanceof Integer) {
+                return (Integer)entry.getValue().getValue();
+            }
+        }
+        throw new UnsupportedContainerException("no '" + name + "' value in '" + annotation + "'");
+    }
+
+    /**
+     * Writes the dispatcher source for a container. 
+     */
+    private void generateDispatcher(final TypeElement container, final String binaryName, final List<Handler> handlers) throws IOException {
+        final Elements elements = processingEnv.getElementUtils();
+        final PackageElement containerPackage = elements.getPackageOf(container);
+        final String packageName = containerPackage.isUnnamed() ? "" : containerPackage.getQualifiedName().toString();
+        final String simpleName = (packageName.length() > 0 ? binaryName.substring(packageName.length() + 1) : binaryName) + CLASS_NAME_SUFFIX;
+        final String containerType = container.getQualifiedName().toString();
+
+        // message handlers grouped by annotation, event handlers by generated handler name:
+        final LinkedHashMap<String, List<Handler>> messageHandlersByAnnotation = new LinkedHashMap<String, List<Handler>>();
+        final LinkedHashMap<Handler, String> eventHandlers = new LinkedHashMap<Handler, String>();
+        for (Handler handler : handlers) {
+            if (handler.typedMessage || handler.parameterType.equals(MESSAGE_VIEW)) {
+                List<Handler> messageHandlers = messageHandlersByAnnotation.get(handler.annotation);
+                if (messageHandlers == null) {
+                    messageHandlersByAnnotation.put(handler.annotation, messageHandlers = new ArrayList<Handler>());
+                }
+                messageHandlers.add(handler);
+            }
+            else {
+                eventHandlers.put(handler, "onEvent" + eventHandlers.size());
+            }
+        }
+
+        final StringBuilder source = new StringBuilder();
+        if (packageName.length() > 0) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n");
+        source.append(" * Compiled event dispatcher for {@link ").append(containerType).append("}.\n");
+        source.append(" * <p>\n");
+        source.append(" * Generated by ").append(getClass().getName()).append(", do not edit.\n");
+        source.append(" */\n");
+        source.append("public final class ").append(simpleName).append(" extends ").append(DISPATCHER_BASE_CLASS).append(" {\n");
+        source.append("    private final ").append(containerType).append(" container;\n\n");
+        source.append("    public ").append(simpleName).append("(final ").append(containerType).append(" container) {\n");
+        source.append("        super(container);\n");
+        source.append("        this.container = container;\n");
+        source.append("    }\n");
+
+        int messageHandlerIndex = 0;
+        for (Map.Entry<String, List<Handler>> entry : messageHandlersByAnnotation.entrySet()) {
+            final String name = messageHandlersByAnnotation.size() == 1 ? "onMessage" : "onMessage" + messageHandlerIndex++;
+            appendMessageHandler(source, name, entry.getKey(), entry.getValue());
+        }
+
+        for (Map.Entry<Handler, String> entry : eventHandlers.entrySet()) {
+            final Handler handler = entry.getKey();
+            source.append("\n    ").append(handler.annotation).append("\n");
+            source.append("    public final void ").append(entry.getValue()).append("(final ").append(handler.parameterType).append(" event)").append(!handler.method.getThrownTypes().isEmpty() ? " throws Throwable" : "").append(" {\n");
+            source.append("        container.").append(handler.method.getSimpleName()).append("(event);\n");
+            source.append("    }\n");
+        }
+        source.append("}\n");
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile((packageName.length() > 0 ? packageName + "." : "") + simpleName, container);
+        final Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        }
+        finally {
+            writer.close();
+        }
+
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Generated compiled event dispatcher '" + simpleName + "' for '" + containerType + "'.", container);
+    }
+
+    /**
+     * Appends a generated message handler that dispatches to the given typed and generic message handlers. 
+     */
+    private static void appendMessageHandler(final StringBuilder source, final String name, final String annotation, final List<Handler> handlers) {
+        // typed message handlers grouped by factory id and then type id:
+        final TreeMap<Integer, TreeMap<Integer, List<Handler>>> messageHandlers = new TreeMap<Integer, TreeMap<Integer, List<Handler>>>();
+        final List<Handler> genericMessageHandlers = new ArrayList<Handler>();
+        boolean messageHandlersThrow = false;
+        for (Handler handler : handlers) {
+            if (handler.typedMessage) {
+                TreeMap<Integer, List<Handler>> factoryHandlers = messageHandlers.get(handler.factoryId);
+                if (factoryHandlers == null) {
+                    messageHandlers.put(handler.factoryId, factoryHandlers = new TreeMap<Integer, List<Handler>>());
+                }
+                List<Handler> typeHandlers = factoryHandlers.get(handler.typeId);
+                if (typeHandlers == null) {
+                    factoryHandlers.put(handler.typeId, typeHandlers = new ArrayList<Handler>());
+                }
+                typeHandlers.add(handler);
+            }
+            else {
+                genericMessageHandlers.add(handler);
+            }
+            messageHandlersThrow |= !handler.method.getThrownTypes().isEmpty();
+        }
+
+        source.append("\n    ").append(annotation).append("\n");
+        source.append("    public final void ").append(name).append("(final ").append(MESSAGE_VIEW).append(" message)").append(messageHandlersThrow ? " throws Throwable" : "").append(" {\n");
+        if (!messageHandlers.isEmpty()) {
+            source.append("        switch (message.getVfid()) {\n");
+            for (Map.Entry<Integer, TreeMap<Integer, List<Handler>>> factory : messageHandlers.entrySet()) {
+                source.append("            case ").append(factory.getKey()).append(":\n");
+                source.append("                switch (message.getType()) {\n");
+                for (Map.Entry<Integer, List<Handler>> type : factory.getValue().entrySet()) {
+                    source.append("                    case ").append(type.getKey()).append(":\n");
+                    for (Handler handler : type.getValue()) {
+                        source.append("                        container.").append(handler.method.getSimpleName()).append("((").append(handler.parameterType).append(")message);\n");
+                    }
+                    source.append("                        break;\n");
+                }
+                source.append("                }\n");
+                source.append("                break;\n");
+            }
+            source.append("        }\n");
+        }
+        for (Handler handler : genericMessageHandlers) {
+            source.append("        container.").append(handler.method.getSimpleName()).append("(message);\n");
+        }
+        source.append("    }\n");
+    }
+
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates compiled field accessors for message types. 
+ * <p>
+ * For each public concrete class that carries the <code>AdmFactoryInfo</code> annotation (i.e. each 
+ * generated message type) this processor generates a <code>&lt;MessageBinaryName&gt;$HornetFieldAccessors</code> 
+ * class in the message type's package that extends <code>com.neeve.toa.CompiledFieldAccessors</code>. The 
+ * generated class reads each field that has a public no argument getter by its index, switching on the
+ * index to invoke the getter (and the field's <code>has</code> method, if it has one) directly. Compiled topic
+ * resolution and shard assignment read message fields through the generated class instead of reflectively. 
+ * <p>
+ * To use the processor, add this module to the compile classpath of the module that compiles the 
+ * message types, for example as a <code>provided</code> scoped dependency. 
+ */
+@SupportedAnnotationTypes("*")
+public class FieldAccessorProcessor extends AbstractProcessor {
+    /**
+     * The suffix appended to a message type's binary name to name its field accessors
+     * (must match <code>CompiledFieldAccessors.CLASS_NAME_SUFFIX</code>).
+     */
+    static final String CLASS_NAME_SUFFIX = "$HornetFieldAccessors";
+
+    private static final String FACTORY_INFO_ANNOTATION = "com.neeve.adm.runtime.annotations.AdmFactoryInfo";
+    private static final String ACCESSORS_BASE_CLASS = "com.neeve.toa.CompiledFieldAccessors";
+
+    /**
+     * The type of value that a field is read as (must match <code>MessageFieldAccessor.Kind</code>).
+     */
+    private static enum Kind {
+        INT,
+        LONG,
+        OBJECT
+    }
+
+    /**
+     * A field read by generated accessors.
+     */
+    private static final class Field {
+        final String getter;
+        final String hasser; // null if the field has no has method
+        final Kind kind;
+
+        Field(final String getter, final String hasser, final Kind kind) {
+            this.getter = getter;
+            this.hasser = hasser;
+            this.kind = kind;
+        }
+    }
+
+    private final Set<String> processed = new HashSet<String>();
+
+    /* (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /* (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
+     */
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        if (processingEnv.getElementUtils().getTypeElement(ACCESSORS_BASE_CLASS) == null) {
+            // hornet isn't on the classpath, nothing to do:
+            return false;
+        }
+
+        final List<TypeElement> types = new ArrayList<TypeElement>();
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collectTypes(type, types);
+        }
+
+        for (TypeElement type : types) {
+            if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT) || findAnnotation(type, FACTORY_INFO_ANNOTATION) == null) {
+                continue;
+            }
+            if (!isAccessible(type)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No compiled field accessors generated for '" + type.getQualifiedName() + "', it isn't public, its fields will be read reflectively.", type);
+                continue;
+            }
+            final String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+            if (!processed.add(binaryName)) {
+                continue;
+            }
+
+            try {
+                final Map<String, Field> fields = findFields(type);
+                if (!fields.isEmpty()) {
+                    generateAccessors(type, binaryName, fields);
+                }
+            }
+            catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to generate compiled field accessors for '" + type.getQualifiedName() + "': " + e.getMessage(), type);
+            }
+        }
+
+        // other processors may be interested in the same elements:
+        return false;
+    }
+
+    private static void collectTypes(final TypeElement type, final List<TypeElement> types) {
+        types.add(type);
+        for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collectTypes(member, types);
+        }
+    }
+
+    private static boolean isAccessible(final TypeElement type) {
+        for (Element element = type; element.getKind() != ElementKind.PACKAGE; element = element.getEnclosingElement()) {
+            if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            if (element != type && !element.getModifiers().contains(Modifier.STATIC) && element.getKind() == ElementKind.CLASS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AnnotationMirror findAnnotation(final Element element, final String annotationType) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement)annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationType)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the fields of a message type, keyed by capitalized field name: those with a public, 
+     * non static, no argument <code>get</code> method (declared or inherited, other than by 
+     * <code>java.lang.Object</code>). 
+     */
+    private Map<String, Field> findFields(final TypeElement type) {
+        final Elements elements = processingEnv.getElementUtils();
+        final Map<String, ExecutableElement> getters = new LinkedHashMap<String, ExecutableElement>();
+        final Set<String> hassers = new HashSet<String>();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            final Set<Modifier> modifiers = method.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC) || !method.getParameters().isEmpty()) {
+                continue;
+            }
+            if (((TypeElement)method.getEnclosingElement()).getQualifiedName().contentEquals(Object.class.getName())) {
+                continue;
+            }
+
+            final String name = method.getSimpleName().toString();
+            if (name.startsWith("get") && name.length() > 3 && method.getReturnType().getKind() != TypeKind.VOID) {
+                getters.put(name.substring(3), method);
+            }
+            else if (name.startsWith("has") && name.length() > 3 && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+                hassers.add(name.substring(3));
+            }
+        }
+
+        final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+        for (Map.Entry<String, ExecutableElement> getter : getters.entrySet()) {
+            final TypeKind returnType = getter.getValue().getReturnType().getKind();
+            final Kind kind = returnType == TypeKind.INT || returnType == TypeKind.SHORT || returnType == TypeKind.BYTE ? Kind.INT : returnType == TypeKind.LONG ? Kind.LONG : Kind.OBJECT;
+            fields.put(getter.getKey(), new Field(getter.getValue().getSimpleName().toString(), hassers.contains(getter.getKey()) ? "has" + getter.getKey() : null, kind));
+        }
+        return fields;
+    }
+
+    /**
+     * Writes the field accessors source for a message type. 
+     */
+    private void generateAccessors(final TypeElement type, final String binaryName, final Map<String, Field> fields) throws IOException {
+        final PackageElement messagePackage = processingEnv.getElementUtils().getPackageOf(type);
+        final String packageName = messagePackage.isUnnamed() ? "" : messagePackage.getQualifiedName().toString();
+        final String simpleName = (packageName.length() > 0 ? binaryName.substring(packageName.length() + 1) : binaryName) + CLASS_NAME_SUFFIX;
+        final String messageType = type.getQualifiedName().toString();
+
+        final StringBuilder source = new StringBuilder();
+        if (packageName.length() > 0) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n");
+        source.append(" * Compiled field accessors for {@link ").append(messageType).append("}.\n");
+        source.append(" * <p>\n");
+        source.append(" * Generated by ").append(getClass().getName()).append(", do not edit.\n");
+        source.append(" */\n");
+        source.append("public final class ").append(simpleName).append(" extends ").append(ACCESSORS_BASE_CLASS).append(" {\n");
+        source.append("    public ").append(simpleName).append("() {\n");
+        source.append("        super(");
+        int index = 0;
+        for (String field : fields.keySet()) {
+            source.append(index++ > 0 ? ", " : "").append("\"").append(field).append("\"");
+        }
+        source.append(");\n");
+        source.append("    }\n");
+
+        source.append("\n    @Override\n");
+        source.append("    public final boolean isSet(final int field, final Object message) {\n");
+        source.append("        switch (field) {\n");
+        index = 0;
+        for (Field field : fields.values()) {
+            if (field.hasser != null) {
+                source.append("            case ").append(index).append(":\n");
+                source.append("                return ((").append(messageType).append(")message).").append(field.hasser).append("();\n");
+            }
+            index++;
+        }
+        source.append("            default:\n");
+        source.append("                return true;\n");
+        source.append("        }\n");
+        source.append("    }\n");
+
+        appendGetter(source, "int", "getInt", Kind.INT, messageType, fields);
+        appendGetter(source, "long", "getLong", Kind.LONG, messageType, fields);
+        appendGetter(source, "Object", "getObject", Kind.OBJECT, messageType, fields);
+        source.append("}\n");
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile((packageName.length() > 0 ? packageName + "." : "") + simpleName, type);
+        final Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        }
+        finally {
+            writer.close();
+        }
+
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Generated compiled field accessors '" + simpleName + "' for '" + messageType + "'.", type);
+    }
+
+    private static void appendGetter(final StringBuilder source, final String returnType, final String name, final Kind kind, final String messageType, final Map<String, Field> fields) {
+        source.append("\n    @Override\n");
+        source.append("    public final ").append(returnType).append(" ").append(name).append("(final int field, final Object message) {\n");
+        source.append("        switch (field) {\n");
+        int index = 0;
+        for (Field field : fields.values()) {
+            if (field.kind == kind) {
+                source.append("            case ").append(index).append(":\n");
+                source.append("                return ((").append(messageType).append(")message).").append(field.getter).append("();\n");
+            }
+            index++;
+        }
+        source.append("            default:\n");
+        source.append("                throw new UnsupportedOperationException(\"field \" + field + \" of '").append(messageType).append("' is not read with ").append(name).append("\");\n");
+        source.append("        }\n");
+        source.append("    }\n");
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.lang.reflect.Constructor;
+
+import com.neeve.aep.annotations.EventHandler;
+
+/**
+ * Base class for compiled event dispatchers. 
+ * <p>
+ * A compiled event dispatcher is generated at build time for an {@link EventHandler} container 
+ * by the Hornet annotation processor (the <code>nvx-hornet-processor</code> module), and is named
+ * after the container's binary name with a {@value #CLASS_NAME_SUFFIX} suffix. The dispatcher 
+ * declares a single message handler that switches on the unique id (factory id and type id) 
+ * of the message being dispatched and invokes the container's handlers for the message type 
+ * directly, and a forwarding handler for each of the container's other event handlers. 
+ * <p>
+ * When {@link TopicOrientedApplication#PROP_ENABLE_COMPILED_EVENT_DISPATCH} is enabled, a 
+ * {@link TopicOrientedApplication} registers a container's compiled dispatcher with its engine
+ * in place of the container, so that message dispatch to the container costs a single reflective
+ * invocation of the dispatcher followed by monomorphic calls that the JIT can inline, rather than
+ * a reflective invocation per handler. Containers for which no dispatcher was generated are
+ * dispatched to reflectively. 
+ * <p>
+ * Dispatchers are not intended to be subclassed by applications. 
+ */
+public abstract class CompiledEventDispatcher {
+    /**
+     * The suffix appended to a container's binary name to name its compiled dispatcher ({@value #CLASS_NAME_SUFFIX}).
+     */
+    public static final String CLASS_NAME_SUFFIX = "$HornetDispatcher";
+
+    private final Object container;
+
+    /**
+     * Creates a dispatcher. 
+     * 
+     * @param container The container to which the dispatcher dispatches.
+     */
+    protected CompiledEventDispatcher(final Object container) {
+        this.container = container;
+    }
+
+    /**
+     * @return The container to which this dispatcher dispatches. 
+     */
+    public final Object getContainer() {
+        return container;
+    }
+
+    /**
+     * Creates the compiled dispatcher for a container. 
+     * 
+     * @param container The event handler container.
+     * @return The container's compiled dispatcher or <code>null</code> if none was generated for the container's class. 
+     * @throws ToaException If the container's dispatcher can't be created.
+     */
+    static CompiledEventDispatcher forContainer(final Object container) {
+        final Class<?> containerClass = container.getClass();
+        if (containerClass.getClassLoader() == null) {
+            return null;
+        }
+
+        final Class<?> dispatcherClass;
+        try {
+            dispatcherClass = Class.forName(containerClass.getName() + CLASS_NAME_SUFFIX, true, containerClass.getClassLoader());
+        }
+        catch (ClassNotFoundException e) {
+            return null;
+        }
+        if (!CompiledEventDispatcher.class.isAssignableFrom(dispatcherClass)) {
+            return null;
+        }
+
+        try {
+            final Constructor<?> constructor = dispatcherClass.getConstructor(containerClass);
+            return (CompiledEventDispatcher)constructor.newInstance(container);
+        }
+        catch (Exception e) {
+            throw new ToaException("Failed to create compiled event dispatcher '" + dispatcherClass.getName() + "' for '" + containerClass.getName() + "': " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+/**
+ * Base class for compiled field accessors. 
+ * <p>
+ * Compiled field accessors are generated at build time for a message type by the Hornet annotation 
+ * processor (the <code>nvx-hornet-processor</code> module), and are named after the message type's 
+ * binary name with a {@value #CLASS_NAME_SUFFIX} suffix. They read each of the message type's fields 
+ * that has a getter by its index, switching on the index to invoke the getter (and the field's 
+ * <code>has</code> method, if it has one) directly. Integral fields are read as primitives. 
+ * <p>
+ * A {@link MessageFieldAccessor} for a field of a message type reads the field through the type's 
+ * compiled field accessors. Fields of message types for which none were generated are read reflectively. 
+ * <p>
+ * Compiled field accessors are not intended to be subclassed by applications. 
+ * 
+ * @threading Compiled field accessors are stateless and safe for concurrent use. 
+ */
+public abstract class CompiledFieldAccessors {
+    /**
+     * The suffix appended to a message type's binary name to name its compiled field accessors ({@value #CLASS_NAME_SUFFIX}).
+     */
+    public static final String CLASS_NAME_SUFFIX = "$HornetFieldAccessors";
+
+    private final String[] fields;
+
+    /**
+     * Creates compiled field accessors. 
+     * 
+     * @param fields The capitalized names of the fields (e.g. <code>Symbol</code> for <code>getSymbol()</code>) in index order. 
+     */
+    protected CompiledFieldAccessors(final String... fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Tests whether a field is set. 
+     * 
+     * @param field The field's index.
+     * @param message The message. 
+     * @return <code>true</code> if the field is set (or if the message type can't tell).
+     */
+    public abstract boolean isSet(final int field, final Object message);
+
+    /**
+     * Reads an <code>int</code>, <code>short</code> or <code>byte</code> field.
+     * 
+     * @param field The field's index.
+     * @param message The message. 
+     * @return The field's value. 
+     */
+    public abstract int getInt(final int field, final Object message);
+
+    /**
+     * Reads a <code>long</code> field.
+     * 
+     * @param field The field's index.
+     * @param message The message. 
+     * @return The field's value. 
+     */
+    public abstract long getLong(final int field, final Object message);
+
+    /**
+     * Reads any other field (boxing primitives). 
+     * 
+     * @param field The field's index.
+     * @param message The message. 
+     * @return The field's value. 
+     */
+    public abstract Object getObject(final int field, final Object message);
+
+    /**
+     * Looks up the index of a field. 
+     * 
+     * @param field The capitalized name of the field. 
+     * @return The field's index or -1 if it has no compiled accessor. 
+     */
+    final int indexOf(final String field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the compiled field accessors for a message type. 
+     * 
+     * @param messageType The message type.
+     * @return The message type's compiled field accessors or <code>null</code> if none were generated for it. 
+     * @throws ToaException If the message type's compiled field accessors can't be created.
+     */
+    static CompiledFieldAccessors forClass(final Class<?> messageType) {
+        if (messageType.getClassLoader() == null) {
+            return null;
+        }
+
+        final Class<?> accessorsClass;
+        try {
+            accessorsClass = Class.forName(messageType.getName() + CLASS_NAME_SUFFIX, true, messageType.getClassLoader());
+        }
+        catch (ClassNotFoundException e) {
+            return null;
+        }
+        if (!CompiledFieldAccessors.class.isAssignableFrom(accessorsClass)) {
+            return null;
+        }
+
+        try {
+            return (CompiledFieldAccessors)accessorsClass.newInstance();
+        }
+        catch (Exception e) {
+            throw new ToaException("Failed to create compiled field accessors '" + accessorsClass.getName() + "' for '" + messageType.getName() + "': " + e.getMessage(), e);
+        }
+    }
+}
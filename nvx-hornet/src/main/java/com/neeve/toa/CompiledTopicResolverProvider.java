@@ -0,0 +1,316 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.neeve.ci.XRuntime;
+import com.neeve.lang.XString;
+import com.neeve.sma.MessageChannel;
+import com.neeve.sma.MessageChannel.RawKeyResolutionTable;
+import com.neeve.sma.MessageView;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.AbstractTopicResolver;
+import com.neeve.toa.spi.TopicResolver;
+import com.neeve.toa.spi.TopicResolverProvider;
+import com.neeve.trace.Tracer;
+
+/**
+ * A {@link TopicResolverProvider} that compiles service channel keys into topic templates. 
+ * <p>
+ * Each channel key (after initial key resolution) is parsed once at startup into a list of 
+ * literal segments and key variables. Variables are bound to the generated getter of the 
+ * message's field of the same name (e.g. <code>${Symbol}</code> is bound to <code>getSymbol()</code>)
+ * through a {@link MessageFieldAccessor}, so that resolving a topic at send time is a simple walk of the 
+ * template that appends into a topic {@link XString} that is reused for every send of the message type 
+ * and does not use regular expressions. Fields are read without reflection when the message type has 
+ * compiled field accessors (see {@link CompiledFieldAccessors}), and integral fields are appended without 
+ * boxing. String fields are appended as returned by their getter, which may create the String, and other 
+ * field values are converted with <code>String.valueOf</code>. 
+ * <p>
+ * Key variables are resolved in the following order: 
+ * <ol>
+ * <li>From the message field bound to the variable, if the message has a field of that name and the field is set.
+ * <li>From the key resolution table supplied with the send, if one was supplied.
+ * <li>From the default value in the key variable, e.g. <code>${Symbol::NONE}</code>.
+ * </ol>
+ * If a variable can't be resolved, topic resolution fails with an exception.
+ * <p>
+ * {@link TopicOrientedApplication} uses this provider for messages for which no application provided 
+ * {@link TopicResolverProvider} supplies a {@link TopicResolver} when 
+ * {@link TopicOrientedApplication#PROP_ENABLE_COMPILED_TOPIC_RESOLUTION} is set to <code>true</code>. 
+ * <p>
+ * Channels for which {@link MessageChannel#PROP_CLEAN_MESSAGE_KEY} is enabled are left to the message
+ * bus's own key resolution. 
+ * <p>
+ * When the application is partitioned (see {@link ShardAssignment}), the {@value ShardAssignment#KEY_VARIABLE} 
+ * variable is resolved to the index of the shard that owns the message. Likewise, when 
+ * {@link TopicOrientedApplication#PROP_PARTITION_FIELD} is set, the partition key variable (see 
+ * {@link TopicOrientedApplication#PROP_PARTITION_KEY_VARIABLE}) is resolved to the partition of the message. 
+ * 
+ * <i><b>Note</b>Topic Resolvers are currently an experimental feature</i>
+ */
+public final class CompiledTopicResolverProvider implements TopicResolverProvider {
+
+    /**
+     * A key variable bound (if possible) to a message field getter. 
+     */
+    private static final class KeyVariable {
+        final String name;
+        final String defaultValue;
+        final MessagePartitioner partitioner; // non null if this is the shard or partition variable
+        final MessageFieldAccessor accessor;
+
+        KeyVariable(final String name, final String defaultValue, final Class<?> messageType, final List<MessagePartitioner> partitioners) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            MessagePartitioner partitioner = null;
+            for (MessagePartitioner candidate : partitioners) {
+                if (candidate.getKeyVariable().equals(name)) {
+                    partitioner = candidate;
+                    break;
+                }
+            }
+            this.partitioner = partitioner;
+            this.accessor = partitioner == null ? MessageFieldAccessor.forField(messageType, name) : null;
+        }
+
+        /**
+         * Appends the value of this variable for the given message to the topic. 
+         * 
+         * @return false if the variable could not be resolved. 
+         */
+        final boolean appendTo(final XString topic, final MessageView message, final Properties krt, final RawKeyResolutionTable rawKrt, final boolean allowEmpty) throws Exception {
+            if (partitioner != null) {
+                final int partition = partitioner.partitionOf(message);
+                if (partition >= 0) {
+                    topic.append(partition);
+                    return true;
+                }
+            }
+
+            if (accessor != null && accessor.isSet(message)) {
+                switch (accessor.getKind()) {
+                    case INT:
+                        topic.append(accessor.getInt(message));
+                        return true;
+                    case LONG:
+                        topic.append(accessor.getLong(message));
+                        return true;
+                    default:
+                        final Object value = accessor.getObject(message);
+                        if (value instanceof String) {
+                            final String s = (String)value;
+                            if (s.length() > 0 || allowEmpty) {
+                                topic.append(s);
+                                return true;
+                            }
+                        }
+                        else if (value != null) {
+                            topic.append(String.valueOf(value));
+                            return true;
+                        }
+                }
+            }
+
+            if (rawKrt != null) {
+                final XString value = rawKrt.get(name);
+                if (value != null && (value.length() > 0 || allowEmpty)) {
+                    topic.append(value);
+                    return true;
+                }
+            }
+            else if (krt != null) {
+                final String value = krt.getProperty(name);
+                if (value != null && (value.length() > 0 || allowEmpty)) {
+                    topic.append(value);
+                    return true;
+                }
+            }
+
+            if (defaultValue != null) {
+                topic.append(defaultValue);
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A {@link TopicResolver} backed by a compiled channel key template.
+     */
+    private static final class CompiledTopicResolver extends AbstractTopicResolver<MessageView> {
+        private final Class<?> messageType;
+        private final boolean allowEmpty;
+        private final List<MessagePartitioner> partitioners;
+        private XString topic;
+        private XString[] literals;
+        private KeyVariable[] variables;
+
+        CompiledTopicResolver(final Class<?> messageType, final boolean allowEmpty, final List<MessagePartitioner> partitioners) {
+            this.messageType = messageType;
+            this.allowEmpty = allowEmpty;
+            this.partitioners = partitioners;
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.AbstractTopicResolver#initialize(com.neeve.toa.service.ToaServiceChannel)
+         */
+        @Override
+        public void initialize(final ToaServiceChannel serviceChannel) {
+            super.initialize(serviceChannel);
+            this.channel = serviceChannel;
+            compile(serviceChannel.getInitiallyResolvedKey());
+            if (tracer.isEnabled(Tracer.Level.CONFIG)) {
+                tracer.log("<nv.toa> Compiled topic template for '" + messageType.getName() + "' on channel '" + serviceChannel.getName() + "' (literals=" + literals.length + ", variables=" + variables.length + ").", Tracer.Level.CONFIG);
+            }
+        }
+
+        /**
+         * Splits the key into literal segments and variables. The template alternates 
+         * literal[0], variable[0], literal[1], ... variable[n-1], literal[n] where literal 
+         * segments may be empty. 
+         */
+        private final void compile(final String key) {
+            final ArrayList<String> literalList = new ArrayList<String>();
+            final ArrayList<KeyVariable> variableList = new ArrayList<KeyVariable>();
+            int pos = 0;
+            while (true) {
+                final int start = key.indexOf("${", pos);
+                final int end = start >= 0 ? key.indexOf('}', start + 2) : -1;
+                if (start < 0 || end < 0) {
+                    literalList.add(key.substring(pos));
+                    break;
+                }
+
+                literalList.add(key.substring(pos, start));
+                final String variable = key.substring(start + 2, end);
+                final int defaultIndex = variable.indexOf("::");
+                if (defaultIndex >= 0) {
+                    variableList.add(new KeyVariable(variable.substring(0, defaultIndex), variable.substring(defaultIndex + 2), messageType, partitioners));
+                }
+                else {
+                    variableList.add(new KeyVariable(variable, null, messageType, partitioners));
+                }
+                pos = end + 1;
+            }
+
+            int capacity = 0;
+            literals = new XString[literalList.size()];
+            for (int i = 0; i < literals.length; i++) {
+                literals[i] = XString.create(literalList.get(i), true, true);
+                capacity += literalList.get(i).length();
+            }
+            variables = variableList.toArray(new KeyVariable[variableList.size()]);
+            topic = XString.create(capacity + 32 * variables.length, true, true);
+        }
+
+        private final XString resolve(final MessageView message, final Properties krt, final RawKeyResolutionTable rawKrt) throws Exception {
+            topic.clear();
+            topic.append(literals[0]);
+            for (int i = 0; i < variables.length; i++) {
+                if (!variables[i].appendTo(topic, message, krt, rawKrt, allowEmpty)) {
+                    throw new ToaException("Unable to resolve key variable '" + variables[i].name + "' in key '" + channel.getInitiallyResolvedKey() + "'");
+                }
+                topic.append(literals[i + 1]);
+            }
+            return topic;
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.TopicResolver#resolveTopic(com.neeve.sma.MessageView, com.neeve.sma.MessageChannel.RawKeyResolutionTable)
+         */
+        @Override
+        public final XString resolveTopic(final MessageView message, final RawKeyResolutionTable krt) throws Exception {
+            return resolve(message, null, krt);
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.TopicResolver#resolveTopic(com.neeve.sma.MessageView, java.util.Properties)
+         */
+        @Override
+        public final XString resolveTopic(final MessageView message, final Properties krt) throws Exception {
+            return resolve(message, krt, null);
+        }
+    }
+
+    private final boolean cleanMessageKey;
+    private final boolean allowEmptyKeyField;
+    private final List<MessagePartitioner> partitioners;
+    private final boolean partitionedChannelsOnly;
+
+    /**
+     * Creates a new provider. 
+     */
+    public CompiledTopicResolverProvider() {
+        this(Collections.<MessagePartitioner> emptyList(), false);
+    }
+
+    /**
+     * Creates a new provider for a partitioned application.
+     * 
+     * @param partitioners The partitioners that resolve the shard or partition key variables of sent messages.
+     * @param partitionedChannelsOnly Whether to supply resolvers only for channels keyed by one of the partitioners' variables. 
+     */
+    CompiledTopicResolverProvider(final List<MessagePartitioner> partitioners, final boolean partitionedChannelsOnly) {
+        this.partitioners = partitioners;
+        this.partitionedChannelsOnly = partitionedChannelsOnly;
+        this.cleanMessageKey = XRuntime.getValue(MessageChannel.PROP_CLEAN_MESSAGE_KEY, false);
+        this.allowEmptyKeyField = XRuntime.getValue(MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD, MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD_DEFAULT) &&
+                !XRuntime.getValue(MessageChannel.PROP_TREAT_EMPTY_KEY_FIELD_AS_NULL, MessageChannel.PROP_TREAT_EMPTY_KEY_FIELD_AS_NULL_DEFAULT);
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.spi.TopicResolverProvider#getTopicResolver(com.neeve.toa.service.ToaService, com.neeve.toa.service.ToaServiceChannel, java.lang.Class)
+     */
+    @Override
+    public TopicResolver<?> getTopicResolver(final ToaService service, final ToaServiceChannel channel, final Class<?> messageType) {
+        if (cleanMessageKey || channel.getKey() == null || messageType == null || !MessageView.class.isAssignableFrom(messageType)) {
+            return null;
+        }
+        if (partitionedChannelsOnly && !isPartitioned(channel)) {
+            return null;
+        }
+        return new CompiledTopicResolver(messageType, allowEmptyKeyField, partitioners);
+    }
+
+    /**
+     * Tests whether a channel is keyed by the shard or partition key variable of one of this 
+     * provider's partitioners. 
+     * 
+     * @param channel The channel. 
+     * @return <code>true</code> if the channel is sharded or partitioned.
+     */
+    final boolean isPartitioned(final ToaServiceChannel channel) {
+        for (MessagePartitioner partitioner : partitioners) {
+            if (partitioner.isPartitioned(channel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
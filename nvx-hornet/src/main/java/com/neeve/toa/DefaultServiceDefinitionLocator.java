@@ -21,13 +21,24 @@
  */
 package com.neeve.toa;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import com.neeve.ci.XRuntime;
+import com.neeve.toa.service.ToaServiceModelCache;
 import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
 import com.neeve.toa.spi.ServiceDefinitionLocator;
 import com.neeve.trace.Tracer;
@@ -45,6 +56,19 @@ import com.neeve.util.UtlResource.URLFilter;
  * </ul>
  * This locator will return any .xml file found in the above locations that xml that 
  * validates against the service definition schema x-tsml.xsd.
+ * <p>
+ * When {@link TopicOrientedApplication#PROP_PARALLEL_SERVICE_LOADING} is enabled the candidate 
+ * files are validated in parallel. 
+ * <p>
+ * Classpath elements (jars or directories) can ship a service definition index ({@value #SERVICE_INDEX_RESOURCE}), 
+ * as generated at build time by the <code>index-services</code> goal of the <code>nvx-hornet-maven-plugin</code>.
+ * The services of a classpath element with an index are taken from its index without being validated. Services 
+ * found by scanning the classpath in an element with an index are ignored without being read, the other classpath 
+ * elements are scanned and their services validated as usual. When every classpath element with a <code>services</code> 
+ * directory has an index the classpath isn't scanned at all. 
+ * <p>
+ * Indexed services are only read when {@link #PROP_STRICT_SERVICE_VALIDATION} is enabled, in which case those whose 
+ * content no longer matches the digest recorded in the index (indicating a stale index) are validated. 
  */
 public final class DefaultServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
 
@@ -56,6 +80,9 @@ public final class DefaultServiceDefinitionLocator extends AbstractServiceDefini
      * for this locator are ignored with a warning, when set to <code>true</code>, an exception
      * will be thrown if a file is encountered that is not a valid service definition.
      * <p>
+     * Strict validation also verifies the digests of services listed by service definition indexes 
+     * (see {@link #SERVICE_INDEX_RESOURCE}), which are otherwise trusted without being read. 
+     * <p>
      * <b>Property name:</b> {@value #PROP_STRICT_SERVICE_VALIDATION}
      * <br>
      * <b>Default value:</b> {@value #PROP_STRICT_SERVICE_VALIDATION_DEFAULT}
@@ -96,14 +123,50 @@ public final class DefaultServiceDefinitionLocator extends AbstractServiceDefini
      */
     public static final boolean PROP_SCAN_FOR_CLASSPATH_SERVICES_DEFAULT = true;
 
+    /**
+     * This property controls whether or not the default service definition locator will use service definition 
+     * indexes found on the classpath in place of scanning the classpath elements that contain them. Classpath 
+     * elements without an index are always scanned. 
+     * <p>
+     * This property has no effect if {@link #PROP_SCAN_FOR_CLASSPATH_SERVICES} is <code>false</code>.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_USE_SERVICE_INDEX}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_USE_SERVICE_INDEX_DEFAULT}
+     * <br>
+     * @see #PROP_USE_SERVICE_INDEX_DEFAULT
+     */
+    public static final String PROP_USE_SERVICE_INDEX = "nv.toa.useserviceindex";
+
+    /**
+     * The default value for whether service definition indexes are used ({@value #PROP_USE_SERVICE_INDEX_DEFAULT}).
+     */
+    public static final boolean PROP_USE_SERVICE_INDEX_DEFAULT = true;
+
+    /**
+     * The classpath resource at which service definition indexes are located.
+     * <p>
+     * An index is a UTF-8 text file with one line per service definition of the form
+     * <code>&lt;sha1 digest&gt; &lt;path&gt;</code>, where path is the service definition's 
+     * location relative to the root of the classpath element containing the index. Blank lines
+     * and lines starting with '#' are ignored.
+     */
+    public static final String SERVICE_INDEX_RESOURCE = "META-INF/hornet/services.idx";
+
     private final boolean strictValidation = XRuntime.getValue(PROP_STRICT_SERVICE_VALIDATION, XRuntime.getValue(PROP_STRICT_SERVICE_VALIDATION_DEPRECATED, PROP_STRICT_SERVICE_VALIDATION_DEFAULT));
     private final boolean scanForClassPathServices = XRuntime.getValue(PROP_SCAN_FOR_CLASSPATH_SERVICES, PROP_SCAN_FOR_CLASSPATH_SERVICES_DEFAULT);
+    private final boolean useServiceIndex = XRuntime.getValue(PROP_USE_SERVICE_INDEX, PROP_USE_SERVICE_INDEX_DEFAULT);
+    private final boolean parallelValidation = XRuntime.getValue(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING, TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING_DEFAULT);
 
     private final URLFilter SERVICE_FILTER = new URLFilter() {
 
         @Override
         public boolean filter(URL url) {
-            if (strictValidation) {
+            if (parallelValidation) {
+                // validated later:
+                return !url.getPath().endsWith(".xml");
+            }
+            else if (strictValidation) {
                 if (url.getPath().endsWith(".xml")) {
                     AbstractServiceDefinitionLocator.validateServiceDefinitionFile(url);
                     return false;
@@ -130,21 +193,182 @@ public final class DefaultServiceDefinitionLocator extends AbstractServiceDefini
      * <li>classpath://services/*.xml
      * </ul>
      * This locator will return any .xml file found in the above locations that xml that 
-     * validates against the service definition schema x-tsml.xsd.
+     * validates against the service definition schema x-tsml.xsd. The services of classpath 
+     * elements that have a service definition index are taken from their index rather than 
+     * validated by scanning the classpath.
      */
     @Override
     public final void locateServices(final Set<URL> urls) throws Exception {
-        findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "conf" + File.separator + "services"), urls);
-        findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "resources" + File.separator + "services"), urls);
+        // when validating in parallel, collect candidates first and then validate them:
+        final Set<URL> candidates = parallelValidation ? new LinkedHashSet<URL>() : urls;
+        final Set<URL> indexed = new HashSet<URL>();
+        findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "conf" + File.separator + "services"), candidates);
+        findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "resources" + File.separator + "services"), candidates);
         String appName = XRuntime.getValue("application.name", null);
         if (appName != null) {
-            findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "conf" + File.separator + appName + File.separator + "services"), urls);
-            findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "resources" + File.separator + appName + File.separator + "services"), urls);
+            findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "conf" + File.separator + appName + File.separator + "services"), candidates);
+            findFileSystemServices(new File(XRuntime.getRootDirectory().toString() + File.separator + "resources" + File.separator + appName + File.separator + "services"), candidates);
         }
 
         // search classpath?
         if (scanForClassPathServices) {
-            UtlResource.findClasspathResourcesIn("services", urls, SERVICE_FILTER);
+            final List<String> indexedRoots = new ArrayList<String>();
+            if (useServiceIndex) {
+                findIndexedClasspathServices(candidates, indexed, indexedRoots);
+            }
+            if (!indexedRoots.isEmpty() && isClasspathIndexed(indexedRoots)) {
+                if (tracer.debug) tracer.log("Every classpath element with services has a service definition index, not scanning the classpath.", Tracer.Level.DEBUG);
+            }
+            else {
+                scanClasspathServices(candidates, indexedRoots);
+            }
+        }
+
+        if (parallelValidation) {
+            validateServices(candidates, indexed, urls);
+        }
+    }
+
+    /**
+     * Scans the classpath for services, ignoring those in classpath elements with an index. 
+     */
+    private final void scanClasspathServices(final Set<URL> candidates, final List<String> indexedRoots) throws Exception {
+        UtlResource.findClasspathResourcesIn("services", candidates, indexedRoots.isEmpty() ? SERVICE_FILTER : new URLFilter() {
+
+            @Override
+            public boolean filter(URL url) {
+                // services in classpath elements with an index come from the index: 
+                return isIndexed(url, indexedRoots) || SERVICE_FILTER.filter(url);
+            }
+        });
+    }
+
+    private static final boolean isIndexed(final URL url, final List<String> indexedRoots) {
+        final String location = url.toString();
+        for (String root : indexedRoots) {
+            if (location.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether every classpath element with a <code>services</code> directory has a 
+     * service definition index, in which case there is nothing left to scan for. 
+     */
+    private final boolean isClasspathIndexed(final List<String> indexedRoots) throws IOException {
+        for (URL services : Collections.list(classLoader().getResources("services"))) {
+            if (!isIndexed(services, indexedRoots)) {
+                if (tracer.debug) tracer.log("Classpath services in " + services + " are not indexed, scanning the classpath.", Tracer.Level.DEBUG);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final ClassLoader classLoader() {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return loader != null ? loader : DefaultServiceDefinitionLocator.class.getClassLoader();
+    }
+
+    /**
+     * Adds the services listed by the service definition indexes on the classpath.
+     * <p>
+     * Listed services are added without validation and recorded in <code>indexed</code>. With 
+     * strict validation, the content of each listed service is first checked against the digest 
+     * in the index: a service whose content no longer matches its digest indicates a stale index, 
+     * it is validated as though found by a classpath scan. The root location of each classpath 
+     * element with an index is added to <code>indexedRoots</code>.
+     */
+    private final void findIndexedClasspathServices(final Set<URL> urls, final Set<URL> indexed, final List<String> indexedRoots) throws IOException {
+        final Enumeration<URL> indexes = classLoader().getResources(SERVICE_INDEX_RESOURCE);
+        for (URL index : Collections.list(indexes)) {
+            if (tracer.debug) tracer.log("Reading service definition index " + index, Tracer.Level.DEBUG);
+            final String indexLocation = index.toString();
+            final String root = indexLocation.substring(0, indexLocation.length() - SERVICE_INDEX_RESOURCE.length());
+            indexedRoots.add(root);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0 || line.startsWith("#")) {
+                        continue;
+                    }
+
+                    final int separator = line.indexOf(' ');
+                    if (separator <= 0) {
+                        tracer.log("Ignoring malformed entry in service definition index " + index + ": " + line, Tracer.Level.WARNING);
+                        continue;
+                    }
+
+                    final String digest = line.substring(0, separator);
+                    final URL url = new URL(root + line.substring(separator + 1).trim());
+                    if (!strictValidation) {
+                        urls.add(url);
+                        indexed.add(url);
+                        continue;
+                    }
+
+                    final String actualDigest;
+                    try {
+                        actualDigest = ToaServiceModelCache.digest(url);
+                    }
+                    catch (IOException e) {
+                        tracer.log("Ignoring service definition listed in index " + index + " that can't be read: " + url + " (" + e.getMessage() + ")", Tracer.Level.WARNING);
+                        continue;
+                    }
+
+                    if (digest.equals(actualDigest)) {
+                        urls.add(url);
+                        indexed.add(url);
+                    }
+                    else {
+                        tracer.log("Service definition index " + index + " is out of date for " + url + ", validating.", Tracer.Level.WARNING);
+                        if (!SERVICE_FILTER.filter(url)) {
+                            urls.add(url);
+                        }
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Validates candidate service definitions in parallel, adding those that are valid to 
+     * the given urls in candidate order. Candidates in <code>indexed</code> are already 
+     * known to be valid. 
+     */
+    private final void validateServices(final Set<URL> candidates, final Set<URL> indexed, final Set<URL> urls) throws Exception {
+        final List<URL> candidateList = new ArrayList<URL>(candidates);
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(candidateList.size());
+        for (final URL url : candidateList) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    if (indexed.contains(url)) {
+                        return true;
+                    }
+                    else if (strictValidation) {
+                        validateServiceDefinitionFile(url);
+                        return true;
+                    }
+                    else {
+                        return isServiceDefinitionFile(url);
+                    }
+                }
+            });
+        }
+
+        final List<Boolean> valid = new ServiceLoadingExecutor(XRuntime.getValue(TopicOrientedApplication.PROP_SERVICE_LOADING_THREADS, TopicOrientedApplication.PROP_SERVICE_LOADING_THREADS_DEFAULT)).invokeAll(tasks);
+        for (int i = 0; i < candidateList.size(); i++) {
+            if (valid.get(i)) {
+                urls.add(candidateList.get(i));
+            }
         }
     }
 
@@ -162,7 +386,11 @@ public final class DefaultServiceDefinitionLocator extends AbstractServiceDefini
 
         for (File file : files) {
             final URL url = file.toURI().toURL();
-            if (strictValidation) {
+            if (parallelValidation) {
+                // validated later:
+                urls.add(url);
+            }
+            else if (strictValidation) {
                 validateServiceDefinitionFile(url);
                 urls.add(url);
             }
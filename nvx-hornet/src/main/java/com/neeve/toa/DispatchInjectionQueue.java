@@ -0,0 +1,228 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import com.neeve.aep.AepEngine;
+import com.neeve.rog.IRogMessage;
+import com.neeve.trace.Tracer;
+
+/**
+ * Holds messages injected from an engine's dispatch thread until the transaction in which 
+ * they were injected has completed. 
+ * <p>
+ * The queue is a preallocated ring of messages, their injection delays, the shards into 
+ * which they are injected and the commit of the transaction in which they were injected. 
+ * A message added while a message is 
+ * being dispatched is unhandled until the message's handlers complete, at which point 
+ * it is tagged with the commit that will include the handled message. Tagged messages are
+ * injected into the engine, in the order in which they were added, once their commit
+ * is stable. A message routed to another shard of a partitioned application is injected 
+ * into that shard (see {@link ShardAssignment}). If the handlers fail, the unhandled messages 
+ * are discarded. The queue grows (by doubling) if it fills up. 
+ * 
+ * @threading This class is not thread safe, it is used only by the engine's dispatch thread.
+ */
+final class DispatchInjectionQueue {
+    private final Tracer tracer;
+    private IRogMessage[] messages;
+    private int[] delays;
+    private TopicOrientedApplication[] targets;
+    private long[] commits;
+    private int head;
+    private int size;
+    private int unhandled;
+
+    DispatchInjectionQueue(final int capacity, final Tracer tracer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Dispatch injection queue capacity must be positive (was " + capacity + ")");
+        }
+        this.messages = new IRogMessage[capacity];
+        this.delays = new int[capacity];
+        this.targets = new TopicOrientedApplication[capacity];
+        this.commits = new long[capacity];
+        this.tracer = tracer;
+    }
+
+    /**
+     * @return True if no messages are queued.
+     */
+    final boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of messages queued.
+     */
+    final int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of messages added since the last call to {@link #onHandled(long)}.
+     */
+    final int unhandled() {
+        return unhandled;
+    }
+
+    /**
+     * Queues a message for injection.
+     * 
+     * @param message The message to inject.
+     * @param delay The injection delay (or priority if negative).
+     */
+    final void add(final IRogMessage message, final int delay) {
+        add(message, delay, null);
+    }
+
+    /**
+     * Queues a message for injection into another shard. 
+     * 
+     * @param message The message to inject.
+     * @param delay The injection delay (or priority if negative).
+     * @param target The shard into which to inject the message, or <code>null</code> to 
+     * inject it into the engine passed to {@link #drain(AepEngine, long)}.
+     */
+    final void add(final IRogMessage message, final int delay, final TopicOrientedApplication target) {
+        if (size == messages.length) {
+            grow();
+        }
+        final int tail = (head + size) % messages.length;
+        messages[tail] = message;
+        delays[tail] = delay;
+        targets[tail] = target;
+        commits[tail] = 0;
+        size++;
+        unhandled++;
+    }
+
+    private final void grow() {
+        final IRogMessage[] messages = new IRogMessage[this.messages.length * 2];
+        final int[] delays = new int[messages.length];
+        final TopicOrientedApplication[] targets = new TopicOrientedApplication[messages.length];
+        final long[] commits = new long[messages.length];
+        for (int i = 0; i < size; i++) {
+            final int index = (head + i) % this.messages.length;
+            messages[i] = this.messages[index];
+            delays[i] = this.delays[index];
+            targets[i] = this.targets[index];
+            commits[i] = this.commits[index];
+        }
+        tracer.log("Dispatch injection queue capacity exceeded, growing it from " + this.messages.length + " to " + messages.length + " messages.", Tracer.Level.WARNING);
+        this.messages = messages;
+        this.delays = delays;
+        this.targets = targets;
+        this.commits = commits;
+        this.head = 0;
+    }
+
+    /**
+     * Called when the handlers of the message being dispatched have completed, tags the 
+     * messages they injected with the commit that includes the message. 
+     * 
+     * @param commit The (1 based) number of the engine commit that will include the message.
+     */
+    final void onHandled(final long commit) {
+        for (int i = size - unhandled; i < size; i++) {
+            commits[(head + i) % messages.length] = commit;
+        }
+        unhandled = 0;
+    }
+
+    /**
+     * Injects the queued messages whose commit is stable into the engine (or the shard to which
+     * they are routed) without blocking.
+     * 
+     * @param engine The engine into which to inject the messages.
+     * @param stableCommit The number of engine commits that are stable. 
+     * @return The number of messages injected.
+     */
+    final int drain(final AepEngine engine, final long stableCommit) {
+        int drained = 0;
+        while (size > unhandled && commits[head] <= stableCommit) {
+            final IRogMessage message = messages[head];
+            final int delay = delays[head];
+            final TopicOrientedApplication target = targets[head];
+            messages[head] = null;
+            targets[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+            drained++;
+            if (target != null) {
+                target.injectRoutedMessage(message, delay);
+                continue;
+            }
+            try {
+                engine.injectMessage(message, true, delay);
+            }
+            catch (IllegalStateException ise) {
+                //engine may have been stopped during multiplex...
+                tracer.log("Injection of message canceled: " + ise.getMessage(), Tracer.Level.WARNING);
+            }
+        }
+        if (size == 0) {
+            head = 0;
+        }
+        return drained;
+    }
+
+    /**
+     * Discards the messages added since the last call to {@link #onHandled(long)}, disposing them. 
+     * 
+     * @return The number of messages discarded. 
+     */
+    final int discardUnhandled() {
+        final int discarded = unhandled;
+        while (unhandled > 0) {
+            final int tail = (head + size - 1) % messages.length;
+            final IRogMessage message = messages[tail];
+            messages[tail] = null;
+            targets[tail] = null;
+            size--;
+            unhandled--;
+            message.dispose();
+        }
+        if (size == 0) {
+            head = 0;
+        }
+        return discarded;
+    }
+
+    /**
+     * Discards all of the queued messages, disposing them. 
+     * 
+     * @return The number of messages discarded. 
+     */
+    final int discard() {
+        final int discarded = size;
+        while (size > 0) {
+            final IRogMessage message = messages[head];
+            messages[head] = null;
+            targets[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+            message.dispose();
+        }
+        head = 0;
+        unhandled = 0;
+        return discarded;
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import com.neeve.aep.AepEngine;
+import com.neeve.rog.IRogMessage;
+import com.neeve.toa.MessageInjector.InjectionOutcome;
+import com.neeve.toa.MessageInjector.InjectionWatermarkListener;
+import com.neeve.trace.Tracer;
+import com.neeve.util.UtlThrowable;
+
+/**
+ * Bounds the number of messages injected with {@link MessageInjector#tryInjectMessage(IRogMessage)} 
+ * that are waiting in an engine's input queue. 
+ * <p>
+ * Each flow controlled injection is assigned the next injection sequence number and recorded in
+ * a ring, sized to the capacity, at the slot for that sequence. The depth is the number of recorded
+ * injections that haven't been released. When a recorded injection is dispatched (it is found by 
+ * an identity index of the ring) it is released. The depth is also reset when the engine stops or 
+ * changes role, since messages in its input queue are then discarded. 
+ * <p>
+ * No lock is held while injecting into the engine, so concurrent producers may enqueue their 
+ * messages out of sequence order. Each injection therefore also records the sequence below which 
+ * all injections had been enqueued when it was recorded: those injections are ahead of it in the 
+ * engine's input queue, so when it is dispatched any of them that haven't been dispatched were 
+ * dropped by the engine and are released too, and a lost message can't hold the depth up. 
+ * <p>
+ * The dispatch sequence is the lowest sequence whose slot hasn't been released, and an injection
+ * is rejected when the injection sequence is a capacity ahead of it. This is when the depth reaches
+ * the capacity, unless concurrent injections were dispatched out of sequence order, in which case 
+ * their slots are reused once the injections before them have been released. A listener is notified
+ * when the depth rises to the high watermark and again when it then falls to the low watermark. The
+ * listener is notified while the ring's lock is held, so notifications are delivered in order. 
+ * 
+ * @threading This class is safe for concurrent use by multiple threads. 
+ */
+final class InjectionFlowControl {
+    /**
+     * An open addressing identity map of ring entries to their injection sequence. 
+     */
+    private static final class IdentityIndex {
+        private final Object[] keys;
+        private final long[] sequences;
+        private final int mask;
+
+        IdentityIndex(final int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 1)) << 2; // load factor <= 0.5
+            keys = new Object[size];
+            sequences = new long[size];
+            mask = size - 1;
+        }
+
+        private final int indexOf(final Object key) {
+            int i = System.identityHashCode(key) & mask;
+            while (keys[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        final void put(final Object key, final long sequence) {
+            final int i = indexOf(key);
+            keys[i] = key;
+            sequences[i] = sequence;
+        }
+
+        /**
+         * @return The sequence of the key, or -1 if not present.
+         */
+        final long get(final Object key) {
+            final int i = indexOf(key);
+            return keys[i] != null ? sequences[i] : -1;
+        }
+
+        final void remove(final Object key) {
+            int i = indexOf(key);
+            if (keys[i] == null) {
+                return;
+            }
+            keys[i] = null;
+            // shift back following entries of the probe run so lookups don't stop early:
+            int j = (i + 1) & mask;
+            while (keys[j] != null) {
+                final int home = System.identityHashCode(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    sequences[i] = sequences[j];
+                    keys[j] = null;
+                    i = j;
+                }
+                j = (j + 1) & mask;
+            }
+        }
+
+        final void clear() {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = null;
+            }
+        }
+    }
+
+    private final Tracer tracer;
+    private final IRogMessage[] injected;
+    private final boolean[] injecting; // whether the slot's injection into the engine is in progress
+    private final long[] enqueuedBelow; // the enqueued sequence when the slot's injection was recorded
+    private final IdentityIndex index;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private long injectSequence; // the next injection sequence
+    private long enqueuedSequence; // sequences below this have been enqueued in (or rejected by) the engine
+    private long dispatchSequence; // sequences below this have been released
+    private volatile int depth;
+    private boolean aboveHighWatermark;
+    private volatile InjectionWatermarkListener listener;
+
+    InjectionFlowControl(final int capacity, final int highWatermark, final int lowWatermark, final Tracer tracer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Flow controlled injection capacity must be positive (was " + capacity + ")");
+        }
+        if (highWatermark > capacity || lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Flow controlled injection watermarks must satisfy 0 <= low < high <= capacity (was low=" + lowWatermark + ", high=" + highWatermark + ", capacity=" + capacity + ")");
+        }
+        this.injected = new IRogMessage[capacity];
+        this.injecting = new boolean[capacity];
+        this.enqueuedBelow = new long[capacity];
+        this.index = new IdentityIndex(capacity);
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.tracer = tracer;
+    }
+
+    /**
+     * @return The number of flow controlled injections not yet dispatched. 
+     */
+    final int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @param listener The watermark listener, or null to remove it.
+     */
+    final void setListener(final InjectionWatermarkListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Injects a message into a started, primary engine without blocking, unless the 
+     * capacity has been reached. 
+     * 
+     * @param engine The engine. 
+     * @param message The message to inject.
+     * @return The outcome, the caller retains ownership of the message unless it is accepted. 
+     */
+    final InjectionOutcome inject(final AepEngine engine, final IRogMessage message) {
+        final long sequence;
+        synchronized (this) {
+            if (injectSequence - dispatchSequence == injected.length) {
+                return InjectionOutcome.RejectedFull;
+            }
+            // record before injecting so the dispatch thread can't see the message first:
+            sequence = injectSequence++;
+            final int slot = slot(sequence);
+            injected[slot] = message;
+            injecting[slot] = true;
+            enqueuedBelow[slot] = enqueuedSequence;
+            index.put(message, sequence);
+            depth++;
+            if (!aboveHighWatermark && depth >= highWatermark) {
+                aboveHighWatermark = true;
+                notifyListener(true, depth);
+            }
+        }
+        try {
+            engine.injectMessage(message, true, 0);
+        }
+        catch (IllegalStateException ise) {
+            //engine may have been stopped during multiplex:
+            synchronized (this) {
+                if (index.get(message) == sequence) {
+                    release(sequence);
+                    checkLowWatermark();
+                }
+                onEnqueued(sequence);
+            }
+            return InjectionOutcome.NotPrimary;
+        }
+        synchronized (this) {
+            onEnqueued(sequence);
+        }
+        return InjectionOutcome.Accepted;
+    }
+
+    /**
+     * Called by the engine's dispatch thread before a message is dispatched. 
+     * 
+     * @param message The message being dispatched.
+     */
+    final void onDispatch(final IRogMessage message) {
+        if (depth == 0) {
+            return;
+        }
+        synchronized (this) {
+            final long sequence = index.get(message);
+            if (sequence < 0) {
+                return;
+            }
+            // earlier injections enqueued before this one was recorded that haven't been dispatched were dropped by the engine:
+            final long droppedBelow = enqueuedBelow[slot(sequence)];
+            for (long dropped = dispatchSequence; dropped < droppedBelow; dropped++) {
+                release(dropped);
+            }
+            release(sequence);
+            advanceDispatchSequence();
+            checkLowWatermark();
+        }
+    }
+
+    /**
+     * Discards the recorded injections, called when the engine stops or changes role and
+     * the messages in its input queue will no longer be dispatched. 
+     */
+    final synchronized void reset() {
+        if (depth > 0) {
+            tracer.log("Resetting flow controlled injection depth of " + depth + ".", Tracer.Level.CONFIG);
+        }
+        for (long sequence = dispatchSequence; sequence < injectSequence; sequence++) {
+            injected[slot(sequence)] = null;
+        }
+        index.clear();
+        depth = 0;
+        // slots of injections still in progress are reused once they have completed:
+        advanceDispatchSequence();
+        checkLowWatermark();
+    }
+
+    /**
+     * Releases the injection with the given sequence, if it hasn't already been released.
+     */
+    private final void release(final long sequence) {
+        final int slot = slot(sequence);
+        final IRogMessage message = injected[slot];
+        if (message != null) {
+            if (index.get(message) == sequence) {
+                index.remove(message);
+            }
+            injected[slot] = null;
+            depth--;
+        }
+    }
+
+    /**
+     * Records the completion of the injection into the engine with the given sequence.
+     */
+    private final void onEnqueued(final long sequence) {
+        injecting[slot(sequence)] = false;
+        while (enqueuedSequence < injectSequence && !injecting[slot(enqueuedSequence)]) {
+            enqueuedSequence++;
+        }
+        advanceDispatchSequence();
+    }
+
+    /**
+     * Advances the dispatch sequence past released slots, a slot whose injection is still in
+     * progress isn't reused until it has completed. 
+     */
+    private final void advanceDispatchSequence() {
+        while (dispatchSequence < injectSequence && injected[slot(dispatchSequence)] == null && !injecting[slot(dispatchSequence)]) {
+            dispatchSequence++;
+        }
+    }
+
+    private final int slot(final long sequence) {
+        return (int)(sequence % injected.length);
+    }
+
+    private final void checkLowWatermark() {
+        if (aboveHighWatermark && depth <= lowWatermark) {
+            aboveHighWatermark = false;
+            notifyListener(false, depth);
+        }
+    }
+
+    private final void notifyListener(final boolean high, final int depth) {
+        final InjectionWatermarkListener listener = this.listener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            if (high) {
+                listener.onHighWatermark(depth);
+            }
+            else {
+                listener.onLowWatermark(depth);
+            }
+        }
+        catch (Throwable thrown) {
+            tracer.log("Injection watermark listener failed: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.WARNING);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.neeve.aep.AepEngine;
+import com.neeve.rog.IRogMessage;
+import com.neeve.server.app.annotations.AppStat;
+import com.neeve.stats.IStats.Counter;
+import com.neeve.stats.StatsFactory;
+import com.neeve.trace.Tracer;
+import com.neeve.util.UtlThrowable;
+
+/**
+ * An injection front end that gives each producer thread its own lane. 
+ * <p>
+ * Each lane is a single producer, single consumer ring that is claimed by the first thread that 
+ * injects through it and is thereafter used only by that thread. A single drainer thread merges 
+ * the lanes into the engine: it visits the lanes round robin, injecting up to {@value #DRAIN_QUANTUM} 
+ * messages from each per visit so that a busy producer can't starve the others. The engine's input 
+ * multiplexer therefore sees a single producer regardless of the number of injecting threads. Messages
+ * injected by a thread are injected into the engine in order, messages injected by different threads 
+ * are not ordered relative to each other. 
+ * <p>
+ * The drainer injects with blocking, so a backed up engine fills the lanes. When its lane is full a 
+ * blocking injection waits for space in it, so that the message isn't reordered ahead of the messages 
+ * in the lane. A non blocking injection never waits: when its lane is full it is injected directly into 
+ * the engine (without blocking), and is therefore ordered ahead of the messages remaining in the lane. 
+ * Threads that inject once all lanes have been claimed inject directly into the engine. Lanes are not 
+ * released when their thread exits, so lanes are intended for long lived producer threads. 
+ * <p>
+ * Each lane reports user stats (via {@link AppStat}) named:
+ * <ul>
+ * <li><code>hornet.inject.lane{n}.offered</code>: the number of messages added to the lane.
+ * <li><code>hornet.inject.lane{n}.injected</code>: the number of messages drained from the lane into the engine.
+ * <li><code>hornet.inject.lane{n}.full</code>: the number of injections that found the lane full.
+ * </ul>
+ * The depth of a lane is the difference between its offered and injected counts, and the total depth 
+ * of the lanes is reported by the <code>hornet.inject.laneDepth</code> gauge.
+ * 
+ * @threading This class is safe for concurrent use by multiple threads.
+ */
+final class InjectionLanes {
+    /**
+     * The maximum number of messages drained from a lane per visit. 
+     */
+    private static final int DRAIN_QUANTUM = 64;
+
+    /**
+     * The maximum time for which the drainer sleeps when the lanes are empty. Producers 
+     * wake the drainer when it sleeps, this bounds the latency of a missed wake up. 
+     */
+    private static final long DRAINER_PARK_NANOS = 100000;
+
+    /**
+     * The time for which a producer sleeps while waiting for space in its lane. 
+     */
+    private static final long PRODUCER_PARK_NANOS = 1000;
+
+    /**
+     * The time for which {@link #close()} waits for the drainer to exit between reports. 
+     */
+    private static final long CLOSE_JOIN_MILLIS = 1000;
+
+    /**
+     * The number of times {@link #close()} waits for the drainer to exit before giving up. 
+     */
+    private static final int CLOSE_JOIN_ATTEMPTS = 10;
+
+    /**
+     * A single producer, single consumer lane. 
+     */
+    static final class Lane {
+        @AppStat
+        final Counter offered;
+        @AppStat
+        final Counter injected;
+        @AppStat
+        final Counter full;
+
+        private final IRogMessage[] messages;
+        private final int[] delays;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(); // next position to drain, written by the drainer
+        private final AtomicLong tail = new AtomicLong(); // next position to fill, written by the producer
+        private long cachedHead; // the producer's last read of head
+
+        Lane(final int index, final int capacity) {
+            final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+            this.messages = new IRogMessage[size];
+            this.delays = new int[size];
+            this.mask = size - 1;
+            final String prefix = "hornet.inject.lane" + index;
+            offered = StatsFactory.createCounterStat(prefix + ".offered");
+            injected = StatsFactory.createCounterStat(prefix + ".injected");
+            full = StatsFactory.createCounterStat(prefix + ".full");
+        }
+
+        /**
+         * Adds a message, called only by the lane's producer. 
+         * 
+         * @return False if the lane is full.
+         */
+        private final boolean offer(final IRogMessage message, final int delay) {
+            final long tail = this.tail.get();
+            if (tail - cachedHead >= messages.length) {
+                cachedHead = head.get();
+                if (tail - cachedHead >= messages.length) {
+                    return false;
+                }
+            }
+            final int index = (int)(tail & mask);
+            messages[index] = message;
+            delays[index] = delay;
+            this.tail.lazySet(tail + 1);
+            offered.increment();
+            return true;
+        }
+
+        /**
+         * Injects up to {@link #DRAIN_QUANTUM} messages into the engine, called only by the drainer.
+         * 
+         * @return The number of messages drained.
+         */
+        private final int drain(final AepEngine engine, final Tracer tracer) {
+            final long head = this.head.get();
+            final long available = tail.get() - head;
+            if (available == 0) {
+                return 0;
+            }
+            final int count = (int)Math.min(available, DRAIN_QUANTUM);
+            for (int i = 0; i < count; i++) {
+                final int index = (int)((head + i) & mask);
+                final IRogMessage message = messages[index];
+                messages[index] = null;
+                try {
+                    engine.injectMessage(message, false, delays[index]);
+                    injected.increment();
+                }
+                catch (IllegalStateException ise) {
+                    //engine may have been stopped during multiplex...
+                    tracer.log("Injection of message canceled: " + ise.getMessage(), Tracer.Level.WARNING);
+                }
+            }
+            this.head.lazySet(head + count);
+            return count;
+        }
+
+        /**
+         * Disposes the messages left in the lane, called only once the drainer has stopped.
+         * 
+         * @return The number of messages discarded. 
+         */
+        private final int discard() {
+            int discarded = 0;
+            for (long position = head.get(); position < tail.get(); position++) {
+                final int index = (int)(position & mask);
+                messages[index].dispose();
+                messages[index] = null;
+                discarded++;
+            }
+            head.set(tail.get());
+            return discarded;
+        }
+
+        /**
+         * @return The number of messages in the lane.
+         */
+        final int size() {
+            return (int)(tail.get() - head.get());
+        }
+    }
+
+    /**
+     * Merges the lanes into the engine.
+     */
+    private final class DrainerThread extends Thread {
+        private volatile boolean running = true;
+
+        DrainerThread(final String engineName) {
+            super("X-Hornet-InjectionDrainer-" + engineName);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    int drained = 0;
+                    final int claimed = Math.min(claimedLanes.get(), lanes.length);
+                    for (int i = 0; i < claimed; i++) {
+                        drained += lanes[i].drain(engine, tracer);
+                    }
+                    if (drained == 0) {
+                        drainerParked = true;
+                        if (isEmpty(claimed)) {
+                            LockSupport.parkNanos(this, DRAINER_PARK_NANOS);
+                        }
+                        drainerParked = false;
+                    }
+                }
+                catch (Throwable thrown) {
+                    tracer.log("Error draining injection lanes: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.SEVERE);
+                }
+            }
+        }
+
+        final void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+
+    private final Lane[] lanes;
+    private final AtomicInteger claimedLanes = new AtomicInteger();
+    private final ThreadLocal<Lane> threadLane = new ThreadLocal<Lane>();
+    private final Tracer tracer;
+    private volatile boolean drainerParked;
+    private volatile AepEngine engine;
+    private volatile DrainerThread drainer;
+    private volatile boolean closed;
+    private boolean exhaustedWarned;
+
+    /**
+     * Creates the lanes.
+     * 
+     * @param laneCount The number of lanes.
+     * @param laneCapacity The capacity of each lane (rounded up to a power of 2).
+     * @param tracer The tracer for trace logging.
+     */
+    InjectionLanes(final int laneCount, final int laneCapacity, final Tracer tracer) {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("Injection lane count must be positive (was " + laneCount + ")");
+        }
+        if (laneCapacity <= 0 || laneCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Injection lane capacity must be between 1 and 2^30 (was " + laneCapacity + ")");
+        }
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, laneCapacity);
+        }
+        this.tracer = tracer;
+    }
+
+    /**
+     * Sets the engine into which the lanes are drained. 
+     * 
+     * @param engine The engine.
+     */
+    final void initEngine(final AepEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return The lanes (for stats registration).
+     */
+    final Lane[] getLanes() {
+        return lanes;
+    }
+
+    /**
+     * @return The total number of messages in the lanes.
+     */
+    @AppStat(name = "hornet.inject.laneDepth")
+    public long getDepth() {
+        long depth = 0;
+        final int claimed = Math.min(claimedLanes.get(), lanes.length);
+        for (int i = 0; i < claimed; i++) {
+            depth += lanes[i].size();
+        }
+        return depth;
+    }
+
+    /**
+     * Adds a message to the calling thread's lane, claiming a lane for the thread if it 
+     * doesn't have one. If the lane is full a blocking caller waits for space in it, so that the
+     * message isn't reordered ahead of the messages in the lane, and a non blocking caller 
+     * returns immediately. 
+     * 
+     * @param message The message to inject.
+     * @param delay The injection delay (or priority if negative).
+     * @param nonBlocking Indicates whether the caller mustn't wait for space in a full lane. 
+     * @return True if the message was added to the lane, false if the caller should inject 
+     * it directly, because the thread has no lane, the lanes have been closed or the injection 
+     * is non blocking and the lane is full.
+     */
+    final boolean offer(final IRogMessage message, final int delay, final boolean nonBlocking) {
+        if (closed) {
+            return false;
+        }
+        Lane lane = threadLane.get();
+        if (lane == null) {
+            lane = claimLane();
+            if (lane == null) {
+                return false;
+            }
+        }
+
+        if (!lane.offer(message, delay)) {
+            lane.full.increment();
+            if (nonBlocking) {
+                return false;
+            }
+            do {
+                if (closed) {
+                    return false;
+                }
+                LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+            }
+            while (!lane.offer(message, delay));
+        }
+
+        if (drainerParked) {
+            final DrainerThread drainer = this.drainer;
+            if (drainer != null) {
+                LockSupport.unpark(drainer);
+            }
+        }
+        return true;
+    }
+
+    private final synchronized Lane claimLane() {
+        if (closed || engine == null) {
+            return null;
+        }
+        final int index = claimedLanes.get();
+        if (index == lanes.length) {
+            if (!exhaustedWarned) {
+                exhaustedWarned = true;
+                tracer.log("All " + lanes.length + " injection lanes have been claimed, thread '" + Thread.currentThread().getName() + "' (and any others) will inject directly into the engine.", Tracer.Level.WARNING);
+            }
+            return null;
+        }
+        final Lane lane = lanes[index];
+        threadLane.set(lane);
+        // publish the lane to the drainer only once it is assigned:
+        claimedLanes.set(index + 1);
+        if (drainer == null) {
+            drainer = new DrainerThread(engine.getName());
+            drainer.start();
+        }
+        return lane;
+    }
+
+    private final boolean isEmpty(final int claimed) {
+        for (int i = 0; i < claimed; i++) {
+            if (lanes[i].size() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the drainer and disposes messages remaining in the lanes. 
+     * <p>
+     * If the drainer doesn't exit (for example because it is blocked injecting into an engine
+     * that isn't dispatching) the failure is traced and the messages remaining in the lanes are 
+     * left to the drainer rather than being disposed underneath it. 
+     * 
+     * @return The number of messages discarded.
+     */
+    final int close() {
+        final DrainerThread drainer;
+        synchronized (this) {
+            if (closed) {
+                return 0;
+            }
+            closed = true;
+            drainer = this.drainer;
+            this.drainer = null;
+        }
+        if (drainer != null) {
+            drainer.shutdown();
+            boolean interrupted = false;
+            for (int attempt = 1; drainer.isAlive() && attempt <= CLOSE_JOIN_ATTEMPTS; attempt++) {
+                try {
+                    drainer.join(CLOSE_JOIN_MILLIS);
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                if (drainer.isAlive()) {
+                    tracer.log("Waiting for injection lane drainer '" + drainer.getName() + "' to exit (attempt " + attempt + " of " + CLOSE_JOIN_ATTEMPTS + ")...", Tracer.Level.WARNING);
+                    drainer.interrupt();
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (drainer.isAlive()) {
+                tracer.log("Injection lane drainer '" + drainer.getName() + "' did not exit, " + getDepth() + " message(s) remain in the injection lanes.", Tracer.Level.SEVERE);
+                return 0;
+            }
+        }
+        int discarded = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            discarded += lanes[i].discard();
+        }
+        return discarded;
+    }
+}
@@ -0,0 +1,594 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.neeve.rog.IRogMessage;
+import com.neeve.trace.Tracer;
+import com.neeve.util.UtlThrowable;
+
+/**
+ * Injects messages into an application after a delay, once or periodically. 
+ * <p>
+ * Scheduled injections are held in a hierarchical timing wheel: {@value #LEVELS} levels of 
+ * {@value #SLOTS} slots, where each slot of a level spans a full rotation of the level below it. 
+ * An injection is placed in the lowest level whose span covers its delay and is cascaded down 
+ * to lower levels as its deadline approaches, so scheduling and canceling are constant time 
+ * regardless of the number of pending injections or the length of their delays. Deadlines 
+ * are kept in microseconds based on the application's {@link EngineClock} and expire with 
+ * the granularity of the wheel's tick. 
+ * <p>
+ * A single scheduler thread advances the wheel. It sleeps until the next tick at which an 
+ * injection may be due, collects every injection that expires up to the current tick, and 
+ * then injects the collected batch back to back without blocking, outside of the wheel's lock. 
+ * Batches are injected in tick order; the order of injections that expire in the same tick is unspecified.
+ * <p>
+ * A periodic injection is rescheduled each time it fires. It holds a reference to the message 
+ * it last injected and reinjects that instance if the engine and application have released it, 
+ * otherwise it obtains a new one from its {@link MessageInjector.PeriodicMessageFactory factory}. 
+ * Periodic injections stop when the engine is not (or is no longer) primary. 
+ * 
+ * @threading This class is safe for concurrent use by multiple threads.
+ */
+final class InjectionScheduler {
+    /**
+     * The number of bits of the tick used to index a level's slots.
+     */
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    /**
+     * The span of the wheel, delays longer than this are placed in the top level and cascaded
+     * again when their slot comes around.
+     */
+    private static final long MAX_DELTA_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private static final int STATE_SCHEDULED = 0;
+    private static final int STATE_EXPIRED = 1;
+    private static final int STATE_CANCELED = 2;
+    private static final int STATE_FIRING = 3; // a periodic injection that has expired and is being injected
+
+    /**
+     * The application into which the scheduler injects messages.
+     */
+    static interface Target {
+
+        /**
+         * Injects a message without blocking. 
+         * 
+         * @param message The message to inject. 
+         * @return True if the message was injected, false if the engine isn't started and primary, 
+         * in which case the caller retains ownership of the message. 
+         */
+        boolean inject(IRogMessage message);
+
+        /**
+         * @return True if periodic injections should stop because the engine is started but not 
+         * primary, or has stopped.
+         */
+        boolean isPrimaryLost();
+    }
+
+    /**
+     * A scheduled injection, linked intrusively into the wheel's slot lists.
+     */
+    private final class ScheduledInjectionImpl implements MessageInjector.ScheduledInjection {
+        private final long periodMicros;
+        private final MessageInjector.PeriodicMessageFactory factory;
+        private long deadlineMicros;
+        private long deadlineTick;
+        private IRogMessage message; // for a periodic injection, the instance last injected
+        private ScheduledInjectionImpl prev;
+        private ScheduledInjectionImpl next;
+        private int level;
+        private int slot;
+        private int state = STATE_SCHEDULED; // guarded by the scheduler
+
+        ScheduledInjectionImpl(final IRogMessage message, final long deadlineMicros, final MessageInjector.PeriodicMessageFactory factory, final long periodMicros) {
+            this.message = message;
+            this.factory = factory;
+            this.periodMicros = periodMicros;
+            setDeadline(deadlineMicros);
+        }
+
+        private final void setDeadline(final long deadlineMicros) {
+            this.deadlineMicros = deadlineMicros;
+            this.deadlineTick = (deadlineMicros + tickMicros - 1) / tickMicros;
+        }
+
+        private final boolean isPeriodic() {
+            return factory != null;
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.MessageInjector.ScheduledInjection#getDeadlineMicros()
+         */
+        @Override
+        public final long getDeadlineMicros() {
+            synchronized (InjectionScheduler.this) {
+                return deadlineMicros;
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.MessageInjector.ScheduledInjection#cancel()
+         */
+        @Override
+        public final boolean cancel() {
+            final IRogMessage message;
+            synchronized (InjectionScheduler.this) {
+                if (state == STATE_FIRING) {
+                    // the scheduler thread disposes the message once it has finished injecting it:
+                    state = STATE_CANCELED;
+                    return true;
+                }
+                if (state != STATE_SCHEDULED) {
+                    return false;
+                }
+                unlink(this);
+                state = STATE_CANCELED;
+                message = this.message;
+                this.message = null;
+            }
+            if (message != null) {
+                message.dispose();
+            }
+            return true;
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.MessageInjector.ScheduledInjection#isDone()
+         */
+        @Override
+        public final boolean isDone() {
+            synchronized (InjectionScheduler.this) {
+                return state != STATE_SCHEDULED && state != STATE_FIRING;
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel and injects expired messages.
+     */
+    private final class SchedulerThread extends Thread {
+        private volatile boolean running = true;
+
+        SchedulerThread(final String engineName) {
+            super("X-Hornet-InjectionScheduler-" + engineName);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    final long nowMicros = clock.getTimeMicros();
+                    final ScheduledInjectionImpl expired = expire(nowMicros / tickMicros);
+                    if (expired != null) {
+                        inject(expired);
+                    }
+                    final long wakeTick = nextWakeTick;
+                    if (wakeTick == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    }
+                    else {
+                        final long sleepMicros = wakeTick * tickMicros - clock.getTimeMicros();
+                        if (sleepMicros > 0) {
+                            LockSupport.parkNanos(this, sleepMicros * 1000);
+                        }
+                    }
+                }
+                catch (Throwable thrown) {
+                    tracer.log("Error injecting scheduled messages: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.SEVERE);
+                }
+            }
+        }
+
+        final void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+
+    private final Target target;
+    private final EngineClock clock;
+    private final Tracer tracer;
+    private final long tickMicros;
+    private final ScheduledInjectionImpl[][] wheel = new ScheduledInjectionImpl[LEVELS][SLOTS];
+    private ScheduledInjectionImpl expiredHead; // injections that are due, in the order in which they became due
+    private ScheduledInjectionImpl expiredTail;
+    private long currentTick;
+    private int size;
+    private volatile long nextWakeTick = Long.MAX_VALUE;
+    private SchedulerThread thread;
+    private boolean closed;
+
+    /**
+     * Creates a scheduler. 
+     * 
+     * @param target The application into which expired messages are injected.
+     * @param clock The clock on which deadlines are based.
+     * @param tickMicros The granularity of the wheel in microseconds.
+     * @param tracer The tracer for trace logging.
+     */
+    InjectionScheduler(final Target target, final EngineClock clock, final long tickMicros, final Tracer tracer) {
+        if (tickMicros <= 0) {
+            throw new IllegalArgumentException("Injection scheduler tick must be positive (was " + tickMicros + ")");
+        }
+        this.target = target;
+        this.clock = clock;
+        this.tickMicros = tickMicros;
+        this.tracer = tracer;
+        this.currentTick = clock.getTimeMicros() / tickMicros;
+    }
+
+    /**
+     * Schedules a message for injection. 
+     * <p>
+     * The scheduler thread is started by the first call to this method.
+     * 
+     * @param message The message to inject.
+     * @param delayMicros The delay in microseconds after which to inject the message.
+     * @param engineName The name of the engine (used to name the scheduler thread).
+     * @return The handle for the scheduled injection.
+     * @throws IllegalStateException If the scheduler has been closed.
+     */
+    final MessageInjector.ScheduledInjection schedule(final IRogMessage message, final long delayMicros, final String engineName) {
+        final long nowMicros = clock.getTimeMicros();
+        return schedule(new ScheduledInjectionImpl(message, nowMicros + Math.max(0, delayMicros), null, 0), nowMicros, engineName);
+    }
+
+    /**
+     * Schedules a message for periodic injection, starting a period from now.
+     * 
+     * @param factory The factory that creates the messages to inject.
+     * @param message The first message to inject, created by the factory.
+     * @param periodMicros The period in microseconds.
+     * @param engineName The name of the engine (used to name the scheduler thread).
+     * @return The handle for the periodic injection.
+     * @throws IllegalArgumentException If the period isn't positive.
+     * @throws IllegalStateException If the scheduler has been closed.
+     */
+    final MessageInjector.ScheduledInjection schedulePeriodically(final MessageInjector.PeriodicMessageFactory factory, final IRogMessage message, final long periodMicros, final String engineName) {
+        if (periodMicros <= 0) {
+            throw new IllegalArgumentException("Periodic injection period must be positive (was " + periodMicros + ")");
+        }
+        final long nowMicros = clock.getTimeMicros();
+        return schedule(new ScheduledInjectionImpl(message, nowMicros + periodMicros, factory, periodMicros), nowMicros, engineName);
+    }
+
+    private final MessageInjector.ScheduledInjection schedule(final ScheduledInjectionImpl injection, final long nowMicros, final String engineName) {
+        boolean wake = false;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Injection scheduler has been closed");
+            }
+            if (size == 0) {
+                // nothing to cascade, so the wheel can simply be moved forward:
+                currentTick = Math.max(currentTick, nowMicros / tickMicros);
+            }
+            add(injection);
+            if (injection.deadlineTick < nextWakeTick) {
+                nextWakeTick = injection.deadlineTick;
+                wake = true;
+            }
+            if (thread == null) {
+                thread = new SchedulerThread(engineName);
+                thread.start();
+            }
+            else if (wake) {
+                LockSupport.unpark(thread);
+            }
+        }
+        return injection;
+    }
+
+    /**
+     * @return The number of injections that are scheduled.
+     */
+    final synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stops the scheduler thread and disposes the messages of pending injections.
+     * 
+     * @return The number of pending injections discarded.
+     */
+    final int close() {
+        ScheduledInjectionImpl discarded = null;
+        int count = 0;
+        synchronized (this) {
+            if (closed) {
+                return 0;
+            }
+            closed = true;
+            if (thread != null) {
+                thread.shutdown();
+                thread = null;
+            }
+            for (int level = 0; level < LEVELS; level++) {
+                for (int slot = 0; slot < SLOTS; slot++) {
+                    while (wheel[level][slot] != null) {
+                        final ScheduledInjectionImpl injection = wheel[level][slot];
+                        unlink(injection);
+                        injection.state = STATE_CANCELED;
+                        injection.next = discarded;
+                        discarded = injection;
+                    }
+                }
+            }
+            while (expiredHead != null) {
+                final ScheduledInjectionImpl injection = expiredHead;
+                unlink(injection);
+                injection.state = STATE_CANCELED;
+                injection.next = discarded;
+                discarded = injection;
+            }
+        }
+
+        while (discarded != null) {
+            final ScheduledInjectionImpl next = discarded.next;
+            discarded.next = null;
+            if (discarded.message != null) {
+                discarded.message.dispose();
+                discarded.message = null;
+            }
+            discarded = next;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Places an injection in the wheel relative to the current tick, or in the expired 
+     * list if it is already due. 
+     */
+    private final void add(final ScheduledInjectionImpl injection) {
+        final long delta = injection.deadlineTick - currentTick;
+        if (delta <= 0) {
+            addExpired(injection);
+            return;
+        }
+
+        final long placementTick = currentTick + Math.min(delta, MAX_DELTA_TICKS);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        final int slot = (int)((placementTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        injection.level = level;
+        injection.slot = slot;
+        injection.prev = null;
+        injection.next = wheel[level][slot];
+        if (injection.next != null) {
+            injection.next.prev = injection;
+        }
+        wheel[level][slot] = injection;
+        size++;
+    }
+
+    private final void addExpired(final ScheduledInjectionImpl injection) {
+        injection.level = -1;
+        injection.prev = expiredTail;
+        injection.next = null;
+        if (expiredTail != null) {
+            expiredTail.next = injection;
+        }
+        else {
+            expiredHead = injection;
+        }
+        expiredTail = injection;
+    }
+
+    private final void unlink(final ScheduledInjectionImpl injection) {
+        if (injection.prev != null) {
+            injection.prev.next = injection.next;
+        }
+        else if (injection.level < 0) {
+            expiredHead = injection.next;
+        }
+        else {
+            wheel[injection.level][injection.slot] = injection.next;
+        }
+        if (injection.next != null) {
+            injection.next.prev = injection.prev;
+        }
+        else if (injection.level < 0) {
+            expiredTail = injection.prev;
+        }
+        if (injection.level >= 0) {
+            size--;
+        }
+        injection.prev = null;
+        injection.next = null;
+    }
+
+    /**
+     * Advances the wheel to the given tick. 
+     * 
+     * @param targetTick The current tick.
+     * @return The list of expired injections (linked by next), or null if none expired.
+     */
+    private final synchronized ScheduledInjectionImpl expire(final long targetTick) {
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+        }
+        while (currentTick < targetTick) {
+            final long tick = ++currentTick;
+
+            // cascade the higher levels whose slot begins at this tick:
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    final int slot = (int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                    ScheduledInjectionImpl injection = wheel[level][slot];
+                    wheel[level][slot] = null;
+                    while (injection != null && injection.next != null) {
+                        injection = injection.next;
+                    }
+                    while (injection != null) {
+                        final ScheduledInjectionImpl prev = injection.prev;
+                        size--;
+                        add(injection);
+                        injection = prev;
+                    }
+                }
+            }
+
+            // slots are pushed at the head, so expire from the tail (oldest first):
+            ScheduledInjectionImpl injection = wheel[0][(int)(tick & SLOT_MASK)];
+            wheel[0][(int)(tick & SLOT_MASK)] = null;
+            while (injection != null && injection.next != null) {
+                injection = injection.next;
+            }
+            while (injection != null) {
+                final ScheduledInjectionImpl prev = injection.prev;
+                size--;
+                addExpired(injection);
+                injection = prev;
+            }
+        }
+
+        final ScheduledInjectionImpl batch = expiredHead;
+        expiredHead = expiredTail = null;
+        for (ScheduledInjectionImpl injection = batch; injection != null; injection = injection.next) {
+            injection.state = injection.isPeriodic() ? STATE_FIRING : STATE_EXPIRED;
+        }
+        nextWakeTick = computeNextWakeTick();
+        return batch;
+    }
+
+    /**
+     * Computes the next tick at which an injection may be due: the next occupied slot 
+     * in the lowest level, or the next cascade if there is none before it. 
+     */
+    private final long computeNextWakeTick() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        final long nextCascadeTick = (currentTick | SLOT_MASK) + 1;
+        for (long tick = currentTick + 1; tick < nextCascadeTick; tick++) {
+            if (wheel[0][(int)(tick & SLOT_MASK)] != null) {
+                return tick;
+            }
+        }
+        return nextCascadeTick;
+    }
+
+    /**
+     * Injects a batch of expired injections in the order in which they expired. 
+     */
+    private final void inject(ScheduledInjectionImpl batch) {
+        while (batch != null) {
+            final ScheduledInjectionImpl next = batch.next;
+            batch.next = null;
+            if (batch.isPeriodic()) {
+                injectPeriodic(batch);
+            }
+            else {
+                final IRogMessage message = batch.message;
+                batch.message = null;
+                try {
+                    if (!target.inject(message)) {
+                        message.dispose();
+                    }
+                }
+                catch (Throwable thrown) {
+                    tracer.log("Scheduled injection of message failed: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.WARNING);
+                }
+            }
+            batch = next;
+        }
+    }
+
+    private final void injectPeriodic(final ScheduledInjectionImpl injection) {
+        try {
+            if (target.isPrimaryLost()) {
+                tracer.log("Periodic injection stopped, the engine is not primary.", Tracer.Level.INFO);
+                stop(injection);
+                return;
+            }
+
+            IRogMessage message = injection.message;
+            if (message != null && message.getOwnershipCount() > 1) {
+                // still held by the engine or the application:
+                injection.message = null;
+                message.dispose();
+                message = null;
+            }
+            if (message == null) {
+                message = injection.factory.createMessage();
+                injection.message = message;
+            }
+
+            // injection transfers a reference to the engine, keep ours:
+            message.acquire();
+            if (!target.inject(message)) {
+                // engine not started yet, skip this period:
+                message.dispose();
+            }
+        }
+        catch (Throwable thrown) {
+            tracer.log("Periodic injection failed, stopping it: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.SEVERE);
+            stop(injection);
+            return;
+        }
+
+        synchronized (this) {
+            if (injection.state == STATE_FIRING && !closed) {
+                final long nowMicros = clock.getTimeMicros();
+                long deadlineMicros = injection.deadlineMicros + injection.periodMicros;
+                if (deadlineMicros <= nowMicros) {
+                    // fell behind, skip the missed periods:
+                    deadlineMicros += ((nowMicros - deadlineMicros) / injection.periodMicros + 1) * injection.periodMicros;
+                }
+                injection.setDeadline(deadlineMicros);
+                injection.state = STATE_SCHEDULED;
+                add(injection);
+                if (injection.deadlineTick < nextWakeTick) {
+                    nextWakeTick = injection.deadlineTick;
+                }
+                return;
+            }
+        }
+        // canceled while firing or the scheduler was closed:
+        stop(injection);
+    }
+
+    /**
+     * Stops a periodic injection that is firing, releasing its message.
+     */
+    private final void stop(final ScheduledInjectionImpl injection) {
+        final IRogMessage message;
+        synchronized (this) {
+            injection.state = STATE_CANCELED;
+            message = injection.message;
+            injection.message = null;
+        }
+        if (message != null) {
+            message.dispose();
+        }
+    }
+}
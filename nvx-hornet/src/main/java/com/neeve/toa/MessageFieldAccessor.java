@@ -0,0 +1,240 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.lang.reflect.Method;
+
+/**
+ * Reads a field of a message type through the type's generated getter. 
+ * <p>
+ * When the message type was compiled with the Hornet annotation processor (the <code>nvx-hornet-processor</code> 
+ * module) on its compile classpath, an accessor reads the field through the type's {@link CompiledFieldAccessors}, 
+ * which invoke the getter (and the field's <code>has</code> method, if it has one) directly, so that reading the 
+ * field at send time doesn't go through a reflective invocation that boxes its result. Integral fields are read 
+ * as primitives. Fields of other message types are read reflectively. 
+ * <p>
+ * Accessors are used by compiled topic resolution and shard assignment; they are not intended 
+ * to be subclassed by applications.
+ * 
+ * @threading Accessors are stateless and safe for concurrent use. 
+ */
+public abstract class MessageFieldAccessor {
+
+    /**
+     * The type of value that an accessor reads.
+     */
+    enum Kind {
+        /**
+         * An <code>int</code>, <code>short</code> or <code>byte</code> field read with {@link MessageFieldAccessor#getInt(Object)}.
+         */
+        INT,
+        /**
+         * A <code>long</code> field read with {@link MessageFieldAccessor#getLong(Object)}.
+         */
+        LONG,
+        /**
+         * Any other field read with {@link MessageFieldAccessor#getObject(Object)}.
+         */
+        OBJECT
+    }
+
+    private Kind kind;
+    private String field;
+
+    /**
+     * Constructor for accessor implementations. 
+     */
+    protected MessageFieldAccessor() {}
+
+    /**
+     * Tests whether the field is set. 
+     * 
+     * @param message The message. 
+     * @return <code>true</code> if the field is set (or if the message type can't tell).
+     */
+    public boolean isSet(final Object message) throws Exception {
+        return true;
+    }
+
+    /**
+     * Reads an integral field.
+     * 
+     * @param message The message.
+     * @return The field's value. 
+     */
+    public int getInt(final Object message) throws Exception {
+        throw new UnsupportedOperationException("'" + field + "' is not an int field");
+    }
+
+    /**
+     * Reads a long field.
+     * 
+     * @param message The message.
+     * @return The field's value. 
+     */
+    public long getLong(final Object message) throws Exception {
+        throw new UnsupportedOperationException("'" + field + "' is not a long field");
+    }
+
+    /**
+     * Reads a field that isn't integral.
+     * 
+     * @param message The message.
+     * @return The field's value. 
+     */
+    public Object getObject(final Object message) throws Exception {
+        throw new UnsupportedOperationException("'" + field + "' is not an object field");
+    }
+
+    /**
+     * @return The type of value that this accessor reads. 
+     */
+    final Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The name of the field that this accessor reads. 
+     */
+    final String getField() {
+        return field;
+    }
+
+    /**
+     * Creates an accessor for a field of a message type. 
+     * 
+     * @param messageType The message type. 
+     * @param field The name of the field (for example <code>symbol</code> for <code>getSymbol()</code>).
+     * @return The accessor or <code>null</code> if the message type doesn't have a getter for the field. 
+     */
+    static final MessageFieldAccessor forField(final Class<?> messageType, final String field) {
+        final String capitalized = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+        final Method getter = findMethod(messageType, "get" + capitalized);
+        if (getter == null) {
+            return null;
+        }
+        Method hasser = findMethod(messageType, "has" + capitalized);
+        if (hasser != null && hasser.getReturnType() != Boolean.TYPE) {
+            hasser = null;
+        }
+
+        final Class<?> type = getter.getReturnType();
+        final Kind kind = type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE ? Kind.INT : type == Long.TYPE ? Kind.LONG : Kind.OBJECT;
+
+        MessageFieldAccessor accessor = null;
+        final CompiledFieldAccessors compiled = CompiledFieldAccessors.forClass(messageType);
+        if (compiled != null) {
+            final int index = compiled.indexOf(capitalized);
+            if (index >= 0) {
+                accessor = new CompiledFieldAccessor(compiled, index);
+            }
+        }
+        if (accessor == null) {
+            getter.setAccessible(true);
+            if (hasser != null) {
+                hasser.setAccessible(true);
+            }
+            accessor = new ReflectiveFieldAccessor(getter, hasser);
+        }
+        accessor.kind = kind;
+        accessor.field = field;
+        return accessor;
+    }
+
+    private static final Method findMethod(final Class<?> type, final String name) {
+        try {
+            final Method method = type.getMethod(name);
+            return method.getReturnType() != Void.TYPE ? method : null;
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a field through the compiled field accessors of its message type. 
+     */
+    private static final class CompiledFieldAccessor extends MessageFieldAccessor {
+        private final CompiledFieldAccessors accessors;
+        private final int index;
+
+        CompiledFieldAccessor(final CompiledFieldAccessors accessors, final int index) {
+            this.accessors = accessors;
+            this.index = index;
+        }
+
+        @Override
+        public final boolean isSet(final Object message) {
+            return accessors.isSet(index, message);
+        }
+
+        @Override
+        public final int getInt(final Object message) {
+            return accessors.getInt(index, message);
+        }
+
+        @Override
+        public final long getLong(final Object message) {
+            return accessors.getLong(index, message);
+        }
+
+        @Override
+        public final Object getObject(final Object message) {
+            return accessors.getObject(index, message);
+        }
+    }
+
+    /**
+     * Reads a field reflectively, used when its message type has no compiled field accessors. 
+     */
+    private static final class ReflectiveFieldAccessor extends MessageFieldAccessor {
+        private static final Object[] NO_ARGS = new Object[0];
+
+        private final Method getter;
+        private final Method hasser;
+
+        ReflectiveFieldAccessor(final Method getter, final Method hasser) {
+            this.getter = getter;
+            this.hasser = hasser;
+        }
+
+        @Override
+        public final boolean isSet(final Object message) throws Exception {
+            return hasser == null || Boolean.TRUE.equals(hasser.invoke(message, NO_ARGS));
+        }
+
+        @Override
+        public final int getInt(final Object message) throws Exception {
+            return ((Number)getter.invoke(message, NO_ARGS)).intValue();
+        }
+
+        @Override
+        public final long getLong(final Object message) throws Exception {
+            return ((Number)getter.invoke(message, NO_ARGS)).longValue();
+        }
+
+        @Override
+        public final Object getObject(final Object message) throws Exception {
+            return getter.invoke(message, NO_ARGS);
+        }
+    }
+}
@@ -42,6 +42,108 @@ import com.neeve.rog.IRogMessage;
  */
 public interface MessageInjector {
 
+    /**
+     * A handle to a message injection scheduled with {@link MessageInjector#scheduleInjection(IRogMessage, long)}
+     * or {@link MessageInjector#injectPeriodically(PeriodicMessageFactory, long)}.
+     * 
+     * @threading This interface is safe for concurrent access by multiple threads.
+     */
+    public interface ScheduledInjection {
+
+        /**
+         * Returns the time at which the message is due to be injected. 
+         * <p>
+         * For a periodic injection this is the time of the next injection.
+         * 
+         * @return The deadline in microseconds as given by {@link EngineClock#getTimeMicros()}.
+         */
+        public long getDeadlineMicros();
+
+        /**
+         * Cancels the injection if the message has not yet been injected, or stops a periodic injection. 
+         * <p>
+         * The message of a canceled injection is disposed. 
+         * 
+         * @return True if the injection was canceled, false if it had already been injected, canceled or stopped. 
+         */
+        public boolean cancel();
+
+        /**
+         * Tests whether the injection has been performed or canceled. 
+         * 
+         * @return True if the message has been injected or the injection canceled, or if a periodic
+         * injection has been canceled or stopped. 
+         */
+        public boolean isDone();
+    }
+
+    /**
+     * The outcome of a {@link MessageInjector#tryInjectMessage(IRogMessage) flow controlled injection}.
+     */
+    public enum InjectionOutcome {
+        /**
+         * The message was injected, ownership of the message has passed to the engine. 
+         */
+        Accepted,
+
+        /**
+         * The message was not injected because the flow controlled injection capacity has been 
+         * reached, the caller retains ownership of the message. 
+         */
+        RejectedFull,
+
+        /**
+         * The message was not injected because the engine isn't started or isn't primary, the 
+         * caller retains ownership of the message. 
+         */
+        NotPrimary
+    }
+
+    /**
+     * Receives notification of changes in the depth of {@link MessageInjector#tryInjectMessage(IRogMessage) flow controlled injections}.
+     * <p>
+     * Notifications are made while the injection lock is held, from the thread whose injection 
+     * raised the depth to the high watermark, or from the engine's dispatch thread when dispatch 
+     * lowers it to the low watermark. The depth is also reset to 0 when the engine stops or changes 
+     * role, since messages in its input queue are then no longer dispatched. Implementations must therefore return quickly and must not block, 
+     * typically by signaling feed threads to slow down or resume. 
+     */
+    public interface InjectionWatermarkListener {
+
+        /**
+         * Called when the depth rises to the high watermark. 
+         * 
+         * @param depth The depth.
+         */
+        public void onHighWatermark(int depth);
+
+        /**
+         * Called when the depth falls to the low watermark after having reached the high watermark. 
+         * 
+         * @param depth The depth.
+         */
+        public void onLowWatermark(int depth);
+    }
+
+    /**
+     * Creates the messages injected by {@link MessageInjector#injectPeriodically(PeriodicMessageFactory, long)}.
+     * 
+     * @threading The factory is called by the thread that schedules the periodic injection and
+     * then by the scheduler thread, but never concurrently. 
+     */
+    public interface PeriodicMessageFactory {
+
+        /**
+         * Creates a message to inject. 
+         * <p>
+         * The factory is called to create the first message and thereafter only when the message last 
+         * injected is still held by the engine or the application when the next period elapses. 
+         * 
+         * @return A new message, to which the caller takes a reference. 
+         */
+        public IRogMessage createMessage();
+    }
+
     /**
      * Enqueue a message into an application's {@link AepEngine}'s event multiplexer. 
      * <p>
@@ -78,8 +180,21 @@ public interface MessageInjector {
      * Enqueue a message into an application's {@link AepEngine}'s event multiplexer. 
      * <p> 
      * This method is the same as the corresponding {@link AepEngine#injectMessage(IRogMessage, boolean, int)}
-     * method <b>except</b> that this method disallows injection of message from the {@link AepEngine}'s 
-     * dispatch thread (i.e. from a message handler). 
+     * method <b>except</b> in how it handles injection from the {@link AepEngine}'s dispatch thread 
+     * (i.e. from a message handler). Injection from a message handler must be enabled (see 
+     * {@link TopicOrientedApplication#PROP_ENABLE_DISPATCH_INJECTION}), otherwise it fails with an 
+     * {@link UnsupportedOperationException}. A message injected from a message handler is held in a preallocated 
+     * queue until the transaction in which the message being dispatched was processed has completed, and 
+     * is then injected without blocking (in the order in which it was injected, with its delay). If the 
+     * handlers don't complete successfully, the messages they injected are discarded. A message injected from the 
+     * dispatch thread by a handler for a non message event is injected immediately without blocking. In 
+     * both cases <code>nonBlocking</code> is ignored since the dispatch thread can't block waiting for 
+     * space in its own input queue.
+     * <p>
+     * When injection lanes are enabled (see {@link TopicOrientedApplication#PROP_INJECTION_LANES}) a 
+     * blocking injection whose lane is full waits for space in the lane. A non blocking injection never 
+     * waits: when its lane is full it is injected directly into the engine without blocking, ahead of the 
+     * messages remaining in the lane. 
      * 
      * @param message The IRogMessage to enqueue. 
      *  
@@ -95,8 +210,110 @@ public interface MessageInjector {
      * @threading This method is safe for concurrent access by multiple threads. 
      * 
      * @throws IllegalStateException If the underlying AepEngine has not been started. 
-     * @throws UnsupportedOperationException if this is called from the {@link AepEngine}'s dispatch therad (i.e. a message/event handler). 
+     * @throws UnsupportedOperationException If called from a message handler and injection from message 
+     * handlers isn't enabled.
+     * @see TopicOrientedApplication#PROP_ENABLE_DISPATCH_INJECTION
+     * @see TopicOrientedApplication#PROP_DISPATCH_INJECTION_QUEUE_CAPACITY
+     * @see TopicOrientedApplication#PROP_INJECTION_LANES
      */
     void injectMessage(IRogMessage message, boolean nonBlocking, int delay);
 
+    /**
+     * Schedules a message to be injected into an application's {@link AepEngine}'s event multiplexer 
+     * after a delay. 
+     * <p>
+     * Unlike {@link #injectMessage(IRogMessage, boolean, int)}, which passes its millisecond delay to 
+     * the {@link AepEngine}, scheduled injections are held by the application in a timing wheel 
+     * serviced by a single scheduler thread, which is intended for applications that keep large numbers 
+     * of timers (order expiries, heartbeats, etc). Deadlines are computed from {@link EngineClock#getTimeMicros()}
+     * and expire with the granularity of the scheduler's tick. Messages that expire in the same tick are 
+     * injected together, without blocking, as though by {@link #injectMessage(IRogMessage, boolean, int) injectMessage(message, true, 0)}. 
+     * A message that expires while the engine is not started or not primary is not injected and is disposed.
+     * <p>
+     * The application takes ownership of the message until it is injected. 
+     * 
+     * @param message The message to inject. 
+     * @param delayMicros The delay in microseconds after which the message should be injected. 
+     * 
+     * @return A handle with which the injection can be canceled. 
+     * 
+     * @threading This method is safe for concurrent access by multiple threads. 
+     * 
+     * @see TopicOrientedApplication#PROP_INJECTION_SCHEDULER_TICK
+     */
+    public ScheduledInjection scheduleInjection(IRogMessage message, long delayMicros);
+
+    /**
+     * Schedules messages to be injected into an application's {@link AepEngine}'s event multiplexer 
+     * periodically. 
+     * <p>
+     * Periodic injections are performed by the same scheduler as {@link #scheduleInjection(IRogMessage, long)},
+     * the first a period after this method is called. Rather than allocating a message for each period, 
+     * the scheduler holds a reference to the message it last injected and injects that same instance again 
+     * when the engine and application have released it. It calls the factory for a new message only when the 
+     * previous one is still held (for example because it is still queued in the engine or was retained by a 
+     * handler). So handlers must treat the message as read only and must not rely on the contents of a 
+     * message after it has been dispatched unless they acquire it. 
+     * <p>
+     * Periods that elapse before the engine has started are skipped. The periodic injection stops 
+     * automatically, disposing its message, once the engine is started but is not primary (or loses 
+     * its primary role), or is stopped. A backup that becomes primary must schedule its periodic 
+     * injections again. 
+     * 
+     * @param factory The factory that creates the messages to inject. The first message is created 
+     * by this method. 
+     * @param periodMicros The period in microseconds. 
+     * 
+     * @return A handle with which the periodic injection can be stopped. 
+     * 
+     * @threading This method is safe for concurrent access by multiple threads. 
+     * 
+     * @throws IllegalArgumentException If the period isn't positive. 
+     * @see TopicOrientedApplication#PROP_INJECTION_SCHEDULER_TICK
+     */
+    public ScheduledInjection injectPeriodically(PeriodicMessageFactory factory, long periodMicros);
+
+    /**
+     * Attempts to enqueue a message into an application's {@link AepEngine}'s event multiplexer without 
+     * blocking, subject to flow control. 
+     * <p>
+     * Unlike {@link #injectMessage(IRogMessage, boolean)}, which either blocks the caller or queues 
+     * the message without bound, this method limits the number of messages injected by it that the 
+     * engine has not yet dispatched (the depth) and reports the outcome so that feed threads can 
+     * throttle themselves. When the depth reaches the capacity, messages are rejected. A 
+     * {@link InjectionWatermarkListener} is notified when the depth reaches the high watermark and 
+     * when it subsequently falls back to the low watermark. 
+     * <p>
+     * Messages are injected without a delay. Messages injected from the engine's dispatch thread 
+     * (from a handler) are not subject to flow control and are handled as described for 
+     * {@link #injectMessage(IRogMessage, boolean, int)}. 
+     * 
+     * @param message The message to inject.
+     * @return The outcome of the injection. Unless the message is {@link InjectionOutcome#Accepted}
+     * the caller retains ownership of it. 
+     * 
+     * @threading This method is safe for concurrent access by multiple threads. 
+     * 
+     * @see TopicOrientedApplication#PROP_FLOW_CONTROLLED_INJECTION_CAPACITY
+     * @see TopicOrientedApplication#PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK
+     * @see TopicOrientedApplication#PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK
+     */
+    public InjectionOutcome tryInjectMessage(IRogMessage message);
+
+    /**
+     * Returns the number of messages injected with {@link #tryInjectMessage(IRogMessage)} that the 
+     * engine has not yet dispatched. 
+     * 
+     * @return The flow controlled injection depth. 
+     */
+    public int getInjectionQueueDepth();
+
+    /**
+     * Sets the listener notified when the {@link #getInjectionQueueDepth() flow controlled injection depth}
+     * crosses its watermarks. 
+     * 
+     * @param listener The listener, or null to remove the current listener. 
+     */
+    public void setInjectionWatermarkListener(InjectionWatermarkListener listener);
+
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.neeve.sma.MessageView;
+import com.neeve.toa.opt.PartitionedChannelFilterProvider;
+import com.neeve.toa.service.ToaServiceChannel;
+
+/**
+ * Assigns messages to the partitions of a channel key variable by a field of the message. 
+ * <p>
+ * The field is read through a {@link MessageFieldAccessor} bound to each message type on first 
+ * use and its value is hashed with {@link PartitionedChannelFilterProvider#partitionOf(Object, int)} 
+ * (integral values without boxing). Partitioners resolve the shard of sharded channels (see 
+ * {@link ShardAssignment}) and the partition of partitioned channels when the compiled topic 
+ * resolver resolves a sent message's topic. 
+ * 
+ * @threading This class is safe for concurrent use.
+ */
+final class MessagePartitioner {
+    /**
+     * Marks message types that don't have the partition key field. 
+     */
+    private static final MessageFieldAccessor NO_FIELD = new MessageFieldAccessor() {};
+
+    private final String keyVariable;
+    private final int count;
+    private final String field;
+    private final ConcurrentHashMap<Class<?>, MessageFieldAccessor> accessors = new ConcurrentHashMap<Class<?>, MessageFieldAccessor>();
+
+    /**
+     * Creates a partitioner. 
+     * 
+     * @param keyVariable The channel key variable whose value is the partition. 
+     * @param count The number of partitions. 
+     * @param field The name of the message field by which messages are assigned to partitions.
+     */
+    MessagePartitioner(final String keyVariable, final int count, final String field) {
+        this.keyVariable = keyVariable;
+        this.count = count;
+        this.field = field;
+    }
+
+    /**
+     * @return The channel key variable whose value is the partition.
+     */
+    final String getKeyVariable() {
+        return keyVariable;
+    }
+
+    /**
+     * Tests whether a channel's key contains this partitioner's key variable. 
+     * 
+     * @param channel The channel. 
+     * @return <code>true</code> if the channel is partitioned by this partitioner.
+     */
+    final boolean isPartitioned(final ToaServiceChannel channel) {
+        return PartitionedChannelFilterProvider.isKeyedBy(channel, keyVariable);
+    }
+
+    /**
+     * Returns the partition of a message. 
+     * 
+     * @param message The message. 
+     * @return The partition or -1 if the message doesn't have the partition key field or it isn't set. 
+     */
+    final int partitionOf(final MessageView message) {
+        final MessageFieldAccessor accessor = accessorFor(message.getClass());
+        if (accessor == NO_FIELD) {
+            return -1;
+        }
+
+        try {
+            if (!accessor.isSet(message)) {
+                return -1;
+            }
+            switch (accessor.getKind()) {
+                case INT:
+                    return PartitionedChannelFilterProvider.partitionOf(accessor.getInt(message), count);
+                case LONG:
+                    return PartitionedChannelFilterProvider.partitionOf(accessor.getLong(message), count);
+                default:
+                    final Object value = accessor.getObject(message);
+                    return value != null ? PartitionedChannelFilterProvider.partitionOf(value, count) : -1;
+            }
+        }
+        catch (Exception e) {
+            throw new ToaException("Error reading '" + keyVariable + "' key field '" + field + "' of '" + message.getClass().getName() + "': " + e.getMessage(), e);
+        }
+    }
+
+    private final MessageFieldAccessor accessorFor(final Class<?> messageType) {
+        MessageFieldAccessor accessor = accessors.get(messageType);
+        if (accessor == null) {
+            accessor = MessageFieldAccessor.forField(messageType, field);
+            if (accessor == null) {
+                accessor = NO_FIELD;
+            }
+            accessors.put(messageType, accessor);
+        }
+        return accessor;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MessagePartitioner [keyVariable=" + keyVariable + ", count=" + count + ", field=" + field + "]";
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import com.neeve.rog.IRogMessage;
+
+/**
+ * Creates the messages sent on the additional channels of a message that is sent on 
+ * multiple channels. 
+ * <p>
+ * The engine takes over a message once it is sent and has no API to send one serialized 
+ * payload on several channels, so each additional channel needs a message of its own. Each 
+ * additional channel's message is a <code>copy()</code> of the message. The engine encodes 
+ * each message it sends, so the message is not encoded here as well: copying the fields 
+ * is cheaper than encoding the message and decoding a replica from the encoding (see the 
+ * <code>MessageReplicationBenchmark</code> in the benchmarks module). 
+ * <p>
+ * A replicator holds no per send state and can be shared by concurrent senders. 
+ * 
+ * @threading This class is safe for concurrent use by multiple threads.
+ */
+final class MessageReplicator {
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final String messageType;
+    private final Method copy;
+
+    private MessageReplicator(final String messageType, final Method copy) {
+        this.messageType = messageType;
+        this.copy = copy;
+    }
+
+    /**
+     * Creates the replicator for a message class. 
+     * 
+     * @param messageClass The message class.
+     * @param messageType The message type (for error reporting).
+     * @return The replicator.
+     * @throws ToaException If the message class can't be copied.
+     */
+    static MessageReplicator forClass(final Class<?> messageClass, final String messageType) {
+        try {
+            return new MessageReplicator(messageType, messageClass.getMethod("copy"));
+        }
+        catch (NoSuchMethodException e) {
+            throw new ToaException("Message class '" + messageType + "' can't be copied, it can't be sent on multiple channels");
+        }
+    }
+
+    /**
+     * Creates a message for an additional channel. 
+     * 
+     * @param message The message being sent, which must not have been sent yet.
+     * @return The message to send on the additional channel. 
+     */
+    final IRogMessage replicate(final IRogMessage message) {
+        try {
+            return (IRogMessage)copy.invoke(message, NO_ARGS);
+        }
+        catch (InvocationTargetException e) {
+            throw new ToaException("Error replicating '" + messageType + "' for send on multiple channels: " + e.getCause().getMessage(), e.getCause());
+        }
+        catch (Exception e) {
+            throw new ToaException("Error replicating '" + messageType + "' for send on multiple channels: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.Properties;
+
+import com.neeve.lang.XString;
+import com.neeve.server.app.annotations.AppStat;
+import com.neeve.sma.MessageView;
+import com.neeve.sma.MessageChannel.RawKeyResolutionTable;
+import com.neeve.stats.IStats.Counter;
+import com.neeve.stats.IStats.Latencies;
+import com.neeve.stats.StatsFactory;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.TopicResolver;
+
+/**
+ * Send statistics for a single message type on the channel it is mapped to. 
+ * <p>
+ * Send stats are collected when {@link TopicOrientedApplication#PROP_ENABLE_SEND_STATS} is 
+ * enabled and are reported as user stats (via {@link AppStat}) named:
+ * <ul>
+ * <li><code>hornet.send.{bus}.{channel}.{MessageType}.sends</code>: the number of messages sent. 
+ * <li><code>hornet.send.{bus}.{channel}.{MessageType}.topicResolution</code>: the time in nanoseconds spent 
+ * resolving topics with the channel's {@link TopicResolver}. 
+ * <li><code>hornet.send.{bus}.{channel}.{MessageType}.channelNotReady</code>: the number of sends that failed 
+ * because the channel wasn't up.
+ * <li><code>hornet.send.{bus}.{channel}.{MessageType}.resolverFailures</code>: the number of sends that failed 
+ * because the {@link TopicResolver} threw an exception. 
+ * </ul>
+ * The stats are created up front when messaging is configured (or, for messages resolved on 
+ * first send by lazy message resolution, when the message is first sent), and recording them 
+ * doesn't allocate. 
+ * 
+ * @threading Like sends themselves, recording is not safe for concurrent use by multiple threads.
+ */
+final class MessageSendStats {
+    @AppStat
+    final Counter sends;
+    @AppStat
+    final Latencies topicResolution;
+    @AppStat
+    final Counter channelNotReady;
+    @AppStat
+    final Counter resolverFailures;
+
+    MessageSendStats(final String busName, final String channelName, final String messageType) {
+        final String prefix = "hornet.send." + busName + "." + channelName + "." + messageType;
+        sends = StatsFactory.createCounterStat(prefix + ".sends");
+        topicResolution = StatsFactory.createLatencyStat(prefix + ".topicResolution");
+        channelNotReady = StatsFactory.createCounterStat(prefix + ".channelNotReady");
+        resolverFailures = StatsFactory.createCounterStat(prefix + ".resolverFailures");
+    }
+
+    /**
+     * Wraps a topic resolver so that its resolution time and failures are recorded in these stats.
+     * 
+     * @param topicResolver The topic resolver to wrap (may be null).
+     * @return The wrapping resolver or <code>null</code> if <code>topicResolver</code> is null.
+     */
+    final TopicResolver<?> measure(final TopicResolver<?> topicResolver) {
+        return topicResolver != null ? new MeasuredTopicResolver(topicResolver) : null;
+    }
+
+    /**
+     * A {@link TopicResolver} that records resolution latencies and failures. 
+     */
+    final private class MeasuredTopicResolver implements TopicResolver<MessageView> {
+        @SuppressWarnings("rawtypes")
+        private final TopicResolver delegate;
+
+        MeasuredTopicResolver(final TopicResolver<?> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void initialize(final ToaServiceChannel serviceChannel) {
+            delegate.initialize(serviceChannel);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public XString resolveTopic(final MessageView message, final RawKeyResolutionTable krt) throws Exception {
+            final long start = System.nanoTime();
+            try {
+                final XString topic = delegate.resolveTopic(message, krt);
+                topicResolution.add(System.nanoTime() - start);
+                return topic;
+            }
+            catch (Exception e) {
+                resolverFailures.increment();
+                throw e;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public XString resolveTopic(final MessageView message, final Properties krt) throws Exception {
+            final long start = System.nanoTime();
+            try {
+                final XString topic = delegate.resolveTopic(message, krt);
+                topicResolution.add(System.nanoTime() - start);
+                return topic;
+            }
+            catch (Exception e) {
+                resolverFailures.increment();
+                throw e;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
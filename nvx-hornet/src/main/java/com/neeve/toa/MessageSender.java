@@ -21,6 +21,7 @@
  */
 package com.neeve.toa;
 
+import java.util.List;
 import java.util.Properties;
 
 import com.neeve.aep.AepEngine;
@@ -124,4 +125,36 @@ public interface MessageSender {
      * @param message The message to send. 
      */
     public void sendMessage(final IRogMessage message, final RawKeyResolutionTable rawKeyResolutionTable);
+
+    /**
+     * Sends a batch of messages, each using its message's default channel. This method has the same semantics as calling 
+     * {@link #sendMessage(IRogMessage)} for each message in the batch in order, but the channel lookup for the message type, 
+     * and the application's role and readiness checks are done once per batch rather than once per message. 
+     * <p>
+     * Messages are sent in the order in which they appear in the batch. Before any message is sent every message in 
+     * the batch is checked to have a channel that is ready for messaging; if any message fails this check then no 
+     * messages in the batch are sent. 
+     * 
+     * @threading This method is not safe for concurrent access by multiple threads with itself or any of the other engine / TOA methods.
+     * 
+     * @see AepEngine#sendMessage(MessageChannel, IRogMessage)
+     * @param messages The array holding the messages to send. 
+     * @param offset The index of the first message in the array to send. 
+     * @param count The number of messages to send.
+     * @throws IndexOutOfBoundsException If offset and count do not describe a range within the array.
+     */
+    public void sendMessages(final IRogMessage[] messages, final int offset, final int count);
+
+    /**
+     * Sends a batch of messages, each using its message's default channel. 
+     * <p>
+     * This method has the same semantics as {@link #sendMessages(IRogMessage[], int, int)} for the messages 
+     * in the provided list. 
+     * 
+     * @threading This method is not safe for concurrent access by multiple threads with itself or any of the other engine / TOA methods.
+     * 
+     * @see #sendMessages(IRogMessage[], int, int)
+     * @param messages The messages to send. 
+     */
+    public void sendMessages(final List<? extends IRogMessage> messages);
 }
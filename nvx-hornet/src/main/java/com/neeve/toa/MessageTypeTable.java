@@ -0,0 +1,172 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.neeve.lang.XLongLinkedHashMap;
+
+/**
+ * An immutable table of values keyed by message type. 
+ * <p>
+ * Message types are identified by their factory id and message id. Because the set of 
+ * message types an application sends is closed once messaging is configured, the table 
+ * is built once and laid out as a two level array indexed by factory id and then message 
+ * id, so that a lookup is a couple of bounds checked array loads with no hashing. Types
+ * whose factory or message ids are too sparse to lay out densely are held in a hash 
+ * table that is consulted only when the array lookup misses.
+ * 
+ * @threading This class is safe for concurrent reads once constructed. 
+ */
+final class MessageTypeTable<V> {
+    /**
+     * The maximum span of factory ids that is laid out as an array. 
+     */
+    static final int MAX_DENSE_FACTORY_RANGE = 4096;
+
+    /**
+     * The maximum span of message ids within a factory that is laid out as an array.
+     */
+    static final int MAX_DENSE_MESSAGE_RANGE = 65536;
+
+    private final int minFactoryId;
+    private final int[] messageIdBases;
+    private final Object[][] rows;
+    private final XLongLinkedHashMap<V> sparse;
+    private final int size;
+
+    /**
+     * Creates a table from values keyed by unique message id 
+     * (<code>factoryId &lt;&lt; 32 | messageId</code>).
+     * 
+     * @param valuesByUniqueId The values to hold.
+     */
+    MessageTypeTable(final Map<Long, V> valuesByUniqueId) {
+        // group by factory (negative message ids can't be decoded from the unique id
+        // so are kept in the sparse table):
+        XLongLinkedHashMap<V> sparse = null;
+        final TreeMap<Integer, List<Map.Entry<Long, V>>> byFactory = new TreeMap<Integer, List<Map.Entry<Long, V>>>();
+        for (Map.Entry<Long, V> entry : valuesByUniqueId.entrySet()) {
+            if (messageId(entry.getKey()) < 0) {
+                if (sparse == null) {
+                    sparse = XLongLinkedHashMap.newInstance();
+                }
+                sparse.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            final int factoryId = factoryId(entry.getKey());
+            List<Map.Entry<Long, V>> entries = byFactory.get(factoryId);
+            if (entries == null) {
+                byFactory.put(factoryId, entries = new ArrayList<Map.Entry<Long, V>>());
+            }
+            entries.add(entry);
+        }
+
+        if (byFactory.isEmpty() || (long)byFactory.lastKey() - byFactory.firstKey() >= MAX_DENSE_FACTORY_RANGE) {
+            // no types, or factory ids too spread out to index directly: 
+            minFactoryId = 0;
+            messageIdBases = new int[0];
+            rows = new Object[0][];
+            for (List<Map.Entry<Long, V>> entries : byFactory.values()) {
+                for (Map.Entry<Long, V> entry : entries) {
+                    if (sparse == null) {
+                        sparse = XLongLinkedHashMap.newInstance();
+                    }
+                    sparse.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        else {
+            minFactoryId = byFactory.firstKey();
+            messageIdBases = new int[byFactory.lastKey() - minFactoryId + 1];
+            rows = new Object[messageIdBases.length][];
+            for (Map.Entry<Integer, List<Map.Entry<Long, V>>> factory : byFactory.entrySet()) {
+                int minMessageId = Integer.MAX_VALUE;
+                int maxMessageId = Integer.MIN_VALUE;
+                for (Map.Entry<Long, V> entry : factory.getValue()) {
+                    minMessageId = Math.min(minMessageId, messageId(entry.getKey()));
+                    maxMessageId = Math.max(maxMessageId, messageId(entry.getKey()));
+                }
+
+                if ((long)maxMessageId - minMessageId < MAX_DENSE_MESSAGE_RANGE) {
+                    final int index = factory.getKey() - minFactoryId;
+                    final Object[] row = new Object[maxMessageId - minMessageId + 1];
+                    for (Map.Entry<Long, V> entry : factory.getValue()) {
+                        row[messageId(entry.getKey()) - minMessageId] = entry.getValue();
+                    }
+                    messageIdBases[index] = minMessageId;
+                    rows[index] = row;
+                }
+                else {
+                    for (Map.Entry<Long, V> entry : factory.getValue()) {
+                        if (sparse == null) {
+                            sparse = XLongLinkedHashMap.newInstance();
+                        }
+                        sparse.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+        this.sparse = sparse;
+        this.size = valuesByUniqueId.size();
+    }
+
+    private static final int factoryId(final long uniqueId) {
+        return (int)(uniqueId >> 32);
+    }
+
+    private static final int messageId(final long uniqueId) {
+        return (int)uniqueId;
+    }
+
+    /**
+     * Looks up the value for a message type.
+     * 
+     * @param factoryId The message's factory id. 
+     * @param messageId The message's id (type) within its factory.
+     * @return The value or <code>null</code> if the type isn't in the table.
+     */
+    @SuppressWarnings("unchecked")
+    final V get(final int factoryId, final int messageId) {
+        final int factoryIndex = factoryId - minFactoryId;
+        if (factoryIndex >= 0 && factoryIndex < rows.length) {
+            final Object[] row = rows[factoryIndex];
+            if (row != null) {
+                final int messageIndex = messageId - messageIdBases[factoryIndex];
+                if (messageIndex >= 0 && messageIndex < row.length) {
+                    return (V)row[messageIndex];
+                }
+            }
+        }
+        return sparse != null ? sparse.get((((long)factoryId) << 32) | messageId) : null;
+    }
+
+    /**
+     * @return The number of message types in the table.
+     */
+    final int size() {
+        return size;
+    }
+}
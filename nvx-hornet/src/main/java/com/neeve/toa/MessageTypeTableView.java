@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.Map;
+
+/**
+ * A public, read only view of the table via which a {@link TopicOrientedApplication} 
+ * looks up the send contexts of the messages it sends. 
+ * <p>
+ * The table itself is package private. This view exists so that lookups can be measured 
+ * from outside this package (by the Hornet benchmarks) against the very table the 
+ * application uses, and is not meant for use by applications. 
+ * 
+ * @threading This class is safe for concurrent reads once constructed. 
+ */
+public final class MessageTypeTableView<V> {
+    private final MessageTypeTable<V> table;
+
+    /**
+     * Creates a table from values keyed by unique message id 
+     * (<code>factoryId &lt;&lt; 32 | messageId</code>).
+     * 
+     * @param valuesByUniqueId The values to hold.
+     */
+    public MessageTypeTableView(final Map<Long, V> valuesByUniqueId) {
+        this.table = new MessageTypeTable<V>(valuesByUniqueId);
+    }
+
+    /**
+     * Looks up the value for a message type.
+     * 
+     * @param factoryId The message's factory id. 
+     * @param messageId The message's id (type) within its factory.
+     * @return The value or <code>null</code> if the type isn't in the table.
+     */
+    public final V get(final int factoryId, final int messageId) {
+        return table.get(factoryId, messageId);
+    }
+
+    /**
+     * @return The number of message types in the table.
+     */
+    public final int size() {
+        return table.size();
+    }
+}
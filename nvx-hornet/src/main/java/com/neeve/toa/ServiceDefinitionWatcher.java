@@ -0,0 +1,243 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceModelCache;
+import com.neeve.toa.service.ToaServiceParser;
+import com.neeve.trace.Tracer;
+import com.neeve.util.UtlThrowable;
+
+/**
+ * Watches the service definition files an application was configured from for changes. 
+ * <p>
+ * Only service definitions loaded from the file system are watched, definitions loaded 
+ * from jars can't change while the application runs. A file is considered changed when its 
+ * modification time changes and its content no longer matches the content it was last 
+ * loaded from. The changed definition is validated, unmarshalled and handed to the watcher's 
+ * {@link Target}. Definitions that fail to unmarshal are reported and otherwise ignored 
+ * until they change again. 
+ * 
+ * @threading This class is safe for concurrent use. The target is called by the watcher thread.
+ */
+final class ServiceDefinitionWatcher {
+    /**
+     * The application to which changed service definitions are handed. 
+     */
+    interface Target {
+        /**
+         * Called when a watched service definition has changed. 
+         * 
+         * @param url The service definition's url. 
+         * @param reloaded The changed service definition.
+         */
+        void onServiceDefinitionChanged(final URL url, final ToaService reloaded);
+    }
+
+    /**
+     * A watched service definition file. 
+     */
+    private static final class WatchedFile {
+        final URL url;
+        final File file;
+        long lastModified;
+        String digest;
+
+        WatchedFile(final URL url, final File file) throws Exception {
+            this.url = url;
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.digest = ToaServiceModelCache.digest(url);
+        }
+    }
+
+    /**
+     * Polls the watched files.
+     */
+    private final class WatcherThread extends Thread {
+        private volatile boolean running = true;
+
+        WatcherThread(final String engineName) {
+            super("X-Hornet-ServiceWatcher-" + engineName);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Thread.sleep(intervalMillis);
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+
+                try {
+                    poll();
+                }
+                catch (Throwable thrown) {
+                    tracer.log("Error checking service definitions for changes: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.SEVERE);
+                }
+            }
+        }
+
+        final void shutdown() {
+            running = false;
+            interrupt();
+        }
+    }
+
+    private final Target target;
+    private final ToaServiceModelCache cache;
+    private final long intervalMillis;
+    private final Tracer tracer;
+    private final List<WatchedFile> files = new ArrayList<WatchedFile>();
+    private WatcherThread thread;
+    private boolean closed;
+
+    /**
+     * Creates a watcher. 
+     * 
+     * @param target The application to which changed definitions are handed.
+     * @param cache The service model cache through which the application loaded its services.
+     * @param intervalMillis The interval at which files are checked for changes.
+     * @param tracer The tracer for trace logging.
+     */
+    ServiceDefinitionWatcher(final Target target, final ToaServiceModelCache cache, final long intervalMillis, final Tracer tracer) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Service definition watch interval must be positive (was " + intervalMillis + ")");
+        }
+        this.target = target;
+        this.cache = cache;
+        this.intervalMillis = intervalMillis;
+        this.tracer = tracer;
+    }
+
+    /**
+     * Adds a service definition to watch. 
+     * 
+     * @param url The url from which the definition was loaded. 
+     * @return <code>true</code> if the definition is watched, <code>false</code> if it can't be watched 
+     * because it wasn't loaded from a file. 
+     */
+    final synchronized boolean watch(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return false;
+        }
+
+        try {
+            files.add(new WatchedFile(url, new File(url.toURI())));
+            return true;
+        }
+        catch (Exception e) {
+            tracer.log("Can't watch service definition '" + url + "' for changes: " + e.getMessage(), Tracer.Level.WARNING);
+            return false;
+        }
+    }
+
+    /**
+     * @return The number of watched service definitions. 
+     */
+    final synchronized int size() {
+        return files.size();
+    }
+
+    /**
+     * Starts the watcher thread. Has no effect if there are no service definitions to watch.
+     * 
+     * @param engineName The name of the engine (used to name the watcher thread).
+     */
+    final synchronized void start(final String engineName) {
+        if (closed || thread != null || files.isEmpty()) {
+            return;
+        }
+        thread = new WatcherThread(engineName);
+        thread.start();
+    }
+
+    /**
+     * Checks the watched service definitions for changes once, handing each changed 
+     * definition to the target. 
+     * 
+     * @return The number of changed definitions handed to the target.
+     */
+    final int poll() {
+        final List<WatchedFile> changed = new ArrayList<WatchedFile>();
+        final List<ToaService> reloaded = new ArrayList<ToaService>();
+        synchronized (this) {
+            for (WatchedFile watched : files) {
+                final long lastModified = watched.file.lastModified();
+                if (lastModified == watched.lastModified) {
+                    continue;
+                }
+                watched.lastModified = lastModified;
+
+                try {
+                    final String digest = ToaServiceModelCache.digest(watched.url);
+                    if (digest.equals(watched.digest)) {
+                        continue;
+                    }
+                    watched.digest = digest;
+                }
+                catch (Exception e) {
+                    tracer.log("Can't read changed service definition '" + watched.url + "', ignoring change: " + e.getMessage(), Tracer.Level.WARNING);
+                    continue;
+                }
+
+                try {
+                    ToaServiceParser.getInstance().validate(watched.url);
+                    reloaded.add(ToaService.unmarshal(watched.url, cache, null));
+                    changed.add(watched);
+                }
+                catch (Exception e) {
+                    tracer.log("Changed service definition '" + watched.url + "' can't be loaded, ignoring change: " + UtlThrowable.prepareStackTrace(e), Tracer.Level.WARNING);
+                }
+            }
+        }
+
+        // hand off outside of the lock:
+        for (int i = 0; i < changed.size(); i++) {
+            target.onServiceDefinitionChanged(changed.get(i).url, reloaded.get(i));
+        }
+        return changed.size();
+    }
+
+    /**
+     * Stops the watcher. 
+     */
+    final void close() {
+        final WatcherThread thread;
+        synchronized (this) {
+            closed = true;
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread != null) {
+            thread.shutdown();
+        }
+    }
+}
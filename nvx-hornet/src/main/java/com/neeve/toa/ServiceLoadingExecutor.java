@@ -0,0 +1,117 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the per service steps of service loading (validating and unmarshalling service 
+ * definitions) in parallel. 
+ * <p>
+ * Results are returned in the order in which the tasks were supplied, and when tasks 
+ * fail the failure of the first failed task in that order is thrown, so that the outcome 
+ * of loading is the same as if the tasks had been run one after another. 
+ */
+final class ServiceLoadingExecutor {
+    private final int threads;
+
+    /**
+     * Creates an executor. 
+     * 
+     * @param threads The maximum number of threads to use, or 0 to use one per available processor. 
+     */
+    ServiceLoadingExecutor(final int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return The maximum number of threads used. 
+     */
+    final int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Runs the given tasks and waits for them to complete. 
+     * 
+     * @param tasks The tasks to run. 
+     * @return The tasks' results in task order. 
+     * @throws Exception The exception thrown by the first (in task order) failed task. 
+     */
+    final <T> List<T> invokeAll(final List<Callable<T>> tasks) throws Exception {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        final int poolSize = Math.min(threads, tasks.size());
+        if (poolSize <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(task.call());
+            }
+            return results;
+        }
+
+        // workers load classes (e.g. message classes) so inherit the caller's context class loader:
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "X-Hornet-ServiceLoader-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setContextClassLoader(contextClassLoader);
+                return thread;
+            }
+        });
+
+        try {
+            final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+                    else if (e.getCause() instanceof Error) {
+                        throw (Error)e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
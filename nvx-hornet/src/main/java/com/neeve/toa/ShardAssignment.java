@@ -0,0 +1,274 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.neeve.sma.MessageView;
+import com.neeve.toa.opt.PartitionedChannelFilterProvider;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.ChannelFilterProvider;
+
+/**
+ * Assigns messages to the shards of a partitioned application. 
+ * <p>
+ * A partitioned application is deployed as several engines (shards) of the same application 
+ * that each own a share of a key space. Messages are assigned to shards by a field of the message,
+ * the shard key (for example an account id): the value of the field is hashed and the hash space 
+ * is divided into equal, contiguous ranges, one per shard. Messages that don't have the shard key 
+ * field, or for which it isn't set, aren't assigned to a shard. 
+ * <p>
+ * A service channel is sharded if its key contains the {@value #KEY_VARIABLE} key variable, for example
+ * <code>orders/${Shard}/${AccountId}</code>. On sharded channels: 
+ * <ul>
+ * <li>Each shard subscribes only to its own share of the topic space: this class is the 
+ * {@link ChannelFilterProvider} that supplies the filter <code>Shard=&lt;index&gt;</code> (using a
+ * {@link PartitionedChannelFilterProvider}).
+ * <li>The {@value #KEY_VARIABLE} variable of a sent message's topic is resolved to the index of the 
+ * shard that owns the message, so the message is received by the shard that owns it regardless of 
+ * which shard sent it. 
+ * </ul>
+ * Messages injected into a shard that doesn't own them are routed to the owning shard when it is 
+ * hosted in the same process. A message injected by a message handler is routed once the injecting 
+ * transaction is stable, and messages routed from a dispatch thread are injected into the owning shard 
+ * without blocking, so that shards injecting into each other can't deadlock. 
+ * 
+ * @see TopicOrientedApplication#PROP_SHARD_COUNT
+ * @threading This class is safe for concurrent use.
+ */
+public final class ShardAssignment implements ChannelFilterProvider {
+    /**
+     * The channel key variable that is resolved to a message's shard. 
+     */
+    public static final String KEY_VARIABLE = "Shard";
+
+    /**
+     * The shards hosted in this process by shard group.
+     */
+    private static final ConcurrentHashMap<String, TopicOrientedApplication[]> localShards = new ConcurrentHashMap<String, TopicOrientedApplication[]>();
+
+    private final String group;
+    private final int count;
+    private final int index;
+    private final String field;
+    private final PartitionedChannelFilterProvider filterProvider;
+    private final MessagePartitioner partitioner;
+
+    /**
+     * Creates a shard assignment. 
+     * 
+     * @param group The name of the group of shards to which the shard belongs.
+     * @param count The number of shards. 
+     * @param index The index of the shard (from 0 to count - 1).
+     * @param field The name of the message field by which messages are assigned to shards.
+     */
+    public ShardAssignment(final String group, final int count, final int index, final String field) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Shard count must be positive (was " + count + ")");
+        }
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard index must be between 0 and " + (count - 1) + " (was " + index + ")");
+        }
+        if (field == null || field.length() == 0) {
+            throw new IllegalArgumentException("Shard key field must be specified");
+        }
+        this.group = group;
+        this.count = count;
+        this.index = index;
+        this.field = field;
+        this.filterProvider = new PartitionedChannelFilterProvider(KEY_VARIABLE, count, index);
+        this.partitioner = new MessagePartitioner(KEY_VARIABLE, count, field);
+    }
+
+    /**
+     * Creates the shard assignment of an engine. 
+     * <p>
+     * If <code>index</code> is negative, the shard's index is taken from the engine name, which must 
+     * then end with a '-' followed by the index (for example <code>orders-3</code>) and the shard group
+     * is the engine name without the index. Otherwise the group is the engine name. 
+     * 
+     * @param engineName The name of the engine. 
+     * @param count The number of shards. 
+     * @param index The index of the shard or a negative value to take it from the engine name. 
+     * @param field The name of the message field by which messages are assigned to shards.
+     * @return The shard assignment. 
+     * @throws ToaException If the index is to be taken from the engine name but the name doesn't end with one. 
+     */
+    static final ShardAssignment forEngine(final String engineName, final int count, final int index, final String field) {
+        if (index >= 0) {
+            return new ShardAssignment(engineName, count, index, field);
+        }
+
+        final int separator = engineName.lastIndexOf('-');
+        try {
+            if (separator > 0) {
+                return new ShardAssignment(engineName.substring(0, separator), count, Integer.parseInt(engineName.substring(separator + 1)), field);
+            }
+        }
+        catch (NumberFormatException e) {}
+        throw new ToaException("Can't determine the shard index of engine '" + engineName + "': set '" + TopicOrientedApplication.PROP_SHARD_INDEX + "' or name the engine '<group>-<index>'");
+    }
+
+    /**
+     * @return The name of the group of shards to which the shard belongs.
+     */
+    public final String getGroup() {
+        return group;
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    public final int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The index of this shard.
+     */
+    public final int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The name of the message field by which messages are assigned to shards.
+     */
+    public final String getField() {
+        return field;
+    }
+
+    /**
+     * Tests whether a service channel is sharded, i.e. whether its key contains the 
+     * {@value #KEY_VARIABLE} variable. 
+     * 
+     * @param channel The channel. 
+     * @return <code>true</code> if the channel is sharded.
+     */
+    public static final boolean isSharded(final ToaServiceChannel channel) {
+        return PartitionedChannelFilterProvider.isKeyedBy(channel, KEY_VARIABLE);
+    }
+
+    /**
+     * Returns the shard that owns a shard key value. 
+     * <p>
+     * Integral values are hashed by value, other values by the hash code of their string form, 
+     * so the assignment is the same in every process. 
+     * 
+     * @param value The shard key value. 
+     * @return The index of the owning shard.
+     */
+    public final int shardOf(final Object value) {
+        return PartitionedChannelFilterProvider.partitionOf(value, count);
+    }
+
+    /**
+     * Returns the shard that owns a message. 
+     * <p>
+     * The shard key field is read through a {@link MessageFieldAccessor} bound to the message 
+     * type on first use, integral fields are read without boxing. 
+     * 
+     * @param message The message. 
+     * @return The index of the owning shard or -1 if the message doesn't have the shard key field or 
+     * it isn't set. 
+     */
+    public final int shardOf(final MessageView message) {
+        return partitioner.partitionOf(message);
+    }
+
+    /**
+     * @return The partitioner that resolves the {@value #KEY_VARIABLE} key variable of sent messages.
+     */
+    final MessagePartitioner getPartitioner() {
+        return partitioner;
+    }
+
+    /**
+     * Supplies the filter that restricts a sharded channel to this shard's messages.
+     */
+    @Override
+    public final String getChannelFilter(final ToaService service, final ToaServiceChannel channel) {
+        return filterProvider.getChannelFilter(service, channel);
+    }
+
+    /**
+     * Registers a shard hosted in this process. 
+     * 
+     * @throws ToaException If another application is registered for the same shard.
+     */
+    final void register(final TopicOrientedApplication application) {
+        synchronized (localShards) {
+            TopicOrientedApplication[] shards = localShards.get(group);
+            shards = shards == null ? new TopicOrientedApplication[count] : shards.clone();
+            if (shards.length != count) {
+                throw new ToaException("Shard group '" + group + "' is already hosted with " + shards.length + " shards, can't host it with " + count);
+            }
+            if (shards[index] != null && shards[index] != application) {
+                throw new ToaException("Shard " + index + " of group '" + group + "' is already hosted in this process");
+            }
+            shards[index] = application;
+            localShards.put(group, shards);
+        }
+    }
+
+    /**
+     * Unregisters a shard hosted in this process. 
+     */
+    final void unregister(final TopicOrientedApplication application) {
+        synchronized (localShards) {
+            final TopicOrientedApplication[] shards = localShards.get(group);
+            if (shards != null && index < shards.length && shards[index] == application) {
+                final TopicOrientedApplication[] updated = shards.clone();
+                updated[index] = null;
+                localShards.put(group, updated);
+            }
+        }
+    }
+
+    /**
+     * Returns the shard hosted in this process that owns a message. 
+     * 
+     * @param message The message. 
+     * @return The owning shard or <code>null</code> if the message isn't assigned to a shard or is owned by this shard.
+     * @throws ToaException If the message is owned by a shard that isn't hosted in this process. 
+     */
+    final TopicOrientedApplication ownerOf(final MessageView message) {
+        final int owner = shardOf(message);
+        if (owner < 0 || owner == index) {
+            return null;
+        }
+        final TopicOrientedApplication[] shards = localShards.get(group);
+        final TopicOrientedApplication application = shards != null ? shards[owner] : null;
+        if (application == null) {
+            throw new ToaException("'" + message.getClass().getName() + "' is owned by shard " + owner + " of group '" + group + "' which is not hosted in this process");
+        }
+        return application;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ShardAssignment [group=" + group + ", shard=" + index + "/" + count + ", field=" + field + "]";
+    }
+}
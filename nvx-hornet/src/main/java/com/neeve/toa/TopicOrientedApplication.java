@@ -21,17 +21,23 @@
  */
 package com.neeve.toa;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import com.neeve.adm.AdmFactory;
 import com.neeve.adm.AdmMessage;
@@ -58,6 +64,7 @@ import com.neeve.aep.event.AepEngineStartedEvent;
 import com.neeve.aep.event.AepEngineStoppedEvent;
 import com.neeve.aep.event.AepEngineStoppingEvent;
 import com.neeve.aep.event.AepMessagingPrestartEvent;
+import com.neeve.aep.event.AepTransactionStabilityEvent;
 import com.neeve.ci.ManifestProductInfo;
 import com.neeve.ci.ProductInfo;
 import com.neeve.ci.XRuntime;
@@ -102,9 +109,15 @@ import com.neeve.sma.SmaException;
 import com.neeve.sma.event.MessageEvent;
 import com.neeve.sma.event.UnhandledMessageEvent;
 import com.neeve.toa.opt.DelayedAcknowledgmentController;
+import com.neeve.toa.opt.DispatchLatencyProfiler;
+import com.neeve.toa.opt.PartitionedChannelFilterProvider;
 import com.neeve.toa.opt.impl.DelayedAckControllerImpl;
+import com.neeve.toa.opt.impl.DispatchLatencyProfilerImpl;
 import com.neeve.toa.service.ToaService;
 import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.service.ToaServiceDiff;
+import com.neeve.toa.service.ToaServiceLoadStats;
+import com.neeve.toa.service.ToaServiceModelCache;
 import com.neeve.toa.service.ToaServiceToRole;
 import com.neeve.toa.spi.ChannelFilterProvider;
 import com.neeve.toa.spi.ChannelInitialKeyResolutionTableProvider;
@@ -375,6 +388,176 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
      */
     public static final int PROP_DEFAULT_INJECTION_DELAY_DEFAULT = 0;
 
+    /**
+     * Property that enables the injection of messages from message handlers. 
+     * <p>
+     * When enabled, a message injected from a message handler (on the engine's dispatch thread) is 
+     * held until the transaction in which the message being dispatched was processed is stable, and 
+     * is then injected without blocking. This makes the engine dispatch a transaction stability event 
+     * for every commit and installs the application's postdispatch message handler, so it is disabled 
+     * by default: injecting from a message handler then fails with an {@link UnsupportedOperationException}. 
+     * Messages may always be injected from handlers for non message events. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_ENABLE_DISPATCH_INJECTION}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_ENABLE_DISPATCH_INJECTION_DEFAULT}
+     * <br>
+     * @see #PROP_ENABLE_DISPATCH_INJECTION_DEFAULT
+     * @see #PROP_DISPATCH_INJECTION_QUEUE_CAPACITY
+     */
+    public static final String PROP_ENABLE_DISPATCH_INJECTION = "nv.toa.enabledispatchinjection";
+
+    /**
+     * The default value for {@link #PROP_ENABLE_DISPATCH_INJECTION} ({@value #PROP_ENABLE_DISPATCH_INJECTION_DEFAULT}).
+     */
+    public static final boolean PROP_ENABLE_DISPATCH_INJECTION_DEFAULT = false;
+
+    /**
+     * Property that controls the initial capacity of the queue that holds messages injected 
+     * from a message handler (see {@link #PROP_ENABLE_DISPATCH_INJECTION}).
+     * <p>
+     * Messages injected from the engine's dispatch thread while a message is being dispatched are 
+     * held in a preallocated queue and injected once the transaction in which the message was processed
+     * has completed. This 
+     * property sets the number of messages that the queue holds before it must grow. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_DISPATCH_INJECTION_QUEUE_CAPACITY}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_DISPATCH_INJECTION_QUEUE_CAPACITY_DEFAULT}
+     * <br>
+     * @see #PROP_DISPATCH_INJECTION_QUEUE_CAPACITY_DEFAULT
+     */
+    public static final String PROP_DISPATCH_INJECTION_QUEUE_CAPACITY = "nv.toa.dispatchinjectionqueuecapacity";
+
+    /**
+     * The default value for {@link #PROP_DISPATCH_INJECTION_QUEUE_CAPACITY} ({@value #PROP_DISPATCH_INJECTION_QUEUE_CAPACITY_DEFAULT}).
+     */
+    public static final int PROP_DISPATCH_INJECTION_QUEUE_CAPACITY_DEFAULT = 256;
+
+    /**
+     * Property that controls the granularity, in microseconds, of injections scheduled 
+     * with {@link #scheduleInjection(IRogMessage, long)}.
+     * <p>
+     * Scheduled injections are held in a hierarchical timing wheel whose tick is set by this 
+     * property. Injections are performed no earlier than their deadline and, load permitting, 
+     * within a tick of it. Injections that expire in the same tick are injected together. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_INJECTION_SCHEDULER_TICK}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_INJECTION_SCHEDULER_TICK_DEFAULT}
+     * <br>
+     * @see #PROP_INJECTION_SCHEDULER_TICK_DEFAULT
+     */
+    public static final String PROP_INJECTION_SCHEDULER_TICK = "nv.toa.injectionscheduler.tick";
+
+    /**
+     * The default value for {@link #PROP_INJECTION_SCHEDULER_TICK} ({@value #PROP_INJECTION_SCHEDULER_TICK_DEFAULT}).
+     */
+    public static final int PROP_INJECTION_SCHEDULER_TICK_DEFAULT = 100;
+
+    /**
+     * Property that controls the maximum number of messages injected with {@link #tryInjectMessage(IRogMessage)}
+     * that may be waiting for dispatch by the engine. 
+     * <p>
+     * Flow controlled injections are rejected with {@link MessageInjector.InjectionOutcome#RejectedFull} once this 
+     * many messages are waiting.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_FLOW_CONTROLLED_INJECTION_CAPACITY}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_FLOW_CONTROLLED_INJECTION_CAPACITY_DEFAULT}
+     * <br>
+     * @see #PROP_FLOW_CONTROLLED_INJECTION_CAPACITY_DEFAULT
+     */
+    public static final String PROP_FLOW_CONTROLLED_INJECTION_CAPACITY = "nv.toa.flowcontrolledinjection.capacity";
+
+    /**
+     * The default value for {@link #PROP_FLOW_CONTROLLED_INJECTION_CAPACITY} ({@value #PROP_FLOW_CONTROLLED_INJECTION_CAPACITY_DEFAULT}).
+     */
+    public static final int PROP_FLOW_CONTROLLED_INJECTION_CAPACITY_DEFAULT = 1024;
+
+    /**
+     * Property that controls the depth of flow controlled injections at which an application's 
+     * {@link MessageInjector.InjectionWatermarkListener} is notified that the high watermark has been reached. 
+     * <p>
+     * The value must be greater than {@link #PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK} and no greater 
+     * than {@link #PROP_FLOW_CONTROLLED_INJECTION_CAPACITY}.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK_DEFAULT}
+     * <br>
+     * @see #PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK_DEFAULT
+     */
+    public static final String PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK = "nv.toa.flowcontrolledinjection.highwatermark";
+
+    /**
+     * The default value for {@link #PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK} ({@value #PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK_DEFAULT}).
+     */
+    public static final int PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK_DEFAULT = 768;
+
+    /**
+     * Property that controls the depth of flow controlled injections at which an application's 
+     * {@link MessageInjector.InjectionWatermarkListener} is notified that the low watermark has been reached
+     * after the high watermark was reached. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK_DEFAULT}
+     * <br>
+     * @see #PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK_DEFAULT
+     */
+    public static final String PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK = "nv.toa.flowcontrolledinjection.lowwatermark";
+
+    /**
+     * The default value for {@link #PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK} ({@value #PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK_DEFAULT}).
+     */
+    public static final int PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK_DEFAULT = 256;
+
+    /**
+     * Property that enables the injection lanes front end by setting the number of lanes. 
+     * <p>
+     * When set to a positive value, messages injected with {@link #injectMessage(IRogMessage, boolean, int)} from 
+     * threads other than the engine's dispatch thread are queued in a lane owned by the injecting thread, and a 
+     * single drainer thread fairly merges the lanes into the engine. This avoids contention on the engine's 
+     * input multiplexer when many threads inject concurrently. Each thread claims a lane the first time it 
+     * injects; threads that inject once all lanes have been claimed inject directly. Per lane stats are 
+     * reported as user stats named <code>hornet.inject.lane{n}.*</code>. A value of 0 disables the lanes. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_INJECTION_LANES}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_INJECTION_LANES_DEFAULT}
+     * <br>
+     * @see #PROP_INJECTION_LANES_DEFAULT
+     * @see #PROP_INJECTION_LANE_CAPACITY
+     */
+    public static final String PROP_INJECTION_LANES = "nv.toa.injectionlanes";
+
+    /**
+     * The default value for {@link #PROP_INJECTION_LANES} ({@value #PROP_INJECTION_LANES_DEFAULT}), lanes are disabled.
+     */
+    public static final int PROP_INJECTION_LANES_DEFAULT = 0;
+
+    /**
+     * Property that controls the number of messages each injection lane can hold.
+     * <p>
+     * When a lane is full, a blocking injection waits for space in it, since injecting directly into 
+     * the engine would reorder it ahead of the messages in the lane. A non blocking injection doesn't 
+     * wait: it is injected directly into the engine without blocking, ahead of the messages in the lane. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_INJECTION_LANE_CAPACITY}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_INJECTION_LANE_CAPACITY_DEFAULT}
+     * <br>
+     * @see #PROP_INJECTION_LANE_CAPACITY_DEFAULT
+     * @see #PROP_INJECTION_LANES
+     */
+    public static final String PROP_INJECTION_LANE_CAPACITY = "nv.toa.injectionlanecapacity";
+
+    /**
+     * The default value for {@link #PROP_INJECTION_LANE_CAPACITY} ({@value #PROP_INJECTION_LANE_CAPACITY_DEFAULT}).
+     */
+    public static final int PROP_INJECTION_LANE_CAPACITY_DEFAULT = 1024;
+
     /**
      * Property that indicates whether a MessageView or MessageEvent handler will cause all channel types to be joined.
      * <p>
@@ -490,6 +673,412 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
      */
     public static final boolean PROP_ENABLED_DELAYED_ACK_CONTROLLER_DEFAULT = false;
 
+    /**
+     * Property used to enable reuse of the messages used to delay acknowledgments. 
+     * <p>
+     * By default the {@link DelayedAcknowledgmentController} creates a new DelayedAckMessage for 
+     * each delayed acknowledgment that it sends through its executor bus. When true, each pooled 
+     * {@link DelayedAcknowledgmentController.DelayedAcknowledger DelayedAcknowledger} instead holds on to its message and reuses 
+     * it each time it is used, so that delaying an acknowledgment doesn't produce garbage. 
+     * <p>
+     * This property has no effect unless {@link #PROP_ENABLED_DELAYED_ACK_CONTROLLER} is true.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES_DEFAULT}
+     * <br>
+     * @see #PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES_DEFAULT
+     */
+    public static final String PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES = "nv.toa.delayedackcontroller.poolmessages";
+
+    /**
+     * The default value for {@link #PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES} ({@value #PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES_DEFAULT}).
+     */
+    public static final boolean PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES_DEFAULT = false;
+
+    /**
+     * Property used to set the time in milliseconds after which a delayed acknowledgment that the
+     * application hasn't acknowledged times out. 
+     * <p>
+     * A delayed acknowledgment that is never acknowledged stalls the application's inbound message
+     * stream. When this property is set to a positive value, outstanding delayed acknowledgments are
+     * tracked in a timing wheel, and one that isn't acknowledged in time is acknowledged on the 
+     * application's behalf with a {@link java.util.concurrent.TimeoutException} and a warning is 
+     * traced. A subsequent acknowledgment of it by the application is ignored. Tracking also enables 
+     * the <code>hornet.delayedAckOldestPendingAge</code> and <code>hornet.delayedAckTimeToAck.*</code> stats
+     * (the time the application took to acknowledge, in microseconds). 
+     * <p>
+     * This property has no effect unless {@link #PROP_ENABLED_DELAYED_ACK_CONTROLLER} is true.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_DELAYED_ACK_CONTROLLER_TIMEOUT}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_DELAYED_ACK_CONTROLLER_TIMEOUT_DEFAULT}
+     * <br>
+     * @see #PROP_DELAYED_ACK_CONTROLLER_TIMEOUT_DEFAULT
+     */
+    public static final String PROP_DELAYED_ACK_CONTROLLER_TIMEOUT = "nv.toa.delayedackcontroller.timeout";
+
+    /**
+     * The default value for {@link #PROP_DELAYED_ACK_CONTROLLER_TIMEOUT} ({@value #PROP_DELAYED_ACK_CONTROLLER_TIMEOUT_DEFAULT}), no timeout.
+     */
+    public static final int PROP_DELAYED_ACK_CONTROLLER_TIMEOUT_DEFAULT = 0;
+
+    /**
+     * Property used to enable compiled topic resolution. 
+     * <p>
+     * When true, messages for which no application provided {@link TopicResolverProvider} 
+     * supplies a {@link TopicResolver} are sent using a {@link TopicResolver} from the
+     * {@link CompiledTopicResolverProvider}. The compiled resolver parses the channel key
+     * once at startup and binds key variables to message field getters, which avoids 
+     * per send key parsing and string building by the message bus.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_ENABLE_COMPILED_TOPIC_RESOLUTION}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_ENABLE_COMPILED_TOPIC_RESOLUTION_DEFAULT}
+     * <br>
+     * @see #PROP_ENABLE_COMPILED_TOPIC_RESOLUTION_DEFAULT
+     */
+    public static final String PROP_ENABLE_COMPILED_TOPIC_RESOLUTION = "nv.toa.enablecompiledtopicresolution";
+
+    /**
+     * The default value for {@link #PROP_ENABLE_COMPILED_TOPIC_RESOLUTION} ({@value #PROP_ENABLE_COMPILED_TOPIC_RESOLUTION_DEFAULT}).
+     */
+    public static final boolean PROP_ENABLE_COMPILED_TOPIC_RESOLUTION_DEFAULT = false;
+
+    /**
+     * Property used to enable compiled event dispatch. 
+     * <p>
+     * When true, event handler containers for which the Hornet annotation processor generated a 
+     * {@link CompiledEventDispatcher} are registered with the engine via their compiled dispatcher
+     * rather than being dispatched to reflectively. 
+     * <p>
+     * Because a compiled dispatcher handles all messages, the engine does not raise unhandled message
+     * events for message types registered with the application that have no handlers when compiled 
+     * dispatch is in use.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_ENABLE_COMPILED_EVENT_DISPATCH}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_ENABLE_COMPILED_EVENT_DISPATCH_DEFAULT}
+     * <br>
+     * @see #PROP_ENABLE_COMPILED_EVENT_DISPATCH_DEFAULT
+     */
+    public static final String PROP_ENABLE_COMPILED_EVENT_DISPATCH = "nv.toa.enablecompiledeventdispatch";
+
+    /**
+     * The default value for {@link #PROP_ENABLE_COMPILED_EVENT_DISPATCH} ({@value #PROP_ENABLE_COMPILED_EVENT_DISPATCH_DEFAULT}).
+     */
+    public static final boolean PROP_ENABLE_COMPILED_EVENT_DISPATCH_DEFAULT = false;
+
+    /**
+     * Property used to enable collection of per message type send stats.
+     * <p>
+     * When enabled, each message type that the application sends gets its own set of 
+     * user stats recording the number of messages sent, the time spent resolving their 
+     * topics and the number of sends that failed because the channel wasn't ready or the 
+     * topic couldn't be resolved. The stats are named 
+     * <code>hornet.send.{bus}.{channel}.{MessageType}.*</code> and are reported in server 
+     * heartbeats along with the application's other user stats.
+     * <p>
+     * The stats are preallocated when messaging is configured (except for messages resolved on 
+     * first send, see {@link #PROP_LAZY_MESSAGE_RESOLUTION}), and recording them does not 
+     * produce garbage. When disabled, the send path is unaffected beyond a single null check. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_ENABLE_SEND_STATS}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_ENABLE_SEND_STATS_DEFAULT}
+     * <br>
+     * @see #PROP_ENABLE_SEND_STATS_DEFAULT
+     */
+    public static final String PROP_ENABLE_SEND_STATS = "nv.toa.enablesendstats";
+
+    /**
+     * The default value for {@link #PROP_ENABLE_SEND_STATS} ({@value #PROP_ENABLE_SEND_STATS_DEFAULT}).
+     */
+    public static final boolean PROP_ENABLE_SEND_STATS_DEFAULT = false;
+
+    /**
+     * Property used to enable the service model cache. 
+     * <p>
+     * When set, the application caches the resolved form of each of the services it loads 
+     * in the given directory and on subsequent starts rebuilds services whose definitions 
+     * (and message models) are unchanged from the cache rather than unmarshalling and 
+     * resolving them. See {@link ToaServiceModelCache} for details. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_SERVICE_MODEL_CACHE_DIR}
+     * <br>
+     * <b>Default value:</b> none (service models are not cached).
+     * <br>
+     */
+    public static final String PROP_SERVICE_MODEL_CACHE_DIR = "nv.toa.servicemodelcachedir";
+
+    /**
+     * Property used to enable parallel service loading. 
+     * <p>
+     * When enabled, the service definitions located by the {@link DefaultServiceDefinitionLocator} 
+     * are validated in parallel, and the application unmarshals the services it is configured 
+     * with (and parses their message models) in parallel. The loaded services are merged in 
+     * the order in which they were located, so the outcome of loading, including which of a 
+     * set of duplicate services is used and how conflicting channel definitions are resolved, 
+     * is the same as when loading sequentially. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_PARALLEL_SERVICE_LOADING}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_PARALLEL_SERVICE_LOADING_DEFAULT}
+     * <br>
+     * @see #PROP_PARALLEL_SERVICE_LOADING_DEFAULT
+     * @see #PROP_SERVICE_LOADING_THREADS
+     */
+    public static final String PROP_PARALLEL_SERVICE_LOADING = "nv.toa.parallelserviceloading";
+
+    /**
+     * The default value for {@link #PROP_PARALLEL_SERVICE_LOADING} ({@value #PROP_PARALLEL_SERVICE_LOADING_DEFAULT}).
+     */
+    public static final boolean PROP_PARALLEL_SERVICE_LOADING_DEFAULT = false;
+
+    /**
+     * Property used to set the maximum number of threads used for parallel service loading. 
+     * <p>
+     * A value of 0 uses one thread per available processor. This property has no effect unless 
+     * {@link #PROP_PARALLEL_SERVICE_LOADING} is enabled.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_SERVICE_LOADING_THREADS}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_SERVICE_LOADING_THREADS_DEFAULT}
+     * <br>
+     * @see #PROP_SERVICE_LOADING_THREADS_DEFAULT
+     */
+    public static final String PROP_SERVICE_LOADING_THREADS = "nv.toa.serviceloadingthreads";
+
+    /**
+     * The default value for {@link #PROP_SERVICE_LOADING_THREADS} ({@value #PROP_SERVICE_LOADING_THREADS_DEFAULT}).
+     */
+    public static final int PROP_SERVICE_LOADING_THREADS_DEFAULT = 0;
+
+    /**
+     * Property used to enable lazy message resolution. 
+     * <p>
+     * By default, when messaging is configured, each message declared by the application's 
+     * services is fully resolved: its message class is loaded and its topic resolver is looked 
+     * up (and, with compiled topic resolution, generated) regardless of whether the application 
+     * ever sends it. For applications that use a large catalog of services but send only a few 
+     * of their messages this can account for a significant portion of startup time and heap.
+     * <p>
+     * When enabled, messages that the application doesn't handle are resolved the first time 
+     * they are sent instead: their send contexts (and send stats) are only created, and their 
+     * topic resolvers looked up, on first send. Channels and message channel mappings are still 
+     * established when messaging is configured, so the channels an application joins are unaffected. 
+     * Errors that would otherwise be reported when messaging is configured, such as a message mapped
+     * to multiple channels that can't be copied, are reported on first send, in which case the send 
+     * fails and resolution is retried on the next send. 
+     * <p>
+     * Note that user stats are collected from the application when it is initialized, so the send 
+     * stats (see {@link #PROP_ENABLE_SEND_STATS}) of messages resolved on first send are not reported.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_LAZY_MESSAGE_RESOLUTION}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_LAZY_MESSAGE_RESOLUTION_DEFAULT}
+     * <br>
+     * @see #PROP_LAZY_MESSAGE_RESOLUTION_DEFAULT
+     */
+    public static final String PROP_LAZY_MESSAGE_RESOLUTION = "nv.toa.lazymessageresolution";
+
+    /**
+     * The default value for {@link #PROP_LAZY_MESSAGE_RESOLUTION} ({@value #PROP_LAZY_MESSAGE_RESOLUTION_DEFAULT}).
+     */
+    public static final boolean PROP_LAZY_MESSAGE_RESOLUTION_DEFAULT = false;
+
+    /**
+     * Property used to enable hot reload of service definitions. 
+     * <p>
+     * When set to a positive value, the service definition files from which the application 
+     * was configured are checked for changes at this interval (in milliseconds). 
+     * <p>
+     * Reload is limited to re-resolving topic resolvers: when a service definition changes, the 
+     * topic resolvers of the messages sent on its channels are looked up again from the application's 
+     * {@link TopicResolverProvider}s, and the send contexts of those messages are rebuilt and swapped in 
+     * atomically, so a send uses either the old or the new resolvers but never a mix of both. This lets 
+     * providers whose resolution depends on external configuration be re-consulted without a restart. 
+     * <p>
+     * Nothing else a service definition describes can be changed while the engine runs: a definition 
+     * that changes the service's channels (or their buses or keys), its message models or its message 
+     * channel mappings, or whose channels' keys or filters resolve differently from the application's 
+     * providers, is ignored with a warning and the application must be restarted to apply it. 
+     * <p>
+     * Only service definitions loaded from the file system are watched.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_SERVICE_RELOAD_INTERVAL}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_SERVICE_RELOAD_INTERVAL_DEFAULT}
+     * <br>
+     * @see #PROP_SERVICE_RELOAD_INTERVAL_DEFAULT
+     */
+    public static final String PROP_SERVICE_RELOAD_INTERVAL = "nv.toa.servicereloadinterval";
+
+    /**
+     * The default value for {@link #PROP_SERVICE_RELOAD_INTERVAL} ({@value #PROP_SERVICE_RELOAD_INTERVAL_DEFAULT}), 
+     * by default service definitions are not reloaded.
+     */
+    public static final int PROP_SERVICE_RELOAD_INTERVAL_DEFAULT = 0;
+
+    /**
+     * Property used to partition the application into shards. 
+     * <p>
+     * When set to a value greater than 1, the application is one of this number of shards, each deployed 
+     * as its own engine, that partition the messages on sharded channels by the message field named by 
+     * {@link #PROP_SHARD_FIELD}. A channel is sharded if its key contains the <code>${Shard}</code> key 
+     * variable: each shard joins the channel with a filter that restricts it to its own messages, and 
+     * messages sent on the channel are sent with the topic of the shard that owns them. Messages injected
+     * into a shard that doesn't own them are routed to the owning shard if it is hosted in the same process. 
+     * The shard is resolved by the compiled topic resolver, which is used only when no {@link TopicResolverProvider} 
+     * supplies a resolver: an application supplied resolver for a sharded channel must resolve the shard itself 
+     * (using {@link #getShardAssignment()}), and a warning is logged when one is found. See {@link ShardAssignment} 
+     * for details.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_SHARD_COUNT}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_SHARD_COUNT_DEFAULT}
+     * <br>
+     * @see #PROP_SHARD_COUNT_DEFAULT
+     */
+    public static final String PROP_SHARD_COUNT = "nv.toa.shardcount";
+
+    /**
+     * The default value for {@link #PROP_SHARD_COUNT} ({@value #PROP_SHARD_COUNT_DEFAULT}), by default 
+     * the application isn't partitioned.
+     */
+    public static final int PROP_SHARD_COUNT_DEFAULT = 1;
+
+    /**
+     * Property used to set the index of a shard of a partitioned application. 
+     * <p>
+     * A negative value takes the index from the name of the application's engine, which must then be of the 
+     * form <code>&lt;group&gt;-&lt;index&gt;</code>. This allows all the shards of an application hosted in 
+     * the same process to share their configuration. This property has no effect unless {@link #PROP_SHARD_COUNT} 
+     * is greater than 1.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_SHARD_INDEX}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_SHARD_INDEX_DEFAULT}
+     * <br>
+     * @see #PROP_SHARD_INDEX_DEFAULT
+     */
+    public static final String PROP_SHARD_INDEX = "nv.toa.shardindex";
+
+    /**
+     * The default value for {@link #PROP_SHARD_INDEX} ({@value #PROP_SHARD_INDEX_DEFAULT}), by default the 
+     * index is taken from the engine name. 
+     */
+    public static final int PROP_SHARD_INDEX_DEFAULT = -1;
+
+    /**
+     * Property used to set the message field by which a partitioned application's messages are assigned 
+     * to shards (for example <code>accountId</code>). 
+     * <p>
+     * This property must be set if {@link #PROP_SHARD_COUNT} is greater than 1.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_SHARD_FIELD}
+     * <br>
+     * <b>Default value:</b> none
+     */
+    public static final String PROP_SHARD_FIELD = "nv.toa.shardfield";
+
+    /**
+     * Property used to partition the topic space of channels between the members of a group of consumers.
+     * <p>
+     * When set to a value greater than 1, channels whose key contains the key variable named by 
+     * {@link #PROP_PARTITION_KEY_VARIABLE} are partitioned into this number of partitions and the application
+     * joins them with a filter that restricts it to the partitions listed by {@link #PROP_PARTITIONS}. 
+     * Messages of other partitions are filtered by the subscription and never received by the application. 
+     * When {@link #PROP_PARTITION_FIELD} is set, the partition key variable of messages sent on partitioned 
+     * channels is resolved to the partition of the message, otherwise the sender must supply it (in the key 
+     * resolution table passed with the send, or in a message field named as the key variable). 
+     * See {@link PartitionedChannelFilterProvider} for details.
+     * <p>
+     * <b>Property name:</b> {@value #PROP_PARTITION_COUNT}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_PARTITION_COUNT_DEFAULT}
+     * <br>
+     * @see #PROP_PARTITION_COUNT_DEFAULT
+     */
+    public static final String PROP_PARTITION_COUNT = "nv.toa.partitioncount";
+
+    /**
+     * The default value for {@link #PROP_PARTITION_COUNT} ({@value #PROP_PARTITION_COUNT_DEFAULT}), by default 
+     * channels aren't partitioned.
+     */
+    public static final int PROP_PARTITION_COUNT_DEFAULT = 1;
+
+    /**
+     * Property used to list the partitions owned by the application as a comma separated list of 
+     * partitions from 0 to {@link #PROP_PARTITION_COUNT} - 1 (for example <code>1,5</code>). 
+     * <p>
+     * This property must be set if {@link #PROP_PARTITION_COUNT} is greater than 1, unless 
+     * {@link #PROP_PARTITION_FIELD} is set: an application that only sends on partitioned 
+     * channels doesn't own any partitions. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_PARTITIONS}
+     * <br>
+     * <b>Default value:</b> none
+     */
+    public static final String PROP_PARTITIONS = "nv.toa.partitions";
+
+    /**
+     * Property used to name the channel key variable whose value is a message's partition. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_PARTITION_KEY_VARIABLE}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_PARTITION_KEY_VARIABLE_DEFAULT}
+     * <br>
+     * @see #PROP_PARTITION_KEY_VARIABLE_DEFAULT
+     */
+    public static final String PROP_PARTITION_KEY_VARIABLE = "nv.toa.partitionkeyvariable";
+
+    /**
+     * The default value for {@link #PROP_PARTITION_KEY_VARIABLE} ({@value #PROP_PARTITION_KEY_VARIABLE_DEFAULT}).
+     */
+    public static final String PROP_PARTITION_KEY_VARIABLE_DEFAULT = "Partition";
+
+    /**
+     * Property used to name the message field by which sent messages are assigned to partitions 
+     * (for example <code>accountId</code>). 
+     * <p>
+     * When set (and {@link #PROP_PARTITION_COUNT} is greater than 1), the partition key variable 
+     * (see {@link #PROP_PARTITION_KEY_VARIABLE}) in the key of a channel on which a message is sent is 
+     * resolved to the partition of the message's value of this field, as computed by 
+     * {@link PartitionedChannelFilterProvider#partitionOf(Object, int)}. The partition is resolved by the 
+     * compiled topic resolver, which is used only when no {@link TopicResolverProvider} supplies a resolver. 
+     * Messages for which the field isn't set are resolved from the key resolution table or the key 
+     * variable's default value. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_PARTITION_FIELD}
+     * <br>
+     * <b>Default value:</b> none
+     */
+    public static final String PROP_PARTITION_FIELD = "nv.toa.partitionfield";
+
+    /**
+     * Property used to enable the message handler dispatch profiler.
+     * <p>
+     * When true, the {@link TopicOrientedApplication} registers a {@link DispatchLatencyProfiler} as a 
+     * predispatch and postdispatch message handler that records the time spent dispatching each message 
+     * to its handlers, by message type. Percentiles across all message types are reported as user 
+     * stats named <code>hornet.dispatch.*</code>, and the per message type percentiles can be dumped 
+     * or reset with the <code>dumpDispatchLatencies</code> and <code>resetDispatchLatencies</code> 
+     * commands. 
+     * <p>
+     * <b>Property name:</b> {@value #PROP_ENABLE_DISPATCH_PROFILER}
+     * <br>
+     * <b>Default value:</b> {@value #PROP_ENABLE_DISPATCH_PROFILER_DEFAULT}
+     * <br>
+     * @see #PROP_ENABLE_DISPATCH_PROFILER_DEFAULT
+     */
+    public static final String PROP_ENABLE_DISPATCH_PROFILER = "nv.toa.enabledispatchprofiler";
+
+    /**
+     * The default value for {@link #PROP_ENABLE_DISPATCH_PROFILER} ({@value #PROP_ENABLE_DISPATCH_PROFILER_DEFAULT}).
+     */
+    public static final boolean PROP_ENABLE_DISPATCH_PROFILER_DEFAULT = false;
+
     final protected static Tracer _tracer = RootConfig.ObjectConfig.createTracer(RootConfig.ObjectConfig.get("nv.toa"));
     static {
         ProductInfo productInfo = ManifestProductInfo.loadProductInfo("nvx-hornet");
@@ -501,17 +1090,54 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         final XString busName;
         final XString channelName;
         final String messageType;
-        final ToaServiceChannel serviceChannel;
-        @SuppressWarnings("rawtypes")
-        final TopicResolver topicResolver;
-        MessageChannel channel;
+        final ToaServiceChannel serviceChannel;
+        @SuppressWarnings("rawtypes")
+        final TopicResolver topicResolver;
+        final MessageSendStats stats; // null unless send stats are enabled
+        final MessageReplicator replicator; // null unless this is an additional channel for a message sent on multiple channels
+        MessageChannel channel;
+        MessageSendContext next; // the context for the message's next channel when it is sent on multiple channels
+
+        MessageSendContext(final XString busName, final XString channelName, final String messageType, final ToaServiceChannel serviceChannel, final TopicResolver<?> topicResolver, final MessageSendStats stats) {
+            this(busName, channelName, messageType, serviceChannel, topicResolver, stats, null);
+        }
+
+        MessageSendContext(final XString busName, final XString channelName, final String messageType, final ToaServiceChannel serviceChannel, final TopicResolver<?> topicResolver, final MessageSendStats stats, final MessageReplicator replicator) {
+            this.busName = busName;
+            this.channelName = channelName;
+            this.messageType = messageType;
+            this.serviceChannel = serviceChannel;
+            this.topicResolver = stats != null ? stats.measure(topicResolver) : topicResolver;
+            this.stats = stats;
+            this.replicator = replicator;
+        }
+
+        /**
+         * Returns the first context in this context's chain whose channel is not yet up. 
+         */
+        final MessageSendContext findNotReady() {
+            for (MessageSendContext context = this; context != null; context = context.next) {
+                if (context.channel == null) {
+                    return context;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A message whose send contexts are created on its first send, when lazy message 
+     * resolution is enabled. 
+     */
+    final private static class DeferredSendContext {
+        final String messageType;
+        final String messageName;
+        final ToaServiceChannel[] serviceChannels; // the message's channels, its primary channel first
 
-        MessageSendContext(final XString busName, final XString channelName, final String messageType, final ToaServiceChannel serviceChannel, final TopicResolver<?> topicResolver) {
-            this.busName = busName;
-            this.channelName = channelName;
+        DeferredSendContext(final String messageType, final String messageName, final ToaServiceChannel[] serviceChannels) {
             this.messageType = messageType;
-            this.serviceChannel = serviceChannel;
-            this.topicResolver = topicResolver;
+            this.messageName = messageName;
+            this.serviceChannels = serviceChannels;
         }
     }
 
@@ -711,6 +1337,64 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
 
     }
 
+    /**
+     * Injects messages whose scheduled injection has expired. 
+     */
+    private final class ScheduledInjectionTarget implements InjectionScheduler.Target {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.InjectionScheduler.Target#inject(com.neeve.rog.IRogMessage)
+         */
+        @Override
+        public final boolean inject(final IRogMessage message) {
+            final AepEngine engine = _engine;
+            if (engine == null || engine.getState() != State.Started || !engine.isPrimary()) {
+                return false;
+            }
+            try {
+                engine.injectMessage(message, true, 0);
+                return true;
+            }
+            catch (IllegalStateException ise) {
+                //engine may have been stopped during multiplex...
+                _tracer.log("Injection of message canceled: " + ise.getMessage(), Tracer.Level.WARNING);
+                return false;
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.InjectionScheduler.Target#isPrimaryLost()
+         */
+        @Override
+        public final boolean isPrimaryLost() {
+            final AepEngine engine = _engine;
+            if (engine == null) {
+                return false;
+            }
+            final State state = engine.getState();
+            return state == State.Stopped || (state == State.Started && !engine.isPrimary());
+        }
+    }
+
+    /**
+     * Applies service definitions changed while the application is running.
+     */
+    private final class ServiceReloadTarget implements ServiceDefinitionWatcher.Target {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.ServiceDefinitionWatcher.Target#onServiceDefinitionChanged(java.net.URL, com.neeve.toa.service.ToaService)
+         */
+        @Override
+        public final void onServiceDefinitionChanged(final URL url, final ToaService reloaded) {
+            try {
+                reloadService(url, reloaded);
+            }
+            catch (Exception e) {
+                _tracer.log(tracePrefix() + "Failed to apply changed service definition '" + url + "': " + UtlThrowable.prepareStackTrace(e), Tracer.Level.SEVERE);
+            }
+        }
+    }
+
     /**
      * Implements dispatch to multiple {@link IAepPostdispatchMessageHandler}s
      */
@@ -728,8 +1412,20 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
          */
         @Override
         public final void postMessage(final IRogMessage message) {
-            for (int i = 0; i < handlerList.length; i++) {
-                handlerList[i].postMessage(message);
+            try {
+                for (int i = 0; i < handlerList.length; i++) {
+                    handlerList[i].postMessage(message);
+                }
+            }
+            finally {
+                // the message's handlers have completed, messages they injected are released 
+                // once the commit that includes the message (the next to start) is stable:
+                if (_dispatchInjectionEnabled) {
+                    _dispatchingMessage = null;
+                    if (_dispatchInjectionQueue.unhandled() > 0) {
+                        _dispatchInjectionQueue.onHandled(_engine.getStats().getNumCommitsStarted() + 1);
+                    }
+                }
             }
         }
 
@@ -776,6 +1472,16 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
          */
         @Override
         public final void onMessage(final IRogMessage message) {
+            if (_dispatchInjectionEnabled) {
+                // messages injected during a dispatch whose handlers failed are left behind:
+                if (_dispatchInjectionQueue.unhandled() > 0) {
+                    final int discarded = _dispatchInjectionQueue.discardUnhandled();
+                    _tracer.log(tracePrefix() + "Discarded " + discarded + " message(s) injected by a message handler that did not complete.", Tracer.Level.WARNING);
+                }
+                _dispatchingMessage = message;
+            }
+            _injectionFlowControl.onDispatch(message);
+
             for (int i = 0; i < handlerList.length; i++) {
                 handlerList[i].onMessage(message);
             }
@@ -807,6 +1513,43 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         }
     }
 
+    /**
+     * Registers this class' own event handlers when the application is dispatched
+     * to via a {@link CompiledEventDispatcher}, which excludes them. 
+     */
+    private final class ApplicationEventHandlers {
+
+        @EventHandler
+        public void onEngineStarted(final AepEngineStartedEvent event) {
+            TopicOrientedApplication.this.onEngineStarted(event);
+        }
+
+        @EventHandler
+        public void onRoleChanged(final IStoreBindingRoleChangedEvent event) {
+            TopicOrientedApplication.this.onRoleChanged(event);
+        }
+
+        @EventHandler
+        public void onEngineStopped(final AepEngineStoppedEvent event) {
+            TopicOrientedApplication.this.onEngineStopped(event);
+        }
+
+        @EventHandler
+        public void onChannelUp(final AepChannelUpEvent event) {
+            TopicOrientedApplication.this.onChannelUp(event);
+        }
+
+        @EventHandler
+        public void onTransactionStability(final AepTransactionStabilityEvent event) {
+            TopicOrientedApplication.this.onTransactionStability(event);
+        }
+
+        @EventHandler
+        public void onApplicationAlert(final IAlertEvent alert) {
+            TopicOrientedApplication.this.onApplicationAlert(alert);
+        }
+    }
+
     private final class FirstMessageValidator {
 
         @EventHandler
@@ -863,15 +1606,38 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
      * Subclasses may use this tracer for trace logging.
      */
     private final Map<String, Map<String, List<Long>>> _channelMessageMapByBus;
-    private final XLongLinkedHashMap<MessageSendContext> _messageChannelMap;
+    private volatile XLongLinkedHashMap<MessageSendContext> _messageChannelMap; // not modified once messaging is configured, replaced when service definitions are reloaded
+    private volatile MessageTypeTable<MessageSendContext> _sendContextTable; // frozen view of _messageChannelMap used on the send path, replaced when service definitions are reloaded
+    private volatile LinkedHashMap<Long, MessageSendContext> _sendContextsById; // the contents of _sendContextTable, replaced along with it
+    private volatile XLongLinkedHashMap<DeferredSendContext> _deferredSendContexts; // null unless lazy message resolution is enabled, replaced when service definitions are reloaded
+    private final HashMap<String, MessageChannel> _upChannels = new HashMap<String, MessageChannel>(); // keyed by channel@bus, guarded by _sendContextLock
+    private final Object _sendContextLock = new Object(); // guards updates to _messageChannelMap's contexts after messaging is configured
     private final XLongLinkedHashMap<Class<?>> _factoryRegisteredTypesById;
 
-    private final Set<ToaService> services = new HashSet<ToaService>();
+    private volatile Set<ToaService> services = Collections.emptySet(); // unmodifiable, in locator order, replaced when service definitions are reloaded
     private final EngineTimeImpl _engineClock = new EngineTimeImpl();
     private final PredispatchMessageHandlerDispatcher predispatchMessageHandlerDispatcher = new PredispatchMessageHandlerDispatcher();
     private final PostdispatchMessageHandlerDispatcher postdispatchMessageHandlerDispatcher = new PostdispatchMessageHandlerDispatcher();
     private final DelayedAckControllerImpl _delayedAckController;
+    private final DispatchLatencyProfilerImpl _dispatchProfiler;
+    private final InjectionLanes _injectionLanes;
     private final int defaultInjectionDelay = XRuntime.getValue(PROP_DEFAULT_INJECTION_DELAY, PROP_DEFAULT_INJECTION_DELAY_DEFAULT);
+    private final boolean _dispatchInjectionEnabled = XRuntime.getValue(PROP_ENABLE_DISPATCH_INJECTION, PROP_ENABLE_DISPATCH_INJECTION_DEFAULT);
+    private final DispatchInjectionQueue _dispatchInjectionQueue = new DispatchInjectionQueue(XRuntime.getValue(PROP_DISPATCH_INJECTION_QUEUE_CAPACITY, PROP_DISPATCH_INJECTION_QUEUE_CAPACITY_DEFAULT), _tracer);
+    private IRogMessage _dispatchingMessage; // accessed only by the dispatch thread
+    private final InjectionFlowControl _injectionFlowControl = new InjectionFlowControl(XRuntime.getValue(PROP_FLOW_CONTROLLED_INJECTION_CAPACITY, PROP_FLOW_CONTROLLED_INJECTION_CAPACITY_DEFAULT),
+                                                                                      XRuntime.getValue(PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK, PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK_DEFAULT),
+                                                                                      XRuntime.getValue(PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK, PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK_DEFAULT),
+                                                                                      _tracer);
+    private final InjectionScheduler _injectionScheduler = new InjectionScheduler(new ScheduledInjectionTarget(), _engineClock, XRuntime.getValue(PROP_INJECTION_SCHEDULER_TICK, PROP_INJECTION_SCHEDULER_TICK_DEFAULT), _tracer);
+    private final boolean sendStatsEnabled = XRuntime.getValue(PROP_ENABLE_SEND_STATS, PROP_ENABLE_SEND_STATS_DEFAULT);
+    private Set<TopicResolverProvider> _topicResolverProviders; // retained for lazy message resolution and service reload
+    private TopicResolverProvider _compiledTopicResolverProvider; // retained for lazy message resolution and service reload
+    private Set<ChannelInitialKeyResolutionTableProvider> _channelKRTProviders; // retained for service reload
+    private Set<ChannelFilterProvider> _channelFilterProviders; // retained for service reload
+    private ServiceDefinitionWatcher _serviceDefinitionWatcher; // null unless service reload is enabled
+    private ShardAssignment _shardAssignment; // null unless the application is partitioned
+    private final List<MessagePartitioner> _partitioners = new ArrayList<MessagePartitioner>(); // resolve the shard and partition key variables of sent messages
     private final Tracer.Level alertTraceLevel;
 
     private AepEngine.HAPolicy _haPolicy;
@@ -882,6 +1648,8 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
     private String _engineName;
     private Configurer configurer;
     private volatile boolean messagingConfigured = false;
+    private MessageSendContext[] _batchSendContexts = new MessageSendContext[0]; // reused by batch sends (sends are not thread safe)
+    private IRogMessage[] _batchMessages = new IRogMessage[0]; // reused by list batch sends
     private LinkedHashSet<Object> managedObjects = new LinkedHashSet<Object>(); //The managed objects (important to maintain addition order)
     private ManagedObjectLocator managedObjectLocator;
 
@@ -891,6 +1659,7 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
     protected TopicOrientedApplication() {
         _channelMessageMapByBus = new HashMap<String, Map<String, List<Long>>>();
         _messageChannelMap = XLongLinkedHashMap.newInstance();
+        _sendContextTable = new MessageTypeTable<MessageSendContext>(Collections.<Long, MessageSendContext> emptyMap());
         _factoryRegisteredTypesById = XLongLinkedHashMap.newInstance();
 
         // validate the alert trace level. A value of ALL is ignored.
@@ -930,11 +1699,29 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         }
 
         if (XRuntime.getValue(PROP_ENABLED_DELAYED_ACK_CONTROLLER, PROP_ENABLED_DELAYED_ACK_CONTROLLER_DEFAULT)) {
-            _delayedAckController = new DelayedAckControllerImpl();
+            _delayedAckController = new DelayedAckControllerImpl(XRuntime.getValue(PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES, PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES_DEFAULT),
+                                                                 XRuntime.getValue(PROP_DELAYED_ACK_CONTROLLER_TIMEOUT, PROP_DELAYED_ACK_CONTROLLER_TIMEOUT_DEFAULT));
         }
         else {
             _delayedAckController = null;
         }
+
+        if (XRuntime.getValue(PROP_ENABLE_DISPATCH_PROFILER, PROP_ENABLE_DISPATCH_PROFILER_DEFAULT)) {
+            _dispatchProfiler = new DispatchLatencyProfilerImpl();
+            predispatchMessageHandlerDispatcher.addHandler(_dispatchProfiler);
+            postdispatchMessageHandlerDispatcher.addHandler(_dispatchProfiler);
+        }
+        else {
+            _dispatchProfiler = null;
+        }
+
+        final int injectionLanes = XRuntime.getValue(PROP_INJECTION_LANES, PROP_INJECTION_LANES_DEFAULT);
+        if (injectionLanes > 0) {
+            _injectionLanes = new InjectionLanes(injectionLanes, XRuntime.getValue(PROP_INJECTION_LANE_CAPACITY, PROP_INJECTION_LANE_CAPACITY_DEFAULT), _tracer);
+        }
+        else {
+            _injectionLanes = null;
+        }
     }
 
     /**
@@ -982,79 +1769,577 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         return (((long)factoryId) << 32) | messageId;
     }
 
-    @SuppressWarnings("unchecked")
     final private void sendMessage(final IRogMessage message,
                                    final String topic,
                                    final Properties keyResolutionTable,
                                    final XString rawTopic,
                                    final RawKeyResolutionTable rawKeyResolutionTable) {
-        final long uniqueMessageId = uniqueMessageId(message.getVfid(), message.getType());
-        if (_tracer.debug) _tracer.log(tracePrefix() + "Sending message '" + message.getClass().getSimpleName() + "' <id=" + uniqueMessageId + "'(vfid=" + message.getVfid() + ", id=" + message.getType() + ")>...", Tracer.Level.DEBUG);
-        final MessageSendContext sendContext = _messageChannelMap.get(uniqueMessageId);
+        if (_tracer.debug) _tracer.log(tracePrefix() + "Sending message '" + message.getClass().getSimpleName() + "' <id=" + uniqueMessageId(message.getVfid(), message.getType()) + "'(vfid=" + message.getVfid() + ", id=" + message.getType() + ")>...", Tracer.Level.DEBUG);
+        MessageSendContext sendContext = _sendContextTable.get(message.getVfid(), message.getType());
+        if (sendContext == null && _deferredSendContexts != null) {
+            sendContext = createDeferredSendContext(message);
+        }
         if (sendContext != null) {
-            if (sendContext.channel != null || (_haPolicy == AepEngine.HAPolicy.EventSourcing && _role != IStoreBinding.Role.Primary)) { // role == null i.e. initializing is also covered by role != Primary
-                message.setMessageBusAsRaw(sendContext.busName);
-                message.setMessageChannelAsRaw(sendContext.channelName);
+            final MessageSendContext notReadyContext = (_haPolicy == AepEngine.HAPolicy.EventSourcing && _role != IStoreBinding.Role.Primary) ? null : sendContext.findNotReady(); // role == null i.e. initializing is also covered by role != Primary
+            if (notReadyContext == null) {
+                if (sendContext.next == null) {
+                    sendMessage(sendContext, message, topic, keyResolutionTable, rawTopic, rawKeyResolutionTable);
+                }
+                else {
+                    sendMessageToChannels(sendContext, message, topic, keyResolutionTable, rawTopic, rawKeyResolutionTable);
+                }
+            }
+            else {
+                if (_tracer.debug) _tracer.log(tracePrefix() + "...channel '" + notReadyContext.channelName + "' is not ready for messaging.", Tracer.Level.DEBUG);
+                if (notReadyContext.stats != null) {
+                    notReadyContext.stats.channelNotReady.increment();
+                }
+                throw new ToaException("channel '" + notReadyContext.channelName + "' is not ready for messaging, can't send '" + message.getClass().getName() + "'");
+            }
+        }
+        else {
+            if (_tracer.debug) _tracer.log(tracePrefix() + "...no channel associated for message.", Tracer.Level.DEBUG);
+            throw new ToaException("no channel associated with message '" + message.getClass().getName() + "'");
+        }
+    }
 
-                if (topic == null && rawTopic == null && sendContext.topicResolver != null) {
-                    if (rawKeyResolutionTable != null) {
-                        XString resolvedTopic;
-                        try {
-                            resolvedTopic = sendContext.topicResolver.resolveTopic(message, rawKeyResolutionTable);
-                        }
-                        catch (Exception e) {
-                            throw new ToaException("Error resolving topic for '" + sendContext.messageType + "' being sent on channel '" + sendContext.channel.getName() + "' using topic resolver: " + e.getMessage(), e);
+    /**
+     * Sends a message that is mapped to multiple channels on each of its channels. 
+     * <p>
+     * A copy of the message is created for, and sent on, each additional channel. The message 
+     * itself is sent on its primary channel last, because the engine takes over the message once 
+     * sent. The copies are held on the stack, so send contexts, which are shared by senders, hold 
+     * no per send state. 
+     * 
+     * @see MessageReplicator
+     */
+    final private void sendMessageToChannels(final MessageSendContext sendContext,
+                                             final IRogMessage message,
+                                             final String topic,
+                                             final Properties keyResolutionTable,
+                                             final XString rawTopic,
+                                             final RawKeyResolutionTable rawKeyResolutionTable) {
+        for (MessageSendContext context = sendContext.next; context != null; context = context.next) {
+            final IRogMessage replica = context.replicator.replicate(message);
+            boolean sent = false;
+            try {
+                sendMessage(context, replica, topic, keyResolutionTable, rawTopic, rawKeyResolutionTable);
+                sent = true;
+            }
+            finally {
+                if (!sent) {
+                    replica.dispose();
+                }
+            }
+        }
+        sendMessage(sendContext, message, topic, keyResolutionTable, rawTopic, rawKeyResolutionTable);
+    }
+
+    @SuppressWarnings("unchecked")
+    final private void sendMessage(final MessageSendContext sendContext,
+                                   final IRogMessage message,
+                                   final String topic,
+                                   final Properties keyResolutionTable,
+                                   final XString rawTopic,
+                                   final RawKeyResolutionTable rawKeyResolutionTable) {
+        message.setMessageBusAsRaw(sendContext.busName);
+        message.setMessageChannelAsRaw(sendContext.channelName);
+
+        if (topic == null && rawTopic == null && sendContext.topicResolver != null) {
+            if (rawKeyResolutionTable != null) {
+                XString resolvedTopic;
+                try {
+                    resolvedTopic = sendContext.topicResolver.resolveTopic(message, rawKeyResolutionTable);
+                }
+                catch (Exception e) {
+                    throw new ToaException("Error resolving topic for '" + sendContext.messageType + "' being sent on channel '" + sendContext.channel.getName() + "' using topic resolver: " + e.getMessage(), e);
+                }
+                message.setMessageKeyAsRaw(resolvedTopic);
+                _engine.sendMessage(sendContext.channel, message);
+            }
+            else {
+                final XString resolvedTopic;
+                try {
+                    resolvedTopic = sendContext.topicResolver.resolveTopic(message, keyResolutionTable);
+                }
+                catch (Exception e) {
+                    throw new ToaException("Error resolving topic for '" + sendContext.messageType + "' being sent on channel '" + sendContext.channel.getName() + "' using topic resolver: " + e.getMessage(), e);
+                }
+                message.setMessageKeyAsRaw(resolvedTopic);
+                _engine.sendMessage(sendContext.channel, message);
+            }
+        }
+        else if (topic != null) {
+            message.setMessageKey(topic);
+            _engine.sendMessage(sendContext.channel,
+                                message);
+        }
+        else if (rawTopic != null) {
+            message.setMessageKeyAsRaw(rawTopic);
+            _engine.sendMessage(sendContext.channel,
+                                message);
+        }
+        else {
+            if (rawKeyResolutionTable == null) {
+                _engine.sendMessage(sendContext.channel,
+                                    message,
+                                    topic,
+                                    keyResolutionTable);
+            }
+            else {
+                _engine.sendMessage(sendContext.channel,
+                                    message,
+                                    rawTopic,
+                                    rawKeyResolutionTable);
+            }
+        }
+        if (sendContext.stats != null) {
+            sendContext.stats.sends.increment();
+        }
+        if (_tracer.debug) _tracer.log(tracePrefix() + "...message sent on '" + sendContext.channelName + "' channel with topic '" + message.getMessageKey() + "'.", Tracer.Level.DEBUG);
+    }
+
+    final private void sendBatch(final IRogMessage[] messages, final int offset, final int count) {
+        if (messages == null) {
+            throw new IllegalArgumentException("messages cannot be null");
+        }
+        if (offset < 0 || count < 0 || offset > messages.length - count) {
+            throw new IndexOutOfBoundsException("Invalid batch range (offset=" + offset + ", count=" + count + ", length=" + messages.length + ")");
+        }
+        if (count == 0) {
+            return;
+        }
+
+        if (_tracer.debug) _tracer.log(tracePrefix() + "Sending batch of " + count + " messages...", Tracer.Level.DEBUG);
+
+        // the role and HA policy can only change between transactions, so are checked once for the batch:
+        final boolean allowUnresolvedChannel = _haPolicy == AepEngine.HAPolicy.EventSourcing && _role != IStoreBinding.Role.Primary; // role == null i.e. initializing is also covered by role != Primary
+        if (_batchSendContexts.length < count) {
+            _batchSendContexts = new MessageSendContext[count];
+        }
+        final MessageSendContext[] sendContexts = _batchSendContexts;
+        try {
+            // resolve and validate the send contexts before sending so that a batch containing
+            // a message that can't be sent is rejected without any of its messages being sent. 
+            // Lookups are only done when the message type changes from the previous message:
+            final MessageTypeTable<MessageSendContext> sendContextTable = _sendContextTable;
+            MessageSendContext sendContext = null;
+            int sendContextFactoryId = 0;
+            int sendContextMessageId = 0;
+            for (int i = 0; i < count; i++) {
+                final IRogMessage message = messages[offset + i];
+                if (message == null) {
+                    throw new IllegalArgumentException("Batch contains a null message at index " + (offset + i));
+                }
+
+                final int factoryId = message.getVfid();
+                final int messageId = message.getType();
+                if (sendContext == null || messageId != sendContextMessageId || factoryId != sendContextFactoryId) {
+                    sendContext = sendContextTable.get(factoryId, messageId);
+                    sendContextFactoryId = factoryId;
+                    sendContextMessageId = messageId;
+                    if (sendContext == null && _deferredSendContexts != null) {
+                        sendContext = createDeferredSendContext(message);
+                    }
+                    if (sendContext == null) {
+                        throw new ToaException("no channel associated with message '" + message.getClass().getName() + "'");
+                    }
+                    final MessageSendContext notReadyContext = allowUnresolvedChannel ? null : sendContext.findNotReady();
+                    if (notReadyContext != null) {
+                        if (notReadyContext.stats != null) {
+                            notReadyContext.stats.channelNotReady.increment();
                         }
-                        message.setMessageKeyAsRaw(resolvedTopic);
-                        _engine.sendMessage(sendContext.channel, message);
+                        throw new ToaException("channel '" + notReadyContext.channelName + "' is not ready for messaging, can't send '" + message.getClass().getName() + "'");
                     }
-                    else {
-                        final XString resolvedTopic;
-                        try {
-                            resolvedTopic = sendContext.topicResolver.resolveTopic(message, keyResolutionTable);
+                }
+                sendContexts[i] = sendContext;
+            }
+
+            for (int i = 0; i < count; i++) {
+                if (sendContexts[i].next == null) {
+                    sendMessage(sendContexts[i], messages[offset + i], null, null, null, null);
+                }
+                else {
+                    sendMessageToChannels(sendContexts[i], messages[offset + i], null, null, null, null);
+                }
+            }
+        }
+        finally {
+            Arrays.fill(sendContexts, 0, count, null);
+        }
+
+        if (_tracer.debug) _tracer.log(tracePrefix() + "...batch of " + count + " messages sent.", Tracer.Level.DEBUG);
+    }
+
+    /**
+     * Adds a message to the list of messages to be sent on the given channel. 
+     */
+    final private void addChannelMessage(final ToaServiceChannel toaChannel, final long uniqueMessageId) {
+        final Map<String, List<Long>> channelMap = _channelMessageMapByBus.get(toaChannel.getBusName());
+        List<Long> ids = channelMap.get(toaChannel.getName());
+        if (ids == null) {
+            channelMap.put(toaChannel.getName(), ids = new ArrayList<Long>());
+        }
+        ids.add(uniqueMessageId);
+    }
+
+    /**
+     * Creates the send contexts of a message whose creation was deferred to its first send by 
+     * lazy message resolution, along with their send stats. 
+     * <p>
+     * The message's topic resolvers are looked up for each of its channels before anything is 
+     * published, so if any lookup fails nothing is published and creation is retried on the 
+     * next send. Like a service reload, publishing replaces the message channel map and the send 
+     * context table rather than modifying them, as they are read by sending threads. 
+     * 
+     * @return The message's send context, or null if the application doesn't send the message.
+     */
+    final private MessageSendContext createDeferredSendContext(final IRogMessage message) {
+        final long uniqueMessageId = uniqueMessageId(message.getVfid(), message.getType());
+        synchronized (_sendContextLock) {
+            // another sender may have created it already:
+            MessageSendContext sendContext = _messageChannelMap.get(uniqueMessageId);
+            if (sendContext != null) {
+                return sendContext;
+            }
+            final DeferredSendContext deferred = _deferredSendContexts.get(uniqueMessageId);
+            if (deferred == null) {
+                return null;
+            }
+
+            if (_tracer.debug) _tracer.log(tracePrefix() + "...resolving '" + deferred.messageType + "' on first send.", Tracer.Level.DEBUG);
+            final Class<?> messageClass = message.getClass();
+            final MessageReplicator replicator = deferred.serviceChannels.length > 1 ? MessageReplicator.forClass(messageClass, deferred.messageType) : null;
+            MessageSendContext last = null;
+            for (ToaServiceChannel serviceChannel : deferred.serviceChannels) {
+                final TopicResolver<?> topicResolver = findTopicResolver(_topicResolverProviders, _compiledTopicResolverProvider, serviceChannel.getService(), serviceChannel, messageClass, deferred.messageType);
+                if (topicResolver != null) {
+                    topicResolver.initialize(serviceChannel);
+                }
+                final MessageSendStats stats = sendStatsEnabled ? new MessageSendStats(serviceChannel.getBusName(), serviceChannel.getName(), deferred.messageName) : null;
+                final MessageSendContext context = new MessageSendContext(XString.create(serviceChannel.getBusName(), true, true), XString.create(serviceChannel.getName(), true, true), deferred.messageType, serviceChannel, topicResolver, stats, last != null ? replicator : null);
+                context.channel = _upChannels.get(serviceChannel.getName() + "@" + serviceChannel.getBusName());
+                if (last == null) {
+                    sendContext = context;
+                }
+                else {
+                    last.next = context;
+                }
+                last = context;
+            }
+
+            // publish:
+            final LinkedHashMap<Long, MessageSendContext> sendContextsById = new LinkedHashMap<Long, MessageSendContext>(_sendContextsById);
+            sendContextsById.put(uniqueMessageId, sendContext);
+            final XLongLinkedHashMap<MessageSendContext> messageChannelMap = XLongLinkedHashMap.newInstance();
+            for (Map.Entry<Long, MessageSendContext> entry : sendContextsById.entrySet()) {
+                messageChannelMap.put(entry.getKey(), entry.getValue());
+            }
+            _messageChannelMap = messageChannelMap;
+            _sendContextsById = sendContextsById;
+            _sendContextTable = new MessageTypeTable<MessageSendContext>(sendContextsById);
+            return sendContext;
+        }
+    }
+
+    /**
+     * Looks up the topic resolver to use for a message sent on the given channel.
+     */
+    final private TopicResolver<?> findTopicResolver(final Set<TopicResolverProvider> topicResolverProviders,
+                                                     final TopicResolverProvider compiledTopicResolverProvider,
+                                                     final ToaService service,
+                                                     final ToaServiceChannel toaChannel,
+                                                     final Class<?> messageClass,
+                                                     final String messageType) {
+        TopicResolver<?> topicResolver = null;
+        TopicResolverProvider topicResolverProvider = null;
+        for (TopicResolverProvider provider : topicResolverProviders) {
+            TopicResolver<?> resolver = provider.getTopicResolver(service, toaChannel, messageClass);
+            if (resolver != null) {
+                // assumes that a user override will be added after this class' default resolver and we 
+                // want to favor user override. 
+                if (topicResolver != null) {
+                    _tracer.log("Found multiple topic resolvers for message '" + messageType + "': '" + resolver.getClass() + "' provided by '" + provider.getClass() + "' will be used instead of '" + topicResolver + "' provided by '" + topicResolverProvider.getClass() + "'", Tracer.Level.WARNING);
+                }
+                topicResolver = resolver;
+                topicResolverProvider = provider;
+            }
+        }
+
+        if (topicResolver != null) {
+            // the compiled resolver that resolves the shard and partition variables is only a fallback:
+            for (MessagePartitioner partitioner : _partitioners) {
+                if (partitioner.isPartitioned(toaChannel)) {
+                    _tracer.log(tracePrefix() + "Topic resolver '" + topicResolver.getClass().getName() + "' provided by '" + topicResolverProvider.getClass().getName() + "' is used for message '" + messageType + "' on channel '" + toaChannel.getName() + "': it must resolve the '${" + partitioner.getKeyVariable() + "}' key variable itself, otherwise the message won't be received by the shard or partition that owns it.", Tracer.Level.WARNING);
+                }
+            }
+        }
+
+        if (topicResolver == null && compiledTopicResolverProvider != null) {
+            topicResolver = compiledTopicResolverProvider.getTopicResolver(service, toaChannel, messageClass);
+        }
+        return topicResolver;
+    }
+
+    /**
+     * Resolves a channel's initial key resolution table from the given providers and applies it 
+     * to the channel's key, updating the channel's key, initial KRT and initially resolved key. 
+     * 
+     * @return The initially resolved key.
+     */
+    final private String resolveInitialKey(final ToaService service, final ToaServiceChannel channel, String key, final Set<ChannelInitialKeyResolutionTableProvider> channelKRTProviders) {
+        Properties initialKRT = null;
+        ChannelInitialKeyResolutionTableProvider krtProvider = null;
+        for (ChannelInitialKeyResolutionTableProvider provider : channelKRTProviders) {
+            Properties krt = provider.getInitialChannelKeyResolutionTable(service, channel);
+            if (krt != null) {
+                if (initialKRT != null) {
+                    throw new ToaException("Duplicate Initial KRT providers for channel '" + channel.getSimpleName() + "' in service '" + service.getName() + "'!"
+                            + " '" + krtProvider.getClass().getName() + "' provided '" + initialKRT + "'"
+                            + ", and '" + provider.getClass().getName() + "' provided '" + krt + "'");
+                }
+                krtProvider = provider;
+                initialKRT = krt;
+                _tracer.log(tracePrefix() + "......channel initial KRT for '" + channel.getName() + "' is '" + krt + "' (provided by: '" + krtProvider.getClass().getName() + "').", Tracer.Level.CONFIG);
+            }
+        }
+
+        channel.setKey(key);
+
+        if (initialKRT != null && key != null) {
+            // Handle empty ("") key fields in initial KRT: 
+            Properties sanitizedKrt = initialKRT;
+            final boolean treatEmptyKeyAsNull = XRuntime.getValue(MessageChannel.PROP_TREAT_EMPTY_KEY_FIELD_AS_NULL, MessageChannel.PROP_TREAT_EMPTY_KEY_FIELD_AS_NULL_DEFAULT);
+            final boolean allowEmptyKey = XRuntime.getValue(MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD, MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD_DEFAULT);
+            if (treatEmptyKeyAsNull || !allowEmptyKey) {
+                for (Map.Entry<Object, Object> krtEntry : initialKRT.entrySet()) {
+                    // Note that the null check here isn't really necessary as 
+                    // java.util.Properties does not allow null values. We still
+                    // check for null here as a safeguard against any future API
+                    // changes. 
+                    if (krtEntry.getValue() == null || "".equals(String.valueOf(krtEntry.getValue()))) {
+                        // copy the KRT if 
+                        if (sanitizedKrt == initialKRT) {
+                            sanitizedKrt = new Properties();
+                            sanitizedKrt.putAll(initialKRT);
                         }
-                        catch (Exception e) {
-                            throw new ToaException("Error resolving topic for '" + sendContext.messageType + "' being sent on channel '" + sendContext.channel.getName() + "' using topic resolver: " + e.getMessage(), e);
+
+                        // if configured to treat empty keys as null then remove the value
+                        // from the initial KRT to ignore it: 
+                        if (treatEmptyKeyAsNull) {
+                            sanitizedKrt.remove(krtEntry.getKey());
+                        }
+                        else if (!allowEmptyKey) {
+                            if ("".equals(String.valueOf(krtEntry.getValue()))) {
+                                throw new ToaException("Initial KRT for channel '" + channel.getSimpleName() + "' in service '" + service.getName() + "' (provided by"
+                                        + " '" + krtProvider.getClass().getName() + "') contains a blank value for key field '" + String.valueOf(krtEntry.getKey()) + "' but '"
+                                        + MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD + "'is false!");
+                            }
+                            else if (krtEntry.getValue() == null) {
+                                // otherwise if null remove the value so it doesn't lead to key substitution 
+                                // via UtlTailoring.springScanAndReplace
+                                sanitizedKrt.remove(krtEntry.getKey());
+                            }
                         }
-                        message.setMessageKeyAsRaw(resolvedTopic);
-                        _engine.sendMessage(sendContext.channel, message);
                     }
                 }
-                else if (topic != null) {
-                    message.setMessageKey(topic);
-                    _engine.sendMessage(sendContext.channel,
-                                        message);
+            }
+
+            channel.setInitialKRT(sanitizedKrt);
+            _tracer.log(tracePrefix() + "......performing initial channel key resolution for channel '" + channel.getName() + "', key=" + key, Tracer.Level.CONFIG);
+            key = UtlTailoring.springScanAndReplace(key, sanitizedKrt, true);
+        }
+        //Update the model with the overridden key:
+        channel.setInitiallyResolvedKey(key);
+        return key;
+    }
+
+    /**
+     * Resolves a channel's filter from the given providers.
+     * 
+     * @return The channel filter or <code>null</code> if no provider supplies one.
+     */
+    final private String resolveChannelFilter(final ToaService service, final ToaServiceChannel channel, final Set<ChannelFilterProvider> channelFilterProviders) {
+        String channelFilter = null;
+        ChannelFilterProvider filterProvider = null;
+        for (ChannelFilterProvider provider : channelFilterProviders) {
+            String filter = provider.getChannelFilter(service, channel);
+            if (filter != null) {
+                if (channelFilter != null && !channelFilter.equals(filter)) {
+                    throw new ToaException("Conflicting channel filters provided for channel '" + channel.getSimpleName() + "' in service '" + service.getName() + "'!"
+                            + " '" + filterProvider.getClass().getName() + "' provided '" + channelFilter + "'"
+                            + ", but '" + provider.getClass().getName() + "' provided '" + filter + "'");
+                }
+                filterProvider = provider;
+                channelFilter = filter;
+                _tracer.log(tracePrefix() + "......channel filter for '" + channel.getName() + "' '" + channelFilter + "' (provided by: '" + filterProvider.getClass().getName() + "').", Tracer.Level.CONFIG);
+            }
+        }
+        return channelFilter;
+    }
+
+    /**
+     * Applies a changed service definition to the running application by re-resolving the topic 
+     * resolvers of the messages sent on its channels. 
+     * <p>
+     * The reloaded service's channel keys, initial KRTs and filters are resolved as they are when 
+     * messaging is configured, and new send contexts (with newly resolved topic resolvers) are built 
+     * for the messages sent on the service's channels. The new contexts are published by replacing 
+     * the send context table, so each send sees either the previous or the reloaded configuration. 
+     * The application's services and its message channel map are likewise replaced rather than 
+     * modified, as they are read by the engine and sending threads while the watcher thread reloads. 
+     * <p>
+     * Nothing is applied if the definition's messaging topology changed, or if a channel's key or 
+     * filter resolves differently: the engine's channels keep the keys and filters they were 
+     * joined with.
+     */
+    final private void reloadService(final URL url, final ToaService reloaded) {
+        _tracer.log(tracePrefix() + "Service definition '" + url + "' changed, reloading service '" + reloaded.getName() + "'...", Tracer.Level.INFO);
+        synchronized (_sendContextLock) {
+            ToaService live = null;
+            for (ToaService service : services) {
+                if (service.equals(reloaded)) {
+                    live = service;
+                    break;
+                }
+            }
+            if (live == null) {
+                _tracer.log(tracePrefix() + "...service '" + reloaded.getName() + "' is not one the application was configured with, the application must be restarted to use it.", Tracer.Level.WARNING);
+                return;
+            }
+
+            // default the bus of channels that don't declare one as when messaging was configured:
+            for (ToaServiceChannel channel : reloaded.getChannels()) {
+                if (channel.getBusName() == null) {
+                    channel.setBusName(_engineName);
+                }
+            }
+
+            final ToaServiceDiff diff = ToaServiceDiff.compute(live, reloaded);
+            if (!diff.isEmpty()) {
+                _tracer.log(tracePrefix() + "...service '" + reloaded.getName() + "' has changes that can't be applied to a running application, the application must be restarted to apply them: " + diff.getChanges(), Tracer.Level.WARNING);
+                return;
+            }
+
+            // resolve the reloaded channels' keys and filters:
+            final Map<String, ToaServiceChannel> liveChannels = new HashMap<String, ToaServiceChannel>();
+            for (ToaServiceChannel channel : live.getChannels()) {
+                liveChannels.put(channel.getSimpleName(), channel);
+            }
+            final Map<String, ToaServiceChannel> reloadedChannels = new HashMap<String, ToaServiceChannel>();
+            for (ToaServiceChannel channel : reloaded.getChannels()) {
+                reloadedChannels.put(channel.getSimpleName(), channel);
+                final String key = resolveInitialKey(reloaded, channel, channel.getKey(), _channelKRTProviders);
+                final String previousKey = liveChannels.get(channel.getSimpleName()).getInitiallyResolvedKey();
+                if (key == null ? previousKey != null : !key.equals(previousKey)) {
+                    // the engine's channel keeps the key it was configured with:
+                    _tracer.log(tracePrefix() + "...channel '" + channel.getName() + "' resolved key changed from '" + previousKey + "' to '" + key + "', channel keys can't be changed while running, the application must be restarted to apply it.", Tracer.Level.WARNING);
+                    return;
+                }
+
+                final String filter = resolveChannelFilter(reloaded, channel, _channelFilterProviders);
+                final AepEngineDescriptor.ChannelConfig engineChannelConfig = _engineDescriptor.getChannelConfig(channel.getBusName(), channel.getName());
+                if (engineChannelConfig != null && (filter == null ? engineChannelConfig.getFilter() != null : !filter.equals(engineChannelConfig.getFilter()))) {
+                    // the engine's channel stays joined with the filter it was configured with:
+                    _tracer.log(tracePrefix() + "...channel '" + channel.getName() + "' filter changed from '" + engineChannelConfig.getFilter() + "' to '" + filter + "', channel filters can't be changed while running, the application must be restarted to apply it.", Tracer.Level.WARNING);
+                    return;
                 }
-                else if (rawTopic != null) {
-                    message.setMessageKeyAsRaw(rawTopic);
-                    _engine.sendMessage(sendContext.channel,
-                                        message);
+            }
+
+            // rebuild the send contexts of messages sent on the service's channels:
+            final LinkedHashSet<Long> ids = new LinkedHashSet<Long>();
+            for (Map<String, List<Long>> channelMap : _channelMessageMapByBus.values()) {
+                for (List<Long> channelIds : channelMap.values()) {
+                    ids.addAll(channelIds);
                 }
-                else {
-                    if (rawKeyResolutionTable == null) {
-                        _engine.sendMessage(sendContext.channel,
-                                            message,
-                                            topic,
-                                            keyResolutionTable);
+            }
+            final XLongLinkedHashMap<MessageSendContext> messageChannelMap = _messageChannelMap;
+            final XLongLinkedHashMap<MessageSendContext> reloadedMessageChannelMap = XLongLinkedHashMap.newInstance();
+            final LinkedHashMap<Long, MessageSendContext> sendContextsById = new LinkedHashMap<Long, MessageSendContext>();
+            final XLongLinkedHashMap<DeferredSendContext> deferredSendContexts = _deferredSendContexts;
+            final XLongLinkedHashMap<DeferredSendContext> reloadedDeferredSendContexts = deferredSendContexts != null ? XLongLinkedHashMap.<DeferredSendContext> newInstance() : null;
+            int rebuilt = 0;
+            for (Long id : ids) {
+                MessageSendContext sendContext = messageChannelMap.get(id);
+                if (sendContext == null) {
+                    // a message whose send contexts are yet to be created uses the reloaded channels once created:
+                    final DeferredSendContext deferred = deferredSendContexts != null ? deferredSendContexts.get(id) : null;
+                    if (deferred != null) {
+                        final ToaServiceChannel[] serviceChannels = new ToaServiceChannel[deferred.serviceChannels.length];
+                        for (int i = 0; i < serviceChannels.length; i++) {
+                            final ToaServiceChannel serviceChannel = deferred.serviceChannels[i];
+                            serviceChannels[i] = serviceChannel.getService() == live ? reloadedChannels.get(serviceChannel.getSimpleName()) : serviceChannel;
+                        }
+                        reloadedDeferredSendContexts.put(id, new DeferredSendContext(deferred.messageType, deferred.messageName, serviceChannels));
                     }
-                    else {
-                        _engine.sendMessage(sendContext.channel,
-                                            message,
-                                            rawTopic,
-                                            rawKeyResolutionTable);
+                    continue;
+                }
+                for (MessageSendContext context = sendContext; context != null; context = context.next) {
+                    if (context.serviceChannel.getService() == live) {
+                        sendContext = rebuildSendContext(sendContext, live, reloadedChannels);
+                        rebuilt++;
+                        break;
                     }
                 }
-                if (_tracer.debug) _tracer.log(tracePrefix() + "...message sent on '" + sendContext.channelName + "' channel with topic '" + message.getMessageKey() + "'.", Tracer.Level.DEBUG);
+                reloadedMessageChannelMap.put(id, sendContext);
+                sendContextsById.put(id, sendContext);
+            }
+
+            // publish (the previous collections are left unmodified for threads still reading them):
+            final Set<ToaService> reloadedServices = new LinkedHashSet<ToaService>();
+            for (ToaService service : services) {
+                reloadedServices.add(service == live ? reloaded : service);
+            }
+            _messageChannelMap = reloadedMessageChannelMap;
+            _deferredSendContexts = reloadedDeferredSendContexts;
+            services = Collections.unmodifiableSet(reloadedServices);
+            _sendContextsById = sendContextsById;
+            _sendContextTable = new MessageTypeTable<MessageSendContext>(sendContextsById);
+
+            _tracer.log(tracePrefix() + "...reloaded service '" + reloaded.getName() + "' (rebuilt send contexts=" + rebuilt + ").", Tracer.Level.INFO);
+        }
+    }
+
+    /**
+     * Builds a replacement for a message's chain of send contexts in which the contexts for the 
+     * channels of a reloaded service use the reloaded service's channels. Topic resolvers are 
+     * looked up again, the contexts' channels and stats carry over. 
+     */
+    final private MessageSendContext rebuildSendContext(final MessageSendContext sendContext, final ToaService live, final Map<String, ToaServiceChannel> reloadedChannels) {
+        Class<?> messageClass = null;
+        try {
+            messageClass = Class.forName(sendContext.messageType);
+            if (!MessageView.class.isAssignableFrom(messageClass)) {
+                messageClass = null;
+            }
+        }
+        catch (ClassNotFoundException e) {
+            messageClass = null;
+        }
+
+        MessageSendContext first = null;
+        MessageSendContext last = null;
+        for (MessageSendContext context = sendContext; context != null; context = context.next) {
+            final ToaServiceChannel serviceChannel = context.serviceChannel.getService() == live ? reloadedChannels.get(context.serviceChannel.getSimpleName()) : context.serviceChannel;
+            TopicResolver<?> topicResolver = null;
+            if (messageClass != null) {
+                topicResolver = findTopicResolver(_topicResolverProviders, _compiledTopicResolverProvider, serviceChannel.getService(), serviceChannel, messageClass, context.messageType);
+                if (topicResolver != null) {
+                    topicResolver.initialize(serviceChannel);
+                }
+            }
+
+            final MessageSendContext rebuilt = new MessageSendContext(context.busName, context.channelName, context.messageType, serviceChannel, topicResolver, context.stats, context.replicator);
+            rebuilt.channel = context.channel;
+            if (first == null) {
+                first = rebuilt;
             }
             else {
-                if (_tracer.debug) _tracer.log(tracePrefix() + "...channel '" + sendContext.channelName + "' is not ready for messaging.", Tracer.Level.DEBUG);
-                throw new ToaException("channel '" + sendContext.channelName + "' is not ready for messaging, can't send '" + message.getClass().getName() + "'");
+                last.next = rebuilt;
             }
+            last = rebuilt;
         }
-        else {
-            if (_tracer.debug) _tracer.log(tracePrefix() + "...no channel associated for message.", Tracer.Level.DEBUG);
-            throw new ToaException("no channel associated with message '" + message.getClass().getName() + "'");
-        }
+        return first;
     }
 
     final private void configureMessaging(final Set<URL> serviceUrls, final Set<Object> handlerContainers) {
@@ -1063,20 +2348,66 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
 
         // get services
         _tracer.log(tracePrefix() + "...parsing services (count=" + serviceUrls.size() + ").", Tracer.Level.CONFIG);
-        final Map<ToaService, ToaServiceChannel> defaultChannels = new HashMap<ToaService, ToaServiceChannel>();
+        // the models parsed for the application's services are held by its service model cache 
+        // (memory only unless a cache directory is configured):
+        final String serviceModelCacheDir = XRuntime.getValue(PROP_SERVICE_MODEL_CACHE_DIR, null);
+        final ToaServiceModelCache serviceModelCache = serviceModelCacheDir != null && serviceModelCacheDir.trim().length() > 0 ? new ToaServiceModelCache(new File(serviceModelCacheDir.trim())) : new ToaServiceModelCache();
+        if (serviceModelCache.getDirectory() != null) {
+            _tracer.log(tracePrefix() + "...using service model cache in '" + serviceModelCache.getDirectory() + "'.", Tracer.Level.CONFIG);
+        }
+        final ToaServiceLoadStats serviceLoadStats = new ToaServiceLoadStats();
+        final long serviceLoadStart = System.nanoTime();
+        final List<URL> serviceUrlList = new ArrayList<URL>(serviceUrls.size());
         for (URL url : serviceUrls) {
             if (url == null) {
                 throw new ToaException("null service url return by the service locator for app '" + _engineDescriptor.getName() + "'!");
             }
+            serviceUrlList.add(url);
+        }
+
+        // unmarshal services in parallel (they are merged below in locator order):
+        List<ToaService> unmarshalledServices = null;
+        if (XRuntime.getValue(PROP_PARALLEL_SERVICE_LOADING, PROP_PARALLEL_SERVICE_LOADING_DEFAULT) && serviceUrlList.size() > 1) {
+            final ServiceLoadingExecutor serviceLoader = new ServiceLoadingExecutor(XRuntime.getValue(PROP_SERVICE_LOADING_THREADS, PROP_SERVICE_LOADING_THREADS_DEFAULT));
+            _tracer.log(tracePrefix() + "...unmarshalling services in parallel (threads=" + serviceLoader.getThreads() + ").", Tracer.Level.CONFIG);
+            final List<Callable<ToaService>> tasks = new ArrayList<Callable<ToaService>>(serviceUrlList.size());
+            for (final URL url : serviceUrlList) {
+                tasks.add(new Callable<ToaService>() {
+                    @Override
+                    public ToaService call() throws Exception {
+                        return ToaService.unmarshal(url, serviceModelCache, serviceLoadStats);
+                    }
+                });
+            }
+            try {
+                unmarshalledServices = serviceLoader.invokeAll(tasks);
+            }
+            catch (Exception e) {
+                throw new ToaException(e);
+            }
+        }
+
+        final long serviceReloadInterval = XRuntime.getValue(PROP_SERVICE_RELOAD_INTERVAL, PROP_SERVICE_RELOAD_INTERVAL_DEFAULT);
+        if (serviceReloadInterval > 0) {
+            _tracer.log(tracePrefix() + "...service reload is enabled (interval=" + serviceReloadInterval + "ms).", Tracer.Level.CONFIG);
+            _serviceDefinitionWatcher = new ServiceDefinitionWatcher(new ServiceReloadTarget(), serviceModelCache, serviceReloadInterval, _tracer);
+        }
 
+        final Set<ToaService> loadedServices = new LinkedHashSet<ToaService>(); // in locator order
+        final Map<ToaService, ToaServiceChannel> defaultChannels = new HashMap<ToaService, ToaServiceChannel>();
+        for (int i = 0; i < serviceUrlList.size(); i++) {
+            final URL url = serviceUrlList.get(i);
             try {
                 _tracer.log(tracePrefix() + "......loading '" + url + "'.", Tracer.Level.CONFIG);
-                final ToaService service = ToaService.unmarshal(url);
-                if (!services.add(service)) {
+                final ToaService service = unmarshalledServices != null ? unmarshalledServices.get(i) : ToaService.unmarshal(url, serviceModelCache, serviceLoadStats);
+                if (!loadedServices.add(service)) {
                     _tracer.log(tracePrefix() + ".........ignore duplicate service '" + service.getName() + "' from " + url, Tracer.Level.CONFIG);
                 }
                 else {
                     _tracer.log(tracePrefix() + ".........loaded service '" + service.getName() + "'.", Tracer.Level.CONFIG);
+                    if (_serviceDefinitionWatcher != null && !_serviceDefinitionWatcher.watch(url)) {
+                        _tracer.log(tracePrefix() + ".........service '" + service.getName() + "' is not loaded from a file, it will not be reloaded.", Tracer.Level.CONFIG);
+                    }
                 }
 
                 defaultChannels.put(service, service.getDefaultChannel());
@@ -1085,6 +2416,7 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
                 throw new ToaException(e);
             }
         }
+        _tracer.log(tracePrefix() + "...parsed services in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - serviceLoadStart) + "ms (" + serviceLoadStats + ").", Tracer.Level.CONFIG);
 
         // get the set of handled event classes
         _tracer.log(tracePrefix() + "...parsing handled messages and events...", Tracer.Level.CONFIG);
@@ -1107,6 +2439,30 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
             }
         }
 
+        // the compiled topic resolver provider (if enabled) is used as a fallback when no
+        // other provider supplies a resolver:
+        final TopicResolverProvider compiledTopicResolverProvider;
+        if (XRuntime.getValue(PROP_ENABLE_COMPILED_TOPIC_RESOLUTION, PROP_ENABLE_COMPILED_TOPIC_RESOLUTION_DEFAULT)) {
+            _tracer.log(tracePrefix() + "...compiled topic resolution is enabled.", Tracer.Level.CONFIG);
+            compiledTopicResolverProvider = new CompiledTopicResolverProvider(_partitioners, false);
+        }
+        else if (!_partitioners.isEmpty()) {
+            // sharded and partitioned channels need the shard or partition resolved from the message:
+            _tracer.log(tracePrefix() + "...compiled topic resolution is enabled for sharded and partitioned channels.", Tracer.Level.CONFIG);
+            compiledTopicResolverProvider = new CompiledTopicResolverProvider(_partitioners, true);
+        }
+        else {
+            compiledTopicResolverProvider = null;
+        }
+        final boolean lazyMessageResolution = XRuntime.getValue(PROP_LAZY_MESSAGE_RESOLUTION, PROP_LAZY_MESSAGE_RESOLUTION_DEFAULT);
+        if (lazyMessageResolution) {
+            _tracer.log(tracePrefix() + "...lazy message resolution is enabled.", Tracer.Level.CONFIG);
+        }
+        if (lazyMessageResolution || _serviceDefinitionWatcher != null) {
+            _topicResolverProviders = topicResolverProviders;
+            _compiledTopicResolverProvider = compiledTopicResolverProvider;
+        }
+
         // prepare map that contains the channels to join and the map containing the messages to send for each channel
         _tracer.log(tracePrefix() + "...preparing join channel list and message channel map...", Tracer.Level.CONFIG);
         final boolean genericHandlerJoinsAll = XRuntime.getValue(PROP_GENERIC_HANDLER_JOINS_ALL, PROP_GENERIC_HANDLER_JOINS_ALL_DEFAULT);
@@ -1115,7 +2471,10 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         final EventHandlerContext genericMessageEventHandler = eventHandlersByClass.get(MessageEvent.class.getName());
         final Map<ToaService, Set<ToaServiceChannel>> channelsWithHandlers = new HashMap<ToaService, Set<ToaServiceChannel>>();
         final HashMap<String, ServiceMessageContext> serviceDeclaredMessages = new HashMap<String, ServiceMessageContext>();
-        for (ToaService service : services) {
+        final LinkedHashMap<Long, MessageSendContext> sendContextsById = new LinkedHashMap<Long, MessageSendContext>();
+        final XLongLinkedHashMap<DeferredSendContext> deferredSendContexts = lazyMessageResolution ? XLongLinkedHashMap.<DeferredSendContext> newInstance() : null;
+        int deferred = 0;
+        for (ToaService service : loadedServices) {
 
             // prepare the message channel map entry for the channel
             for (ToaServiceChannel toaChannel : service.getChannels()) {
@@ -1196,18 +2555,27 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
                     }
 
                     // add the message to the list of messages to be sent on the channel
-                    Map<String, List<Long>> channelMap = _channelMessageMapByBus.get(toaChannel.getBusName());
-                    List<Long> ids = channelMap.get(toaChannel.getName());
-                    if (ids == null) {
-                        channelMap.put(toaChannel.getName(), ids = new ArrayList<Long>());
-                    }
-                    ids.add(uniqueMessageId);
+                    addChannelMessage(toaChannel, uniqueMessageId);
 
                     // create a send context for this message but with channel as null. the 
                     // channel will be filled in later when the channel up notification is 
                     // received
 
                     String messageType = admMessage.getFullName();
+                    final List<ToaServiceChannel> toaChannels = to.getChannels(admMessage.getFullName());
+                    if (lazyMessageResolution && eventHandler == null) {
+                        // defer creating the message's send contexts and stats, which loads its class and 
+                        // looks up its topic resolvers, until first send:
+                        for (int i = 1; i < toaChannels.size(); i++) {
+                            final ToaServiceChannel additionalChannel = toaChannels.get(i);
+                            _tracer.log(tracePrefix() + ".........<additional channel='" + additionalChannel.getName() + "'>.", Tracer.Level.CONFIG);
+                            addChannelMessage(additionalChannel, uniqueMessageId);
+                        }
+                        deferredSendContexts.put(uniqueMessageId, new DeferredSendContext(messageType, admMessage.getName(), toaChannels.toArray(new ToaServiceChannel[toaChannels.size()])));
+                        deferred++;
+                        continue;
+                    }
+
                     TopicResolver<?> topicResolver = null;
                     Class<?> messageClass = null;
                     try {
@@ -1222,22 +2590,34 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
                     }
 
                     if (messageClass != null) {
-                        TopicResolverProvider topicResolverProvider = null;
-                        for (TopicResolverProvider provider : topicResolverProviders) {
-                            TopicResolver<?> resolver = provider.getTopicResolver(service, toaChannel, messageClass);
-                            if (resolver != null) {
-                                // assumes that a user override will be added after this class' default resolver and we 
-                                // want to favor user override. 
-                                if (topicResolver != null) {
-                                    _tracer.log("Found multiple topic resolvers for message '" + messageType + "': '" + resolver.getClass() + "' provided by '" + provider.getClass() + "' will be used instead of '" + topicResolver + "' provided by '" + topicResolverProvider.getClass() + "'", Tracer.Level.WARNING);
-                                }
-                                topicResolver = resolver;
-                                topicResolverProvider = provider;
-                            }
-                        }
+                        topicResolver = findTopicResolver(topicResolverProviders, compiledTopicResolverProvider, service, toaChannel, messageClass, messageType);
                     }
 
-                    _messageChannelMap.put(uniqueMessageId, new MessageSendContext(XString.create(toaChannel.getBusName(), true, true), XString.create(toaChannel.getName(), true, true), admMessage.getFullName(), toaChannel, topicResolver));
+                    final MessageSendStats sendStats = sendStatsEnabled ? new MessageSendStats(toaChannel.getBusName(), toaChannel.getName(), admMessage.getName()) : null;
+                    final MessageSendContext sendContext = new MessageSendContext(XString.create(toaChannel.getBusName(), true, true), XString.create(toaChannel.getName(), true, true), admMessage.getFullName(), toaChannel, topicResolver, sendStats);
+                    _messageChannelMap.put(uniqueMessageId, sendContext);
+                    sendContextsById.put(uniqueMessageId, sendContext);
+
+                    // a message mapped to multiple channels gets a send context for each of its additional
+                    // channels chained off of its primary channel's context. Additional channels are send
+                    // only: they are not joined on the message's account.
+                    MessageSendContext lastSendContext = sendContext;
+                    MessageReplicator replicator = null;
+                    for (int i = 1; i < toaChannels.size(); i++) {
+                        final ToaServiceChannel additionalChannel = toaChannels.get(i);
+                        _tracer.log(tracePrefix() + ".........<additional channel='" + additionalChannel.getName() + "'>.", Tracer.Level.CONFIG);
+                        if (messageClass == null) {
+                            throw new ToaException("Message class not found for '" + messageType + "', it can't be sent on multiple channels");
+                        }
+                        if (replicator == null) {
+                            replicator = MessageReplicator.forClass(messageClass, messageType);
+                        }
+
+                        addChannelMessage(additionalChannel, uniqueMessageId);
+                        final TopicResolver<?> additionalTopicResolver = findTopicResolver(topicResolverProviders, compiledTopicResolverProvider, service, additionalChannel, messageClass, messageType);
+                        final MessageSendStats additionalSendStats = sendStatsEnabled ? new MessageSendStats(additionalChannel.getBusName(), additionalChannel.getName(), admMessage.getName()) : null;
+                        lastSendContext = lastSendContext.next = new MessageSendContext(XString.create(additionalChannel.getBusName(), true, true), XString.create(additionalChannel.getName(), true, true), admMessage.getFullName(), additionalChannel, additionalTopicResolver, additionalSendStats, replicator);
+                    }
                 }
             }
         }
@@ -1245,8 +2625,10 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         // trace channel mappings established...
         if (_tracer.getLevel().val <= Tracer.Level.CONFIG.val) {
             _tracer.log(tracePrefix() + "......messages channel mappings...", Tracer.Level.CONFIG);
-            for (MessageSendContext sendContext : _messageChannelMap.values()) {
-                _tracer.log(tracePrefix() + ".........message '" + sendContext.messageType + "' -> " + sendContext.channelName + "@" + sendContext.busName + "(from service '" + sendContext.serviceChannel.getService().getName() + "')", Tracer.Level.CONFIG);
+            for (MessageSendContext primarySendContext : _messageChannelMap.values()) {
+                for (MessageSendContext sendContext = primarySendContext; sendContext != null; sendContext = sendContext.next) {
+                    _tracer.log(tracePrefix() + ".........message '" + sendContext.messageType + "' -> " + sendContext.channelName + "@" + sendContext.busName + "(from service '" + sendContext.serviceChannel.getService().getName() + "')", Tracer.Level.CONFIG);
+                }
             }
         }
 
@@ -1291,6 +2673,11 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
             }
         }
 
+        if (_serviceDefinitionWatcher != null) {
+            _channelFilterProviders = channelFilterProviders;
+            _channelKRTProviders = channelKRTProviders;
+        }
+
         // prepare the ChannelJoinProviders set:
         final HashSet<ChannelJoinProvider> channelJoinProviders = new HashSet<ChannelJoinProvider>();
         for (Object o : managedObjects) {
@@ -1307,7 +2694,7 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
                 _tracer.log(tracePrefix() + "...adding channels to bus descriptor '" + busName + "'...", Tracer.Level.CONFIG);
                 final MessageBusDescriptor busDescriptor = MessageBusDescriptor.load(busName);
                 Map<String, List<Long>> channelMessageMap = _channelMessageMapByBus.get(busName);
-                for (ToaService service : services) {
+                for (ToaService service : loadedServices) {
                     for (ToaServiceChannel channel : service.getChannels()) {
                         _tracer.log(tracePrefix() + "......processing channel '" + channel.getName() + "'...", Tracer.Level.CONFIG);
 
@@ -1378,88 +2765,12 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
                             }
                         }
 
-                        // resolve krt:
-                        Properties initialKRT = null;
-                        ChannelInitialKeyResolutionTableProvider krtProvider = null;
-                        for (ChannelInitialKeyResolutionTableProvider provider : channelKRTProviders) {
-                            Properties krt = provider.getInitialChannelKeyResolutionTable(service, channel);
-                            if (krt != null) {
-                                if (initialKRT != null) {
-                                    throw new ToaException("Duplicate Initial KRT providers for channel '" + channel.getSimpleName() + "' in service '" + service.getName() + "'!"
-                                            + " '" + krtProvider.getClass().getName() + "' provided '" + initialKRT + "'"
-                                            + ", and '" + provider.getClass().getName() + "' provided '" + krt + "'");
-                                }
-                                krtProvider = provider;
-                                initialKRT = krt;
-                                _tracer.log(tracePrefix() + "......channel initial KRT for '" + channelDescriptor.getName() + "' is '" + krt + "' (provided by: '" + krtProvider.getClass().getName() + "').", Tracer.Level.CONFIG);
-                            }
-                        }
-
-                        channel.setKey(key);
-
-                        if (initialKRT != null && key != null) {
-                            // Handle empty ("") key fields in initial KRT: 
-                            Properties sanitizedKrt = initialKRT;
-                            final boolean treatEmptyKeyAsNull = XRuntime.getValue(MessageChannel.PROP_TREAT_EMPTY_KEY_FIELD_AS_NULL, MessageChannel.PROP_TREAT_EMPTY_KEY_FIELD_AS_NULL_DEFAULT);
-                            final boolean allowEmptyKey = XRuntime.getValue(MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD, MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD_DEFAULT);
-                            if (treatEmptyKeyAsNull || !allowEmptyKey) {
-                                for (Map.Entry<Object, Object> krtEntry : initialKRT.entrySet()) {
-                                    // Note that the null check here isn't really necessary as 
-                                    // java.util.Properties does not allow null values. We still
-                                    // check for null here as a safeguard against any future API
-                                    // changes. 
-                                    if (krtEntry.getValue() == null || "".equals(String.valueOf(krtEntry.getValue()))) {
-                                        // copy the KRT if 
-                                        if (sanitizedKrt == initialKRT) {
-                                            sanitizedKrt = new Properties();
-                                            sanitizedKrt.putAll(initialKRT);
-                                        }
-
-                                        // if configured to treat empty keys as null then remove the value
-                                        // from the initial KRT to ignore it: 
-                                        if (treatEmptyKeyAsNull) {
-                                            sanitizedKrt.remove(krtEntry.getKey());
-                                        }
-                                        else if (!allowEmptyKey) {
-                                            if ("".equals(String.valueOf(krtEntry.getValue()))) {
-                                                throw new ToaException("Initial KRT for channel '" + channel.getSimpleName() + "' in service '" + service.getName() + "' (provided by"
-                                                        + " '" + krtProvider.getClass().getName() + "') contains a blank value for key field '" + String.valueOf(krtEntry.getKey()) + "' but '"
-                                                        + MessageChannel.PROP_ALLOW_EMPTY_KEY_FIELD + "'is false!");
-                                            }
-                                            else if (krtEntry.getValue() == null) {
-                                                // otherwise if null remove the value so it doesn't lead to key substitution 
-                                                // via UtlTailoring.springScanAndReplace
-                                                sanitizedKrt.remove(krtEntry.getKey());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-
-                            channel.setInitialKRT(sanitizedKrt);
-                            _tracer.log(tracePrefix() + "......performing initial channel key resolution for channel '" + channel.getName() + "', key=" + key, Tracer.Level.CONFIG);
-                            key = UtlTailoring.springScanAndReplace(key, sanitizedKrt, true);
-                        }
-                        //Update the model with the overridden key:
-                        channel.setInitiallyResolvedKey(key);
+                        // resolve krt and apply it to the key:
+                        key = resolveInitialKey(service, channel, key, channelKRTProviders);
                         channelDescriptor.setChannelKey(key);
 
                         // resolve channel filter
-                        String channelFilter = null;
-                        ChannelFilterProvider filterProvider = null;
-                        for (ChannelFilterProvider provider : channelFilterProviders) {
-                            String filter = provider.getChannelFilter(service, channel);
-                            if (filter != null) {
-                                if (channelFilter != null && !channelFilter.equals(filter)) {
-                                    throw new ToaException("Conflicting channel filters provided for channel '" + channel.getSimpleName() + "' in service '" + service.getName() + "'!"
-                                            + " '" + filterProvider.getClass().getName() + "' provided '" + channelFilter + "'"
-                                            + ", but '" + provider.getClass().getName() + "' provided '" + filter + "'");
-                                }
-                                filterProvider = provider;
-                                channelFilter = filter;
-                                _tracer.log(tracePrefix() + "......channel filter for '" + channelDescriptor.getName() + "' '" + channelFilter + "' (provided by: '" + filterProvider.getClass().getName() + "').", Tracer.Level.CONFIG);
-                            }
-                        }
+                        final String channelFilter = resolveChannelFilter(service, channel, channelFilterProviders);
 
                         // Join and Filter can come from DDL. They will be used if not overridden by a provider. 
                         AepEngineDescriptor.ChannelConfig engineChannelConfig = _engineDescriptor.getChannelConfig(busName, channel.getName());
@@ -1547,9 +2858,11 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
 
         // initialize TopicResolvers. This is done after we parse initial KRTs above
         // so they can be used by the resolvers. 
-        for (MessageSendContext context : _messageChannelMap.values()) {
-            if (context.topicResolver != null) {
-                context.topicResolver.initialize(context.serviceChannel);
+        for (MessageSendContext primaryContext : _messageChannelMap.values()) {
+            for (MessageSendContext context = primaryContext; context != null; context = context.next) {
+                if (context.topicResolver != null) {
+                    context.topicResolver.initialize(context.serviceChannel);
+                }
             }
         }
 
@@ -1577,6 +2890,14 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         StringBuilder factoryDump = new StringBuilder();
         MessageViewFactoryRegistry.getInstance().dumpFactoryVersionInfo(factoryDump);
         _tracer.log(tracePrefix() + "...registered message view factories:\n" + factoryDump, Tracer.Level.CONFIG);
+
+        // the set of sendable message types is now closed, freeze it into the
+        // direct indexed table used on the send path:
+        _deferredSendContexts = deferredSendContexts;
+        _sendContextsById = sendContextsById;
+        _sendContextTable = new MessageTypeTable<MessageSendContext>(sendContextsById);
+        _tracer.log(tracePrefix() + "...prepared send context table (types=" + _sendContextTable.size() + ", deferred to first send=" + deferred + ").", Tracer.Level.CONFIG);
+        services = Collections.unmodifiableSet(loadedServices);
         messagingConfigured = true;
     }
 
@@ -1996,6 +3317,16 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         return _delayedAckController;
     }
 
+    /**
+     * Returns the application's message handler dispatch latency profiler. 
+     * 
+     * @see #PROP_ENABLE_DISPATCH_PROFILER
+     * @return The {@link DispatchLatencyProfiler} or null if not enabled. 
+     */
+    final public DispatchLatencyProfiler getDispatchLatencyProfiler() {
+        return _dispatchProfiler;
+    }
+
     /**
      * Returns this application's bootstrap configurer. 
      * <p>
@@ -2054,6 +3385,39 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         return null;
     }
 
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageSender#sendMessages(com.neeve.rog.IRogMessage[], int, int)
+     */
+    @Override
+    final public void sendMessages(final IRogMessage[] messages, final int offset, final int count) {
+        sendBatch(messages, offset, count);
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageSender#sendMessages(java.util.List)
+     */
+    @Override
+    final public void sendMessages(final List<? extends IRogMessage> messages) {
+        if (messages == null) {
+            throw new IllegalArgumentException("messages cannot be null");
+        }
+        final int count = messages.size();
+        if (_batchMessages.length < count) {
+            _batchMessages = new IRogMessage[count];
+        }
+        final IRogMessage[] batch = _batchMessages;
+        try {
+            int i = 0;
+            for (IRogMessage message : messages) {
+                batch[i++] = message;
+            }
+            sendBatch(batch, 0, count);
+        }
+        finally {
+            Arrays.fill(batch, 0, count, null);
+        }
+    }
+
     /**
      * Returns the {@link MessageSender} implementation which is this class.
      * <p>
@@ -2144,6 +3508,16 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         return this;
     }
 
+    /**
+     * Returns the application's shard assignment if the application is partitioned. 
+     * 
+     * @return The shard assignment or <code>null</code> if the application isn't partitioned. 
+     * @see #PROP_SHARD_COUNT
+     */
+    final public ShardAssignment getShardAssignment() {
+        return _shardAssignment;
+    }
+
     /* (non-Javadoc)
      * @see com.neeve.toa.MessageInjector#injectMessage(com.neeve.rog.IRogMessage)
      */
@@ -2165,13 +3539,36 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
      */
     @Override
     final public void injectMessage(IRogMessage message, boolean nonBlocking, final int delay) {
-        if (_engine.getState() == State.Started && _engine.isPrimary()) {
-            if (!_engine.isDispatchThread()) {
+        if (_shardAssignment != null) {
+            final TopicOrientedApplication owner = _shardAssignment.ownerOf(message);
+            if (owner != null) {
+                if (!_engine.isDispatchThread()) {
+                    owner.injectMessage(message, nonBlocking, delay);
+                    return;
+                }
 
-                if (!_factoryRegisteredTypesById.containsKey(uniqueMessageId(message.getVfid(), message.getType()))) {
-                    throw new ToaException("Can't inject '" + message.getClass().getName() + "' it was not registered with the application during initialization. This probably means that you don't have an @EventHandler for it in your application.");
+                // a dispatch thread never waits for (or claims a lane of) another shard's input queue, 
+                // and like a local injection a message injected by a message handler is held until the 
+                // transaction processing the message being dispatched is stable:
+                owner.checkInjectable(message);
+                checkDispatchInjection();
+                if (_dispatchingMessage != null && _dispatchingMessage == _engine.getCurrentMessage()) {
+                    _dispatchInjectionQueue.add(message, delay, owner);
+                }
+                else {
+                    owner.injectRoutedMessage(message, delay);
                 }
+                return;
+            }
+        }
 
+        if (_engine.getState() == State.Started && _engine.isPrimary()) {
+            checkInjectable(message);
+
+            if (!_engine.isDispatchThread()) {
+                if (_injectionLanes != null && _injectionLanes.offer(message, delay, nonBlocking)) {
+                    return;
+                }
                 try {
                     _engine.injectMessage(message, nonBlocking, delay);
                 }
@@ -2181,9 +3578,155 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
                 }
             }
             else {
-                throw new UnsupportedOperationException("Injection of messages from an event handler thread is not currently supported.");
+                checkDispatchInjection();
+                if (_dispatchingMessage != null && _dispatchingMessage == _engine.getCurrentMessage()) {
+                    // hold the message until the transaction processing the message being dispatched 
+                    // has completed. A handler that throws leaves _dispatchingMessage set, but it is 
+                    // then no longer the engine's current message:
+                    _dispatchInjectionQueue.add(message, delay);
+                }
+                else {
+                    // injected from a non message event handler, the dispatch thread can't block 
+                    // on its own input queue so the injection is always non blocking:
+                    try {
+                        _engine.injectMessage(message, true, delay);
+                    }
+                    catch (IllegalStateException ise) {
+                        //engine may have been stopped during multiplex...
+                        _tracer.log("Injection of message canceled: " + ise.getMessage(), Tracer.Level.WARNING);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that a message can be injected into the application. 
+     * 
+     * @param message The message.
+     * @throws ToaException If the application has no handler for the message. 
+     */
+    private final void checkInjectable(final IRogMessage message) {
+        if (!_factoryRegisteredTypesById.containsKey(uniqueMessageId(message.getVfid(), message.getType()))) {
+            throw new ToaException("Can't inject '" + message.getClass().getName() + "' it was not registered with the application during initialization. This probably means that you don't have an @EventHandler for it in your application.");
+        }
+    }
+
+    /**
+     * Checks that a message injected on the engine's dispatch thread can be injected: injection from 
+     * a message handler must be enabled. 
+     * 
+     * @throws UnsupportedOperationException If a message is being dispatched and injection from 
+     * message handlers isn't enabled.
+     * @see #PROP_ENABLE_DISPATCH_INJECTION
+     */
+    private final void checkDispatchInjection() {
+        if (!_dispatchInjectionEnabled && _engine.getCurrentMessage() != null) {
+            throw new UnsupportedOperationException("Injection of messages from a message handler is not enabled (set '" + PROP_ENABLE_DISPATCH_INJECTION + "' to enable it).");
+        }
+    }
+
+    /**
+     * Injects a message routed to this shard from the dispatch thread of another shard. 
+     * <p>
+     * The message is injected directly into the engine without blocking: the dispatch thread of one 
+     * shard mustn't wait for space in another shard's input queue or injection lanes, or two shards 
+     * injecting into each other could deadlock. The message is discarded if this shard is no longer 
+     * started. 
+     * 
+     * @param message The message to inject.
+     * @param delay The injection delay (or priority if negative).
+     */
+    final void injectRoutedMessage(final IRogMessage message, final int delay) {
+        if (_engine.getState() != State.Started || !_engine.isPrimary()) {
+            _tracer.log(tracePrefix() + "Discarded '" + message.getClass().getName() + "' routed to this shard, the shard is not started as primary.", Tracer.Level.WARNING);
+            message.dispose();
+            return;
+        }
+        try {
+            _engine.injectMessage(message, true, delay);
+        }
+        catch (IllegalStateException ise) {
+            //engine may have been stopped during multiplex...
+            _tracer.log(tracePrefix() + "Injection of message canceled: " + ise.getMessage(), Tracer.Level.WARNING);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageInjector#scheduleInjection(com.neeve.rog.IRogMessage, long)
+     */
+    @Override
+    final public ScheduledInjection scheduleInjection(final IRogMessage message, final long delayMicros) {
+        if (_shardAssignment != null) {
+            final TopicOrientedApplication owner = _shardAssignment.ownerOf(message);
+            if (owner != null) {
+                return owner.scheduleInjection(message, delayMicros);
+            }
+        }
+        if (!_factoryRegisteredTypesById.containsKey(uniqueMessageId(message.getVfid(), message.getType()))) {
+            throw new ToaException("Can't schedule injection of '" + message.getClass().getName() + "' it was not registered with the application during initialization. This probably means that you don't have an @EventHandler for it in your application.");
+        }
+        return _injectionScheduler.schedule(message, delayMicros, _engineName);
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageInjector#tryInjectMessage(com.neeve.rog.IRogMessage)
+     */
+    @Override
+    final public InjectionOutcome tryInjectMessage(final IRogMessage message) {
+        if (_shardAssignment != null) {
+            final TopicOrientedApplication owner = _shardAssignment.ownerOf(message);
+            if (owner != null) {
+                return owner.tryInjectMessage(message);
             }
         }
+        if (_engine.getState() != State.Started || !_engine.isPrimary()) {
+            return InjectionOutcome.NotPrimary;
+        }
+        if (!_factoryRegisteredTypesById.containsKey(uniqueMessageId(message.getVfid(), message.getType()))) {
+            throw new ToaException("Can't inject '" + message.getClass().getName() + "' it was not registered with the application during initialization. This probably means that you don't have an @EventHandler for it in your application.");
+        }
+        if (_engine.isDispatchThread()) {
+            // not flow controlled, the dispatch thread can't wait for its own queue to drain:
+            injectMessage(message, true, 0);
+            return InjectionOutcome.Accepted;
+        }
+        return _injectionFlowControl.inject(_engine, message);
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageInjector#getInjectionQueueDepth()
+     */
+    @Override
+    final public int getInjectionQueueDepth() {
+        return _injectionFlowControl.getDepth();
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageInjector#setInjectionWatermarkListener(com.neeve.toa.MessageInjector.InjectionWatermarkListener)
+     */
+    @Override
+    final public void setInjectionWatermarkListener(final InjectionWatermarkListener listener) {
+        _injectionFlowControl.setListener(listener);
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.toa.MessageInjector#injectPeriodically(com.neeve.toa.MessageInjector.PeriodicMessageFactory, long)
+     */
+    @Override
+    final public ScheduledInjection injectPeriodically(final PeriodicMessageFactory factory, final long periodMicros) {
+        final IRogMessage message = factory.createMessage();
+        if (!_factoryRegisteredTypesById.containsKey(uniqueMessageId(message.getVfid(), message.getType()))) {
+            message.dispose();
+            throw new ToaException("Can't inject '" + message.getClass().getName() + "' periodically it was not registered with the application during initialization. This probably means that you don't have an @EventHandler for it in your application.");
+        }
+        try {
+            return _injectionScheduler.schedulePeriodically(factory, message, periodMicros, _engineName);
+        }
+        catch (RuntimeException e) {
+            message.dispose();
+            throw e;
+        }
     }
 
     /**
@@ -2198,6 +3741,9 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
     final private void setEngineConfiguration(final AepEngineDescriptor engineDescriptor) throws Exception {
         _engineDescriptor = engineDescriptor;
         _engineDescriptor.setEnableAlertTrace(false); // Hornet provides its own alert event handler. 
+        if (_dispatchInjectionEnabled) {
+            _engineDescriptor.setDispatchTransactionStabilityEvents(true); // releases messages injected from message handlers. 
+        }
         _engineName = engineDescriptor.getName();
         onEngineDescriptorInjected(engineDescriptor);
         if (!_engineName.equals(engineDescriptor.getName())) {
@@ -2228,9 +3774,58 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
             managedObjects.add(_delayedAckController);
         }
 
+        if (_dispatchProfiler != null) {
+            managedObjects.add(_dispatchProfiler);
+        }
+
+        final int shardCount = XRuntime.getValue(PROP_SHARD_COUNT, PROP_SHARD_COUNT_DEFAULT);
+        if (shardCount > 1) {
+            final String shardField = XRuntime.getValue(PROP_SHARD_FIELD, null);
+            if (shardField == null || shardField.trim().length() == 0) {
+                throw new ToaException("'" + PROP_SHARD_FIELD + "' must be set for a partitioned application ('" + PROP_SHARD_COUNT + "' is " + shardCount + ")");
+            }
+            _shardAssignment = ShardAssignment.forEngine(_engineName, shardCount, XRuntime.getValue(PROP_SHARD_INDEX, PROP_SHARD_INDEX_DEFAULT), shardField.trim());
+            managedObjects.add(_shardAssignment);
+            _partitioners.add(_shardAssignment.getPartitioner());
+            _tracer.log(tracePrefix() + "Application is partitioned: " + _shardAssignment + ".", Tracer.Level.CONFIG);
+        }
+
+        final int partitionCount = XRuntime.getValue(PROP_PARTITION_COUNT, PROP_PARTITION_COUNT_DEFAULT);
+        if (partitionCount > 1) {
+            final String partitionKeyVariable = XRuntime.getValue(PROP_PARTITION_KEY_VARIABLE, PROP_PARTITION_KEY_VARIABLE_DEFAULT);
+            final String partitionField = XRuntime.getValue(PROP_PARTITION_FIELD, null);
+            final String partitions = XRuntime.getValue(PROP_PARTITIONS, null);
+            final boolean sendsByField = partitionField != null && partitionField.trim().length() > 0;
+            if (sendsByField) {
+                if (partitionKeyVariable == null || partitionKeyVariable.trim().length() == 0) {
+                    throw new ToaException("Invalid partition configuration ('" + PROP_PARTITION_COUNT + "' is " + partitionCount + "): '" + PROP_PARTITION_KEY_VARIABLE + "' must not be empty");
+                }
+                _partitioners.add(new MessagePartitioner(partitionKeyVariable.trim(), partitionCount, partitionField.trim()));
+                _tracer.log(tracePrefix() + "Messages sent on partitioned channels will be sent to the partition of their '" + partitionField.trim() + "' field.", Tracer.Level.CONFIG);
+            }
+
+            // an application that only sends on partitioned channels doesn't own any partitions:
+            if (partitions != null || !sendsByField) {
+                final PartitionedChannelFilterProvider partitionFilterProvider;
+                try {
+                    partitionFilterProvider = PartitionedChannelFilterProvider.create(partitionKeyVariable, partitionCount, partitions);
+                }
+                catch (IllegalArgumentException e) {
+                    throw new ToaException("Invalid partition configuration ('" + PROP_PARTITION_COUNT + "' is " + partitionCount + "): " + e.getMessage() + " (set '" + PROP_PARTITIONS + "', or '" + PROP_PARTITION_FIELD + "' for an application that only sends on partitioned channels)", e);
+                }
+                managedObjects.add(partitionFilterProvider);
+                _tracer.log(tracePrefix() + "Partitioned channels will be joined with: " + partitionFilterProvider + ".", Tracer.Level.CONFIG);
+            }
+        }
+
         if (managedObjects.contains(null)) {
             throw new IllegalStateException("Addition of null objects to the set of managed objects is not supported.");
         }
+
+        // registered last, a shard that fails to load is unregistered (see unregisterShard()):
+        if (_shardAssignment != null) {
+            _shardAssignment.register(this);
+        }
     }
 
     /**
@@ -2259,17 +3854,69 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
      */
     @AppEventHandlerContainersAccessor
     final private void configure(Set<Object> containers) throws Exception {
-        containers.add(this);
-        containers.addAll(managedObjects);
-        final LinkedHashSet<URL> services = new LinkedHashSet<URL>();
-        getServiceDefinitionLocator().locateServices(services);
-        configureMessaging(services, containers);
-        onConfigured();
-        if (_delayedAckController != null) {
-            containers.add(_delayedAckController);
+        try {
+            containers.add(this);
+            containers.addAll(managedObjects);
+            final LinkedHashSet<URL> services = new LinkedHashSet<URL>();
+            final long locateStart = System.nanoTime();
+            getServiceDefinitionLocator().locateServices(services);
+            _tracer.log(tracePrefix() + "Located " + services.size() + " service(s) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - locateStart) + "ms.", Tracer.Level.CONFIG);
+            configureMessaging(services, containers);
+            if (_serviceDefinitionWatcher != null) {
+                _serviceDefinitionWatcher.start(_engineName);
+                _tracer.log(tracePrefix() + "Watching " + _serviceDefinitionWatcher.size() + " service definition(s) for changes.", Tracer.Level.CONFIG);
+            }
+            if (XRuntime.getValue(PROP_ENABLE_COMPILED_EVENT_DISPATCH, PROP_ENABLE_COMPILED_EVENT_DISPATCH_DEFAULT)) {
+                substituteCompiledEventDispatchers(containers);
+            }
+            onConfigured();
+            if (_delayedAckController != null) {
+                containers.add(_delayedAckController);
+            }
+            containers.add(new FirstMessageValidator());
+            traceConfig(Tracer.Level.CONFIG);
+        }
+        catch (Exception e) {
+            unregisterShard();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces event handler containers that have a {@link CompiledEventDispatcher} with 
+     * their dispatcher. 
+     * <p>
+     * This is done after messaging is configured because the event handler declarations of
+     * the containers themselves determine which message types are registered and which 
+     * channels are joined. 
+     * 
+     * @param containers The event handler containers.
+     */
+    private final void substituteCompiledEventDispatchers(final Set<Object> containers) {
+        _tracer.log(tracePrefix() + "Substituting compiled event dispatchers...", Tracer.Level.CONFIG);
+        final ArrayList<Object> substituted = new ArrayList<Object>(containers.size());
+        int count = 0;
+        for (Object container : containers) {
+            final CompiledEventDispatcher dispatcher = CompiledEventDispatcher.forContainer(container);
+            if (dispatcher != null) {
+                _tracer.log(tracePrefix() + "...'" + container.getClass().getName() + "' -> '" + dispatcher.getClass().getName() + "'.", Tracer.Level.CONFIG);
+                substituted.add(dispatcher);
+                count++;
+
+                // compiled dispatchers don't dispatch to this class' own handlers:
+                if (container == this) {
+                    substituted.add(new ApplicationEventHandlers());
+                }
+            }
+            else {
+                substituted.add(container);
+            }
         }
-        containers.add(new FirstMessageValidator());
-        traceConfig(Tracer.Level.CONFIG);
+
+        // preserve container order:
+        containers.clear();
+        containers.addAll(substituted);
+        _tracer.log(tracePrefix() + "...substituted " + count + " compiled event dispatcher(s).", Tracer.Level.CONFIG);
     }
 
     /**
@@ -2327,6 +3974,19 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
     final private void findStatAccessors(final Set<Object> containers) throws Exception {
         containers.add(this);
         containers.addAll(managedObjects);
+        if (sendStatsEnabled) {
+            for (MessageSendContext primarySendContext : _messageChannelMap.values()) {
+                for (MessageSendContext sendContext = primarySendContext; sendContext != null; sendContext = sendContext.next) {
+                    containers.add(sendContext.stats);
+                }
+            }
+        }
+        if (_injectionLanes != null) {
+            containers.add(_injectionLanes);
+            for (InjectionLanes.Lane lane : _injectionLanes.getLanes()) {
+                containers.add(lane);
+            }
+        }
     }
 
     /**
@@ -2373,15 +4033,20 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
             _delayedAckController.initEngine(engine);
         }
 
+        if (_injectionLanes != null) {
+            _injectionLanes.initEngine(engine);
+        }
+
         onEngineInjected(engine);
 
+        // the predispatch dispatcher is always installed since it tracks the dispatch of flow controlled 
+        // injections (at the cost of a volatile read per message when none are pending). The postdispatch 
+        // dispatcher is installed only if it has handlers or must release messages injected from handlers:
         predispatchMessageHandlerDispatcher.closeHandlerAddition();
-        if (predispatchMessageHandlerDispatcher.handlerList.length > 0) {
-            _engine.setPredispatchMessageHandler(predispatchMessageHandlerDispatcher);
-        }
+        _engine.setPredispatchMessageHandler(predispatchMessageHandlerDispatcher);
 
         postdispatchMessageHandlerDispatcher.closeHandlerAddition();
-        if (postdispatchMessageHandlerDispatcher.handlerList.length > 0) {
+        if (postdispatchMessageHandlerDispatcher.handlerList.length > 0 || _dispatchInjectionEnabled) {
             _engine.setPostdispatchMessageHandler(postdispatchMessageHandlerDispatcher);
         }
 
@@ -2490,7 +4155,13 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
 
     @AppInitializer
     private final void appInitialized() throws Exception {
-        onAppInitialized();
+        try {
+            onAppInitialized();
+        }
+        catch (Exception e) {
+            unregisterShard();
+            throw e;
+        }
     }
 
     /**
@@ -2505,11 +4176,55 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
     @EventHandler
     synchronized final private void onEngineStarted(final AepEngineStartedEvent event) {
         _role = _engine.getStore() != null ? _engine.getStore().getRole() : IStoreBinding.Role.Primary;
+        resetDispatchInjectionQueue();
+        _injectionFlowControl.reset();
     }
 
     @EventHandler
     synchronized final private void onRoleChanged(final IStoreBindingRoleChangedEvent event) {
         _role = event.getRole();
+        resetDispatchInjectionQueue();
+        _injectionFlowControl.reset();
+    }
+
+    /**
+     * Resets the flow controlled injection depth, the messages in the engine's input 
+     * queue will no longer be dispatched. A stopped shard (including one that failed to 
+     * start) no longer accepts messages routed from other shards. 
+     * 
+     * @param event The {@link AepEngineStoppedEvent}
+     */
+    @EventHandler
+    final private void onEngineStopped(final AepEngineStoppedEvent event) {
+        _injectionFlowControl.reset();
+        unregisterShard();
+    }
+
+    /**
+     * Discards messages injected from message handlers whose transactions haven't completed.
+     */
+    private final void resetDispatchInjectionQueue() {
+        if (!_dispatchInjectionQueue.isEmpty()) {
+            final int discarded = _dispatchInjectionQueue.discard();
+            _tracer.log(tracePrefix() + "Discarded " + discarded + " message(s) injected by message handlers whose transactions did not complete.", Tracer.Level.WARNING);
+        }
+        _dispatchingMessage = null;
+    }
+
+    /**
+     * Injects the messages injected from message handlers whose transactions are now stable. 
+     * <p>
+     * Queued messages are released against the engine's count of completed commits rather than a 
+     * count of stability events, so a stability event that covers several commits (or a missed 
+     * one) releases every message whose commit has completed. 
+     * 
+     * @param event The {@link AepTransactionStabilityEvent}
+     */
+    @EventHandler
+    final private void onTransactionStability(final AepTransactionStabilityEvent event) {
+        if (!_dispatchInjectionQueue.isEmpty()) {
+            _dispatchInjectionQueue.drain(_engine, _engine.getStats().getNumCommitsCompleted());
+        }
     }
 
     /**
@@ -2528,10 +4243,18 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
             Map<String, List<Long>> channelMap = _channelMessageMapByBus.get(busName);
             if (channelMap.get(channelName) != null) {
                 if (_tracer.debug) _tracer.log(tracePrefix() + "...channel is in channel message map. adding channel to message send map for following ids...", Tracer.Level.DEBUG);
-                for (Long id : channelMap.get(channelName)) {
-                    MessageSendContext context = _messageChannelMap.get(id);
-                    context.channel = channel;
-                    if (_tracer.debug) _tracer.log(tracePrefix() + "......'" + context.messageType + "' [" + id + "].", Tracer.Level.DEBUG);
+                synchronized (_sendContextLock) {
+                    // recorded for messages whose send contexts are created on first send:
+                    _upChannels.put(channelName + "@" + busName, channel);
+                    for (Long id : channelMap.get(channelName)) {
+                        // messages sent on multiple channels have a context per channel:
+                        for (MessageSendContext context = _messageChannelMap.get(id); context != null; context = context.next) {
+                            if (context.serviceChannel.getName().equals(channelName) && busName.equals(context.serviceChannel.getBusName())) {
+                                context.channel = channel;
+                                if (_tracer.debug) _tracer.log(tracePrefix() + "......'" + context.messageType + "' [" + id + "].", Tracer.Level.DEBUG);
+                            }
+                        }
+                    }
                 }
             }
             else {
@@ -2543,11 +4266,37 @@ abstract public class TopicOrientedApplication implements MessageSender, Message
         }
     }
 
+    /**
+     * Removes the application from the shards hosted in this process (if it is partitioned), so that 
+     * messages are no longer routed to it and the shard can be hosted again. This is done when the 
+     * application fails to load or its engine stops, not only when it is finalized: the registry of 
+     * hosted shards is static and would otherwise hold on to a shard that is gone. 
+     */
+    private final void unregisterShard() {
+        if (_shardAssignment != null) {
+            _shardAssignment.unregister(this);
+        }
+    }
+
     @AppFinalizer
     private final void appFinalized() throws Exception {
+        unregisterShard();
+        if (_serviceDefinitionWatcher != null) {
+            _serviceDefinitionWatcher.close();
+        }
         if (_delayedAckController != null) {
             _delayedAckController.close();
         }
+        final int discarded = _injectionScheduler.close();
+        if (discarded > 0) {
+            _tracer.log(tracePrefix() + "Discarded " + discarded + " scheduled injection(s) that were pending at finalization.", Tracer.Level.INFO);
+        }
+        if (_injectionLanes != null) {
+            final int discardedFromLanes = _injectionLanes.close();
+            if (discardedFromLanes > 0) {
+                _tracer.log(tracePrefix() + "Discarded " + discardedFromLanes + " message(s) that were pending in injection lanes at finalization.", Tracer.Level.INFO);
+            }
+        }
         onAppFinalized();
     }
 
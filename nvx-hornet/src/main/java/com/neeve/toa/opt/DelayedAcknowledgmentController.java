@@ -109,6 +109,32 @@ import com.neeve.toa.TopicOrientedApplication;
  *   }
  * }
  * </pre>
+ * <h3>Acknowledging a group of messages at once</h3>
+ * Applications that hand off work for many inbound messages to the same downstream 
+ * processor, which completes them together, can acknowledge them with a single call
+ * using a {@link DelayedAcknowledgmentGroup}:
+ * <pre>
+ * &#64;AppHAPolicy(HAPolicy.EventSourcing)
+ * public class MyApp extends TopicOrientedApplication {
+ *   final BatchingDbWriter writer = new BatchingDbWriter(1000);
+ *   DelayedAcknowledgmentGroup group;
+ *  
+ *   &#64;EventHandler
+ *   public void onMessage(MyMessage message) {
+ *     if (group == null) {
+ *       group = getDelayedAcknowledgmentController().delayAcknowledgmentGroup(1000);
+ *     }
+ *     group.join();
+ *     writer.add(message.copy());
+ *     
+ *     if (group.size() == 1000) {
+ *       //Acknowledges all 1000 messages once the batch is written:
+ *       writer.flush(group);
+ *       group = null;
+ *     }
+ *   }
+ * }
+ * </pre>
  */
 public interface DelayedAcknowledgmentController {
 
@@ -150,6 +176,45 @@ public interface DelayedAcknowledgmentController {
         public void acknowledge(Exception status);
     }
 
+    /**
+     * A group of delayed acknowledgments that are acknowledged together. 
+     * <p>
+     * A message handler adds the message being processed to the group by calling {@link #join()}, 
+     * which delays its acknowledgment in the same way as {@link DelayedAcknowledgmentController#delayAcknowledgment()}. 
+     * Acknowledging the group acknowledges each of the messages that joined it, in the order in which 
+     * they joined, with a single call. Once acknowledged, a group can't be joined again.
+     */
+    public static interface DelayedAcknowledgmentGroup extends DelayedAcknowledger {
+
+        /**
+         * Delays acknowledgment of the message being processed until this group is acknowledged. 
+         * 
+         * @throws IllegalStateException If called from outside of a message handler thread, if the group 
+         * is full or if the group has already been acknowledged.
+         * @throws UnsupportedOperationException If called from an engine that is configured in a manner in which 
+         *  delayed acknowledgments are not supported.
+         */
+        public void join();
+
+        /**
+         * @return The number of delayed acknowledgments that have joined this group. 
+         */
+        public int size();
+
+        /**
+         * @return The maximum number of delayed acknowledgments that can join this group.
+         */
+        public int capacity();
+
+        /**
+         * Acknowledges each of the delayed acknowledgments in this group. 
+         * <p>
+         * This method may be called by any thread but may only be called once. 
+         */
+        @Override
+        public void acknowledge(Exception status);
+    }
+
     /**
      * Creates a delayed acknowledger. 
      * <p>
@@ -163,4 +228,18 @@ public interface DelayedAcknowledgmentController {
      *  delayed acknowledgments are not supported.
      */
     public DelayedAcknowledger delayAcknowledgment();
+
+    /**
+     * Creates a group of delayed acknowledgments that can be acknowledged together.
+     * <p>
+     * Message handlers add the messages they process to the returned group with
+     * {@link DelayedAcknowledgmentGroup#join()}, and the application acknowledges all of them with a
+     * single call to {@link DelayedAcknowledgmentGroup#acknowledge()}. This method may be called from 
+     * any thread. 
+     * 
+     * @param capacity The maximum number of delayed acknowledgments that can join the group.
+     * @return A {@link DelayedAcknowledgmentGroup}.
+     * @throws IllegalArgumentException If capacity is less than 1.
+     */
+    public DelayedAcknowledgmentGroup delayAcknowledgmentGroup(int capacity);
 }
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt;
+
+import com.neeve.toa.TopicOrientedApplication;
+
+/**
+ * Records the time spent dispatching each message to its message handlers, by message type. 
+ * <p>
+ * A {@link TopicOrientedApplication} only creates a {@link DispatchLatencyProfiler} when the 
+ * configuration property {@link TopicOrientedApplication#PROP_ENABLE_DISPATCH_PROFILER nv.toa.enabledispatchprofiler}
+ * is set to <code>true</code>. Percentiles across all message types are reported as user stats 
+ * named <code>hornet.dispatch.*</code>, and the per message type percentiles can be dumped or reset 
+ * with the <code>dumpDispatchLatencies</code> and <code>resetDispatchLatencies</code> commands or
+ * through this interface. 
+ * <p>
+ * Latencies are in nanoseconds and are reported to within ~3% of their actual value. The percentiles
+ * across all message types are snapshotted at most every 100 milliseconds, so that the values read 
+ * for a single stats heartbeat are consistent with one another. 
+ * 
+ * @see TopicOrientedApplication#getDispatchLatencyProfiler()
+ */
+public interface DispatchLatencyProfiler {
+    /**
+     * @return The number of messages dispatched.
+     */
+    public long getDispatchCount();
+
+    /**
+     * @return The median dispatch latency across all message types.
+     */
+    public long getDispatchLatencyP50();
+
+    /**
+     * @return The 99th percentile dispatch latency across all message types.
+     */
+    public long getDispatchLatencyP99();
+
+    /**
+     * @return The 99.9th percentile dispatch latency across all message types.
+     */
+    public long getDispatchLatencyP999();
+
+    /**
+     * @return The longest dispatch latency across all message types.
+     */
+    public long getDispatchLatencyMax();
+
+    /**
+     * Dumps dispatch latency percentiles for each message type dispatched, as comma separated 
+     * values with a header line, followed by a line for all message types (named <code>*</code>).
+     * 
+     * @return The dump. 
+     */
+    public String dumpDispatchLatencies();
+
+    /**
+     * Resets the dispatch latencies recorded. 
+     * <p>
+     * Latencies recorded while the reset is in progress may be lost.
+     */
+    public void resetDispatchLatencies();
+}
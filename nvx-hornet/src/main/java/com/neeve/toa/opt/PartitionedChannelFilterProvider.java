@@ -0,0 +1,258 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt;
+
+import java.util.Arrays;
+
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.ChannelFilterProvider;
+
+/**
+ * A {@link ChannelFilterProvider} that partitions the topic space of channels between the members 
+ * of a group of consumers. 
+ * <p>
+ * A channel is partitioned if its key contains the provider's key variable, for example 
+ * <code>orders/${Partition}/${AccountId}</code>. Senders resolve the variable to the partition of the 
+ * message, a value from 0 to the partition count - 1 (see {@link #partitionOf(Object, int)}), and each 
+ * consumer joins partitioned channels with a filter that restricts it to the partitions it owns, 
+ * for example <code>Partition=1|5</code>. Because partitioning is done by the subscription filter, 
+ * a consumer never receives or deserializes the messages of partitions it doesn't own. Channels whose 
+ * key doesn't contain the variable aren't filtered.
+ * <p>
+ * A {@link TopicOrientedApplication} creates a {@link PartitionedChannelFilterProvider} from its 
+ * configuration when {@link TopicOrientedApplication#PROP_PARTITION_COUNT nv.toa.partitioncount} 
+ * is greater than 1. Applications that need different partitioning can instead expose their own 
+ * instances as managed objects. 
+ * <p>
+ * This provider only filters what consumers receive: it doesn't resolve the key variable of sent messages. 
+ * A {@link TopicOrientedApplication} resolves it from the message field named by 
+ * {@link TopicOrientedApplication#PROP_PARTITION_FIELD nv.toa.partitionfield} when that property is set 
+ * (and no user supplied topic resolver is used for the message). Otherwise senders must set the variable 
+ * themselves to {@link #partitionOf(Object, int)} of the message, in the key resolution table passed 
+ * with the send or in a message field named as the variable; a message sent with the variable unresolved 
+ * isn't received by any partition's consumer. 
+ * 
+ * @threading This class is immutable and safe for concurrent use.
+ */
+public final class PartitionedChannelFilterProvider implements ChannelFilterProvider {
+    private final String keyVariable;
+    private final int partitionCount;
+    private final int[] partitions;
+    private final String filter;
+
+    /**
+     * Creates a provider. 
+     * 
+     * @param keyVariable The channel key variable whose value is the partition. 
+     * @param partitionCount The number of partitions. 
+     * @param partitions The partitions (from 0 to partitionCount - 1) owned by this consumer.
+     * @throws IllegalArgumentException If the key variable is empty, the partition count isn't positive, 
+     * no partitions are specified, or a partition is out of range.
+     */
+    public PartitionedChannelFilterProvider(final String keyVariable, final int partitionCount, final int... partitions) {
+        if (keyVariable == null || keyVariable.trim().length() == 0) {
+            throw new IllegalArgumentException("Partition key variable must be specified");
+        }
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("Partition count must be positive (was " + partitionCount + ")");
+        }
+        if (partitions == null || partitions.length == 0) {
+            throw new IllegalArgumentException("At least one partition must be specified");
+        }
+
+        final int[] sorted = partitions.clone();
+        Arrays.sort(sorted);
+        final StringBuilder filter = new StringBuilder(keyVariable.trim()).append('=');
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0 || sorted[i] >= partitionCount) {
+                throw new IllegalArgumentException("Partition must be between 0 and " + (partitionCount - 1) + " (was " + sorted[i] + ")");
+            }
+            if (i > 0) {
+                if (sorted[i] == sorted[i - 1]) {
+                    throw new IllegalArgumentException("Partition " + sorted[i] + " is specified more than once");
+                }
+                filter.append('|');
+            }
+            filter.append(sorted[i]);
+        }
+
+        this.keyVariable = keyVariable.trim();
+        this.partitionCount = partitionCount;
+        this.partitions = sorted;
+        this.filter = filter.toString();
+    }
+
+    /**
+     * Creates a provider from a comma separated list of the partitions owned by this consumer (for 
+     * example <code>1,5</code>). 
+     * 
+     * @param keyVariable The channel key variable whose value is the partition. 
+     * @param partitionCount The number of partitions. 
+     * @param partitions A comma separated list of the partitions owned by this consumer.
+     * @return The provider. 
+     * @throws IllegalArgumentException If the list can't be parsed or is invalid.
+     */
+    public static final PartitionedChannelFilterProvider create(final String keyVariable, final int partitionCount, final String partitions) {
+        if (partitions == null || partitions.trim().length() == 0) {
+            throw new IllegalArgumentException("At least one partition must be specified");
+        }
+
+        final String[] values = partitions.split(",");
+        final int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                parsed[i] = Integer.parseInt(values[i].trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid partition '" + values[i].trim() + "' in '" + partitions + "'");
+            }
+        }
+        return new PartitionedChannelFilterProvider(keyVariable, partitionCount, parsed);
+    }
+
+    /**
+     * Returns the partition of a partition key value. 
+     * <p>
+     * Integral values are hashed by value, other values by the hash code of their string form, 
+     * so a value is assigned to the same partition in every process. The hash is mixed so that 
+     * sequential values are spread across partitions. 
+     * 
+     * @param value The partition key value (for example an account id).
+     * @param partitionCount The number of partitions. 
+     * @return The partition, from 0 to partitionCount - 1.
+     */
+    public static final int partitionOf(final Object value, final int partitionCount) {
+        if (value instanceof Long) {
+            return partitionOf(((Long)value).longValue(), partitionCount);
+        }
+        else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return partitionOf(((Number)value).intValue(), partitionCount);
+        }
+        else {
+            return partitionOfHash(String.valueOf(value).hashCode(), partitionCount);
+        }
+    }
+
+    /**
+     * Returns the partition of an integral partition key value without boxing it, the 
+     * partition is the same as that of the boxed value (see {@link #partitionOf(Object, int)}). 
+     * 
+     * @param value The partition key value.
+     * @param partitionCount The number of partitions. 
+     * @return The partition, from 0 to partitionCount - 1.
+     */
+    public static final int partitionOf(final int value, final int partitionCount) {
+        return partitionOfHash(value, partitionCount);
+    }
+
+    /**
+     * Returns the partition of a long partition key value without boxing it, the partition 
+     * is the same as that of the boxed value (see {@link #partitionOf(Object, int)}). 
+     * 
+     * @param value The partition key value.
+     * @param partitionCount The number of partitions. 
+     * @return The partition, from 0 to partitionCount - 1.
+     */
+    public static final int partitionOf(final long value, final int partitionCount) {
+        return partitionOfHash((int)(value ^ (value >>> 32)), partitionCount);
+    }
+
+    private static final int partitionOfHash(int hash, final int partitionCount) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (int)(((hash & 0xFFFFFFFFL) * partitionCount) >>> 32);
+    }
+
+    /**
+     * Tests whether a channel's key contains a key variable. 
+     * 
+     * @param channel The channel.
+     * @param keyVariable The key variable.
+     * @return <code>true</code> if the channel's key contains the variable (with or without a default value).
+     */
+    public static final boolean isKeyedBy(final ToaServiceChannel channel, final String keyVariable) {
+        final String key = channel.getKey();
+        return key != null && (key.indexOf("${" + keyVariable + "}") >= 0 || key.indexOf("${" + keyVariable + "::") >= 0);
+    }
+
+    /**
+     * @return The channel key variable whose value is the partition.
+     */
+    public final String getKeyVariable() {
+        return keyVariable;
+    }
+
+    /**
+     * @return The number of partitions.
+     */
+    public final int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @return The partitions owned by this consumer, in ascending order.
+     */
+    public final int[] getPartitions() {
+        return partitions.clone();
+    }
+
+    /**
+     * Tests whether this consumer owns a partition.
+     * 
+     * @param partition The partition.
+     * @return <code>true</code> if this consumer owns the partition.
+     */
+    public final boolean owns(final int partition) {
+        return Arrays.binarySearch(partitions, partition) >= 0;
+    }
+
+    /**
+     * Tests whether a channel is partitioned by this provider. 
+     * 
+     * @param channel The channel.
+     * @return <code>true</code> if the channel's key contains this provider's key variable.
+     */
+    public final boolean isPartitioned(final ToaServiceChannel channel) {
+        return isKeyedBy(channel, keyVariable);
+    }
+
+    /**
+     * Supplies the filter that restricts a partitioned channel to the partitions owned by this consumer. 
+     */
+    @Override
+    public final String getChannelFilter(final ToaService service, final ToaServiceChannel channel) {
+        return isPartitioned(channel) ? filter : null;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "PartitionedChannelFilterProvider [filter=" + filter + ", partitionCount=" + partitionCount + "]";
+    }
+}
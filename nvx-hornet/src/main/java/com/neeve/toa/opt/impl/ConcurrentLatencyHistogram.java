@@ -0,0 +1,105 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A variant of {@link LatencyHistogram} to which multiple threads can record values without locking. 
+ * <p>
+ * The buckets are the same as those of {@link LatencyHistogram}. Recording a value is an atomic 
+ * increment of its bucket (and a compare and set of the max when it is exceeded), with no allocation.
+ * The count isn't tracked separately, so that recording threads don't contend on it; it is summed
+ * from the buckets when the histogram is read, which is intended for periodic monitoring. 
+ * 
+ * @threading Values may be recorded by any number of threads concurrently. Reads see a recent, 
+ * approximately consistent, view of the histogram. Values being recorded concurrently with 
+ * {@link #reset()} may be lost.
+ */
+final class ConcurrentLatencyHistogram {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     * 
+     * @param value The value to record. 
+     */
+    final void record(final long value) {
+        counts.incrementAndGet(LatencyHistogram.bucketIndex(value));
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+    /**
+     * @return The number of values recorded. 
+     */
+    final long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return The largest value recorded. 
+     */
+    final long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the value at the given percentile. 
+     * 
+     * @param percentile The percentile (0 - 100).
+     * @return The value at or below which <code>percentile</code> percent of the recorded
+     * values fall, or 0 if no values have been recorded.
+     */
+    final long getValueAtPercentile(final double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long max = this.max.get();
+        final long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100d) / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(LatencyHistogram.bucketValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Clears the recorded values.
+     */
+    final void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+}
@@ -21,6 +21,8 @@
  */
 package com.neeve.toa.opt.impl;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -44,11 +46,13 @@ import com.neeve.sma.spi.executor.ExecutorBusProcessor.Acknowledger;
 import com.neeve.toa.messages.HornetMessageFactory;
 import com.neeve.toa.opt.DelayedAcknowledgmentController;
 import com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledger;
+import com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledgmentGroup;
 import com.neeve.trace.Tracer;
 import com.neeve.trace.Tracer.Level;
 import com.neeve.util.UtlPool;
 import com.neeve.util.UtlPool.Factory;
 import com.neeve.util.UtlReferenceTracker;
+import com.neeve.util.UtlThrowable;
 
 /**
  * Delayed AcknowledgmentController implementation.
@@ -80,11 +84,24 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
      * acks and across transactions so that AEP transactions are committed in order. In this
      * way a delayed ack call from transaction T2 completing before a delayed ack in transaction
      * T1 will still be still result in T1 being acknowledged first. 
+     * <p>
+     * When acknowledgment timeouts are enabled the acknowledger is scheduled in the controller's
+     * timing wheel when it is created. The application's acknowledgment and the timeout race 
+     * to release the acknowledger, and whichever loses is ignored. A timed out acknowledger isn't
+     * returned to its pool, so that a late acknowledgment by the application can't release
+     * an acknowledger that has been reused. 
+     * <p>
+     * The release state carries a generation that is advanced each time the acknowledger is 
+     * taken from its pool, and the timeout is scheduled with that generation as its stamp. An 
+     * expiry that is delivered after the acknowledger was acknowledged and reused carries the 
+     * previous generation, so it can't time out the acknowledger's current use. 
      */
-    private class DelayedAcknowledgerImpl implements UtlPool.Item<DelayedAcknowledgerImpl>, DelayedAcknowledger {
+    private class DelayedAcknowledgerImpl extends HashedTimingWheel.Timeout implements UtlPool.Item<DelayedAcknowledgerImpl>, DelayedAcknowledger {
         final private UtlReferenceTracker refTracker;
+        final private AtomicLong releaseState = new AtomicLong(RELEASE_PENDING);
 
         private UtlPool<DelayedAcknowledgerImpl> pool;
+        private IRogMessage delayedAckMessage; // reused across delayed acks when messages are pooled
         private volatile Exception status;
         private volatile Acknowledger busAcknowledger;
         private AtomicInteger ackCountDown = new AtomicInteger(0);
@@ -108,6 +125,7 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
             }
             status = null;
             busAcknowledger = null;
+            releaseState.set(releaseState(generationOf(releaseState.get()), RELEASE_PENDING));
             return this;
         }
 
@@ -118,9 +136,17 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
                 }
                 throw new IllegalStateException("Attempt to initialized DelayedAcknowledger with non zero ack count " + ackCountDown.get());
             }
+            releaseState.set(releaseState(generationOf(releaseState.get()) + 1, RELEASE_PENDING));
             return this;
         }
 
+        /**
+         * @return The generation of the acknowledger's current use, with which its timeout is scheduled.
+         */
+        final long getGeneration() {
+            return generationOf(releaseState.get());
+        }
+
         /* (non-Javadoc)
          * @see com.neeve.util.UtlPool.Item#setPool(com.neeve.util.UtlPool)
          */
@@ -138,6 +164,44 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
             return pool;
         }
 
+        /**
+         * Gets the delayed ack message to send over the executor bus for this acknowledger.
+         * <p>
+         * When messages are pooled the message is created the first time the acknowledger is used
+         * and then reused each time it is taken from the pool. The acknowledger holds its own 
+         * reference to the message, so the engine's disposal of the message after the send doesn't 
+         * return it to the message pool. 
+         * <p>
+         * The acknowledger is returned to its pool from the executor bus acknowledgment, which can 
+         * complete before the engine has disposed of the message it sent. The message is therefore 
+         * only reused if the engine has released its reference to it, i.e. if the acknowledger's 
+         * reference is the only one left. Otherwise the acknowledger gives up its reference (leaving
+         * the message to the engine) and creates a new message, so that a message is never reused 
+         * while the engine may still be reading it. 
+         * 
+         * @return The delayed ack message with this acknowledger attached.
+         */
+        final IRogMessage getDelayedAckMessage() {
+            if (!poolMessages) {
+                final IRogMessage message = HornetMessageFactory.createDelayedAckMessage();
+                message.setAttachment(this);
+                return message;
+            }
+
+            if (delayedAckMessage != null && delayedAckMessage.getOwnershipCount() > 1) {
+                // the engine still holds the previous transaction's reference:
+                delayedAckMessage.dispose();
+                delayedAckMessage = null;
+            }
+            if (delayedAckMessage == null) {
+                delayedAckMessage = HornetMessageFactory.createDelayedAckMessage();
+                delayedAckMessage.setAttachment(this);
+            }
+            // the send transfers a reference to the engine, keep ours:
+            delayedAckMessage.acquire();
+            return delayedAckMessage;
+        }
+
         /**
          * Sets the executor bus acknowledger. 
          * 
@@ -146,7 +210,20 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
         final void setBusAcknowledger(final ExecutorBusProcessor.Acknowledger acknowledger) {
             if (tracer.debug) tracer.log("Delayed acknowledgment bus processing completed for " + engineDescriptor.getName(), Tracer.Level.DEBUG);
             this.busAcknowledger = acknowledger;
-            acknowledge(null);
+            countDown(null);
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.opt.impl.HashedTimingWheel.Timeout#onExpired(long)
+         */
+        @Override
+        protected final void onExpired(final long generation) {
+            // a stale expiry from a previous use carries an older generation and fails the CAS:
+            if (releaseState.compareAndSet(releaseState(generation, RELEASE_PENDING), releaseState(generation, RELEASE_TIMED_OUT))) {
+                delayedAcksTimedOutCount.incrementAndGet();
+                tracer.log("Delayed acknowledgment was not acknowledged within " + timeoutMillis + "ms, acknowledging it with a timeout exception.", Tracer.Level.WARNING);
+                countDown(new TimeoutException("Delayed acknowledgment was not acknowledged within " + timeoutMillis + "ms"));
+            }
         }
 
         /* (non-Javadoc)
@@ -162,6 +239,40 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
          */
         @Override
         public final void acknowledge(final Exception status) {
+            if (!markAcknowledged()) {
+                return;
+            }
+
+            if (timeoutWheel != null) {
+                timeoutWheel.cancel(this);
+                final long timeToAck = System.nanoTime() - getScheduledNanos();
+                acknowledgmentTimes.record(timeToAck / 1000);
+            }
+
+            countDown(status);
+        }
+
+        /**
+         * Claims the release of this acknowledger for the application's acknowledgment. 
+         * 
+         * @return False if the acknowledger has already timed out, in which case the 
+         * acknowledgment is ignored. 
+         * @throws IllegalStateException If the acknowledger has already been acknowledged.
+         */
+        final boolean markAcknowledged() {
+            final long current = releaseState.get();
+            if (releaseStateOf(current) != RELEASE_PENDING ||
+                    !releaseState.compareAndSet(current, releaseState(generationOf(current), RELEASE_ACKNOWLEDGED))) {
+                if (releaseStateOf(releaseState.get()) == RELEASE_TIMED_OUT) {
+                    tracer.log("Ignoring acknowledgment of a delayed acknowledgment that has already timed out.", Tracer.Level.WARNING);
+                    return false;
+                }
+                throw new IllegalStateException("Attempt to acknowledge an already acknowledged delayed acknowledgment!");
+            }
+            return true;
+        }
+
+        final void countDown(final Exception status) {
             if (status != null && this.status == null) {
                 this.status = status;
             }
@@ -178,7 +289,7 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
                 // note that busAcknowledger has to have been set for count to have dropped to 0:
                 busAcknowledger.acknowledge(status);
                 delayedAcksPendingCount.decrementAndGet();
-                if (state != State.Closed) {
+                if (state != State.Closed && releaseStateOf(releaseState.get()) != RELEASE_TIMED_OUT) {
                     pool.put(this);
                 }
             }
@@ -186,6 +297,124 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
         }
     }
 
+    /**
+     * A group of delayed acknowledgers that are acknowledged together.
+     * <p>
+     * Joins (on the engine thread) and the group acknowledgment (on an application thread)
+     * synchronize on the group so that a message can't join the group after the members have 
+     * been acknowledged. 
+     * <p>
+     * The executor bus has no cumulative acknowledgment, and the engine needs the acknowledgment
+     * of each member's delayed ack message to complete that member's transaction, so each member 
+     * is still released individually. The group coalesces the rest: the members' timeouts are 
+     * canceled under a single acquisition of the timing wheel's lock, and their acknowledgment 
+     * times are recorded with a single clock read. Every member is 
+     * released even if releasing an earlier one fails; the first failure is rethrown once all 
+     * of the members have been released. 
+     */
+    private final class DelayedAcknowledgmentGroupImpl implements DelayedAcknowledgmentGroup {
+        private final DelayedAcknowledgerImpl[] members;
+        private int size;
+        private boolean acknowledged;
+
+        DelayedAcknowledgmentGroupImpl(final int capacity) {
+            members = new DelayedAcknowledgerImpl[capacity];
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledgmentGroup#join()
+         */
+        @Override
+        public final synchronized void join() {
+            if (acknowledged) {
+                throw new IllegalStateException("Attempt to join an already acknowledged delayed acknowledgment group!");
+            }
+            if (size == members.length) {
+                throw new IllegalStateException("Delayed acknowledgment group is full (capacity=" + members.length + ")");
+            }
+            members[size++] = createDelayedAcknowledger();
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledgmentGroup#size()
+         */
+        @Override
+        public final synchronized int size() {
+            return size;
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledgmentGroup#capacity()
+         */
+        @Override
+        public final int capacity() {
+            return members.length;
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.opt.DelayedAcknowledger.Acknowledger#acknowledge()
+         */
+        @Override
+        public final void acknowledge() {
+            acknowledge(null);
+        }
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.opt.DelayedAcknowledger.Acknowledger#acknowledge(java.lang.Exception)
+         */
+        @Override
+        public final void acknowledge(final Exception status) {
+            // once acknowledged the group can't be joined, so the members array is no longer
+            // touched under the lock and can be released outside of it:
+            final int joined;
+            synchronized (this) {
+                if (acknowledged) {
+                    throw new IllegalStateException("Attempt to acknowledge an already acknowledged delayed acknowledgment group!");
+                }
+                acknowledged = true;
+                joined = size;
+            }
+            if (tracer.debug) tracer.log("Acknowledging group of " + joined + " delayed acknowledgments", Tracer.Level.DEBUG);
+
+            // drop members that have already timed out, their release is owned by the timeout:
+            int count = 0;
+            for (int i = 0; i < joined; i++) {
+                final DelayedAcknowledgerImpl member = members[i];
+                members[i] = null;
+                if (member.markAcknowledged()) {
+                    members[count++] = member;
+                }
+            }
+
+            if (timeoutWheel != null && count > 0) {
+                timeoutWheel.cancel(members, count);
+                final long now = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    acknowledgmentTimes.record((now - members[i].getScheduledNanos()) / 1000);
+                }
+            }
+
+            RuntimeException failure = null;
+            for (int i = 0; i < count; i++) {
+                try {
+                    members[i].countDown(status);
+                }
+                catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    tracer.log("Error releasing delayed acknowledgment group member: " + UtlThrowable.prepareStackTrace(e), Tracer.Level.SEVERE);
+                }
+                finally {
+                    members[i] = null;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
     /**
      * The {@link ExecutorBusProcessor} implementation for the delayed acknowledger. 
      * <p>
@@ -228,6 +457,63 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
 
     private static final String delayedAckExecutorChannelName = "delayed-ack";
 
+    private static final int RELEASE_PENDING = 0;
+    private static final int RELEASE_ACKNOWLEDGED = 1;
+    private static final int RELEASE_TIMED_OUT = 2;
+    private static final int RELEASE_STATE_BITS = 2;
+    private static final long RELEASE_STATE_MASK = (1 << RELEASE_STATE_BITS) - 1;
+
+    private static final long releaseState(final long generation, final int releaseState) {
+        return (generation << RELEASE_STATE_BITS) | releaseState;
+    }
+
+    private static final int releaseStateOf(final long releaseState) {
+        return (int)(releaseState & RELEASE_STATE_MASK);
+    }
+
+    private static final long generationOf(final long releaseState) {
+        return releaseState >>> RELEASE_STATE_BITS;
+    }
+
+    /**
+     * The granularity with which delayed acknowledgment timeouts are detected.
+     */
+    private static final long TIMEOUT_TICK_MILLIS = 10;
+    private static final int TIMEOUT_WHEEL_SLOTS = 1024;
+
+    /**
+     * Expires delayed acknowledgment timeouts. 
+     */
+    private final class TimeoutThread extends Thread {
+        private volatile boolean running = true;
+
+        TimeoutThread(final String engineName) {
+            super("X-Hornet-DelayedAckTimeout-" + engineName);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Thread.sleep(TIMEOUT_TICK_MILLIS);
+                    timeoutWheel.expire(System.nanoTime());
+                }
+                catch (InterruptedException e) {
+                    // stop requested
+                }
+                catch (Throwable thrown) {
+                    tracer.log("Error expiring delayed acknowledgments: " + UtlThrowable.prepareStackTrace(thrown), Tracer.Level.SEVERE);
+                }
+            }
+        }
+
+        final void shutdown() {
+            running = false;
+            interrupt();
+        }
+    }
+
     private volatile State state = State.Init;
 
     private volatile AepEngineDescriptor engineDescriptor;
@@ -237,9 +523,36 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
 
     private volatile MessageChannel delayedAckChannel;
     private AtomicLong delayedAcksPendingCount = new AtomicLong(0);
+    private AtomicLong delayedAcksTimedOutCount = new AtomicLong(0);
+    private final boolean poolMessages;
+    private final long timeoutMillis;
+    private final HashedTimingWheel timeoutWheel;
+    private final ConcurrentLatencyHistogram acknowledgmentTimes = new ConcurrentLatencyHistogram();
+    private TimeoutThread timeoutThread;
+
+    public DelayedAckControllerImpl() {
+        this(false, 0);
+    }
+
+    /**
+     * Creates a delayed acknowledgment controller. 
+     * 
+     * @param poolMessages Whether each delayed acknowledger should reuse its delayed ack 
+     * message rather than creating a new one for each delayed acknowledgment.
+     * @param timeoutMillis The time after which a delayed acknowledgment that hasn't been 
+     * acknowledged by the application is acknowledged with a {@link TimeoutException}, or 0 for no timeout.
+     */
+    public DelayedAckControllerImpl(final boolean poolMessages, final long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Delayed acknowledgment timeout cannot be negative");
+        }
+        this.poolMessages = poolMessages;
+        this.timeoutMillis = timeoutMillis;
+        this.timeoutWheel = timeoutMillis > 0 ? new HashedTimingWheel(TimeUnit.MILLISECONDS.toNanos(TIMEOUT_TICK_MILLIS), TIMEOUT_WHEEL_SLOTS) : null;
+    }
 
     public void initEngineDescriptor(AepEngineDescriptor engineDescriptor) throws SmaException {
-        if (tracer.isEnabled(Level.CONFIG)) tracer.log("Initializing delayed acknowledgment controller for " + engineDescriptor.getName(), Tracer.Level.CONFIG);
+        if (tracer.isEnabled(Level.CONFIG)) tracer.log("Initializing delayed acknowledgment controller for " + engineDescriptor.getName() + " (poolMessages=" + poolMessages + ", timeout=" + timeoutMillis + "ms)", Tracer.Level.CONFIG);
 
         this.engineDescriptor = engineDescriptor;
 
@@ -266,6 +579,10 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
     public void initEngine(AepEngine engine) {
         this.engine = engine;
         this.engine.registerFactory(HornetMessageFactory.create(null));
+        if (timeoutWheel != null) {
+            timeoutThread = new TimeoutThread(engine.getName());
+            timeoutThread.start();
+        }
         this.state = State.Started;
     }
 
@@ -288,6 +605,10 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
     public void close() {
         if (engineDescriptor != null) {
             if (tracer.isEnabled(Level.CONFIG)) tracer.log("Closing delayed acknowledgment controller for " + engineDescriptor.getName(), Tracer.Level.INFO);
+            if (timeoutThread != null) {
+                timeoutThread.shutdown();
+                timeoutThread = null;
+            }
             this.engine = null;
             this.engineDescriptor = null;
             this.delayedAcknowledgePool.close();
@@ -300,6 +621,47 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
         return delayedAcksPendingCount.get();
     }
 
+    @AppStat(name = "hornet.delayedAcksTimedOut")
+    public long getDelayedAcksTimedOut() {
+        return delayedAcksTimedOutCount.get();
+    }
+
+    /**
+     * @return The age in milliseconds of the oldest delayed acknowledgment that the application
+     * hasn't acknowledged (tracked only when timeouts are enabled). 
+     */
+    @AppStat(name = "hornet.delayedAckOldestPendingAge")
+    public long getDelayedAckOldestPendingAge() {
+        return timeoutWheel != null ? TimeUnit.NANOSECONDS.toMillis(timeoutWheel.getOldestAgeNanos(System.nanoTime())) : 0;
+    }
+
+    /**
+     * @return The median time in microseconds taken by the application to acknowledge 
+     * delayed acknowledgments (tracked only when timeouts are enabled). 
+     */
+    @AppStat(name = "hornet.delayedAckTimeToAck.p50")
+    public long getDelayedAckTimeToAckP50() {
+        return acknowledgmentTimes.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return The 99th percentile time in microseconds taken by the application to acknowledge 
+     * delayed acknowledgments (tracked only when timeouts are enabled). 
+     */
+    @AppStat(name = "hornet.delayedAckTimeToAck.p99")
+    public long getDelayedAckTimeToAckP99() {
+        return acknowledgmentTimes.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return The longest time in microseconds taken by the application to acknowledge 
+     * a delayed acknowledgment (tracked only when timeouts are enabled). 
+     */
+    @AppStat(name = "hornet.delayedAckTimeToAck.max")
+    public long getDelayedAckTimeToAckMax() {
+        return acknowledgmentTimes.getMax();
+    }
+
     /**
      * Creates a delayed acknowledger. 
      * <p>
@@ -314,6 +676,25 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
      */
     @Override
     public final DelayedAcknowledger delayAcknowledgment() {
+        return createDelayedAcknowledger();
+    }
+
+    /**
+     * Creates a group of delayed acknowledgments that can be acknowledged together.
+     * 
+     * @param capacity The maximum number of delayed acknowledgments that can join the group.
+     * @return A {@link DelayedAcknowledgmentGroup}.
+     * @throws IllegalArgumentException If capacity is less than 1.
+     */
+    @Override
+    public final DelayedAcknowledgmentGroup delayAcknowledgmentGroup(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Delayed acknowledgment group capacity must be at least 1 (was " + capacity + ")");
+        }
+        return new DelayedAcknowledgmentGroupImpl(capacity);
+    }
+
+    private final DelayedAcknowledgerImpl createDelayedAcknowledger() {
         if (state != State.Started) {
             throw new IllegalStateException("Delayed acknowledgment controller is not Started (" + state + ")");
         }
@@ -332,13 +713,15 @@ public class DelayedAckControllerImpl implements DelayedAcknowledgmentController
                 throw new IllegalStateException("delayedAckChannel is not up!");
             }
 
-            DelayedAcknowledger ack = delayedAcknowledgePool.get(null).initAckCount();
-            IRogMessage message = HornetMessageFactory.createDelayedAckMessage();
-            message.setAttachment(ack);
+            DelayedAcknowledgerImpl ack = delayedAcknowledgePool.get(null).initAckCount();
+            IRogMessage message = ack.getDelayedAckMessage();
             message.setMessageChannelAsRaw(delayedAckChannel.getNameAsRaw());
             message.setMessageBusAsRaw(delayedAckChannel.getNameAsRaw());
             engine.sendMessage(delayedAckChannel, message);
             delayedAcksPendingCount.incrementAndGet();
+            if (timeoutWheel != null) {
+                timeoutWheel.schedule(ack, TimeUnit.MILLISECONDS.toNanos(timeoutMillis), ack.getGeneration());
+            }
             if (tracer.debug) tracer.log("Created delayed acknowledger for " + engine.getName(), Tracer.Level.DEBUG);
             return ack;
         }
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+import com.neeve.aep.IAepPostdispatchMessageHandler;
+import com.neeve.aep.IAepPredispatchMessageHandler;
+import com.neeve.cli.annotations.Command;
+import com.neeve.lang.XLongLinkedHashMap;
+import com.neeve.rog.IRogMessage;
+import com.neeve.server.app.annotations.AppStat;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.opt.DispatchLatencyProfiler;
+
+/**
+ * {@link DispatchLatencyProfiler} implementation that records message handler service times. 
+ * <p>
+ * The profiler is registered as both a predispatch and postdispatch message handler, and records 
+ * the time between the two for each message dispatched in a {@link LatencyHistogram} for the 
+ * message's type as well as in a histogram across all types. Percentiles across all types are
+ * reported as user stats, and the per type histograms can be dumped and reset with the 
+ * <code>dumpDispatchLatencies</code> and <code>resetDispatchLatencies</code> commands.
+ * <p>
+ * Histograms are created the first time a message type is dispatched, after which recording 
+ * is allocation free. 
+ * 
+ * @see TopicOrientedApplication#PROP_ENABLE_DISPATCH_PROFILER
+ */
+public final class DispatchLatencyProfilerImpl implements DispatchLatencyProfiler, IAepPredispatchMessageHandler, IAepPostdispatchMessageHandler {
+    /**
+     * The minimum interval between percentile snapshots so that the stats 
+     * collected for a single heartbeat are consistent with one another.
+     */
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 100;
+
+    private static final double[] DUMP_PERCENTILES = new double[] { 50, 90, 99, 99.9, 99.99 };
+
+    final private static class TypeProfile {
+        final String messageType;
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        TypeProfile(final String messageType) {
+            this.messageType = messageType;
+        }
+    }
+
+    // accessed only by the dispatch thread:
+    private final XLongLinkedHashMap<TypeProfile> profilesById = XLongLinkedHashMap.newInstance();
+    private TypeProfile current;
+    private long dispatchStart;
+
+    // copy on write list of profiles for readers:
+    private volatile TypeProfile[] profiles = new TypeProfile[0];
+    private final LatencyHistogram all = new LatencyHistogram();
+
+    // percentile snapshot across all types:
+    private long snapshotTime;
+    private long snapshotCount;
+    private long snapshotP50;
+    private long snapshotP99;
+    private long snapshotP999;
+    private long snapshotMax;
+
+    /* (non-Javadoc)
+     * @see com.neeve.aep.IAepPredispatchMessageHandler#onMessage(com.neeve.rog.IRogMessage)
+     */
+    @Override
+    public final void onMessage(final IRogMessage message) {
+        final long uniqueId = (((long)message.getVfid()) << 32) | message.getType();
+        TypeProfile profile = profilesById.get(uniqueId);
+        if (profile == null) {
+            profile = newProfile(uniqueId, message);
+        }
+        current = profile;
+        dispatchStart = System.nanoTime();
+    }
+
+    /* (non-Javadoc)
+     * @see com.neeve.aep.IAepPostdispatchMessageHandler#postMessage(com.neeve.rog.IRogMessage)
+     */
+    @Override
+    public final void postMessage(final IRogMessage message) {
+        final TypeProfile profile = current;
+        if (profile != null) {
+            final long latency = System.nanoTime() - dispatchStart;
+            profile.histogram.record(latency);
+            all.record(latency);
+            current = null;
+        }
+    }
+
+    private final TypeProfile newProfile(final long uniqueId, final IRogMessage message) {
+        final TypeProfile profile = new TypeProfile(message.getClass().getName());
+        profilesById.put(uniqueId, profile);
+        final TypeProfile[] profiles = new TypeProfile[this.profiles.length + 1];
+        System.arraycopy(this.profiles, 0, profiles, 0, this.profiles.length);
+        profiles[profiles.length - 1] = profile;
+        this.profiles = profiles;
+        return profile;
+    }
+
+    private synchronized final void snapshot() {
+        final long now = System.currentTimeMillis();
+        if (now - snapshotTime >= SNAPSHOT_INTERVAL_MILLIS) {
+            snapshotTime = now;
+            snapshotCount = all.getCount();
+            snapshotP50 = all.getValueAtPercentile(50);
+            snapshotP99 = all.getValueAtPercentile(99);
+            snapshotP999 = all.getValueAtPercentile(99.9);
+            snapshotMax = all.getMax();
+        }
+    }
+
+    @Override
+    @AppStat(name = "hornet.dispatch.count")
+    public synchronized long getDispatchCount() {
+        snapshot();
+        return snapshotCount;
+    }
+
+    @Override
+    @AppStat(name = "hornet.dispatch.latency.p50")
+    public synchronized long getDispatchLatencyP50() {
+        snapshot();
+        return snapshotP50;
+    }
+
+    @Override
+    @AppStat(name = "hornet.dispatch.latency.p99")
+    public synchronized long getDispatchLatencyP99() {
+        snapshot();
+        return snapshotP99;
+    }
+
+    @Override
+    @AppStat(name = "hornet.dispatch.latency.p999")
+    public synchronized long getDispatchLatencyP999() {
+        snapshot();
+        return snapshotP999;
+    }
+
+    @Override
+    @AppStat(name = "hornet.dispatch.latency.max")
+    public synchronized long getDispatchLatencyMax() {
+        snapshot();
+        return snapshotMax;
+    }
+
+    /**
+     * Dumps handler service time percentiles (in nanoseconds) for each message type dispatched.
+     * 
+     * @return The dump. 
+     */
+    @Override
+    @Command(name = "dumpDispatchLatencies", description = "Dumps message handler service time percentiles (in nanoseconds) by message type")
+    public String dumpDispatchLatencies() {
+        final StringBuilder dump = new StringBuilder();
+        dump.append("Message Type,Count");
+        for (double percentile : DUMP_PERCENTILES) {
+            dump.append(",p").append(percentile);
+        }
+        dump.append(",Max\n");
+        for (TypeProfile profile : profiles) {
+            append(dump, profile.messageType, profile.histogram);
+        }
+        append(dump, "*", all);
+        return dump.toString();
+    }
+
+    private static final void append(final StringBuilder dump, final String messageType, final LatencyHistogram histogram) {
+        dump.append(messageType).append(",").append(histogram.getCount());
+        for (double percentile : DUMP_PERCENTILES) {
+            dump.append(",").append(histogram.getValueAtPercentile(percentile));
+        }
+        dump.append(",").append(histogram.getMax()).append("\n");
+    }
+
+    /**
+     * Resets the handler service time histograms. 
+     * <p>
+     * Service times recorded while the reset is in progress may be lost.
+     */
+    @Override
+    @Command(name = "resetDispatchLatencies", description = "Resets message handler service time histograms")
+    public synchronized void resetDispatchLatencies() {
+        for (TypeProfile profile : profiles) {
+            profile.histogram.reset();
+        }
+        all.reset();
+        snapshotTime = 0;
+    }
+}
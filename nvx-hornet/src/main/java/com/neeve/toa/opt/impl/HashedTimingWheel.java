@@ -0,0 +1,266 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+/**
+ * A hashed timing wheel of timeouts.
+ * <p>
+ * Timeouts are intrusive: the objects being timed extend {@link Timeout}, which holds the 
+ * links for the wheel's slot lists, so scheduling and canceling a timeout are constant time 
+ * and don't allocate. Time advances by calling {@link #expire(long)}, typically from a 
+ * timer thread, which invokes {@link Timeout#onExpired(long)} for each timeout whose deadline 
+ * has passed. Timeouts expire at a granularity of the wheel's tick. 
+ * <p>
+ * Each schedule carries a caller supplied stamp that is passed back to {@link Timeout#onExpired(long)}.
+ * A timeout is unlinked under the wheel's lock but expires outside of it, so by the time 
+ * onExpired is called the timeout may have been canceled and rescheduled (for example when 
+ * pooled objects are reused); the stamp lets the timeout recognize and ignore such a stale expiry.
+ * <p>
+ * Scheduled timeouts are also linked in the order in which they were scheduled, so that the 
+ * age of the oldest one is available without visiting the wheel's slots. 
+ * 
+ * @threading This class is safe for concurrent use by multiple threads, with the exception that
+ * {@link #expire(long)} must only be called by one thread at a time. Timeouts expire 
+ * outside of the wheel's lock, so {@link Timeout#onExpired(long)} may safely call back into the 
+ * wheel.
+ */
+final class HashedTimingWheel {
+    /**
+     * Base class for objects whose expiry is tracked by the wheel. 
+     */
+    static abstract class Timeout {
+        private Timeout prev;
+        private Timeout next;
+        private Timeout nextExpired;
+        private Timeout older; // the timeout scheduled before this one
+        private Timeout newer; // the timeout scheduled after this one
+        private boolean scheduled;
+        private long deadlineTick;
+        private long scheduledNanos;
+        private long stamp;
+        private long expiredStamp;
+
+        /**
+         * @return The {@link System#nanoTime()} at which this timeout was last scheduled.
+         */
+        final long getScheduledNanos() {
+            return scheduledNanos;
+        }
+
+        /**
+         * Called when the timeout expires, outside of the wheel's lock. 
+         * 
+         * @param stamp The stamp with which the expired schedule was made. The timeout should
+         * ignore the expiry if it has since been rescheduled with a different stamp. 
+         */
+        protected abstract void onExpired(long stamp);
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] slots;
+    private final long startNanos;
+    private long currentTick;
+    private int size;
+    private Timeout oldest;
+    private Timeout newest;
+
+    /**
+     * Creates a timing wheel.
+     * 
+     * @param tickNanos The wheel's granularity in nanoseconds.
+     * @param slotCount The number of slots (rounded up to a power of 2).
+     */
+    HashedTimingWheel(final long tickNanos, final int slotCount) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        if (slotCount <= 0 || slotCount > (1 << 30)) {
+            throw new IllegalArgumentException("slot count must be between 1 and 2^30");
+        }
+        this.tickNanos = tickNanos;
+        final int slots = Integer.highestOneBit(slotCount) == slotCount ? slotCount : Integer.highestOneBit(slotCount) << 1;
+        this.slots = new Timeout[slots];
+        this.mask = slots - 1;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Schedules a timeout. 
+     * 
+     * @param timeout The timeout to schedule.
+     * @param delayNanos The time from now after which the timeout expires. 
+     * @param stamp A stamp identifying this schedule, passed back to {@link Timeout#onExpired(long)}.
+     * @throws IllegalStateException If the timeout is already scheduled.
+     */
+    final synchronized void schedule(final Timeout timeout, final long delayNanos, final long stamp) {
+        if (timeout.scheduled) {
+            throw new IllegalStateException("Timeout is already scheduled");
+        }
+        final long now = System.nanoTime();
+        final long deadlineTick = Math.max(currentTick + 1, (now - startNanos + delayNanos + tickNanos - 1) / tickNanos);
+        final int slot = (int)(deadlineTick & mask);
+        timeout.deadlineTick = deadlineTick;
+        timeout.scheduledNanos = now;
+        timeout.stamp = stamp;
+        timeout.scheduled = true;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[slot] = timeout;
+        timeout.older = newest;
+        timeout.newer = null;
+        if (newest != null) {
+            newest.newer = timeout;
+        }
+        else {
+            oldest = timeout;
+        }
+        newest = timeout;
+        size++;
+    }
+
+    /**
+     * Cancels a timeout. 
+     * 
+     * @param timeout The timeout to cancel.
+     * @return True if the timeout was scheduled and has been canceled, false if it wasn't 
+     * scheduled or has already expired.
+     */
+    final synchronized boolean cancel(final Timeout timeout) {
+        if (!timeout.scheduled) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Cancels a batch of timeouts under a single acquisition of the wheel's lock. 
+     * 
+     * @param timeouts The timeouts to cancel.
+     * @param count The number of timeouts, from the start of the array, to cancel.
+     * @return The number of timeouts that were scheduled and have been canceled.
+     */
+    final synchronized int cancel(final Timeout[] timeouts, final int count) {
+        int canceled = 0;
+        for (int i = 0; i < count; i++) {
+            if (timeouts[i].scheduled) {
+                unlink(timeouts[i]);
+                canceled++;
+            }
+        }
+        return canceled;
+    }
+
+    private final void unlink(final Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        }
+        else {
+            slots[(int)(timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        if (timeout.older != null) {
+            timeout.older.newer = timeout.newer;
+        }
+        else {
+            oldest = timeout.newer;
+        }
+        if (timeout.newer != null) {
+            timeout.newer.older = timeout.older;
+        }
+        else {
+            newest = timeout.older;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.older = null;
+        timeout.newer = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    /**
+     * Advances the wheel to the given time, expiring the timeouts whose deadline has passed. 
+     * 
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return The number of timeouts expired.
+     */
+    final int expire(final long nowNanos) {
+        Timeout expired = null;
+        int count = 0;
+        synchronized (this) {
+            final long targetTick = (nowNanos - startNanos) / tickNanos;
+            // no need to go around the wheel more than once:
+            final long firstTick = Math.max(currentTick + 1, targetTick - mask);
+            for (long tick = firstTick; tick <= targetTick; tick++) {
+                Timeout timeout = slots[(int)(tick & mask)];
+                while (timeout != null) {
+                    final Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= targetTick) {
+                        unlink(timeout);
+                        timeout.expiredStamp = timeout.stamp;
+                        timeout.nextExpired = expired;
+                        expired = timeout;
+                        count++;
+                    }
+                    timeout = next;
+                }
+            }
+            if (targetTick > currentTick) {
+                currentTick = targetTick;
+            }
+        }
+
+        while (expired != null) {
+            final Timeout next = expired.nextExpired;
+            final long stamp = expired.expiredStamp;
+            expired.nextExpired = null;
+            expired.onExpired(stamp);
+            expired = next;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of scheduled timeouts.
+     */
+    final synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the age of the timeout that was scheduled the longest time ago. 
+     * 
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return The time in nanoseconds since the oldest scheduled timeout was
+     * scheduled, or 0 if no timeouts are scheduled. 
+     */
+    final synchronized long getOldestAgeNanos(final long nowNanos) {
+        return oldest != null ? Math.max(0, nowNanos - oldest.scheduledNanos) : 0;
+    }
+}
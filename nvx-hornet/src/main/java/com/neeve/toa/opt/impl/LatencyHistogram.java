@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+/**
+ * A fixed size log linear histogram of latencies. 
+ * <p>
+ * Values are bucketed exactly below 32 and above that into 32 sub buckets per power of two, 
+ * so recorded values are reported to within ~3% of their actual value. The buckets are
+ * allocated up front and recording a value is a handful of arithmetic operations and 
+ * a single array increment with no allocation or synchronization. 
+ * 
+ * @threading Values must be recorded by a single thread. Other threads may read the 
+ * histogram concurrently, in which case they see a recent, approximately consistent, view 
+ * of it. {@link #reset()} may be called by any thread, but values being recorded concurrently
+ * with the reset may be lost.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * Values are tracked up to 2^36 (~68 seconds in nanoseconds). Larger values
+     * are counted in the last bucket (but are reflected in the max). 
+     */
+    private static final int MAX_EXPONENT = 35;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private volatile long totalCount;
+    private volatile long max;
+
+    static final int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int)value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return The highest value that is recorded in the given bucket. 
+     */
+    static final long bucketValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        final long subBucket = SUB_BUCKET_COUNT + (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     * 
+     * @param value The value to record. 
+     */
+    final void record(final long value) {
+        counts[bucketIndex(value)]++;
+        if (value > max) {
+            max = value;
+        }
+        totalCount++;
+    }
+
+    /**
+     * @return The number of values recorded. 
+     */
+    final long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return The largest value recorded. 
+     */
+    final long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the value at the given percentile. 
+     * 
+     * @param percentile The percentile (0 - 100).
+     * @return The value at or below which <code>percentile</code> percent of the recorded
+     * values fall, or 0 if no values have been recorded.
+     */
+    final long getValueAtPercentile(final double percentile) {
+        final long count = totalCount;
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100d) / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Clears the recorded values.
+     */
+    final void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        max = 0;
+    }
+}
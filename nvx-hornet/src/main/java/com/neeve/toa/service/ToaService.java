@@ -21,20 +21,23 @@
  */
 package com.neeve.toa.service;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-import javax.xml.bind.JAXBContext;
-
 import com.neeve.adm.AdmFactory;
 import com.neeve.adm.AdmMessage;
 import com.neeve.adm.AdmModel;
@@ -119,6 +122,7 @@ public class ToaService {
     private final Date lastModified;
     private final boolean prefixChannelNames;
     private final Map<String, AdmModel> messageModels = new HashMap<String, AdmModel>();
+    private final Map<String, String> modelFileDigests = new LinkedHashMap<String, String>(); // model file -> content digest (or stamp, if not loaded through a cache)
     private final Map<String, ToaServiceChannel> channelsBySimpleName = new HashMap<String, ToaServiceChannel>();
     private final Map<String, ToaServiceToRole> roles = new HashMap<String, ToaServiceToRole>();
 
@@ -151,6 +155,69 @@ public class ToaService {
         messageModels.put(model.getFullName(), model);
     }
 
+    /**
+     * Adds an ADM model read from a model file to this service.
+     * 
+     * @param modelFile The model file. 
+     * @param modelDigest The digest of the model file's content (or its stamp if the service isn't loaded through a cache).
+     * @param model The parsed model.
+     */
+    final void addMessageModel(final String modelFile, final String modelDigest, final AdmModel model) {
+        modelFileDigests.put(modelFile, modelDigest);
+        messageModels.put(model.getFullName(), model);
+    }
+
+    /**
+     * Returns the digests of the content of the model files from which this service's 
+     * models were read, keyed by model file. A service that wasn't loaded through a cache 
+     * holds the stamp of each model file (its modification time and length) instead, where 
+     * available, which is cheaper to compute and serves equally to detect changed models. 
+     */
+    final Map<String, String> getModelFileDigests() {
+        return Collections.unmodifiableMap(modelFileDigests);
+    }
+
+    /**
+     * Adds a resolved channel to this service. 
+     * 
+     * @param channel The channel.
+     * @param isDefault Whether the channel is the service's default channel.
+     */
+    final void addChannel(final ToaServiceChannel channel, final boolean isDefault) {
+        channelsBySimpleName.put(channel.getSimpleName(), channel);
+        if (isDefault) {
+            defaultChannel = channel;
+        }
+    }
+
+    /**
+     * Returns the channel with the given simple name.
+     * 
+     * @param simpleName The channel's simple name. 
+     * @return The channel or <code>null</code> if the service has no such channel. 
+     */
+    final ToaServiceChannel getChannel(final String simpleName) {
+        return channelsBySimpleName.get(simpleName);
+    }
+
+    /**
+     * Adds a resolved role to this service. 
+     * 
+     * @param role The role. 
+     */
+    final void addRole(final ToaServiceToRole role) {
+        roles.put(role.getName(), role);
+    }
+
+    /**
+     * Adds the factory of a message used by this service.
+     * 
+     * @param factory The factory. 
+     */
+    final void addFactory(final AdmFactory factory) {
+        factoriesById.put(factory.calcFactoryId(), factory);
+    }
+
     /**
      * Returns the service's simple name.
      * 
@@ -287,6 +354,9 @@ public class ToaService {
 
     /**
      * Unmarshals a toa service model from the service xml at the given url. 
+     * <p>
+     * The service's message models are parsed for it and not shared with other services, 
+     * use {@link #unmarshal(URL, ToaServiceModelCache, ToaServiceLoadStats)} to share them. 
      * 
      * @param url The url pointing to an 
      * 
@@ -294,29 +364,101 @@ public class ToaService {
      * @throws Exception If there is an error unmarshalling the xml. 
      */
     public static final ToaService unmarshal(URL url) throws Exception {
+        return unmarshal(url, null, null);
+    }
+
+    /**
+     * Unmarshals a toa service model from the service xml at the given url, using a service 
+     * model cache.
+     * <p>
+     * If the cache holds an up to date entry for the service xml, the service is rebuilt from 
+     * it, otherwise the service xml is unmarshalled and the result is added to the cache. Message 
+     * models parsed through the cache are shared with the other services loaded through it. 
+     * 
+     * @param url The url pointing to the service xml.
+     * @param cache The service model cache to use (or <code>null</code> to not use one). 
+     * @param stats The stats to which to record the time spent loading the service (or <code>null</code>).
+     * 
+     * @return An unmarshalled {@link ToaService} 
+     * @throws Exception If there is an error unmarshalling the xml. 
+     */
+    public static final ToaService unmarshal(final URL url, final ToaServiceModelCache cache, final ToaServiceLoadStats stats) throws Exception {
         if (url == null) {
             throw new IllegalArgumentException("Service url to unmarshal must not be null");
         }
+        long timestamp = System.nanoTime();
         Date lastModified = null;
         URLConnection urlConnection = url.openConnection();
         long lastModifiedTime = urlConnection.getLastModified();
         if (lastModifiedTime > 0) {
             lastModified = new Date(lastModifiedTime);
         }
-        Service service = (Service)JAXBContext.newInstance(Service.class).createUnmarshaller().unmarshal(new BufferedInputStream(urlConnection.getInputStream()));
+        final byte[] serviceXml = readFully(urlConnection.getInputStream());
+        if (stats != null) {
+            final long now = System.nanoTime();
+            stats.recordReadTime(now - timestamp);
+            timestamp = now;
+        }
+
+        // try the cache
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = cache.keyFor(ToaServiceModelCache.digest(serviceXml));
+            final ToaService cached = cache.load(cacheKey, lastModified);
+            if (stats != null) {
+                final long now = System.nanoTime();
+                stats.recordCacheTime(now - timestamp);
+                stats.recordService(cached != null);
+                timestamp = now;
+            }
+            if (cached != null) {
+                if (_tracer.debug) _tracer.log("<nv.toa> [" + cached.getName() + "] ......loaded from service model cache.", Tracer.Level.DEBUG);
+                return cached;
+            }
+        }
+        else if (stats != null) {
+            stats.recordService(false);
+        }
+
+        Service service = ToaServiceParser.getInstance().unmarshal(url, serviceXml);
         ToaService rc = new ToaService(lastModified, service.getNamespace(), service.getName(), XRuntime.getValue(PROP_PREFIX_CHANNEL_NAMES, service.getChannels().isPrefixChannelNames()));
+        if (stats != null) {
+            final long now = System.nanoTime();
+            stats.recordParseTime(now - timestamp);
+            timestamp = now;
+        }
 
         // resolve message models 
+        final List<MessageModelResource> modelResources = new ArrayList<MessageModelResource>(service.getModels().getModel().size());
+        final List<AdmModel> parsedModels = new ArrayList<AdmModel>(modelResources.size());
         for (Service.Models.Model messageModel : service.getModels().getModel()) {
             try {
-                final AdmModel admModel = AdmXMLParser.parse(resolveMessageModelFile(messageModel.getFile()));
+                final MessageModelResource modelResource = locateMessageModel(messageModel.getFile());
+                final String modelVersion;
+                final AdmModel admModel;
+                if (cache != null) {
+                    modelVersion = modelResource.getDigest();
+                    admModel = cache.getMessageModel(modelResource, modelVersion);
+                }
+                else {
+                    // the version only serves to detect model changes on reload, for which the stamp will do:
+                    modelVersion = modelResource.stamp != null ? modelResource.stamp : modelResource.getDigest();
+                    admModel = parseMessageModel(modelResource);
+                }
                 if (_tracer.debug) _tracer.log("<nv.toa> [" + rc.getName() + "] ......'" + messageModel.getFile() + "' (" + admModel.getName() + ").", Tracer.Level.DEBUG);
-                rc.messageModels.put(admModel.getFullName(), admModel);
+                rc.addMessageModel(messageModel.getFile(), modelVersion, admModel);
+                modelResources.add(modelResource);
+                parsedModels.add(admModel);
             }
             catch (Exception e) {
                 throw new ToaServiceModelException(e);
             }
         }
+        if (stats != null) {
+            final long now = System.nanoTime();
+            stats.recordModelTime(now - timestamp);
+            timestamp = now;
+        }
 
         // parse channels:
         for (Service.Channels.Channel channel : service.getChannels().getChannel()) {
@@ -340,7 +482,7 @@ public class ToaService {
         }
 
         //parse roles
-        HashMap<Short, AdmFactory> factoriesById = new HashMap<Short, AdmFactory>();
+        final HashMap<Short, AdmFactory> factoriesById = rc.factoriesById;
         for (Service.Roles.To to : service.getRoles().getTo()) {
             ToaServiceToRole role = new ToaServiceToRole(to.getRole());
             rc.roles.put(role.getName(), role);
@@ -354,9 +496,13 @@ public class ToaService {
                 if (_tracer.debug) _tracer.log("<nv.toa> [" + rc.getName() + "] .........<message='" + admMessage.getFullName() + ">.", Tracer.Level.DEBUG);
                 if (_tracer.debug) _tracer.log("<nv.toa> [" + rc.getName() + "] .........<factory='" + admFactory.getFullName() + "[vfid=" + admFactory.calcFactoryId() + "]>.", Tracer.Level.DEBUG);
 
-                // resolve the channel model
-                final ToaServiceChannel messageChannel = rc.resolveMessageChannel(admMessage, message.getChannel());
-                if (_tracer.debug) _tracer.log("<nv.toa> [" + rc.getName() + "] .........<channel='" + messageChannel.getName() + ">.", Tracer.Level.DEBUG);
+                // resolve the channel model(s)
+                final List<ToaServiceChannel> messageChannels = rc.resolveMessageChannels(admMessage, message.getChannel());
+                if (_tracer.debug) {
+                    for (ToaServiceChannel messageChannel : messageChannels) {
+                        _tracer.log("<nv.toa> [" + rc.getName() + "] .........<channel='" + messageChannel.getName() + ">.", Tracer.Level.DEBUG);
+                    }
+                }
 
                 // record the factory and check for collisions
                 AdmFactory prevFactory = factoriesById.put(admFactory.calcFactoryId(), admFactory);
@@ -365,7 +511,20 @@ public class ToaService {
                 }
 
                 // add the message to the role
-                role.addMessage(admMessage, messageChannel);
+                role.addMessage(admMessage, messageChannels);
+            }
+        }
+        if (stats != null) {
+            final long now = System.nanoTime();
+            stats.recordResolveTime(now - timestamp);
+            timestamp = now;
+        }
+
+        // update the cache
+        if (cache != null) {
+            cache.store(cacheKey, rc, modelResources, parsedModels);
+            if (stats != null) {
+                stats.recordCacheTime(System.nanoTime() - timestamp);
             }
         }
 
@@ -373,35 +532,117 @@ public class ToaService {
     }
 
     /**
-     * Looks for a model file on the class path and extracts it to the file system for use
-     * by the ADM XML Parser. 
-     * 
-     * TODO Should enhance teh ADM XML Parser to just accept that url. 
+     * Reads the content of the given stream and closes it. 
+     */
+    final static byte[] readFully(final InputStream is) throws IOException {
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                baos.write(buffer, 0, read);
+            }
+            return baos.toByteArray();
+        }
+        finally {
+            try {
+                is.close();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+    /**
+     * A model file located on the class path. 
+     * <p>
+     * The model file's content is only read when it is needed to compute its digest or to 
+     * extract it for parsing. 
+     */
+    final static class MessageModelResource {
+        final String file;
+        final URL url;
+        final String stamp;
+        private byte[] content;
+        private String digest;
+
+        MessageModelResource(final String file, final URL url, final String stamp) {
+            this.file = file;
+            this.url = url;
+            this.stamp = stamp;
+        }
+
+        final byte[] getContent() throws IOException {
+            if (content == null) {
+                content = readFully(url.openStream());
+            }
+            return content;
+        }
+
+        final String getDigest() throws IOException {
+            if (digest == null) {
+                digest = ToaServiceModelCache.digest(getContent());
+            }
+            return digest;
+        }
+    }
+
+    /**
+     * Looks for a model file on the class path. 
      * 
      * @param modelFilename The model file name.
-     * @return
-     * @throws IOException
+     * @return The model file.
+     * @throws IOException If the model file can't be found. 
      */
-    final private static File resolveMessageModelFile(final String modelFilename) throws IOException {
+    final static MessageModelResource locateMessageModel(final String modelFilename) throws IOException {
         // if the file exists as a resource, then return it.
         final URL url = ToaService.class.getResource("/" + modelFilename);
         if (url != null) {
-            InputStream is = url.openStream();
-            try {
-                return UtlFile.copyToTempFile(is);
-            }
-            finally {
-                try {
-                    is.close();
-                }
-                catch (IOException e) {}
-            }
+            return new MessageModelResource(modelFilename, url, stampOf(url));
         }
 
         // otherwise...throw exception
         throw new FileNotFoundException("model file '" + modelFilename + "' could not be located");
     }
 
+    /**
+     * Returns a stamp identifying the version of the content at the given url without 
+     * reading it, composed of its last modification time and length. 
+     * 
+     * @return The stamp or <code>null</code> if the url doesn't provide a modification time and length.
+     */
+    final static String stampOf(final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        final long lastModified = connection.getLastModified();
+        final int length = connection.getContentLength();
+        return lastModified > 0 && length >= 0 ? lastModified + ":" + length : null;
+    }
+
+    /**
+     * Parses a model file. 
+     * <p>
+     * Models on the file system are parsed in place, other models (e.g. those in jars) are 
+     * extracted to a temporary file for the ADM XML Parser which is removed once parsed.
+     * 
+     * TODO Should enhance teh ADM XML Parser to just accept the content. 
+     * 
+     * @param resource The model file.
+     * @return The parsed model. 
+     * @throws Exception If the model can't be parsed. 
+     */
+    final static AdmModel parseMessageModel(final MessageModelResource resource) throws Exception {
+        if ("file".equals(resource.url.getProtocol())) {
+            return AdmXMLParser.parse(new File(resource.url.toURI()));
+        }
+
+        final File tempFile = UtlFile.copyToTempFile(new ByteArrayInputStream(resource.getContent()));
+        try {
+            return AdmXMLParser.parse(tempFile);
+        }
+        finally {
+            tempFile.delete();
+        }
+    }
+
     /**
      * Resolves a message from this service's models. 
      * <p>
@@ -499,6 +740,34 @@ public class ToaService {
 
     }
 
+    /**
+     * Resolves the channels to use for the given message. 
+     * <p>
+     * The channel attribute may list several comma separated channel names, in which case the 
+     * message is sent on each of them, otherwise this is the same as {@link #resolveMessageChannel(AdmMessage, String)}. 
+     * 
+     * @param message The message model. 
+     * @param channelNames The channel name(s). 
+     * @return The resolved channels, the first of which is the message's primary channel. 
+     * @throws ToaServiceModelException if a channel is not found or is listed more than once. 
+     */
+    final private List<ToaServiceChannel> resolveMessageChannels(AdmMessage message, String channelNames) {
+        final List<ToaServiceChannel> messageChannels = new ArrayList<ToaServiceChannel>(1);
+        if (channelNames == null || channelNames.indexOf(',') < 0) {
+            messageChannels.add(resolveMessageChannel(message, channelNames != null ? channelNames.trim() : null));
+            return messageChannels;
+        }
+
+        for (String channelName : channelNames.split(",")) {
+            final ToaServiceChannel messageChannel = resolveMessageChannel(message, channelName.trim());
+            if (messageChannels.contains(messageChannel)) {
+                throw new ToaServiceModelException("channel '" + channelName.trim() + "' is listed more than once as a channel for message '" + message.getFullName() + "' in service '" + getName() + "'");
+            }
+            messageChannels.add(messageChannel);
+        }
+        return messageChannels;
+    }
+
     /**
      * Resolves the channel to use for the given message. 
      * <p>
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.neeve.adm.AdmMessage;
+
+/**
+ * The differences between two versions of a service definition. 
+ * <p>
+ * A diff compares the messaging topology of the services: their channels (added, removed, 
+ * moved or re-keyed), their message models and which messages are sent on which channels. 
+ * None of these changes can be applied to a running application: they change the channels 
+ * the application's engine joins, the keys of those channels and the message types it has 
+ * registered, which are fixed once the engine is started. A service can therefore only be 
+ * reloaded while running if its diff is empty. 
+ * 
+ * @threading This class is safe for concurrent use once computed.
+ */
+public final class ToaServiceDiff {
+    private final List<String> changes;
+
+    private ToaServiceDiff(final List<String> changes) {
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Computes the differences between the live and reloaded versions of a service. 
+     * <p>
+     * Channel bus names are compared as is, so the caller should default the bus of 
+     * any reloaded channel that doesn't declare one in the same way as the live service's 
+     * channels were defaulted before computing the diff.
+     * 
+     * @param live The service in use. 
+     * @param reloaded The reloaded service. 
+     * @return The differences.
+     */
+    public static final ToaServiceDiff compute(final ToaService live, final ToaService reloaded) {
+        final List<String> changes = new ArrayList<String>();
+
+        if (!live.getName().equals(reloaded.getName())) {
+            changes.add("service name changed from '" + live.getName() + "' to '" + reloaded.getName() + "'");
+        }
+        if (live.isPrefixChannelNames() != reloaded.isPrefixChannelNames()) {
+            changes.add("channel name prefixing changed from '" + live.isPrefixChannelNames() + "' to '" + reloaded.isPrefixChannelNames() + "'");
+        }
+        if (!live.getModelFileDigests().equals(reloaded.getModelFileDigests())) {
+            changes.add("message models changed from " + live.getModelFileDigests().keySet() + " to " + reloaded.getModelFileDigests().keySet());
+        }
+
+        // channels:
+        for (ToaServiceChannel channel : live.getChannels()) {
+            final ToaServiceChannel reloadedChannel = reloaded.getChannel(channel.getSimpleName());
+            if (reloadedChannel == null) {
+                changes.add("channel '" + channel.getSimpleName() + "' removed");
+                continue;
+            }
+            if (!equal(channel.getBusName(), reloadedChannel.getBusName())) {
+                changes.add("channel '" + channel.getSimpleName() + "' moved from bus '" + channel.getBusName() + "' to '" + reloadedChannel.getBusName() + "'");
+            }
+            if (!equal(channel.getKey(), reloadedChannel.getKey())) {
+                changes.add("channel '" + channel.getSimpleName() + "' key changed from '" + channel.getKey() + "' to '" + reloadedChannel.getKey() + "'");
+            }
+        }
+        for (ToaServiceChannel channel : reloaded.getChannels()) {
+            if (live.getChannel(channel.getSimpleName()) == null) {
+                changes.add("channel '" + channel.getSimpleName() + "' added");
+            }
+        }
+
+        // message channel mappings:
+        for (ToaServiceToRole role : live.getToRoles()) {
+            final ToaServiceToRole reloadedRole = reloaded.getToRole(role.getName());
+            if (reloadedRole == null) {
+                changes.add("role '" + role.getName() + "' removed");
+                continue;
+            }
+            final Map<String, AdmMessage> reloadedMessages = new HashMap<String, AdmMessage>();
+            for (AdmMessage message : reloadedRole.getMessages()) {
+                reloadedMessages.put(message.getFullName(), message);
+            }
+            for (AdmMessage message : role.getMessages()) {
+                if (reloadedMessages.remove(message.getFullName()) == null) {
+                    changes.add("message '" + message.getFullName() + "' removed from role '" + role.getName() + "'");
+                    continue;
+                }
+                final List<String> channels = channelNames(role.getChannels(message.getFullName()));
+                final List<String> reloadedChannels = channelNames(reloadedRole.getChannels(message.getFullName()));
+                if (!channels.equals(reloadedChannels)) {
+                    changes.add("message '" + message.getFullName() + "' in role '" + role.getName() + "' remapped from channels " + channels + " to " + reloadedChannels);
+                }
+            }
+            for (String added : reloadedMessages.keySet()) {
+                changes.add("message '" + added + "' added to role '" + role.getName() + "'");
+            }
+        }
+        for (ToaServiceToRole role : reloaded.getToRoles()) {
+            if (live.getToRole(role.getName()) == null) {
+                changes.add("role '" + role.getName() + "' added");
+            }
+        }
+
+        return new ToaServiceDiff(changes);
+    }
+
+    private static final boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static final List<String> channelNames(final List<ToaServiceChannel> channels) {
+        final List<String> names = new ArrayList<String>(channels.size());
+        for (ToaServiceChannel channel : channels) {
+            names.add(channel.getSimpleName());
+        }
+        return names;
+    }
+
+    /**
+     * @return <code>true</code> if the services are identical in every respect compared by this diff.
+     */
+    public final boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * @return Descriptions of the changes, none of which can be applied to a running application.
+     */
+    public final List<String> getChanges() {
+        return changes;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ToaServiceDiff [changes=" + changes + "]";
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records where the time spent loading service models goes. 
+ * <p>
+ * An instance can be passed to {@link ToaService#unmarshal(java.net.URL, ToaServiceModelCache, ToaServiceLoadStats)}
+ * to accumulate the time spent in each phase of loading across a set of services, which 
+ * can then be traced to diagnose slow application startup. 
+ * 
+ * @threading This class is safe for concurrent use. 
+ */
+public final class ToaServiceLoadStats {
+    private final AtomicLong services = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong modelNanos = new AtomicLong();
+    private final AtomicLong resolveNanos = new AtomicLong();
+    private final AtomicLong cacheNanos = new AtomicLong();
+
+    final void recordService(final boolean cacheHit) {
+        services.incrementAndGet();
+        if (cacheHit) {
+            cacheHits.incrementAndGet();
+        }
+    }
+
+    final void recordReadTime(final long nanos) {
+        readNanos.addAndGet(nanos);
+    }
+
+    final void recordParseTime(final long nanos) {
+        parseNanos.addAndGet(nanos);
+    }
+
+    final void recordModelTime(final long nanos) {
+        modelNanos.addAndGet(nanos);
+    }
+
+    final void recordResolveTime(final long nanos) {
+        resolveNanos.addAndGet(nanos);
+    }
+
+    final void recordCacheTime(final long nanos) {
+        cacheNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return The number of services loaded.
+     */
+    public final long getServiceCount() {
+        return services.get();
+    }
+
+    /**
+     * @return The number of services that were loaded from the service model cache.
+     */
+    public final long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return The time spent reading service definitions (in nanoseconds). 
+     */
+    public final long getReadTime() {
+        return readNanos.get();
+    }
+
+    /**
+     * @return The time spent unmarshalling service definition xml (in nanoseconds). 
+     */
+    public final long getParseTime() {
+        return parseNanos.get();
+    }
+
+    /**
+     * @return The time spent reading and parsing ADM message models (in nanoseconds). 
+     */
+    public final long getModelTime() {
+        return modelNanos.get();
+    }
+
+    /**
+     * @return The time spent resolving service channels and roles (in nanoseconds). 
+     */
+    public final long getResolveTime() {
+        return resolveNanos.get();
+    }
+
+    /**
+     * @return The time spent reading and writing the service model cache (in nanoseconds). 
+     */
+    public final long getCacheTime() {
+        return cacheNanos.get();
+    }
+
+    private static final String millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "services=" + getServiceCount() + 
+               ", cacheHits=" + getCacheHitCount() + 
+               ", read=" + millis(getReadTime()) + 
+               ", parse=" + millis(getParseTime()) + 
+               ", models=" + millis(getModelTime()) + 
+               ", resolve=" + millis(getResolveTime()) + 
+               ", cache=" + millis(getCacheTime());
+    }
+}
@@ -0,0 +1,666 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.neeve.adm.AdmFactory;
+import com.neeve.adm.AdmMessage;
+import com.neeve.adm.AdmModel;
+import com.neeve.ci.XRuntime;
+import com.neeve.trace.Tracer;
+
+/**
+ * A cache of resolved service models. 
+ * <p>
+ * Unmarshalling a service involves parsing its xml, validating it and resolving each of the 
+ * messages in its roles against its message models and channels. For applications with 
+ * many services this can add noticeably to startup time. The cache holds the resolved 
+ * form of each service (its channels, roles and the model and channels of each role's messages) 
+ * in a compact binary file named after a digest of the service xml, so that when a service's 
+ * definition hasn't changed it can be rebuilt without unmarshalling or resolving it.
+ * <p>
+ * Each cache entry records the digest of the content of the models the service referenced along 
+ * with a stamp (the modification time and length) of each model file, and an entry whose models 
+ * have since changed is treated as a miss. A model file whose stamp is unchanged isn't read 
+ * to check its digest. ADM models can't be persisted, so the models of a service loaded from 
+ * disk are parsed once, after which the cache holds the parsed models (keyed by model file 
+ * and digest) and the resolved services in memory: loading a service again through the same 
+ * cache instance doesn't read the cache file or parse its models. 
+ * <p>
+ * A cache can also be created without a directory, in which case it only holds parsed models 
+ * and resolved services in memory. An application loads its services through a cache that 
+ * it owns (a memory only cache if no cache directory is configured) so that models shared by 
+ * its services are parsed once, and the parsed models are released with the application. 
+ * The cache only holds the latest version of each service and the models it uses. 
+ * <p>
+ * Errors reading or writing the cache are traced and otherwise ignored, falling back to 
+ * unmarshalling the service. 
+ * 
+ * @threading This class is safe for concurrent use. 
+ */
+public final class ToaServiceModelCache {
+    private static final int MAGIC = 0x48534D43; // 'HSMC'
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_SUFFIX = ".svc";
+
+    /**
+     * A model file used by a cached service.
+     */
+    private static final class ModelFile {
+        final String file;
+        final String digest;
+        final String stamp;
+        final AdmModel model;
+
+        ModelFile(final String file, final String digest, final String stamp, final AdmModel model) {
+            this.file = file;
+            this.digest = digest;
+            this.stamp = stamp;
+            this.model = model;
+        }
+
+        /**
+         * Tests whether the model file's content is unchanged, reading it only if its stamp has changed. 
+         */
+        final boolean isCurrent() {
+            try {
+                final ToaService.MessageModelResource resource = ToaService.locateMessageModel(file);
+                return (stamp != null && stamp.equals(resource.stamp)) || digest.equals(resource.getDigest());
+            }
+            catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A channel of a cached service.
+     */
+    private static final class ChannelEntry {
+        final String name;
+        final String busName;
+        final String key;
+        final boolean isDefault;
+
+        ChannelEntry(final String name, final String busName, final String key, final boolean isDefault) {
+            this.name = name;
+            this.busName = busName;
+            this.key = key;
+            this.isDefault = isDefault;
+        }
+    }
+
+    /**
+     * A role of a cached service along with its messages and the channels on which they are sent.
+     */
+    private static final class RoleEntry {
+        final String name;
+        final AdmMessage[] messages;
+        final String[][] messageChannels;
+
+        RoleEntry(final String name, final AdmMessage[] messages, final String[][] messageChannels) {
+            this.name = name;
+            this.messages = messages;
+            this.messageChannels = messageChannels;
+        }
+    }
+
+    /**
+     * The resolved form of a cached service from which service instances are built. 
+     * <p>
+     * An entry is immutable, each load builds a new service instance from it. 
+     */
+    private static final class ResolvedService {
+        final String namespace;
+        final String name;
+        final boolean prefixChannelNames;
+        final ModelFile[] models;
+        final ChannelEntry[] channels;
+        final RoleEntry[] roles;
+        final AdmFactory[] factories;
+
+        ResolvedService(final String namespace, final String name, final boolean prefixChannelNames, final ModelFile[] models, final ChannelEntry[] channels, final RoleEntry[] roles, final AdmFactory[] factories) {
+            this.namespace = namespace;
+            this.name = name;
+            this.prefixChannelNames = prefixChannelNames;
+            this.models = models;
+            this.channels = channels;
+            this.roles = roles;
+            this.factories = factories;
+        }
+
+        final boolean isCurrent() {
+            for (ModelFile model : models) {
+                if (!model.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final ToaService newService(final Date lastModified) {
+            final ToaService rc = new ToaService(lastModified, namespace, name, prefixChannelNames);
+            for (ModelFile model : models) {
+                rc.addMessageModel(model.file, model.digest, model.model);
+            }
+            for (ChannelEntry channel : channels) {
+                rc.addChannel(new ToaServiceChannel(rc, channel.busName, channel.name, channel.key), channel.isDefault);
+            }
+            for (RoleEntry roleEntry : roles) {
+                final ToaServiceToRole role = new ToaServiceToRole(roleEntry.name);
+                rc.addRole(role);
+                for (int i = 0; i < roleEntry.messages.length; i++) {
+                    final String[] channelNames = roleEntry.messageChannels[i];
+                    final List<ToaServiceChannel> messageChannels = new ArrayList<ToaServiceChannel>(channelNames.length);
+                    for (String channelName : channelNames) {
+                        messageChannels.add(rc.getChannel(channelName));
+                    }
+                    role.addMessage(roleEntry.messages[i], messageChannels);
+                }
+            }
+            for (AdmFactory factory : factories) {
+                rc.addFactory(factory);
+            }
+            return rc;
+        }
+    }
+
+    private final File directory;
+    private final ConcurrentHashMap<String, AdmModel> models = new ConcurrentHashMap<String, AdmModel>(); // model file@digest -> model
+    private final ConcurrentHashMap<String, ResolvedService> resolved = new ConcurrentHashMap<String, ResolvedService>(); // key -> resolved service
+    private final HashMap<String, String> keysByService = new HashMap<String, String>(); // service namespace.name -> key, guarded by this
+    private final HashMap<String, int[]> modelReferences = new HashMap<String, int[]>(); // model file@digest -> number of resolved services using it, guarded by this
+
+    /**
+     * Creates a service model cache that holds parsed models and resolved services in memory only. 
+     */
+    public ToaServiceModelCache() {
+        this.directory = null;
+    }
+
+    /**
+     * Creates a service model cache. 
+     * 
+     * @param directory The directory in which to hold cached service models (created if it doesn't exist).
+     */
+    public ToaServiceModelCache(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Service model cache directory must not be null");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @return The directory in which cached service models are held (or <code>null</code> if the cache is memory only). 
+     */
+    public final File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the given content. 
+     * <p>
+     * This is the digest used to identify service definition and model content, both by this 
+     * cache and in service definition indexes.
+     * 
+     * @param content The content to digest.
+     * @return The digest.
+     */
+    public static final String digest(final byte[] content) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(content);
+            final StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 digests are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the content at the given url. 
+     * 
+     * @param url The url of the content to digest.
+     * @return The digest.
+     * @throws IOException If the content can't be read.
+     * @see #digest(byte[])
+     */
+    public static final String digest(final URL url) throws IOException {
+        return digest(ToaService.readFully(url.openStream()));
+    }
+
+    /**
+     * Computes the cache key for a service definition. 
+     * <p>
+     * The key covers the service xml along with anything else that affects how it is resolved. 
+     * 
+     * @param serviceDigest The digest of the service definition's content (see {@link #digest(byte[])}).
+     * @return The cache key. 
+     */
+    final String keyFor(final String serviceDigest) {
+        final String prefixOverride = XRuntime.getValue(ToaService.PROP_PREFIX_CHANNEL_NAMES, null);
+        return serviceDigest + "-" + FORMAT_VERSION + (prefixOverride != null ? ("-" + Boolean.valueOf(prefixOverride.trim())) : "");
+    }
+
+    private final File entryFile(final String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    private static final void writeNullableUTF(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static final String readNullableUTF(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Returns the parsed model for a model file, parsing it if this cache doesn't already hold it.
+     * 
+     * @param resource The model file.
+     * @param digest The digest of the model file's content.
+     * @return The parsed model.
+     * @throws Exception If the model can't be parsed.
+     */
+    final AdmModel getMessageModel(final ToaService.MessageModelResource resource, final String digest) throws Exception {
+        final String modelKey = resource.file + "@" + digest;
+        AdmModel model = models.get(modelKey);
+        if (model != null) {
+            if (ToaService._tracer.debug) ToaService._tracer.log("<nv.toa> ......using previously parsed model '" + resource.file + "'.", Tracer.Level.DEBUG);
+            return model;
+        }
+
+        model = ToaService.parseMessageModel(resource);
+        final AdmModel existing = models.putIfAbsent(modelKey, model);
+        return existing != null ? existing : model;
+    }
+
+    /**
+     * Loads a service from the cache. 
+     * 
+     * @param key The service's cache key as returned by {@link #keyFor(String)}.
+     * @param lastModified The last modification time of the service definition. 
+     * @return The service or <code>null</code> if there is no valid entry for the key. 
+     */
+    final ToaService load(final String key, final Date lastModified) {
+        ResolvedService entry = resolved.get(key);
+        if (entry != null) {
+            if (entry.isCurrent()) {
+                return entry.newService(lastModified);
+            }
+            forget(key, entry);
+        }
+
+        if (directory == null) {
+            return null;
+        }
+
+        final File file = entryFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                entry = read(in, file);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (Exception e) {
+            ToaService._tracer.log("<nv.toa> Failed to read cached service model from '" + file + "', it will be ignored: " + e, Tracer.Level.WARNING);
+            releaseUnusedModels();
+            return null;
+        }
+
+        if (entry == null) {
+            releaseUnusedModels();
+            return null;
+        }
+        remember(key, entry);
+        return entry.newService(lastModified);
+    }
+
+    /**
+     * Holds a resolved service in memory, replacing any other version of the same service 
+     * (identified by its namespace and name) and releasing parsed models no longer used by 
+     * any of the services held. 
+     * <p>
+     * The number of held services using each parsed model is counted, so that replacing a 
+     * service only touches the models of the new and replaced versions. 
+     */
+    private final synchronized void remember(final String key, final ResolvedService entry) {
+        retainModels(entry);
+        final String previousKey = keysByService.put(entry.namespace + "." + entry.name, key);
+        final ResolvedService replaced = resolved.put(key, entry);
+        if (replaced != null) {
+            releaseModels(replaced);
+        }
+        if (previousKey != null && !previousKey.equals(key)) {
+            final ResolvedService previous = resolved.remove(previousKey);
+            if (previous != null) {
+                releaseModels(previous);
+            }
+        }
+    }
+
+    /**
+     * Drops a resolved service that is no longer current, releasing parsed models no longer 
+     * used by any of the services held. 
+     */
+    private final synchronized void forget(final String key, final ResolvedService entry) {
+        if (resolved.remove(key, entry)) {
+            final String serviceName = entry.namespace + "." + entry.name;
+            if (key.equals(keysByService.get(serviceName))) {
+                keysByService.remove(serviceName);
+            }
+            releaseModels(entry);
+        }
+    }
+
+    private final void retainModels(final ResolvedService entry) {
+        for (ModelFile model : entry.models) {
+            final String modelKey = model.file + "@" + model.digest;
+            final int[] references = modelReferences.get(modelKey);
+            if (references == null) {
+                modelReferences.put(modelKey, new int[] { 1 });
+                models.putIfAbsent(modelKey, model.model);
+            }
+            else {
+                references[0]++;
+            }
+        }
+    }
+
+    private final void releaseModels(final ResolvedService entry) {
+        for (ModelFile model : entry.models) {
+            final String modelKey = model.file + "@" + model.digest;
+            final int[] references = modelReferences.get(modelKey);
+            if (references != null && --references[0] == 0) {
+                modelReferences.remove(modelKey);
+                models.remove(modelKey);
+            }
+        }
+    }
+
+    /**
+     * Releases parsed models that aren't used by any of the services held, i.e. those parsed 
+     * while reading a cache entry that turned out to be stale or unreadable. 
+     */
+    private final synchronized void releaseUnusedModels() {
+        models.keySet().retainAll(modelReferences.keySet());
+    }
+
+    private final ResolvedService read(final DataInputStream in, final File file) throws Exception {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("not a service model cache file or unsupported format version");
+        }
+
+        final String namespace = in.readUTF();
+        final String name = in.readUTF();
+        final boolean prefixChannelNames = in.readBoolean();
+
+        // models (stale if any model's content has changed)
+        final ModelFile[] modelFiles = new ModelFile[in.readInt()];
+        for (int i = 0; i < modelFiles.length; i++) {
+            final String modelFile = in.readUTF();
+            final String modelDigest = in.readUTF();
+            final String modelStamp = readNullableUTF(in);
+            final ToaService.MessageModelResource modelResource;
+            try {
+                modelResource = ToaService.locateMessageModel(modelFile);
+                if ((modelStamp == null || !modelStamp.equals(modelResource.stamp)) && !modelDigest.equals(modelResource.getDigest())) {
+                    return stale(file, "model file '" + modelFile + "' has changed");
+                }
+            }
+            catch (IOException e) {
+                return stale(file, "model file '" + modelFile + "' could not be read");
+            }
+            modelFiles[i] = new ModelFile(modelFile, modelDigest, modelResource.stamp, getMessageModel(modelResource, modelDigest));
+        }
+
+        // channels
+        final ChannelEntry[] channels = new ChannelEntry[in.readInt()];
+        final Set<String> channelNames = new HashSet<String>();
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new ChannelEntry(in.readUTF(), readNullableUTF(in), readNullableUTF(in), in.readBoolean());
+            channelNames.add(channels[i].name);
+        }
+
+        // roles
+        final LinkedHashMap<Short, AdmFactory> factoriesById = new LinkedHashMap<Short, AdmFactory>();
+        final RoleEntry[] roles = new RoleEntry[in.readInt()];
+        for (int i = 0; i < roles.length; i++) {
+            final String roleName = in.readUTF();
+            final AdmMessage[] messages = new AdmMessage[in.readInt()];
+            final String[][] messageChannels = new String[messages.length][];
+            for (int j = 0; j < messages.length; j++) {
+                final String modelName = in.readUTF();
+                final String messageName = in.readUTF();
+                AdmMessage message = null;
+                for (ModelFile modelFile : modelFiles) {
+                    if (modelFile.model.getFullName().equals(modelName)) {
+                        message = modelFile.model.getMessage(messageName);
+                        break;
+                    }
+                }
+                if (message == null) {
+                    return stale(file, "message '" + messageName + "' is no longer in model '" + modelName + "'");
+                }
+                messages[j] = message;
+
+                messageChannels[j] = new String[in.readInt()];
+                for (int k = 0; k < messageChannels[j].length; k++) {
+                    final String channelName = in.readUTF();
+                    if (!channelNames.contains(channelName)) {
+                        throw new IOException("channel '" + channelName + "' used by message '" + messageName + "' is not defined");
+                    }
+                    messageChannels[j][k] = channelName;
+                }
+
+                final AdmFactory factory = message.getFactory();
+                factoriesById.put(factory.calcFactoryId(), factory);
+            }
+            roles[i] = new RoleEntry(roleName, messages, messageChannels);
+        }
+
+        return new ResolvedService(namespace, name, prefixChannelNames, modelFiles, channels, roles, factoriesById.values().toArray(new AdmFactory[factoriesById.size()]));
+    }
+
+    private static final ResolvedService stale(final File file, final String reason) {
+        if (ToaService._tracer.debug) ToaService._tracer.log("<nv.toa> Cached service model '" + file + "' is stale (" + reason + ").", Tracer.Level.DEBUG);
+        return null;
+    }
+
+    /**
+     * Stores a service in the cache. 
+     * 
+     * @param key The service's cache key as returned by {@link #keyFor(String)}.
+     * @param service The service to store. 
+     * @param modelResources The model files of the service's models. 
+     * @param parsedModels The service's models, parsed from each of the model files. 
+     */
+    final void store(final String key, final ToaService service, final List<ToaService.MessageModelResource> modelResources, final List<AdmModel> parsedModels) {
+        final File file = entryFile(key);
+        File tempFile = null;
+        try {
+            final ResolvedService entry = resolve(service, modelResources, parsedModels);
+            remember(key, entry);
+            if (directory == null) {
+                return;
+            }
+
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("unable to create cache directory '" + directory + "'");
+            }
+
+            // write to a temporary file and then move it in place so that concurrent 
+            // readers never see a partially written entry:
+            tempFile = File.createTempFile(key, ".tmp", directory);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                write(out, entry);
+            }
+            finally {
+                out.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("unable to rename '" + tempFile + "' to '" + file + "'");
+                }
+            }
+            tempFile = null;
+        }
+        catch (Exception e) {
+            ToaService._tracer.log("<nv.toa> Failed to write cached service model for '" + service.getName() + "' to '" + file + "': " + e, Tracer.Level.WARNING);
+        }
+        finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static final ResolvedService resolve(final ToaService service, final List<ToaService.MessageModelResource> modelResources, final List<AdmModel> parsedModels) throws Exception {
+        final ModelFile[] modelFiles = new ModelFile[modelResources.size()];
+        for (int i = 0; i < modelFiles.length; i++) {
+            final ToaService.MessageModelResource resource = modelResources.get(i);
+            modelFiles[i] = new ModelFile(resource.file, resource.getDigest(), resource.stamp, parsedModels.get(i));
+        }
+
+        final Collection<ToaServiceChannel> serviceChannels = service.getChannels();
+        final ChannelEntry[] channels = new ChannelEntry[serviceChannels.size()];
+        int i = 0;
+        for (ToaServiceChannel channel : serviceChannels) {
+            channels[i++] = new ChannelEntry(channel.getSimpleName(), channel.getBusName(), channel.getKey(), channel == service.getDefaultChannel());
+        }
+
+        final Collection<ToaServiceToRole> serviceRoles = service.getToRoles();
+        final RoleEntry[] roles = new RoleEntry[serviceRoles.size()];
+        i = 0;
+        for (ToaServiceToRole role : serviceRoles) {
+            final Collection<AdmMessage> roleMessages = role.getMessages();
+            final AdmMessage[] messages = roleMessages.toArray(new AdmMessage[roleMessages.size()]);
+            final String[][] messageChannels = new String[messages.length][];
+            for (int j = 0; j < messages.length; j++) {
+                final List<ToaServiceChannel> channelList = role.getChannels(messages[j].getFullName());
+                messageChannels[j] = new String[channelList.size()];
+                for (int k = 0; k < messageChannels[j].length; k++) {
+                    messageChannels[j][k] = channelList.get(k).getSimpleName();
+                }
+            }
+            roles[i++] = new RoleEntry(role.getName(), messages, messageChannels);
+        }
+
+        final Collection<AdmFactory> serviceFactories = service.getAdmFactories();
+        return new ResolvedService(service.getNameSpace(), service.getSimpleName(), service.isPrefixChannelNames(), modelFiles, channels, roles, serviceFactories.toArray(new AdmFactory[serviceFactories.size()]));
+    }
+
+    private static final String modelNameFor(final ResolvedService service, final AdmMessage message) throws IOException {
+        for (ModelFile modelFile : service.models) {
+            if (modelFile.model.getMessage(message.getName()) == message) {
+                return modelFile.model.getFullName();
+            }
+        }
+        throw new IOException("message '" + message.getFullName() + "' is not declared by any of the service's models");
+    }
+
+    private static final void write(final DataOutputStream out, final ResolvedService service) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+
+        out.writeUTF(service.namespace);
+        out.writeUTF(service.name);
+        out.writeBoolean(service.prefixChannelNames);
+
+        // models
+        out.writeInt(service.models.length);
+        for (ModelFile model : service.models) {
+            out.writeUTF(model.file);
+            out.writeUTF(model.digest);
+            writeNullableUTF(out, model.stamp);
+        }
+
+        // channels
+        out.writeInt(service.channels.length);
+        for (ChannelEntry channel : service.channels) {
+            out.writeUTF(channel.name);
+            writeNullableUTF(out, channel.busName);
+            writeNullableUTF(out, channel.key);
+            out.writeBoolean(channel.isDefault);
+        }
+
+        // roles
+        out.writeInt(service.roles.length);
+        for (RoleEntry role : service.roles) {
+            out.writeUTF(role.name);
+            out.writeInt(role.messages.length);
+            for (int i = 0; i < role.messages.length; i++) {
+                out.writeUTF(modelNameFor(service, role.messages[i]));
+                out.writeUTF(role.messages[i].getName());
+                out.writeInt(role.messageChannels[i].length);
+                for (String channelName : role.messageChannels[i]) {
+                    out.writeUTF(channelName);
+                }
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ToaServiceModelCache [directory=" + directory + "]";
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+import com.neeve.toa.service.jaxb.Service;
+
+/**
+ * Parses service definition xml. 
+ * <p>
+ * Creating a {@link JAXBContext} and compiling the x-tsml schema are both expensive, so 
+ * the parser holds a single context and schema, and pools the (non thread safe) 
+ * {@link Unmarshaller}s created from them. Validation is done by the unmarshaller as 
+ * it parses rather than by a separate validator. 
+ * <p>
+ * A definition validated by a service definition locator (see 
+ * {@link com.neeve.toa.spi.AbstractServiceDefinitionLocator}) is parsed once: the service 
+ * unmarshalled while validating it is held, softly, and handed to the first unmarshal of the 
+ * same url, provided the definition's content hasn't changed since it was validated. 
+ * 
+ * @threading This class is safe for concurrent use. 
+ */
+public final class ToaServiceParser {
+    private static volatile ToaServiceParser instance;
+
+    private final JAXBContext context;
+    private final Schema schema;
+    private final ConcurrentLinkedQueue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+    private final ConcurrentLinkedQueue<Unmarshaller> validatingUnmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+    private final ConcurrentHashMap<String, SoftReference<ValidatedService>> validated = new ConcurrentHashMap<String, SoftReference<ValidatedService>>();
+
+    /**
+     * A service unmarshalled while validating it, along with the content it was unmarshalled from.
+     */
+    private static final class ValidatedService {
+        final byte[] serviceXml;
+        final Service service;
+
+        ValidatedService(final byte[] serviceXml, final Service service) {
+            this.serviceXml = serviceXml;
+            this.service = service;
+        }
+    }
+
+    private ToaServiceParser() throws JAXBException, SAXException {
+        final URL schemaUrl = ToaServiceParser.class.getResource("/x-tsml.xsd");
+        if (schemaUrl == null) {
+            throw new SAXException("x-tsml.xsd not found");
+        }
+        this.schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaUrl);
+        this.context = JAXBContext.newInstance(Service.class);
+    }
+
+    /**
+     * Returns the shared service definition parser. 
+     * 
+     * @return The shared parser. 
+     * @throws RuntimeException If the parser can't be created. 
+     */
+    public static final ToaServiceParser getInstance() {
+        ToaServiceParser parser = instance;
+        if (parser == null) {
+            synchronized (ToaServiceParser.class) {
+                if ((parser = instance) == null) {
+                    try {
+                        instance = parser = new ToaServiceParser();
+                    }
+                    catch (Exception e) {
+                        throw new RuntimeException("Unable to set up X-TSML service parser. Check that x-tsml.xsd is on your classpath", e);
+                    }
+                }
+            }
+        }
+        return parser;
+    }
+
+    /**
+     * @return The compiled x-tsml schema.
+     */
+    public final Schema getSchema() {
+        return schema;
+    }
+
+    private final Unmarshaller acquire(final boolean validate) throws JAXBException {
+        final Unmarshaller unmarshaller = (validate ? validatingUnmarshallers : unmarshallers).poll();
+        if (unmarshaller != null) {
+            return unmarshaller;
+        }
+
+        final Unmarshaller created = context.createUnmarshaller();
+        if (validate) {
+            created.setSchema(schema);
+        }
+        return created;
+    }
+
+    private final void release(final Unmarshaller unmarshaller, final boolean validate) {
+        (validate ? validatingUnmarshallers : unmarshallers).offer(unmarshaller);
+    }
+
+    private final Service parse(final byte[] serviceXml, final boolean validate) throws JAXBException {
+        final Unmarshaller unmarshaller = acquire(validate);
+        // an unmarshaller that throws is discarded rather than returned to the pool:
+        final Object result = unmarshaller.unmarshal(new ByteArrayInputStream(serviceXml));
+        release(unmarshaller, validate);
+        if (!(result instanceof Service)) {
+            throw new JAXBException("not a service definition (unmarshalled a " + (result != null ? result.getClass().getName() : null) + ")");
+        }
+        return (Service)result;
+    }
+
+    /**
+     * Validates the service definition at the given url against the x-tsml schema. 
+     * <p>
+     * The service unmarshalled while validating it is held for the next unmarshal of the url. 
+     * 
+     * @param url The url of the service definition.
+     * @throws IOException If the url can't be read.
+     * @throws ToaServiceModelException If the url doesn't contain a valid service definition. 
+     */
+    public final void validate(final URL url) throws IOException {
+        final byte[] serviceXml = ToaService.readFully(url.openStream());
+        try {
+            validated.put(url.toString(), new SoftReference<ValidatedService>(new ValidatedService(serviceXml, parse(serviceXml, true))));
+        }
+        catch (JAXBException e) {
+            final Throwable cause = e.getLinkedException() != null ? e.getLinkedException() : e;
+            throw new ToaServiceModelException(cause.getMessage() != null ? cause.getMessage() : cause.toString(), e);
+        }
+    }
+
+    /**
+     * Unmarshals the service definition at the given url without validating it. 
+     * 
+     * @param url The url of the service definition.
+     * @return The unmarshalled service. 
+     * @throws IOException If the url can't be read.
+     * @throws JAXBException If the content can't be unmarshalled.
+     */
+    public final Service unmarshal(final URL url) throws IOException, JAXBException {
+        return unmarshal(url, ToaService.readFully(url.openStream()));
+    }
+
+    /**
+     * Unmarshals a service definition without validating it. 
+     * <p>
+     * If the definition was validated with the same content, the service unmarshalled while 
+     * validating it is returned (once) rather than parsing the definition again. 
+     * 
+     * @param url The url of the service definition.
+     * @param serviceXml The service definition's content.
+     * @return The unmarshalled service. 
+     * @throws JAXBException If the content can't be unmarshalled.
+     */
+    final Service unmarshal(final URL url, final byte[] serviceXml) throws JAXBException {
+        final SoftReference<ValidatedService> reference = validated.remove(url.toString());
+        final ValidatedService validatedService = reference != null ? reference.get() : null;
+        if (validatedService != null && Arrays.equals(validatedService.serviceXml, serviceXml)) {
+            return validatedService.service;
+        }
+        return parse(serviceXml, false);
+    }
+}
@@ -22,7 +22,9 @@
 package com.neeve.toa.service;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import com.neeve.adm.AdmMessage;
 import com.neeve.sma.MessageView;
@@ -38,7 +40,7 @@ public class ToaServiceToRole {
 
     private final String name;
     private final HashMap<String, AdmMessage> messagesByName = new HashMap<String, AdmMessage>();
-    private final HashMap<String, ToaServiceChannel> messageChannelMap = new HashMap<String, ToaServiceChannel>();
+    private final HashMap<String, List<ToaServiceChannel>> messageChannelMap = new HashMap<String, List<ToaServiceChannel>>();
     private final HashMap<String, Class<? extends MessageView>> messageClassMap = new HashMap<String, Class<? extends MessageView>>();
 
     /**
@@ -55,8 +57,16 @@ public class ToaServiceToRole {
      * @param toaChannel The channel model for the the message. 
      */
     final void addMessage(final AdmMessage admMessage, final ToaServiceChannel toaChannel) {
+        addMessage(admMessage, Collections.singletonList(toaChannel));
+    }
+
+    /**
+     * @param admMessage The adm Message
+     * @param toaChannels The channel models for the the message, the first of which is its primary channel. 
+     */
+    final void addMessage(final AdmMessage admMessage, final List<ToaServiceChannel> toaChannels) {
         messagesByName.put(admMessage.getFullName(), admMessage);
-        messageChannelMap.put(admMessage.getFullName(), toaChannel);
+        messageChannelMap.put(admMessage.getFullName(), Collections.unmodifiableList(toaChannels));
         try {
             @SuppressWarnings("unchecked")
             Class<? extends MessageView> messageClass = (Class<? extends MessageView>)Thread.currentThread().getContextClassLoader().loadClass(admMessage.getFullName());
@@ -87,11 +97,27 @@ public class ToaServiceToRole {
 
     /**
      * Returns the channel model for the given message. 
+     * <p>
+     * If the message is mapped to multiple channels this returns its primary (first) channel. 
      *  
      * @param fullMessageName The fully qualified messages name.
      * @return The the channel model for the given message or null if the role doesn't have such a message. 
      */
     public ToaServiceChannel getChannel(String fullMessageName) {
+        final List<ToaServiceChannel> channels = messageChannelMap.get(fullMessageName);
+        return channels != null ? channels.get(0) : null;
+    }
+
+    /**
+     * Returns the channel models for the given message. 
+     * <p>
+     * A message is usually mapped to a single channel, but may be mapped to several, in which case 
+     * it is sent on each of them. The first channel is the message's primary channel. 
+     * 
+     * @param fullMessageName The fully qualified messages name.
+     * @return The unmodifiable list of channel models for the given message or null if the role doesn't have such a message. 
+     */
+    public List<ToaServiceChannel> getChannels(String fullMessageName) {
         return messageChannelMap.get(fullMessageName);
     }
 
@@ -22,19 +22,12 @@
 package com.neeve.toa.spi;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 
-import javax.xml.XMLConstants;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
-
-import org.xml.sax.SAXException;
-
 import com.neeve.root.RootConfig;
 import com.neeve.toa.ToaException;
+import com.neeve.toa.service.ToaServiceModelException;
+import com.neeve.toa.service.ToaServiceParser;
 import com.neeve.trace.Tracer;
 
 /**
@@ -42,18 +35,6 @@ import com.neeve.trace.Tracer;
  */
 public abstract class AbstractServiceDefinitionLocator implements ServiceDefinitionLocator {
     final protected static Tracer tracer = RootConfig.ObjectConfig.createTracer(RootConfig.ObjectConfig.get("nv.toa"));
-    final private static Schema SERVICE_SCHEMA;
-
-    static {
-        final SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        URL url = AbstractServiceDefinitionLocator.class.getResource("/x-tsml.xsd");
-        try {
-            SERVICE_SCHEMA = factory.newSchema(url);
-        }
-        catch (SAXException e) {
-            throw new RuntimeException("Unable to set up X-TSML Schema validator. Check that x-tsml.xsd is on your classpath");
-        }
-    }
 
     /**
      * Tests if the given URL represents a valid x-tsml service defintion. 
@@ -64,19 +45,11 @@ public abstract class AbstractServiceDefinitionLocator implements ServiceDefinit
     public static final void validateServiceDefinitionFile(URL url) throws ToaException {
         if (tracer.debug) tracer.log("validateServiceDefinitionFile checking url: " + url.toString(), Tracer.Level.DEBUG);
 
-        Validator validator = SERVICE_SCHEMA.newValidator();
         try {
-            InputStream is = url.openStream();
-            try {
-                validator.validate(new StreamSource(url.openStream()));
-                return;
-            }
-            catch (SAXException e) {
-                throw new ToaException("Couldn't parse " + url + " as a service definition: " + e.getMessage(), e);
-            }
-            finally {
-                is.close();
-            }
+            ToaServiceParser.getInstance().validate(url);
+        }
+        catch (ToaServiceModelException e) {
+            throw new ToaException("Couldn't parse " + url + " as a service definition: " + e.getMessage(), e);
         }
         catch (IOException ioe) {
             throw new ToaException("Unable to read service definition at " + url.toString(), ioe);
@@ -98,19 +71,12 @@ public abstract class AbstractServiceDefinitionLocator implements ServiceDefinit
             return false;
         }
 
-        Validator validator = SERVICE_SCHEMA.newValidator();
         try {
-            InputStream is = url.openStream();
-            try {
-                validator.validate(new StreamSource(url.openStream()));
-                return true;
-            }
-            catch (SAXException e) {
-                tracer.log("isServiceDefinitionFile couldn't parse " + url + " as a service definition: " + e.getMessage(), Tracer.Level.WARNING);
-            }
-            finally {
-                is.close();
-            }
+            ToaServiceParser.getInstance().validate(url);
+            return true;
+        }
+        catch (ToaServiceModelException e) {
+            tracer.log("isServiceDefinitionFile couldn't parse " + url + " as a service definition: " + e.getMessage(), Tracer.Level.WARNING);
         }
         catch (IOException ioe) {
             tracer.log("isValidServiceDefinitionFile encountered an error reading: " + url.toString(), Tracer.Level.WARNING);
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.neeve.root.RootConfig;
+import com.neeve.toa.DefaultServiceDefinitionLocator;
+import com.neeve.toa.ToaException;
+import com.neeve.toa.service.ToaServiceModelCache;
+import com.neeve.toa.service.ToaServiceModelException;
+import com.neeve.toa.service.ToaServiceParser;
+import com.neeve.trace.Tracer;
+import com.neeve.trace.Tracer.Level;
+
+/**
+ * Generates the service definition index used by the {@link DefaultServiceDefinitionLocator}
+ * in place of scanning the classpath for services. 
+ * <p>
+ * The generator validates the service definitions in the <code>services</code> directory of 
+ * a classes directory and writes the valid ones, along with a digest of their content, to 
+ * {@value DefaultServiceDefinitionLocator#SERVICE_INDEX_RESOURCE} in the same classes directory. 
+ * It is usually run by the <code>index-services</code> goal of the <code>nvx-hornet-maven-plugin</code>, 
+ * but can also be run from the command line: 
+ * <pre>
+ * java com.neeve.toa.tools.ServiceIndexGenerator &lt;classes directory&gt; [failOnInvalid]
+ * </pre>
+ */
+public final class ServiceIndexGenerator {
+    private static final Tracer tracer = RootConfig.ObjectConfig.createTracer(RootConfig.ObjectConfig.get("nv.toa"));
+
+    private ServiceIndexGenerator() {}
+
+    /**
+     * Generates the service definition index for a classes directory. 
+     * <p>
+     * If the classes directory contains no service definitions any existing index is removed
+     * and no index is written. 
+     * 
+     * @param classesDirectory The root of the classpath element to index. 
+     * @param failOnInvalid Whether to fail if a file in the services directory isn't a valid service definition. 
+     * Otherwise such files are left out of the index with a warning.  
+     * @return The paths of the indexed service definitions relative to the classes directory. 
+     * @throws IOException If there is an error reading a service definition or writing the index.
+     * @throws ToaException If <code>failOnInvalid</code> is set and an invalid service definition is found. 
+     */
+    public static final List<String> generate(final File classesDirectory, final boolean failOnInvalid) throws IOException {
+        final File index = new File(classesDirectory, DefaultServiceDefinitionLocator.SERVICE_INDEX_RESOURCE.replace('/', File.separatorChar));
+        final List<String> indexed = new ArrayList<String>();
+        final List<String> digests = new ArrayList<String>();
+
+        final File[] files = new File(classesDirectory, "services").listFiles(new FilenameFilter() {
+            final public boolean accept(final File dir, final String name) {
+                return name.endsWith(".xml") && !new File(dir, name).isDirectory();
+            }
+        });
+
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                final URL url = file.toURI().toURL();
+                try {
+                    ToaServiceParser.getInstance().validate(url);
+                }
+                catch (ToaServiceModelException e) {
+                    if (failOnInvalid) {
+                        throw new ToaException("Invalid service definition '" + file + "': " + e.getMessage(), e);
+                    }
+                    tracer.log("Not indexing '" + file + "', it is not a valid service definition: " + e.getMessage(), Level.WARNING);
+                    continue;
+                }
+                indexed.add("services/" + file.getName());
+                digests.add(ToaServiceModelCache.digest(url));
+            }
+        }
+
+        if (indexed.isEmpty()) {
+            if (index.exists() && !index.delete()) {
+                throw new IOException("Failed to delete stale service definition index '" + index + "'");
+            }
+            return indexed;
+        }
+
+        if (!index.getParentFile().isDirectory() && !index.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create directory for service definition index '" + index + "'");
+        }
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(index), "UTF-8");
+        try {
+            writer.write("# Hornet service definition index: <sha1> <path>\n");
+            for (int i = 0; i < indexed.size(); i++) {
+                writer.write(digests.get(i) + " " + indexed.get(i) + "\n");
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if (tracer.debug) tracer.log("Wrote service definition index '" + index + "' (" + indexed.size() + " services)", Level.DEBUG);
+        return indexed;
+    }
+
+    /**
+     * Command line entry point.
+     * 
+     * @param args The classes directory, optionally followed by <code>true</code> to fail on invalid service definitions.
+     * @throws Exception If the index can't be generated.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ServiceIndexGenerator <classes directory> [failOnInvalid]");
+            System.exit(1);
+        }
+
+        final List<String> indexed = generate(new File(args[0]), args.length > 1 && Boolean.parseBoolean(args[1]));
+        System.out.println("Indexed " + indexed.size() + " service definition(s) in " + args[0]);
+    }
+}
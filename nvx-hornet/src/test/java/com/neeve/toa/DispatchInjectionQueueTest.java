@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.neeve.toa.test.unit.ForwarderMessage1;
+import com.neeve.trace.Tracer;
+
+/**
+ * Tests for {@link DispatchInjectionQueue}'s tracking of messages injected by handlers
+ * that have and haven't completed. 
+ */
+public class DispatchInjectionQueueTest {
+    private static final Tracer tracer = Tracer.create("nv.toa.test", Tracer.Level.INFO);
+
+    @Test
+    public void testUnhandledMessagesAreDiscarded() {
+        DispatchInjectionQueue queue = new DispatchInjectionQueue(2, tracer);
+        queue.add(ForwarderMessage1.create(), 0);
+        queue.add(ForwarderMessage1.create(), 0);
+        queue.onHandled(1);
+
+        // the next dispatch's handler fails after injecting:
+        queue.add(ForwarderMessage1.create(), 0);
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.unhandled());
+        assertEquals(1, queue.discardUnhandled());
+        assertEquals("Handled messages should survive the discard of unhandled ones", 2, queue.size());
+        assertEquals(0, queue.unhandled());
+    }
+
+    @Test
+    public void testMessagesAreHeldUntilTheirCommitIsStable() {
+        DispatchInjectionQueue queue = new DispatchInjectionQueue(4, tracer);
+        queue.add(ForwarderMessage1.create(), 0);
+        queue.onHandled(5);
+        queue.add(ForwarderMessage1.create(), 0);
+
+        // neither the unstable commit nor the unhandled message may be drained, so the 
+        // engine isn't touched:
+        assertEquals(0, queue.drain(null, 4));
+        assertEquals(2, queue.size());
+        queue.onHandled(6);
+        assertEquals(0, queue.drain(null, 4));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void testGrowthPreservesCommits() {
+        DispatchInjectionQueue queue = new DispatchInjectionQueue(1, tracer);
+        for (int i = 0; i < 5; i++) {
+            queue.add(ForwarderMessage1.create(), 0);
+        }
+        assertEquals(5, queue.unhandled());
+        queue.onHandled(3);
+        queue.add(ForwarderMessage1.create(), 0);
+        assertEquals(6, queue.size());
+        assertEquals(1, queue.unhandled());
+        assertEquals(0, queue.drain(null, 2));
+        assertEquals(1, queue.discardUnhandled());
+        assertEquals(5, queue.discard());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.unhandled());
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.neeve.toa.test.unit.ForwarderMessage1;
+
+/**
+ * Tests for {@link MessageFieldAccessor}
+ */
+public class MessageFieldAccessorTest {
+
+    @Test
+    public void testCompiledFieldAccessorsAreGenerated() {
+        CompiledFieldAccessors accessors = CompiledFieldAccessors.forClass(ForwarderMessage1.class);
+        assertNotNull("Compiled field accessors should have been generated for ForwarderMessage1", accessors);
+        assertTrue(accessors.indexOf("IntField") >= 0);
+        assertTrue(accessors.indexOf("StringField") >= 0);
+        assertEquals(-1, accessors.indexOf("NoSuchField"));
+    }
+
+    @Test
+    public void testFieldsAreRead() throws Exception {
+        MessageFieldAccessor intField = MessageFieldAccessor.forField(ForwarderMessage1.class, "intField");
+        MessageFieldAccessor stringField = MessageFieldAccessor.forField(ForwarderMessage1.class, "stringField");
+        assertEquals(MessageFieldAccessor.Kind.INT, intField.getKind());
+        assertEquals(MessageFieldAccessor.Kind.OBJECT, stringField.getKind());
+
+        ForwarderMessage1 message = ForwarderMessage1.create();
+        message.setIntField(42);
+        message.setStringField("accessed");
+        try {
+            assertTrue(intField.isSet(message));
+            assertEquals(42, intField.getInt(message));
+            assertTrue(stringField.isSet(message));
+            assertEquals("accessed", stringField.getObject(message));
+        }
+        finally {
+            message.dispose();
+        }
+    }
+
+    @Test
+    public void testUnknownField() {
+        assertNull(MessageFieldAccessor.forField(ForwarderMessage1.class, "noSuchField"));
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.neeve.rog.IRogMessage;
+import com.neeve.toa.test.unit.ForwarderMessage1;
+
+/**
+ * Tests for {@link MessageReplicator}
+ */
+public class MessageReplicatorTest {
+
+    @Test
+    public void testReplicasAreCopies() {
+        MessageReplicator replicator = MessageReplicator.forClass(ForwarderMessage1.class, "ForwarderMessage1");
+        ForwarderMessage1 message = ForwarderMessage1.create();
+        message.setIntField(42);
+        message.setStringField("replicated");
+
+        for (int i = 0; i < 3; i++) {
+            IRogMessage replica = replicator.replicate(message);
+            assertNotSame("Replica should be a distinct message", message, replica);
+            assertEquals(42, ((ForwarderMessage1)replica).getIntField());
+            assertEquals("replicated", ((ForwarderMessage1)replica).getStringField());
+            replica.dispose();
+        }
+        message.dispose();
+    }
+
+    @Test
+    public void testUnreplicableMessage() {
+        try {
+            MessageReplicator.forClass(Object.class, "Object");
+            fail("Expected a ToaException for a class that can't be copied");
+        }
+        catch (ToaException e) {
+            assertEquals("Message class 'Object' can't be copied, it can't be sent on multiple channels", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link MessageTypeTable}, in particular its fallback to a sparse 
+ * table for message types that can't be laid out densely.
+ */
+public class MessageTypeTableTest {
+
+    /**
+     * Computes unique ids the same way as {@link TopicOrientedApplication}.
+     */
+    private static final long id(final int factoryId, final int messageId) {
+        return (((long)factoryId) << 32) | messageId;
+    }
+
+    private static final String value(final int factoryId, final int messageId) {
+        return factoryId + ":" + messageId;
+    }
+
+    private static final MessageTypeTable<String> table(final int[][] types) {
+        final Map<Long, String> values = new LinkedHashMap<Long, String>();
+        for (int[] type : types) {
+            values.put(id(type[0], type[1]), value(type[0], type[1]));
+        }
+        return new MessageTypeTable<String>(values);
+    }
+
+    private static final void assertContains(final MessageTypeTable<String> table, final int[][] types) {
+        for (int[] type : types) {
+            assertEquals("Wrong value for " + value(type[0], type[1]), value(type[0], type[1]), table.get(type[0], type[1]));
+        }
+        assertEquals("Wrong table size", types.length, table.size());
+    }
+
+    @Test
+    public void testEmptyTable() {
+        final MessageTypeTable<String> table = table(new int[0][]);
+        assertEquals(0, table.size());
+        assertNull(table.get(0, 0));
+        assertNull(table.get(-1, -1));
+    }
+
+    @Test
+    public void testDenseTable() {
+        final int[][] types = new int[][] { { 10, 1 }, { 10, 2 }, { 10, 5 }, { 12, 100 }, { 12, 101 } };
+        final MessageTypeTable<String> table = table(types);
+        assertContains(table, types);
+
+        // misses within and outside of the laid out ranges:
+        assertNull(table.get(10, 3));
+        assertNull(table.get(10, 0));
+        assertNull(table.get(10, 6));
+        assertNull(table.get(11, 1));
+        assertNull(table.get(12, 99));
+        assertNull(table.get(9, 1));
+        assertNull(table.get(13, 100));
+    }
+
+    @Test
+    public void testWideFactoryRange() {
+        // factory ids too spread out to lay out densely, all types are held sparsely: 
+        final int[][] types = new int[][] { { 1, 1 }, { 1, 2 }, { 1 + MessageTypeTable.MAX_DENSE_FACTORY_RANGE, 1 }, { Integer.MAX_VALUE, 7 } };
+        final MessageTypeTable<String> table = table(types);
+        assertContains(table, types);
+        assertNull(table.get(1, 3));
+        assertNull(table.get(2, 1));
+        assertNull(table.get(Integer.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void testWideMessageRange() {
+        // factory 5's message ids are too spread out and are held sparsely alongside dense factory 6: 
+        final int[][] types = new int[][] { { 5, 0 }, { 5, MessageTypeTable.MAX_DENSE_MESSAGE_RANGE }, { 6, 0 }, { 6, 1 } };
+        final MessageTypeTable<String> table = table(types);
+        assertContains(table, types);
+        assertNull(table.get(5, 1));
+        assertNull(table.get(6, MessageTypeTable.MAX_DENSE_MESSAGE_RANGE));
+        assertNull(table.get(6, 2));
+    }
+
+    @Test
+    public void testNegativeIds() {
+        // negative message ids are held sparsely next to the factory's dense types: 
+        final int[][] types = new int[][] { { 3, -1 }, { 3, 0 }, { 3, 1 }, { -2, 4 }, { -2, 5 } };
+        final MessageTypeTable<String> table = table(types);
+        assertContains(table, types);
+        assertNull(table.get(3, -2));
+        assertNull(table.get(3, 2));
+        assertNull(table.get(-2, 3));
+        assertNull(table.get(-1, 4));
+    }
+
+    @Test
+    public void testDenseAndSparseEntriesDontCollide() {
+        // the same message ids in a dense factory, a sparse (wide) factory and with negative ids
+        // must each resolve to their own value: 
+        final int[][] types = new int[][] { { 20, 1 }, { 20, 2 }, { 21, 1 }, { 21, 2 + MessageTypeTable.MAX_DENSE_MESSAGE_RANGE }, { 22, -1 }, { 22, 1 } };
+        final MessageTypeTable<String> table = table(types);
+        assertContains(table, types);
+        assertNull(table.get(20, 3));
+        assertNull(table.get(21, 2));
+        assertNull(table.get(22, 2));
+    }
+}
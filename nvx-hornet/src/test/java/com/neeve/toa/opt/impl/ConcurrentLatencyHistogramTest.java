@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConcurrentLatencyHistogram}
+ */
+public class ConcurrentLatencyHistogramTest {
+
+    @Test
+    public void testMatchesLatencyHistogram() {
+        ConcurrentLatencyHistogram concurrent = new ConcurrentLatencyHistogram();
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            concurrent.record(i * 37);
+            histogram.record(i * 37);
+        }
+        assertEquals(histogram.getCount(), concurrent.getCount());
+        assertEquals(histogram.getMax(), concurrent.getMax());
+        for (double percentile : new double[] { 0, 50, 90, 99, 99.9, 100 }) {
+            assertEquals("Wrong value at percentile " + percentile, histogram.getValueAtPercentile(percentile), concurrent.getValueAtPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        final int threads = 4;
+        final int valuesPerThread = 100000;
+        final Thread[] recorders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long offset = i;
+            recorders[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; j++) {
+                        histogram.record(j % 1000 + offset);
+                    }
+                }
+            };
+            recorders[i].start();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertEquals("Recorded values were lost", threads * valuesPerThread, histogram.getCount());
+        assertEquals(999 + threads - 1, histogram.getMax());
+    }
+
+    @Test
+    public void testReset() {
+        ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        histogram.record(10);
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.neeve.toa.test.unit.ReceiverMessage1;
+import com.neeve.toa.test.unit.ReceiverMessage2;
+
+/**
+ * Tests for {@link DispatchLatencyProfilerImpl}
+ */
+public class DispatchLatencyProfilerTest {
+
+    private static final void dispatch(final DispatchLatencyProfilerImpl profiler, final com.neeve.rog.IRogMessage message) {
+        profiler.onMessage(message);
+        profiler.postMessage(message);
+    }
+
+    @Test
+    public void testRecordsDispatchesByType() {
+        DispatchLatencyProfilerImpl profiler = new DispatchLatencyProfilerImpl();
+        ReceiverMessage1 message1 = ReceiverMessage1.create();
+        ReceiverMessage2 message2 = ReceiverMessage2.create();
+        try {
+            for (int i = 0; i < 3; i++) {
+                dispatch(profiler, message1);
+            }
+            dispatch(profiler, message2);
+
+            assertEquals(4, profiler.getDispatchCount());
+            assertTrue("Latencies should not be negative", profiler.getDispatchLatencyP50() >= 0);
+            assertTrue("Max should be at least the p99", profiler.getDispatchLatencyMax() >= profiler.getDispatchLatencyP99());
+
+            String dump = profiler.dumpDispatchLatencies();
+            assertTrue("Wrong dump for " + ReceiverMessage1.class.getName() + ": " + dump, dump.indexOf("\n" + ReceiverMessage1.class.getName() + ",3,") >= 0);
+            assertTrue("Wrong dump for " + ReceiverMessage2.class.getName() + ": " + dump, dump.indexOf("\n" + ReceiverMessage2.class.getName() + ",1,") >= 0);
+            assertTrue("Wrong dump for all types: " + dump, dump.indexOf("\n*,4,") >= 0);
+        }
+        finally {
+            message1.dispose();
+            message2.dispose();
+        }
+    }
+
+    @Test
+    public void testPostdispatchWithoutPredispatchIsNotRecorded() {
+        DispatchLatencyProfilerImpl profiler = new DispatchLatencyProfilerImpl();
+        ReceiverMessage1 message = ReceiverMessage1.create();
+        try {
+            profiler.postMessage(message);
+            assertEquals(0, profiler.getDispatchCount());
+
+            dispatch(profiler, message);
+            profiler.postMessage(message);
+            assertTrue("Wrong dump: " + profiler.dumpDispatchLatencies(), profiler.dumpDispatchLatencies().indexOf("\n*,1,") >= 0);
+        }
+        finally {
+            message.dispose();
+        }
+    }
+
+    @Test
+    public void testReset() {
+        DispatchLatencyProfilerImpl profiler = new DispatchLatencyProfilerImpl();
+        ReceiverMessage1 message = ReceiverMessage1.create();
+        try {
+            dispatch(profiler, message);
+            dispatch(profiler, message);
+            assertEquals(2, profiler.getDispatchCount());
+
+            profiler.resetDispatchLatencies();
+            assertEquals("Reset should clear the stats snapshot", 0, profiler.getDispatchCount());
+            assertEquals(0, profiler.getDispatchLatencyMax());
+            assertTrue("Reset should clear the per type histograms: " + profiler.dumpDispatchLatencies(), profiler.dumpDispatchLatencies().indexOf("\n" + ReceiverMessage1.class.getName() + ",0,") >= 0);
+
+            dispatch(profiler, message);
+            profiler.resetDispatchLatencies(); // clears the snapshot
+            dispatch(profiler, message);
+            assertEquals(1, profiler.getDispatchCount());
+        }
+        finally {
+            message.dispose();
+        }
+    }
+}
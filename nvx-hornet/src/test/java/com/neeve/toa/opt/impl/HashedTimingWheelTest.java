@@ -0,0 +1,165 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link HashedTimingWheel}
+ */
+public class HashedTimingWheelTest {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static class RecordingTimeout extends HashedTimingWheel.Timeout {
+        final List<Long> expiries = new ArrayList<Long>();
+        Runnable onExpiry;
+
+        @Override
+        protected void onExpired(long stamp) {
+            expiries.add(stamp);
+            if (onExpiry != null) {
+                onExpiry.run();
+            }
+        }
+    }
+
+    @Test
+    public void testExpiryPassesScheduleStamp() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK_NANOS, 64);
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.schedule(timeout, TimeUnit.MILLISECONDS.toNanos(5), 7);
+        assertEquals(1, wheel.size());
+
+        assertEquals("Timeout expired before its deadline", 0, wheel.expire(System.nanoTime()));
+        assertEquals(1, wheel.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(0, wheel.size());
+        assertEquals(1, timeout.expiries.size());
+        assertEquals(Long.valueOf(7), timeout.expiries.get(0));
+    }
+
+    @Test
+    public void testCanceledTimeoutDoesNotExpire() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK_NANOS, 64);
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.schedule(timeout, TimeUnit.MILLISECONDS.toNanos(5), 1);
+        assertTrue(wheel.cancel(timeout));
+        assertFalse("Cancel of an unscheduled timeout should return false", wheel.cancel(timeout));
+        assertEquals(0, wheel.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertTrue(timeout.expiries.isEmpty());
+    }
+
+    @Test
+    public void testBatchCancel() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK_NANOS, 64);
+        RecordingTimeout[] timeouts = new RecordingTimeout[4];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = new RecordingTimeout();
+            wheel.schedule(timeouts[i], TimeUnit.MILLISECONDS.toNanos(5 + i), i);
+        }
+        wheel.cancel(timeouts[3]);
+        assertEquals("Only the scheduled timeouts should be counted", 3, wheel.cancel(timeouts, 4));
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+    }
+
+    /**
+     * A timeout that is canceled and rescheduled between being unlinked by expire and
+     * its onExpired callback must be told the stamp of the schedule that expired, so it
+     * can recognize the expiry as stale.
+     */
+    @Test
+    public void testRescheduleBeforeCallbackReportsExpiredStamp() {
+        final HashedTimingWheel wheel = new HashedTimingWheel(TICK_NANOS, 64);
+        final RecordingTimeout first = new RecordingTimeout();
+        final RecordingTimeout second = new RecordingTimeout();
+
+        // both expire in the same pass, expired timeouts are called back most recently
+        // unlinked first, so whichever is called first reschedules the other:
+        wheel.schedule(first, TimeUnit.MILLISECONDS.toNanos(2), 1);
+        wheel.schedule(second, TimeUnit.MILLISECONDS.toNanos(2), 1);
+        final Runnable rescheduleOther = new Runnable() {
+            boolean done;
+
+            @Override
+            public void run() {
+                if (!done) {
+                    done = true;
+                    final RecordingTimeout other = first.expiries.isEmpty() ? first : second;
+                    wheel.cancel(other);
+                    wheel.schedule(other, TimeUnit.SECONDS.toNanos(60), 2);
+                }
+            }
+        };
+        first.onExpiry = rescheduleOther;
+        second.onExpiry = rescheduleOther;
+
+        assertEquals(2, wheel.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(1, first.expiries.size());
+        assertEquals(1, second.expiries.size());
+        assertEquals("Stale expiry should carry the expired schedule's stamp", Long.valueOf(1), first.expiries.get(0));
+        assertEquals("Stale expiry should carry the expired schedule's stamp", Long.valueOf(1), second.expiries.get(0));
+        assertEquals("Rescheduled timeout should remain scheduled", 1, wheel.size());
+    }
+
+    @Test
+    public void testOldestAgeTracksScheduledTimeouts() throws InterruptedException {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK_NANOS, 64);
+        assertEquals(0, wheel.getOldestAgeNanos(System.nanoTime()));
+
+        RecordingTimeout first = new RecordingTimeout();
+        RecordingTimeout second = new RecordingTimeout();
+        RecordingTimeout third = new RecordingTimeout();
+        wheel.schedule(first, TimeUnit.SECONDS.toNanos(60), 1);
+        Thread.sleep(5);
+        wheel.schedule(second, TimeUnit.MILLISECONDS.toNanos(2), 1);
+        Thread.sleep(5);
+        wheel.schedule(third, TimeUnit.SECONDS.toNanos(60), 1);
+
+        long now = System.nanoTime();
+        assertEquals(now - first.getScheduledNanos(), wheel.getOldestAgeNanos(now));
+
+        // canceling the oldest makes the next oldest the oldest:
+        assertTrue(wheel.cancel(first));
+        assertEquals(now - second.getScheduledNanos(), wheel.getOldestAgeNanos(now));
+
+        // as does expiring it:
+        assertEquals(1, wheel.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(now - third.getScheduledNanos(), wheel.getOldestAgeNanos(now));
+
+        // a rescheduled timeout is the newest:
+        wheel.schedule(first, TimeUnit.SECONDS.toNanos(60), 2);
+        assertEquals(now - third.getScheduledNanos(), wheel.getOldestAgeNanos(now));
+        assertTrue(wheel.cancel(third));
+        now = System.nanoTime();
+        assertEquals(now - first.getScheduledNanos(), wheel.getOldestAgeNanos(now));
+        assertTrue(wheel.cancel(first));
+        assertEquals(0, wheel.getOldestAgeNanos(now));
+    }
+}
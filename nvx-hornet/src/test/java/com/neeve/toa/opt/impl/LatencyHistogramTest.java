@@ -0,0 +1,136 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.opt.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+        assertEquals(32, histogram.getCount());
+        assertEquals(31, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(15, histogram.getValueAtPercentile(50));
+        assertEquals(31, histogram.getValueAtPercentile(100));
+        assertEquals("Percentiles above 100 should be clamped", 31, histogram.getValueAtPercentile(150));
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        // 32 through 63 are still exact: 
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(32);
+        histogram.record(63);
+        assertEquals(32, histogram.getValueAtPercentile(50));
+        assertEquals(63, histogram.getValueAtPercentile(100));
+
+        // 64 and 65 share a bucket whose highest value is 65, but values are never reported above the max: 
+        histogram = new LatencyHistogram();
+        histogram.record(64);
+        assertEquals(64, histogram.getValueAtPercentile(100));
+        histogram.record(65);
+        assertEquals(65, histogram.getValueAtPercentile(50));
+
+        histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(1000);
+        assertEquals(101, histogram.getValueAtPercentile(50));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals("Negative values should be counted as 0", 0, histogram.getValueAtPercentile(100));
+
+        histogram.record(1L << 40);
+        assertEquals("Max should reflect values beyond the tracked range", 1L << 40, histogram.getMax());
+        assertEquals("Values beyond the tracked range should be reported in the last bucket", (1L << 36) - 1, histogram.getValueAtPercentile(100));
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test
+    public void testReportedValuesAreWithinPrecision() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            final long value = 32 + random.nextInt(Integer.MAX_VALUE);
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            final long reported = histogram.getValueAtPercentile(50);
+            assertTrue("Reported " + reported + " for " + value, reported >= value && (reported - value) * 32 <= value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(10);
+        }
+        histogram.record(1000);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(10, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(99.9));
+        assertEquals(1000, histogram.getValueAtPercentile(99.95));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+
+        histogram.record(20);
+        assertEquals(1, histogram.getCount());
+        assertEquals(20, histogram.getMax());
+        assertEquals(20, histogram.getValueAtPercentile(50));
+    }
+}
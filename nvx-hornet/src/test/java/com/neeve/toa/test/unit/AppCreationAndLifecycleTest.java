@@ -51,6 +51,7 @@ import com.neeve.server.app.SrvAppLoader;
 import com.neeve.server.app.annotations.AppHAPolicy;
 import com.neeve.server.app.annotations.AppInjectionPoint;
 import com.neeve.toa.DefaultServiceDefinitionLocator;
+import com.neeve.toa.TopicOrientedApplication;
 import com.neeve.toa.spi.ServiceDefinitionLocator;
 
 /**
@@ -326,4 +327,35 @@ public class AppCreationAndLifecycleTest extends AbstractToaTest {
             assertTrue("Exception has wrong text expected reference to 'invalidService' but was'" + e.getMessage() + "'", e.getMessage().indexOf("invalidService") >= 0);
         }
     }
+
+    @Test
+    public void testParallelServiceDefinitionValidation() throws Throwable {
+        XRuntime.getProps().setProperty(DefaultServiceDefinitionLocator.PROP_STRICT_SERVICE_VALIDATION, "true");
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING, "true");
+        try {
+            createApp("testParallelServiceDefinitionValidation", "standalone", StrictServiceValidationTestApp.class);
+            fail("Shouldn't be able to start application with invalid service definition.");
+        }
+        catch (Exception e) {
+            assertTrue("Exception has wrong text expected reference to 'invalidService' but was'" + e.getMessage() + "'", e.getMessage().indexOf("invalidService") >= 0);
+        }
+        finally {
+            XRuntime.getProps().remove(DefaultServiceDefinitionLocator.PROP_STRICT_SERVICE_VALIDATION);
+            XRuntime.getProps().remove(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING);
+        }
+    }
+
+    @Test
+    public void testParallelServiceLoading() throws Throwable {
+        XRuntime.getProps().setProperty(DefaultServiceDefinitionLocator.PROP_STRICT_SERVICE_VALIDATION, "false");
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING, "true");
+        try {
+            StrictServiceValidationTestApp app = createApp("testParallelServiceLoading", "standalone", StrictServiceValidationTestApp.class);
+            assertNotNull("Application should have started with valid services", app.getAepEngine());
+        }
+        finally {
+            XRuntime.getProps().remove(DefaultServiceDefinitionLocator.PROP_STRICT_SERVICE_VALIDATION);
+            XRuntime.getProps().remove(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING);
+        }
+    }
 }
@@ -24,7 +24,9 @@ package com.neeve.toa.test.unit;
 import static org.junit.Assert.*;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -611,6 +613,65 @@ public class ChannelResolutionTest extends AbstractToaTest {
         }
     }
 
+    @Test
+    public void testBatchSend() throws Throwable {
+        UnfilteredReceiver receiver = createApp("receiver", "standalone", UnfilteredReceiver.class);
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class);
+
+        // interleave types so that runs of the same type and type changes are both exercised:
+        IRogMessage[] batch = new IRogMessage[8];
+        for (int i = 0; i < batch.length; i++) {
+            if (i < 3) {
+                ReceiverMessage1 m = ReceiverMessage1.create();
+                m.setIntField(i);
+                batch[i] = sender.recordSend(m);
+            }
+            else if (i % 2 == 0) {
+                ReceiverMessage2 m = ReceiverMessage2.create();
+                m.setIntField(i);
+                batch[i] = sender.recordSend(m);
+            }
+            else {
+                ReceiverMessage3 m = ReceiverMessage3.create();
+                m.setIntField(i);
+                m.setLongField(i);
+                batch[i] = sender.recordSend(m);
+            }
+        }
+
+        // send all but the first and last as an array batch, and the rest as a list batch:
+        sender.sendMessages(batch, 1, batch.length - 2);
+        List<IRogMessage> list = new ArrayList<IRogMessage>();
+        list.add(batch[0]);
+        list.add(batch[batch.length - 1]);
+        sender.sendMessages(list);
+
+        assertEquals("Wrong key for batch sent message", "Receiver1/1", batch[1].getMessageKey());
+        assertEquals("Wrong key for batch sent message", "Receiver3/3_3", batch[3].getMessageKey());
+        assertEquals("Wrong key for batch sent message", "Receiver2/4", batch[4].getMessageKey());
+        assertEquals("Wrong key for list batch sent message", "Receiver1/0", batch[0].getMessageKey());
+
+        sender.waitForTransactionStability(2);
+        receiver.assertExpectedReceipt(5, batch.length);
+    }
+
+    @Test
+    public void testBatchSendWithUnmappedMessageSendsNothing() throws Throwable {
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class);
+
+        ReceiverMessage1 mapped = ReceiverMessage1.create();
+        mapped.setIntField(1);
+        ModelBMessage1 unmapped = ModelBMessage1.create();
+        try {
+            sender.sendMessages(new IRogMessage[] { mapped, unmapped }, 0, 2);
+            fail("Batch containing a message with no channel should have been rejected");
+        }
+        catch (Exception e) {
+            assertTrue("Expected 'no channel associated' failure but got: " + e.getMessage(), e.getMessage().indexOf("no channel associated") >= 0);
+        }
+        assertNull("No message in a rejected batch should have been sent", mapped.getMessageChannel());
+    }
+
     @Test
     public void testMultipleCompatibleFilterProviders() throws Throwable {
         CompatibleChannelFilterApp receiver = createApp("compatibleFilters", "standalone", CompatibleChannelFilterApp.class);
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.aep.annotations.EventHandler;
+import com.neeve.aep.event.AepEngineStartedEvent;
+import com.neeve.rog.IRogMessage;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.toa.CompiledEventDispatcher;
+import com.neeve.toa.TopicOrientedApplication;
+
+/**
+ * Tests for dispatch via compiled event dispatchers generated by the Hornet annotation processor. 
+ */
+public class CompiledEventDispatchTest extends AbstractToaTest {
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class CompiledEventDispatchTestApp extends AbstractToaTestApp {
+        final CountDownLatch engineStartedLatch = new CountDownLatch(1);
+        final List<String> callers = Collections.synchronizedList(new ArrayList<String>());
+
+        @EventHandler
+        public void onForwarderMessage1(ForwarderMessage1 message) {
+            recordCaller();
+            recordReceipt(message);
+        }
+
+        @EventHandler
+        public void onForwarderMessage2(ForwarderMessage2 message) {
+            recordCaller();
+            recordReceipt(message);
+        }
+
+        @EventHandler
+        public void onEngineStarted(AepEngineStartedEvent event) {
+            engineStartedLatch.countDown();
+        }
+
+        /**
+         * Records the class that invoked the calling handler: the compiled dispatcher when it
+         * is installed, otherwise the engine's own dispatch.
+         */
+        private void recordCaller() {
+            final StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+            for (int i = 0; i < stack.length - 1; i++) {
+                if (stack[i].getClassName().equals(CompiledEventDispatchTestApp.class.getName()) && stack[i].getMethodName().startsWith("onForwarderMessage")) {
+                    callers.add(stack[i + 1].getClassName());
+                    return;
+                }
+            }
+            callers.add("unknown");
+        }
+    }
+
+    /**
+     * A handler container with handlers annotated with different attribute values. 
+     */
+    public static class LocalOnlyHandlerContainer {
+        @EventHandler(localOnly = true)
+        public void onForwarderMessage1(ForwarderMessage1 message) {}
+
+        @EventHandler
+        public void onForwarderMessage2(ForwarderMessage2 message) {}
+
+        @EventHandler(localOnly = true)
+        public void onEngineStarted(AepEngineStartedEvent event) {}
+    }
+
+    private static final String DISPATCHER_CLASS_NAME = CompiledEventDispatchTestApp.class.getName() + CompiledEventDispatcher.CLASS_NAME_SUFFIX;
+
+    @Test
+    public void testCompiledEventDispatch() throws Throwable {
+        final Class<?> dispatcherClass = Class.forName(DISPATCHER_CLASS_NAME);
+        assertTrue("Generated dispatcher should extend CompiledEventDispatcher", CompiledEventDispatcher.class.isAssignableFrom(dispatcherClass));
+
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_ENABLE_COMPILED_EVENT_DISPATCH, "true");
+        CompiledEventDispatchTestApp app = createApp(testcaseName.getMethodName(), "standalone", CompiledEventDispatchTestApp.class, env);
+        assertTrue("Engine started event wasn't forwarded by the compiled dispatcher", app.engineStartedLatch.await(5, TimeUnit.SECONDS));
+
+        ArrayList<IRogMessage> toInject = new ArrayList<IRogMessage>();
+        toInject.add(ForwarderMessage1.create());
+        toInject.add(ForwarderMessage2.create());
+        toInject.add(ForwarderMessage1.create());
+        for (IRogMessage message : toInject) {
+            app.getMessageInjector().injectMessage(message);
+        }
+
+        app.waitForMessages(5, toInject.size());
+
+        assertEquals("Didn't get expected number of injected messages", toInject.size(), app.received.size());
+        for (int i = 0; i < toInject.size(); i++) {
+            assertNotNull("Missing message " + i, app.received.get(i));
+            assertSame("Wrong message received by application", toInject.get(i), app.received.get(i));
+        }
+
+        // the handlers must have been invoked directly by the installed compiled dispatcher:
+        assertEquals("Wrong number of handler invocations", toInject.size(), app.callers.size());
+        for (String caller : app.callers) {
+            assertEquals("Handler wasn't invoked by the compiled dispatcher", DISPATCHER_CLASS_NAME, caller);
+        }
+    }
+
+    @Test
+    public void testCompiledDispatcherCopiesHandlerAttributes() throws Throwable {
+        final Class<?> dispatcherClass = Class.forName(LocalOnlyHandlerContainer.class.getName() + CompiledEventDispatcher.CLASS_NAME_SUFFIX);
+
+        int localOnlyMessageHandlers = 0;
+        int messageHandlers = 0;
+        int localOnlyEventHandlers = 0;
+        for (Method method : dispatcherClass.getDeclaredMethods()) {
+            final EventHandler annotation = method.getAnnotation(EventHandler.class);
+            if (annotation == null) {
+                continue;
+            }
+            final Class<?> parameterType = method.getParameterTypes()[0];
+            if (parameterType == AepEngineStartedEvent.class) {
+                assertTrue("Event handler should be local only", annotation.localOnly());
+                localOnlyEventHandlers++;
+            }
+            else if (annotation.localOnly()) {
+                localOnlyMessageHandlers++;
+            }
+            else {
+                messageHandlers++;
+            }
+        }
+
+        // the local only and other message handlers must be dispatched to by separate handlers:
+        assertEquals("Wrong number of local only message handlers", 1, localOnlyMessageHandlers);
+        assertEquals("Wrong number of message handlers", 1, messageHandlers);
+        assertEquals("Wrong number of local only event handlers", 1, localOnlyEventHandlers);
+    }
+
+    @Test
+    public void testNoCompiledDispatchWhenDisabled() throws Throwable {
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_ENABLE_COMPILED_EVENT_DISPATCH, "false");
+        CompiledEventDispatchTestApp app = createApp(testcaseName.getMethodName(), "standalone", CompiledEventDispatchTestApp.class, env);
+        assertTrue("Engine started event wasn't dispatched", app.engineStartedLatch.await(5, TimeUnit.SECONDS));
+
+        app.getMessageInjector().injectMessage(ForwarderMessage1.create());
+        app.getMessageInjector().injectMessage(ForwarderMessage2.create());
+        app.waitForMessages(5, 2);
+
+        assertEquals("Wrong number of handler invocations", 2, app.callers.size());
+        for (String caller : app.callers) {
+            assertFalse("Compiled dispatcher shouldn't be installed when disabled", DISPATCHER_CLASS_NAME.equals(caller));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.aep.annotations.EventHandler;
+import com.neeve.lang.XString;
+import com.neeve.rog.IRogMessage;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.sma.MessageBusBindingFactory;
+import com.neeve.sma.MessageChannel.RawKeyResolutionTable;
+import com.neeve.sma.MessageView;
+import com.neeve.toa.CompiledTopicResolverProvider;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.TopicResolver;
+
+/**
+ * Tests for topic resolution using the compiled topic resolver. 
+ */
+public class CompiledTopicResolutionTest extends AbstractToaTest {
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class SenderApp extends AbstractToaTestApp {
+        public void sendTestMessage(IRogMessage message) {
+            recordSend(message);
+            sendMessage(message);
+        }
+    }
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static final class ReceiverApp extends AbstractToaTestApp {
+        @EventHandler
+        public void onReceiverMessage1(ReceiverMessage1 message) {
+            recordReceipt(message);
+        }
+
+        @EventHandler
+        public void onReceiverMessage3(ReceiverMessage3 message) {
+            recordReceipt(message);
+        }
+    }
+
+    private final Map<String, String> compiledResolutionConfig() {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(TopicOrientedApplication.PROP_ENABLE_COMPILED_TOPIC_RESOLUTION, "true");
+        return config;
+    }
+
+    @Test
+    public void testResolveFromMessageFields() throws Throwable {
+        ReceiverApp receiver = createApp("receiver", "standalone", ReceiverApp.class, compiledResolutionConfig());
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class, compiledResolutionConfig());
+
+        for (int i = 1; i <= 4; i++) {
+            ReceiverMessage1 m1 = ReceiverMessage1.create();
+            m1.setIntField(i);
+            sender.sendTestMessage(m1);
+            assertEquals("Wrong topic for message", "Receiver1/" + i, m1.getMessageKey());
+
+            ReceiverMessage3 m3 = ReceiverMessage3.create();
+            m3.setIntField(i);
+            m3.setLongField(1000L * i);
+            sender.sendTestMessage(m3);
+            assertEquals("Wrong topic for message", "Receiver3/" + i + "_" + (1000L * i), m3.getMessageKey());
+        }
+
+        sender.assertExpectedSends(5, 8);
+        receiver.assertExpectedReceipt(5, 8);
+    }
+
+    @Test
+    public void testResolveDefaultValue() throws Throwable {
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class, compiledResolutionConfig());
+
+        ReceiverMessage4 message = ReceiverMessage4.create();
+        message.setIntField(1);
+        sender.sendTestMessage(message);
+        assertEquals("Default value in channel key was not used", "Receiver4/1_2", message.getMessageKey());
+
+        message = ReceiverMessage4.create();
+        message.setIntField(1);
+        message.setLongField(3);
+        sender.sendTestMessage(message);
+        assertEquals("Message field should take precedence over default value", "Receiver4/1_3", message.getMessageKey());
+    }
+
+    @Test
+    public void testResolveFromKRT() throws Throwable {
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class, compiledResolutionConfig());
+
+        Properties krt = new Properties();
+        krt.put("KRTField", "A");
+        KRTTestMessage message = KRTTestMessage.create();
+        message.setIntField(1);
+        sender.recordSend(message);
+        sender.sendMessage(message, krt);
+        assertEquals("Message key was not resolved using KRT", "KRTTest/1/A", message.getMessageKey());
+
+        RawKeyResolutionTable rawKrt = MessageBusBindingFactory.createRawKeyResolutionTable();
+        rawKrt.put("KRTField", XString.create("B"));
+        message = KRTTestMessage.create();
+        message.setIntField(2);
+        sender.recordSend(message);
+        sender.sendMessage(message, rawKrt);
+        assertEquals("Message key was not resolved using raw KRT", "KRTTest/2/B", message.getMessageKey());
+    }
+
+    @Test
+    public void testUnresolvedVariableFailsSend() throws Throwable {
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class, compiledResolutionConfig());
+
+        KRTTestMessage message = KRTTestMessage.create();
+        message.setIntField(1);
+        try {
+            sender.sendMessage(message);
+            fail("Send with an unresolvable key variable should have failed");
+        }
+        catch (Exception e) {
+            assertTrue("Expected failure to mention the unresolved key variable", e.getMessage().indexOf("KRTField") >= 0);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testResolutionDoesNotAllocate() throws Throwable {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported());
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        ToaService service = ToaService.unmarshal(getClass().getResource("/services/forwarderService.xml"));
+        ToaServiceChannel channel = new ToaServiceChannel(service, "forwarder", "AllocationTestChannel", "Allocation/${intField}/${longField}/${stringField}");
+        channel.setInitiallyResolvedKey(channel.getKey());
+        TopicResolver<MessageView> resolver = (TopicResolver<MessageView>)new CompiledTopicResolverProvider().getTopicResolver(service, channel, ReceiverMessage1.class);
+        resolver.initialize(channel);
+
+        ReceiverMessage1 message = ReceiverMessage1.create();
+        message.setIntField(123456789);
+        message.setLongField(1234567890123L);
+        message.setStringField("VOD.L");
+        assertEquals("Allocation/123456789/1234567890123/VOD.L", resolver.resolveTopic(message, (Properties)null).toString());
+
+        // warm up so that accessors and the topic buffer are sized and compiled:
+        for (int i = 0; i < 20000; i++) {
+            resolver.resolveTopic(message, (Properties)null);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            resolver.resolveTopic(message, (Properties)null);
+        }
+        final long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        message.dispose();
+
+        // allow for a little allocation by the measurement itself:
+        assertTrue("Topic resolution allocated " + allocated + " bytes for 10000 resolutions", allocated < 1024);
+    }
+}
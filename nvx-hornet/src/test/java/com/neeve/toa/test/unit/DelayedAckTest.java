@@ -33,6 +33,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -48,6 +50,8 @@ import com.neeve.sma.MessageChannel.Qos;
 import com.neeve.sma.MessageView;
 import com.neeve.toa.TopicOrientedApplication;
 import com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledger;
+import com.neeve.toa.opt.DelayedAcknowledgmentController.DelayedAcknowledgmentGroup;
+import com.neeve.toa.opt.impl.DelayedAckControllerImpl;
 import com.neeve.toa.service.ToaService;
 import com.neeve.toa.service.ToaServiceChannel;
 
@@ -61,6 +65,23 @@ public class DelayedAckTest extends AbstractToaTest {
         XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_ENABLED_DELAYED_ACK_CONTROLLER, "true");
     }
 
+    private String savedTimeout;
+
+    @Before
+    public void saveProps() {
+        savedTimeout = XRuntime.getProps().getProperty(TopicOrientedApplication.PROP_DELAYED_ACK_CONTROLLER_TIMEOUT);
+    }
+
+    @After
+    public void restoreProps() {
+        if (savedTimeout != null) {
+            XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_DELAYED_ACK_CONTROLLER_TIMEOUT, savedTimeout);
+        }
+        else {
+            XRuntime.getProps().remove(TopicOrientedApplication.PROP_DELAYED_ACK_CONTROLLER_TIMEOUT);
+        }
+    }
+
     @AppHAPolicy(HAPolicy.EventSourcing)
     public static final class SenderApp extends AbstractToaTestApp {
         @AppMain
@@ -133,6 +154,20 @@ public class DelayedAckTest extends AbstractToaTest {
     public static final class ForwarderNoStateSRApp extends ForwarderApp {
     }
 
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static final class ForwarderGroupApp extends ForwarderApp {
+        volatile DelayedAcknowledgmentGroup group;
+
+        @Override
+        public IRogMessage recordReceipt(IRogMessage message) {
+            if (group == null) {
+                group = getDelayedAcknowledgmentController().delayAcknowledgmentGroup(4);
+            }
+            group.join();
+            return super.onlyRecordReceipt(message);
+        }
+    }
+
     @AppHAPolicy(HAPolicy.StateReplication)
     public static final class ForwarderWithStateSRApp extends ForwarderApp {
         @AppStateFactoryAccessor
@@ -227,6 +262,128 @@ public class DelayedAckTest extends AbstractToaTest {
         testDelayedAcknowledgment(ForwarderNoStateSRApp.class);
     }
 
+    @Test
+    public final void testDelayedAcknowledgmentWithPooledMessages() throws Throwable {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES, "true");
+        try {
+            ReceiverApp receiver = createApp("testDelayedAcknowledgmentWithPooledMessagesReceiver", "standalone", ReceiverApp.class);
+            ForwarderApp forwarder = createApp("testDelayedAcknowledgmentWithPooledMessagesForwarder", "standalone", ForwarderESApp.class);
+            SenderApp sender = createApp("testDelayedAcknowledgmentWithPooledMessagesSender", "standalone", SenderApp.class);
+            sender.getEngine().waitForMessagingToStart();
+            sender.assertExpectedSends(5, 4);
+
+            // the second round reuses the acknowledgers released by the first (and their messages, once the engine has released them):
+            for (int round = 1; round <= 2; round++) {
+                assertTrue("Forwarder didn't receive round " + round + " messages", forwarder.waitForMessages(10, 4 * round));
+                forwarder.waitForTransactionStability(2);
+                assertEquals("Wrong number of incomplete transactions for forwarder in round " + round, 4l,
+                             forwarder.getAepEngine().getStats().getNumCommitsStarted() -
+                                     forwarder.getAepEngine().getStats().getNumCommitsCompleted());
+
+                for (DelayedAcknowledger delayedAck : forwarder.delayedAcks) {
+                    delayedAck.acknowledge();
+                }
+                forwarder.delayedAcks.clear();
+                forwarder.waitForTransactionStability(2);
+
+                assertEquals("Wrong number of incomplete transactions for forwarder in round " + round, 0l,
+                             forwarder.getAepEngine().getStats().getNumCommitsStarted() -
+                                     forwarder.getAepEngine().getStats().getNumCommitsCompleted());
+
+                if (round == 1) {
+                    sender.appMain(null);
+                }
+            }
+
+            receiver.waitForMessages(10, 8);
+            assertSentAndReceivedMessageEqual(sender, forwarder);
+            assertSentAndReceivedMessageEqual(forwarder, receiver);
+        }
+        finally {
+            XRuntime.getProps().remove(TopicOrientedApplication.PROP_DELAYED_ACK_CONTROLLER_POOL_MESSAGES);
+        }
+    }
+
+    @Test
+    public final void testDelayedAcknowledgmentGroup() throws Throwable {
+        ReceiverApp receiver = createApp("testDelayedAcknowledgmentGroupReceiver", "standalone", ReceiverApp.class);
+        ForwarderGroupApp forwarder = createApp("testDelayedAcknowledgmentGroupForwarder", "standalone", ForwarderGroupApp.class);
+        SenderApp sender = createApp("testDelayedAcknowledgmentGroupSender", "standalone", SenderApp.class);
+        sender.getEngine().waitForMessagingToStart();
+        sender.assertExpectedSends(5, 4);
+
+        assertTrue("Forwarder didn't receive messages", forwarder.waitForMessages(10, 4));
+        sender.waitForTransactionStability(2);
+        forwarder.waitForTransactionStability(2);
+        receiver.waitForTransactionStability(2);
+
+        assertSentAndReceivedMessageEqual(sender, forwarder);
+        assertSentAndReceivedMessageEqual(forwarder, receiver);
+
+        // forwarder should not have completed transactions since acks have been delayed. 
+        assertEquals("Wrong group size", 4, forwarder.group.size());
+        assertEquals("Wrong number of incomplete transactions for forwarder", 4l,
+                     forwarder.getAepEngine().getStats().getNumCommitsStarted() -
+                             forwarder.getAepEngine().getStats().getNumCommitsCompleted());
+
+        forwarder.group.acknowledge();
+        forwarder.waitForTransactionStability(2);
+
+        // forwarder should now have completed transactions
+        assertEquals("Wrong number of incomplete transactions for forwarder", 0l,
+                     forwarder.getAepEngine().getStats().getNumCommitsStarted() -
+                             forwarder.getAepEngine().getStats().getNumCommitsCompleted());
+
+        try {
+            forwarder.group.acknowledge();
+            fail("Expected an illegal state exception on double acknowledge");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Wrong execption text", "Attempt to acknowledge an already acknowledged delayed acknowledgment group!", e.getMessage());
+        }
+    }
+
+    @Test
+    public final void testDelayedAcknowledgmentTimeout() throws Throwable {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_DELAYED_ACK_CONTROLLER_TIMEOUT, "500");
+        ReceiverApp receiver = createApp("testDelayedAcknowledgmentTimeoutReceiver", "standalone", ReceiverApp.class);
+        ForwarderApp forwarder = createApp("testDelayedAcknowledgmentTimeoutForwarder", "standalone", ForwarderESApp.class);
+        SenderApp sender = createApp("testDelayedAcknowledgmentTimeoutSender", "standalone", SenderApp.class);
+        sender.getEngine().waitForMessagingToStart();
+        sender.assertExpectedSends(5, 4);
+        assertTrue("Receiver didn't receive messages", receiver.waitForMessages(10, 4));
+
+        final DelayedAckControllerImpl controller = (DelayedAckControllerImpl)forwarder.getDelayedAcknowledgmentController();
+        for (int i = 0; i < 100 && controller.getDelayedAcksTimedOut() < 4; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals("Wrong number of timed out delayed acknowledgments", 4, controller.getDelayedAcksTimedOut());
+        assertEquals("Wrong number of pending delayed acknowledgments", 0, controller.getDelayedAcksPending());
+        assertEquals("Timed out delayed acknowledgments should not be pending", 0, controller.getDelayedAckOldestPendingAge());
+
+        // late acknowledgments are ignored:
+        for (DelayedAcknowledger delayedAck : forwarder.delayedAcks) {
+            delayedAck.acknowledge();
+        }
+        forwarder.delayedAcks.clear();
+
+        // the timed out commits are no longer stuck: commits complete in order, so the commits
+        // of a second round can only complete once those of the first have been released:
+        final long completed = forwarder.getAepEngine().getStats().getNumCommitsCompleted();
+        sender.appMain(null);
+        assertTrue("Forwarder didn't receive second round messages", forwarder.waitForMessages(10, 8));
+        for (int i = 0; i < 100 && forwarder.delayedAcks.size() < 4; i++) {
+            Thread.sleep(50);
+        }
+        for (DelayedAcknowledger delayedAck : forwarder.delayedAcks) {
+            delayedAck.acknowledge();
+        }
+        forwarder.delayedAcks.clear();
+        assertTrue("Forwarder's commits didn't complete after its timed out commits", forwarder.waitForTransactionStability(10, completed + 4));
+        assertEquals("Wrong number of timed out delayed acknowledgments", 4, controller.getDelayedAcksTimedOut());
+        assertEquals("Wrong number of pending delayed acknowledgments", 0, controller.getDelayedAcksPending());
+    }
+
     @Test
     public final void testDelayedAcknowledgmentNack() throws Throwable {
         ReceiverApp receiver = createApp("testDelayedAcknowledgmentNackReceiver", "standalone", ReceiverApp.class);
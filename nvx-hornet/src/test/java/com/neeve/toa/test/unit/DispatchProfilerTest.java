@@ -0,0 +1,94 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.aep.annotations.EventHandler;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.opt.DispatchLatencyProfiler;
+
+/**
+ * Tests for the dispatch latency profiler. 
+ */
+public class DispatchProfilerTest extends AbstractToaTest {
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class SenderApp extends AbstractToaTestApp {
+        public void sendTestMessages(int count) {
+            for (int i = 0; i < count; i++) {
+                sendMessage(recordSend(populateMessage(ReceiverMessage1.create())));
+            }
+        }
+    }
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class ReceiverApp extends AbstractToaTestApp {
+        @EventHandler
+        public void onReceiverMessage1(ReceiverMessage1 message) {
+            recordReceipt(message);
+        }
+    }
+
+    @Test
+    public void testProfilerRecordsDispatchWhenEnabled() throws Throwable {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(TopicOrientedApplication.PROP_ENABLE_DISPATCH_PROFILER, "true");
+        ReceiverApp receiver = createApp("receiver", "standalone", ReceiverApp.class, config);
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class);
+
+        DispatchLatencyProfiler profiler = receiver.getDispatchLatencyProfiler();
+        assertNotNull("Profiler should be created when enabled", profiler);
+
+        sender.sendTestMessages(3);
+        receiver.assertExpectedReceipt(5, 3);
+
+        // the handler service time is recorded after the handler returns: 
+        final String expected = "\n" + ReceiverMessage1.class.getName() + ",3,";
+        String dump = profiler.dumpDispatchLatencies();
+        for (int i = 0; i < 50 && dump.indexOf(expected) < 0; i++) {
+            Thread.sleep(100);
+            dump = profiler.dumpDispatchLatencies();
+        }
+        assertTrue("Dispatches were not recorded: " + dump, dump.indexOf(expected) >= 0);
+    }
+
+    @Test
+    public void testProfilerDisabledByDefault() throws Throwable {
+        ReceiverApp receiver = createApp("receiver", "standalone", ReceiverApp.class);
+        SenderApp sender = createApp("sender", "standalone", SenderApp.class);
+        assertNull("Profiler should not be created unless enabled", receiver.getDispatchLatencyProfiler());
+
+        sender.sendTestMessages(3);
+        receiver.assertExpectedReceipt(5, 3);
+        assertNull("Profiler should not be created unless enabled", receiver.getDispatchLatencyProfiler());
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.ci.XRuntime;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
+import com.neeve.toa.spi.ServiceDefinitionLocator;
+import com.neeve.toa.spi.TopicResolver;
+import com.neeve.toa.test.unit.modelB.ModelBMessage1;
+
+/**
+ * Tests resolution of messages on first send with lazy message resolution.
+ */
+public class LazyMessageResolutionTest extends AbstractToaTest {
+
+    private static final class MultiChannelServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(getClass().getResource("/multiChannelTestService.xml"));
+        }
+    }
+
+    /**
+     * Sends {@link ModelBMessage1} (which it doesn't handle) on its primary and secondary 
+     * channels and records the channels for which its topic resolver is looked up.
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class LazyResolutionTestApp extends AbstractToaTestApp {
+        final List<String> resolvedChannels = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean failSecondaryChannel;
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new MultiChannelServiceDefinitionLocator();
+        }
+
+        @Override
+        public TopicResolver<?> getTopicResolver(ToaService service, ToaServiceChannel channel, Class<?> messageClass) {
+            if (messageClass == ModelBMessage1.class) {
+                resolvedChannels.add(channel.getSimpleName());
+                if (failSecondaryChannel && channel.getSimpleName().equals("SecondaryChannel")) {
+                    failSecondaryChannel = false;
+                    throw new IllegalStateException("Simulated topic resolver lookup failure");
+                }
+            }
+            return null;
+        }
+    }
+
+    @Before
+    public void enableLazyMessageResolution() {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_LAZY_MESSAGE_RESOLUTION, "true");
+    }
+
+    @After
+    public void clearLazyMessageResolution() {
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_LAZY_MESSAGE_RESOLUTION);
+    }
+
+    @Test
+    public void testResolutionDeferredToFirstSendAndDoneOnce() throws Throwable {
+        LazyResolutionTestApp app = createApp(testcaseName.getMethodName(), "standalone", LazyResolutionTestApp.class);
+        assertTrue("Message shouldn't be resolved before it is sent: " + app.resolvedChannels, app.resolvedChannels.isEmpty());
+
+        app.sendMessage(ModelBMessage1.create());
+        assertEquals("Message should be resolved for each of its channels on first send", Arrays.asList("PrimaryChannel", "SecondaryChannel"), app.resolvedChannels);
+
+        for (int i = 0; i < 10; i++) {
+            app.sendMessage(ModelBMessage1.create());
+        }
+        assertEquals("Message should only be resolved once", 2, app.resolvedChannels.size());
+    }
+
+    @Test
+    public void testFailedResolutionLeavesMessageUnresolved() throws Throwable {
+        LazyResolutionTestApp app = createApp(testcaseName.getMethodName(), "standalone", LazyResolutionTestApp.class);
+        app.failSecondaryChannel = true;
+        try {
+            app.sendMessage(ModelBMessage1.create());
+            fail("Send should fail when resolving one of the message's channels fails");
+        }
+        catch (IllegalStateException expected) {}
+        assertEquals("Wrong channels resolved", Arrays.asList("PrimaryChannel", "SecondaryChannel"), app.resolvedChannels);
+
+        // the primary channel mustn't have been marked resolved, the whole message is resolved again:
+        app.sendMessage(ModelBMessage1.create());
+        assertEquals("Message should be resolved again after a failed resolution", Arrays.asList("PrimaryChannel", "SecondaryChannel", "PrimaryChannel", "SecondaryChannel"), app.resolvedChannels);
+
+        app.sendMessage(ModelBMessage1.create());
+        assertEquals("Message should only be resolved once it has been resolved successfully", 4, app.resolvedChannels.size());
+    }
+}
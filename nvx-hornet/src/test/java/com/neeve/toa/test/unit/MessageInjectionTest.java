@@ -22,6 +22,7 @@
 package com.neeve.toa.test.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -29,10 +30,14 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -44,6 +49,10 @@ import com.neeve.aep.event.AepMessagingPrestartEvent;
 import com.neeve.rog.IRogMessage;
 import com.neeve.server.app.annotations.AppHAPolicy;
 import com.neeve.sma.MessageViewFactoryRegistry;
+import com.neeve.toa.MessageInjector.InjectionOutcome;
+import com.neeve.toa.MessageInjector.InjectionWatermarkListener;
+import com.neeve.toa.MessageInjector.PeriodicMessageFactory;
+import com.neeve.toa.MessageInjector.ScheduledInjection;
 import com.neeve.toa.ToaException;
 import com.neeve.toa.TopicOrientedApplication;
 import com.neeve.toa.test.unit.injectiontests.ConflictingFactoryMessages1;
@@ -74,6 +83,53 @@ public class MessageInjectionTest extends AbstractToaTest {
         }
     }
 
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class DispatchThreadInjectionTestApp extends AbstractToaTestApp {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        volatile long injectingCommit;
+        volatile long commitsCompletedOnInjectedReceipt = -1;
+
+        @EventHandler
+        public void onForwarderMessage1(ForwarderMessage1 message) {
+            events.add("handling ForwarderMessage1");
+            recordReceipt(message);
+            getMessageInjector().injectMessage(ForwarderMessage2.create());
+            events.add("injected ForwarderMessage2");
+            injectingCommit = getEngine().getStats().getNumCommitsStarted() + 1;
+            events.add("handled ForwarderMessage1");
+        }
+
+        @EventHandler
+        public void onForwarderMessage2(ForwarderMessage2 message) {
+            events.add("handling ForwarderMessage2");
+            commitsCompletedOnInjectedReceipt = getEngine().getStats().getNumCommitsCompleted();
+            recordReceipt(message);
+        }
+    }
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class DisabledDispatchThreadInjectionTestApp extends AbstractToaTestApp {
+        volatile Throwable injectionError;
+
+        @EventHandler
+        public void onForwarderMessage1(ForwarderMessage1 message) {
+            recordReceipt(message);
+            ForwarderMessage2 injected = ForwarderMessage2.create();
+            try {
+                getMessageInjector().injectMessage(injected);
+            }
+            catch (UnsupportedOperationException e) {
+                injectionError = e;
+                injected.dispose();
+            }
+        }
+
+        @EventHandler
+        public void onForwarderMessage2(ForwarderMessage2 message) {
+            recordReceipt(message);
+        }
+    }
+
     @AppHAPolicy(HAPolicy.EventSourcing)
     public static class DefaultInjectionDelayTestApp extends AbstractToaTestApp {
         CountDownLatch firstMessageReceivedLatch = new CountDownLatch(1);
@@ -212,6 +268,245 @@ public class MessageInjectionTest extends AbstractToaTest {
         }
     }
 
+    @Test
+    public void testInjectionFromMessageHandler() throws Throwable {
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_ENABLE_DISPATCH_INJECTION, "true");
+        DispatchThreadInjectionTestApp app = createApp(testcaseName.getMethodName(), "standalone", DispatchThreadInjectionTestApp.class, env);
+        app.getMessageInjector().injectMessage(ForwarderMessage1.create());
+
+        app.waitForMessages(10, 2);
+
+        assertEquals("Didn't get expected number of messages", 2, app.received.size());
+        assertTrue("Wrong first message received by application", app.received.get(0) instanceof ForwarderMessage1);
+        assertTrue("Wrong second message received by application", app.received.get(1) instanceof ForwarderMessage2);
+        assertEquals("Wrong order of handling and injection",
+                     Arrays.asList("handling ForwarderMessage1", "injected ForwarderMessage2", "handled ForwarderMessage1", "handling ForwarderMessage2"),
+                     new ArrayList<String>(app.events));
+        assertTrue("Message injected from handler was dispatched before the injecting transaction completed (injected in commit " + app.injectingCommit + ", " + app.commitsCompletedOnInjectedReceipt + " commits completed)",
+                   app.commitsCompletedOnInjectedReceipt >= app.injectingCommit);
+    }
+
+    @Test
+    public void testInjectionFromMessageHandlerRequiresEnabling() throws Throwable {
+        DisabledDispatchThreadInjectionTestApp app = createApp(testcaseName.getMethodName(), "standalone", DisabledDispatchThreadInjectionTestApp.class);
+        app.getMessageInjector().injectMessage(ForwarderMessage1.create());
+
+        assertTrue("App didn't receive injected message", app.waitForMessages(10, 1));
+        Thread.sleep(500);
+        assertEquals("Message injected from handler shouldn't have been dispatched", 1, app.receivedMessageCount);
+        assertNotNull("Injection from a message handler should fail unless enabled", app.injectionError);
+        assertTrue("Unexpected error: " + app.injectionError.getMessage(), app.injectionError.getMessage().indexOf(TopicOrientedApplication.PROP_ENABLE_DISPATCH_INJECTION) >= 0);
+    }
+
+    @Test
+    public void testScheduledInjection() throws Throwable {
+        MessageInjectionTestApp app = createApp(testcaseName.getMethodName(), "standalone", MessageInjectionTestApp.class);
+
+        // the later injection spans more than one rotation of the lowest wheel level so is cascaded:
+        ScheduledInjection later = app.getMessageInjector().scheduleInjection(ForwarderMessage1.create(), 100000);
+        ScheduledInjection sooner = app.getMessageInjector().scheduleInjection(ForwarderMessage2.create(), 20000);
+        ScheduledInjection canceled = app.getMessageInjector().scheduleInjection(ForwarderMessage1.create(), 50000);
+        assertTrue("Scheduled injection wasn't canceled", canceled.cancel());
+        assertFalse("Canceled injection was canceled twice", canceled.cancel());
+        assertTrue("Canceled injection isn't done", canceled.isDone());
+
+        assertTrue("App didn't receive scheduled messages", app.waitForMessages(10, 2));
+        assertTrue("Performed injection isn't done", sooner.isDone() && later.isDone());
+        assertFalse("Performed injection was canceled", later.cancel());
+        assertEquals("Expected ForwarderMessage2 to be the first message", ForwarderMessage2.class, app.received.get(0).getClass());
+        assertEquals("Expected ForwarderMessage1 to be the second message", ForwarderMessage1.class, app.received.get(1).getClass());
+
+        Thread.sleep(200);
+        assertEquals("Canceled injection was performed", 2, app.receivedMessageCount);
+    }
+
+    @Test
+    public void testPeriodicInjection() throws Throwable {
+        MessageInjectionTestApp app = createApp(testcaseName.getMethodName(), "standalone", MessageInjectionTestApp.class);
+        // don't retain received messages so that the injected message can be reused:
+        app.setHoldMessages(false);
+
+        final AtomicInteger created = new AtomicInteger();
+        ScheduledInjection periodic = app.getMessageInjector().injectPeriodically(new PeriodicMessageFactory() {
+
+            @Override
+            public IRogMessage createMessage() {
+                created.incrementAndGet();
+                return ForwarderMessage1.create();
+            }
+        }, 20000);
+
+        assertTrue("App didn't receive periodic messages", app.waitForMessages(10, 5));
+        assertTrue("Periodic injection wasn't stopped", periodic.cancel());
+        assertTrue("Stopped periodic injection isn't done", periodic.isDone());
+        assertTrue("Periodic injection didn't reuse its message (created=" + created.get() + ", received=" + app.receivedMessageCount + ")", created.get() < app.receivedMessageCount);
+
+        // allow for a period that was firing when canceled:
+        Thread.sleep(100);
+        final int received = app.receivedMessageCount;
+        Thread.sleep(200);
+        assertEquals("Stopped periodic injection was performed", received, app.receivedMessageCount);
+    }
+
+    @Test
+    public void testFlowControlledInjection() throws Throwable {
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_FLOW_CONTROLLED_INJECTION_CAPACITY, "4");
+        env.put(TopicOrientedApplication.PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK, "3");
+        env.put(TopicOrientedApplication.PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK, "1");
+        DefaultInjectionDelayTestApp app = createApp(testcaseName.getMethodName(), "standalone", DefaultInjectionDelayTestApp.class, env);
+
+        final List<String> notifications = Collections.synchronizedList(new ArrayList<String>());
+        app.setInjectionWatermarkListener(new InjectionWatermarkListener() {
+
+            @Override
+            public void onHighWatermark(int depth) {
+                notifications.add("high:" + depth);
+            }
+
+            @Override
+            public void onLowWatermark(int depth) {
+                notifications.add("low:" + depth);
+            }
+        });
+
+        // Wait for first message handler to block so the following
+        // injections wait in the engine's input queue:
+        app.firstMessageReceivedLatch.await(30, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("Wrong outcome for injection " + i, InjectionOutcome.Accepted, app.tryInjectMessage(ForwarderMessage1.create()));
+        }
+        ForwarderMessage1 rejected = ForwarderMessage1.create();
+        assertEquals("Injection beyond capacity wasn't rejected", InjectionOutcome.RejectedFull, app.tryInjectMessage(rejected));
+        rejected.dispose();
+        assertEquals("Wrong injection queue depth", 4, app.getInjectionQueueDepth());
+        assertEquals("Wrong watermark notifications", Arrays.asList("high:3"), new ArrayList<String>(notifications));
+
+        // Release App From First Message handler. 
+        app.firstMessageReleaseLatch.countDown();
+
+        assertTrue("App didn't receive injected messages", app.waitForMessages(10, 4));
+        assertEquals("Wrong injection queue depth", 0, app.getInjectionQueueDepth());
+        assertEquals("Wrong watermark notifications", Arrays.asList("high:3", "low:1"), new ArrayList<String>(notifications));
+    }
+
+    @Test
+    public void testConcurrentFlowControlledInjection() throws Throwable {
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_FLOW_CONTROLLED_INJECTION_CAPACITY, "16");
+        env.put(TopicOrientedApplication.PROP_FLOW_CONTROLLED_INJECTION_HIGH_WATERMARK, "12");
+        env.put(TopicOrientedApplication.PROP_FLOW_CONTROLLED_INJECTION_LOW_WATERMARK, "4");
+        final DefaultInjectionDelayTestApp app = createApp(testcaseName.getMethodName(), "standalone", DefaultInjectionDelayTestApp.class, env);
+        app.firstMessageReleaseLatch.countDown();
+
+        // producers aren't serialized, so their messages may be enqueued out of sequence order:
+        final int producers = 4;
+        final int injectionsPerProducer = 500;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(testcaseName.getMethodName() + "-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < injectionsPerProducer; j++) {
+                            final ForwarderMessage1 message = ForwarderMessage1.create();
+                            InjectionOutcome outcome;
+                            while ((outcome = app.tryInjectMessage(message)) == InjectionOutcome.RejectedFull) {
+                                Thread.yield();
+                            }
+                            assertEquals("Wrong outcome for injection", InjectionOutcome.Accepted, outcome);
+                        }
+                    }
+                    catch (Throwable thrown) {
+                        failures.add(thrown);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+        assertEquals("Producers failed: " + failures, 0, failures.size());
+
+        assertTrue("App didn't receive injected messages", app.waitForMessages(30, producers * injectionsPerProducer));
+        assertEquals("Wrong injection queue depth", 0, app.getInjectionQueueDepth());
+    }
+
+    @Test
+    public void testInjectionLanes() throws Throwable {
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_INJECTION_LANES, "2");
+        env.put(TopicOrientedApplication.PROP_INJECTION_LANE_CAPACITY, "8");
+        final MessageInjectionTestApp app = createApp(testcaseName.getMethodName(), "standalone", MessageInjectionTestApp.class, env);
+        app.setHoldMessages(false);
+
+        // more producers than lanes, the last producer to inject injects directly:
+        final int producerCount = 3;
+        final int messagesPerProducer = 200;
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            producers[i] = new Thread("InjectionLaneProducer-" + i) {
+                @Override
+                public void run() {
+                    for (int j = 0; j < messagesPerProducer; j++) {
+                        app.getMessageInjector().injectMessage(j % 2 == 0 ? ForwarderMessage1.create() : ForwarderMessage2.create());
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join(30000);
+        }
+
+        assertTrue("App didn't receive injected messages", app.waitForMessages(30, producerCount * messagesPerProducer));
+        assertEquals("Wrong number of messages received", producerCount * messagesPerProducer, app.receivedMessageCount);
+    }
+
+    @Test
+    public void testNonBlockingInjectionIntoFullLaneReturnsPromptly() throws Throwable {
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_INJECTION_LANES, "1");
+        env.put(TopicOrientedApplication.PROP_INJECTION_LANE_CAPACITY, "2");
+        final DefaultInjectionDelayTestApp app = createApp(testcaseName.getMethodName(), "standalone", DefaultInjectionDelayTestApp.class, env);
+
+        // block the dispatch thread so that the engine's input queue, and then the tiny lane, fill up:
+        app.firstMessageReceivedLatch.await(30, TimeUnit.SECONDS);
+
+        final int messageCount = 10000;
+        Thread producer = new Thread("InjectionLaneProducer") {
+            @Override
+            public void run() {
+                for (int i = 0; i < messageCount; i++) {
+                    ForwarderMessage1 message = ForwarderMessage1.create();
+                    message.setIntField(i);
+                    app.getMessageInjector().injectMessage(message, true);
+                }
+            }
+        };
+        producer.start();
+        producer.join(10000);
+        final boolean producerBlocked = producer.isAlive();
+
+        // release the dispatch thread (and the producer if it is stuck):
+        app.firstMessageReleaseLatch.countDown();
+        producer.join(30000);
+        assertFalse("Non blocking injections into a full lane should not wait for space in the lane", producerBlocked);
+
+        assertTrue("App didn't receive injected messages", app.waitForMessages(30, messageCount));
+        assertEquals("Wrong number of messages received", messageCount, app.received.size());
+        boolean[] seen = new boolean[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            int index = ((ForwarderMessage1)app.received.get(i)).getIntField();
+            assertFalse("Message " + index + " received more than once", seen[index]);
+            seen[index] = true;
+        }
+    }
+
     @Test
     public void testNonBlockingInjection() throws Throwable {
         SingleAppToaServer<MessageInjectionTestApp> server = createServer(testcaseName.getMethodName(), "standalone", MessageInjectionTestApp.class);
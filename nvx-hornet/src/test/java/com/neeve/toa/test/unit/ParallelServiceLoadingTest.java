@@ -0,0 +1,162 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.ci.XRuntime;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.sma.MessageChannel.Qos;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
+import com.neeve.toa.spi.ChannelQosProvider;
+import com.neeve.toa.spi.ServiceDefinitionLocator;
+
+/**
+ * Tests that loading services in parallel resolves duplicate services and channel 
+ * collisions exactly as loading them sequentially does. 
+ */
+public class ParallelServiceLoadingTest extends AbstractToaTest {
+
+    private static final class DuplicateServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(getClass().getResource("/services/forwarderService.xml"));
+            urls.add(getClass().getResource("/duplicateForwarderService.xml"));
+            urls.add(getClass().getResource("/services/receiverService.xml"));
+        }
+    }
+
+    private static final class CollidingServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(getClass().getResource("/services/receiverService.xml"));
+            urls.add(getClass().getResource("/services/forwarderService.xml"));
+            urls.add(getClass().getResource("/conflictingForwarderService.xml"));
+        }
+    }
+
+    /**
+     * Records the service channels that messaging is configured with in the order in 
+     * which they are configured.
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class DuplicateServiceTestApp extends AbstractToaTestApp implements ChannelQosProvider {
+        final List<String> configuredChannels = new ArrayList<String>();
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new DuplicateServiceDefinitionLocator();
+        }
+
+        @Override
+        public Qos getChannelQos(ToaService service, ToaServiceChannel channel) {
+            configuredChannels.add(service.getName() + "/" + channel.getSimpleName() + "=" + channel.getKey());
+            return null;
+        }
+    }
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class CollidingServiceTestApp extends AbstractToaTestApp {
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new CollidingServiceDefinitionLocator();
+        }
+    }
+
+    private static final void setParallelServiceLoading(final boolean parallel) {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING, String.valueOf(parallel));
+    }
+
+    @After
+    public void clearParallelServiceLoading() {
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_PARALLEL_SERVICE_LOADING);
+    }
+
+    private final String loadCollidingServices(final String appName) throws Throwable {
+        try {
+            createApp(appName, "standalone", CollidingServiceTestApp.class);
+        }
+        catch (Exception e) {
+            return e.getMessage();
+        }
+        fail("Shouldn't be able to start application with colliding service channels.");
+        return null;
+    }
+
+    @Test
+    public void testParallelLoadingResolvesDuplicateServicesAsSequential() throws Throwable {
+        setParallelServiceLoading(false);
+        DuplicateServiceTestApp sequential = createApp(testcaseName.getMethodName() + "Sequential", "standalone", DuplicateServiceTestApp.class);
+        setParallelServiceLoading(true);
+        DuplicateServiceTestApp parallel = createApp(testcaseName.getMethodName() + "Parallel", "standalone", DuplicateServiceTestApp.class);
+
+        assertFalse("No channels were configured", sequential.configuredChannels.isEmpty());
+        assertEquals("Parallel loading configured different channels (or in a different order)", sequential.configuredChannels, parallel.configuredChannels);
+
+        // the first of a set of duplicate services in locator order is used:
+        assertTrue("Expected the first located forwarder service to be used: " + parallel.configuredChannels, parallel.configuredChannels.contains("com.neeve.toa.test.unit.ForwarderService/ForwarderChannel1=Forwarder1"));
+        for (String channel : parallel.configuredChannels) {
+            assertFalse("The duplicate forwarder service shouldn't be used: " + channel, channel.endsWith("=Duplicate1"));
+        }
+    }
+
+    @Test
+    public void testParallelLoadingReportsChannelCollisionAsSequential() throws Throwable {
+        setParallelServiceLoading(false);
+        final String sequential = loadCollidingServices(testcaseName.getMethodName() + "Sequential");
+        setParallelServiceLoading(true);
+        final String parallel = loadCollidingServices(testcaseName.getMethodName() + "Parallel");
+
+        assertNotNull("Sequential loading didn't report the collision", sequential);
+        assertTrue("Wrong error for service channel collision: " + sequential, sequential.indexOf("Service channel name collision detected") >= 0);
+        assertEquals("Parallel loading reported the collision differently", sequential, parallel);
+
+        // services are processed in locator order, so the later service is reported as colliding with the earlier:
+        assertTrue("Collision should be reported against the services in locator order: " + parallel,
+                   parallel.indexOf("service 'com.neeve.toa.test.unit2.ForwarderService and service 'com.neeve.toa.test.unit.ForwarderService'") >= 0);
+    }
+}
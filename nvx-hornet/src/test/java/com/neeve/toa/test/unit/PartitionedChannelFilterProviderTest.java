@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.neeve.toa.opt.PartitionedChannelFilterProvider;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+
+/**
+ * Tests for {@link PartitionedChannelFilterProvider}
+ */
+public class PartitionedChannelFilterProviderTest {
+
+    @Test
+    public void testChannelFilter() throws Exception {
+        final ToaService service = ToaService.unmarshal(getClass().getResource("/services/forwarderService.xml"));
+        final ToaServiceChannel partitioned = new ToaServiceChannel(service, "forwarder", "OrdersChannel", "orders/${Partition}/${stringField}");
+        final ToaServiceChannel partitionedWithDefault = new ToaServiceChannel(service, "forwarder", "OrdersChannel2", "orders/${Partition::0}");
+        final ToaServiceChannel unpartitioned = new ToaServiceChannel(service, "forwarder", "TradesChannel", "trades/${stringField}");
+
+        final PartitionedChannelFilterProvider provider = new PartitionedChannelFilterProvider("Partition", 8, 5, 1);
+        assertEquals("Partition=1|5", provider.getChannelFilter(service, partitioned));
+        assertEquals("Partition=1|5", provider.getChannelFilter(service, partitionedWithDefault));
+        assertNull("Unpartitioned channel should not be filtered", provider.getChannelFilter(service, unpartitioned));
+
+        final PartitionedChannelFilterProvider byRegion = PartitionedChannelFilterProvider.create("Region", 4, " 2 ");
+        assertEquals("Partition is keyed by a different variable", null, byRegion.getChannelFilter(service, partitioned));
+        assertEquals("Region=2", byRegion.getChannelFilter(service, new ToaServiceChannel(service, "forwarder", "RegionChannel", "${Region}/orders")));
+    }
+
+    @Test
+    public void testCreateFromConfiguration() {
+        final PartitionedChannelFilterProvider provider = PartitionedChannelFilterProvider.create("Partition", 16, "12, 4,0");
+        assertArrayEquals(new int[] { 0, 4, 12 }, provider.getPartitions());
+        assertEquals(16, provider.getPartitionCount());
+        assertTrue(provider.owns(4));
+        assertFalse(provider.owns(5));
+
+        final String[] invalid = new String[] { null, "", "1,x", "16", "-1", "1,1" };
+        for (String partitions : invalid) {
+            try {
+                PartitionedChannelFilterProvider.create("Partition", 16, partitions);
+                fail("Partitions '" + partitions + "' should be rejected");
+            }
+            catch (IllegalArgumentException expected) {}
+        }
+    }
+
+    @Test
+    public void testPartitionOf() {
+        final int count = 8;
+        final int[] owned = new int[count];
+        for (int i = 0; i < 8000; i++) {
+            final int partition = PartitionedChannelFilterProvider.partitionOf(Long.valueOf(i), count);
+            assertTrue("Partition " + partition + " out of range", partition >= 0 && partition < count);
+            assertEquals("Integral keys should be assigned by value", partition, PartitionedChannelFilterProvider.partitionOf(Integer.valueOf(i), count));
+            owned[partition]++;
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue("Partition " + i + " owns too few keys (" + owned[i] + ")", owned[i] > 800);
+        }
+        assertEquals(0, PartitionedChannelFilterProvider.partitionOf("account-1", 1));
+    }
+}
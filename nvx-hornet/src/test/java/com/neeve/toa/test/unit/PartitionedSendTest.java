@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URL;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.ci.XRuntime;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.opt.PartitionedChannelFilterProvider;
+import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
+import com.neeve.toa.spi.ServiceDefinitionLocator;
+
+/**
+ * Tests the resolution of the partition of messages sent on partitioned channels. 
+ */
+public class PartitionedSendTest extends AbstractToaTest {
+    private static final int PARTITION_COUNT = 4;
+    private static final String PARTITION_FIELD = "stringField";
+
+    private static final class PartitionedServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(getClass().getResource("/partitionedService.xml"));
+        }
+    }
+
+    /**
+     * An application that only sends on partitioned channels. 
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class PartitionSenderApp extends AbstractToaTestApp {
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new PartitionedServiceDefinitionLocator();
+        }
+    }
+
+    @Before
+    public void enablePartitioning() {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_PARTITION_COUNT, String.valueOf(PARTITION_COUNT));
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_PARTITION_FIELD, PARTITION_FIELD);
+    }
+
+    @After
+    public void clearPartitioning() {
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_PARTITION_COUNT);
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_PARTITION_FIELD);
+    }
+
+    @Test
+    public void testPartitionResolvedInTopic() throws Throwable {
+        // no partitions are configured: the sender doesn't own any
+        PartitionSenderApp sender = createApp(testcaseName.getMethodName(), "standalone", PartitionSenderApp.class);
+
+        for (int i = 0; i < 8; i++) {
+            final String key = "account-" + i;
+            ForwarderMessage1 message = ForwarderMessage1.create();
+            message.setStringField(key);
+            message.acquire();
+            sender.sendMessage(message);
+            assertEquals("Partitioned channel topic should contain the message's partition", "orders/" + PartitionedChannelFilterProvider.partitionOf(key, PARTITION_COUNT) + "/" + key, message.getMessageKey());
+            message.dispose();
+        }
+
+        // unpartitioned channels are resolved as usual: 
+        ForwarderMessage2 unpartitioned = ForwarderMessage2.create();
+        unpartitioned.setStringField("account-0");
+        unpartitioned.acquire();
+        sender.sendMessage(unpartitioned);
+        assertEquals("trades/account-0", unpartitioned.getMessageKey());
+        unpartitioned.dispose();
+    }
+}
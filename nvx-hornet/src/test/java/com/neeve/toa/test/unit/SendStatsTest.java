@@ -0,0 +1,240 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.aep.annotations.EventHandler;
+import com.neeve.aep.event.AepMessagingPrestartEvent;
+import com.neeve.lang.XString;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.server.mon.SrvMonAppStats;
+import com.neeve.server.mon.SrvMonHeartbeatMessage;
+import com.neeve.server.mon.SrvMonUserCounterStat;
+import com.neeve.server.mon.SrvMonUserSeriesStat;
+import com.neeve.sma.MessageChannel.RawKeyResolutionTable;
+import com.neeve.toa.ToaException;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.AbstractTopicResolver;
+import com.neeve.toa.spi.TopicResolver;
+
+/**
+ * Tests for per message type send stats. 
+ */
+public class SendStatsTest extends AbstractToaTest {
+
+    private static final String MESSAGE1_STATS = ".ReceiverChannel1.ReceiverMessage1.";
+    private static final String MESSAGE2_STATS = ".ReceiverChannel2.ReceiverMessage2.";
+
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class SendStatsApp extends AbstractToaTestApp {
+        // the send stats reported in heartbeats, by name with the 'hornet.send.{bus}' prefix stripped:
+        final Map<String, Long> counters = new ConcurrentHashMap<String, Long>();
+        final Map<String, Boolean> series = new ConcurrentHashMap<String, Boolean>();
+        volatile int resolutions;
+
+        @EventHandler
+        public void onHeartbeat(SrvMonHeartbeatMessage message) {
+            for (SrvMonAppStats appStats : message.getAppsStats()) {
+                if (!appStats.getAppName().equals(getEngine().getName()) || appStats.getUserStats() == null) {
+                    continue;
+                }
+                for (SrvMonUserCounterStat counter : appStats.getUserStats().getCounters()) {
+                    if (counter.getName().startsWith("hornet.send.")) {
+                        counters.put(stripBus(counter.getName()), counter.getCount());
+                    }
+                }
+                if (appStats.getUserStats().getSeries() != null) {
+                    for (SrvMonUserSeriesStat stat : appStats.getUserStats().getSeries()) {
+                        if (stat.getName().startsWith("hornet.send.")) {
+                            series.put(stripBus(stat.getName()), Boolean.TRUE);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Resolves the topic of ReceiverMessage1 from its int field, failing for negative values.
+         */
+        @Override
+        public TopicResolver<?> getTopicResolver(ToaService service, ToaServiceChannel channel, Class<?> messageClass) {
+            if (messageClass == ReceiverMessage1.class) {
+                return new AbstractTopicResolver<ReceiverMessage1>() {
+                    final XString keyBuilder = XString.create(32, true, true);
+
+                    @Override
+                    public XString resolveTopic(ReceiverMessage1 message, RawKeyResolutionTable krt) {
+                        return resolve(message);
+                    }
+
+                    @Override
+                    public XString resolveTopic(ReceiverMessage1 message, Properties krt) {
+                        return resolve(message);
+                    }
+
+                    private XString resolve(ReceiverMessage1 message) {
+                        if (message.getIntField() < 0) {
+                            throw new IllegalArgumentException("negative int field");
+                        }
+                        keyBuilder.clear();
+                        keyBuilder.append("Receiver1/");
+                        keyBuilder.append(message.getIntField());
+                        resolutions++;
+                        return keyBuilder;
+                    }
+                };
+            }
+            return null;
+        }
+
+        private static String stripBus(final String name) {
+            final int channelStart = name.indexOf('.', "hornet.send.".length());
+            return channelStart < 0 ? name : name.substring(channelStart);
+        }
+
+        /**
+         * Waits for a send counter to be reported in a heartbeat with the given count.
+         */
+        public boolean waitForCounter(final int seconds, final String name, final long count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + seconds * 1000l;
+            while (System.currentTimeMillis() < deadline) {
+                final Long reported = counters.get(name);
+                if (reported != null && reported.longValue() == count) {
+                    return true;
+                }
+                Thread.sleep(100);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Attempts a send before the application's channels are up.
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class ChannelNotReadyApp extends SendStatsApp {
+        volatile ToaException notReadyException;
+
+        @EventHandler
+        public void onMessagingPrestart(AepMessagingPrestartEvent event) {
+            final ReceiverMessage1 message = ReceiverMessage1.create();
+            message.setIntField(1);
+            try {
+                sendMessage(message);
+            }
+            catch (ToaException e) {
+                notReadyException = e;
+                message.dispose();
+            }
+        }
+    }
+
+    private final Map<String, String> sendStatsConfig() {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(TopicOrientedApplication.PROP_ENABLE_SEND_STATS, "true");
+        config.put("nv.server.stats.enable", "true");
+        config.put("nv.server.stats.interval", "1000");
+        return config;
+    }
+
+    @Test
+    public void testSendStats() throws Throwable {
+        SendStatsApp sender = createApp(testcaseName.getMethodName(), "standalone", SendStatsApp.class, sendStatsConfig());
+
+        for (int i = 0; i < 3; i++) {
+            ReceiverMessage1 message = ReceiverMessage1.create();
+            message.setIntField(i);
+            sender.sendMessage(message);
+        }
+        ReceiverMessage2 message = ReceiverMessage2.create();
+        message.setIntField(1);
+        sender.sendMessage(message);
+
+        assertTrue("Didn't get message1 sends in heartbeat: " + sender.counters, sender.waitForCounter(30, MESSAGE1_STATS + "sends", 3));
+        assertTrue("Didn't get message2 sends in heartbeat: " + sender.counters, sender.waitForCounter(30, MESSAGE2_STATS + "sends", 1));
+        assertEquals("Unexpected channel not ready count", Long.valueOf(0), sender.counters.get(MESSAGE1_STATS + "channelNotReady"));
+        assertEquals("Unexpected resolver failure count", Long.valueOf(0), sender.counters.get(MESSAGE1_STATS + "resolverFailures"));
+    }
+
+    @Test
+    public void testTopicResolutionStats() throws Throwable {
+        SendStatsApp sender = createApp(testcaseName.getMethodName(), "standalone", SendStatsApp.class, sendStatsConfig());
+
+        for (int i = 0; i < 3; i++) {
+            ReceiverMessage1 message = ReceiverMessage1.create();
+            message.setIntField(i);
+            sender.sendMessage(message);
+        }
+        assertEquals("Topics weren't resolved by the application's topic resolver", 3, sender.resolutions);
+
+        assertTrue("Didn't get message1 sends in heartbeat: " + sender.counters, sender.waitForCounter(30, MESSAGE1_STATS + "sends", 3));
+        assertTrue("Topic resolution stats weren't reported: " + sender.series.keySet(), sender.series.containsKey(MESSAGE1_STATS + "topicResolution"));
+        assertEquals("Unexpected resolver failure count", Long.valueOf(0), sender.counters.get(MESSAGE1_STATS + "resolverFailures"));
+    }
+
+    @Test
+    public void testResolverFailureStats() throws Throwable {
+        SendStatsApp sender = createApp(testcaseName.getMethodName(), "standalone", SendStatsApp.class, sendStatsConfig());
+
+        for (int i = 0; i < 2; i++) {
+            ReceiverMessage1 message = ReceiverMessage1.create();
+            message.setIntField(-1);
+            try {
+                sender.sendMessage(message);
+                fail("Send should fail when the topic resolver throws");
+            }
+            catch (ToaException e) {
+                assertTrue("Unexpected send failure: " + e.getMessage(), e.getMessage().startsWith("Error resolving topic for"));
+                message.dispose();
+            }
+        }
+        ReceiverMessage1 message = ReceiverMessage1.create();
+        message.setIntField(1);
+        sender.sendMessage(message);
+
+        assertTrue("Didn't get resolver failures in heartbeat: " + sender.counters, sender.waitForCounter(30, MESSAGE1_STATS + "resolverFailures", 2));
+        assertTrue("Didn't get message1 sends in heartbeat: " + sender.counters, sender.waitForCounter(30, MESSAGE1_STATS + "sends", 1));
+        assertEquals("Unexpected channel not ready count", Long.valueOf(0), sender.counters.get(MESSAGE1_STATS + "channelNotReady"));
+    }
+
+    @Test
+    public void testChannelNotReadyStats() throws Throwable {
+        ChannelNotReadyApp sender = createApp(testcaseName.getMethodName(), "standalone", ChannelNotReadyApp.class, sendStatsConfig());
+
+        assertTrue("Didn't get channel not ready count in heartbeat: " + sender.counters, sender.waitForCounter(30, MESSAGE1_STATS + "channelNotReady", 1));
+        assertNotNull("Send before the channel was up should have failed", sender.notReadyException);
+        assertTrue("Unexpected send failure: " + sender.notReadyException.getMessage(), sender.notReadyException.getMessage().indexOf("is not ready for messaging") >= 0);
+        assertEquals("Failed send shouldn't be counted as sent", Long.valueOf(0), sender.counters.get(MESSAGE1_STATS + "sends"));
+        assertEquals("Unexpected resolver failure count", Long.valueOf(0), sender.counters.get(MESSAGE1_STATS + "resolverFailures"));
+    }
+}
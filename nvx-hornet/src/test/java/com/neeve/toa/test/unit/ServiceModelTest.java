@@ -22,24 +22,46 @@
 package com.neeve.toa.test.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import org.junit.Test;
 
+import com.neeve.adm.AdmMessage;
+import com.neeve.adm.AdmModel;
 import com.neeve.ci.XRuntime;
 import com.neeve.toa.DefaultServiceDefinitionLocator;
 import com.neeve.toa.service.ToaService;
 import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.service.ToaServiceDiff;
+import com.neeve.toa.service.ToaServiceLoadStats;
+import com.neeve.toa.service.ToaServiceModelCache;
 import com.neeve.toa.service.ToaServiceToRole;
 import com.neeve.toa.test.unit.modelA.AmbiguouslyNamedMessage;
 import com.neeve.toa.test.unit.modelA.ModelAMessage1;
 import com.neeve.toa.test.unit.modelB.ModelBMessage1;
+import com.neeve.toa.tools.ServiceIndexGenerator;
 
 /**
  * 
@@ -101,6 +123,150 @@ public class ServiceModelTest {
         assertEquals("Channel name should be prefix with service name", expectedChannelName, channel.getName());
     }
 
+    @Test
+    public void testMultipleChannels() throws Exception {
+        ToaService service = ToaService.unmarshal(getClass().getResource("/multiChannelTestService.xml"));
+
+        ToaServiceToRole role = service.getToRole("ServiceB");
+        assertNotNull("Expected to find 'ServiceB' role", role);
+        List<ToaServiceChannel> channels = role.getChannels(ModelBMessage1.class.getName());
+        assertEquals("Message should be mapped to 2 channels", 2, channels.size());
+        assertEquals("Wrong primary channel", "PrimaryChannel", channels.get(0).getSimpleName());
+        assertEquals("Wrong additional channel", "SecondaryChannel", channels.get(1).getSimpleName());
+        assertEquals("getChannel should return the primary channel", channels.get(0), role.getChannel(ModelBMessage1.class.getName()));
+
+        role = service.getToRole("ServiceA");
+        assertNotNull("Expected to find 'ServiceA' role", role);
+        channels = role.getChannels(ModelAMessage1.class.getName());
+        assertEquals("Message should be mapped to 1 channel", 1, channels.size());
+        assertEquals("Message should be on default channel", "DefaultChannel", channels.get(0).getSimpleName());
+    }
+
+    @Test
+    public void testServiceModelCache() throws Exception {
+        File cacheDir = new File(System.getProperty("java.io.tmpdir"), "hornet-service-cache-" + System.nanoTime());
+        try {
+            ToaServiceModelCache cache = new ToaServiceModelCache(cacheDir);
+            URL url = getClass().getResource("/multiChannelTestService.xml");
+
+            ToaServiceLoadStats stats = new ToaServiceLoadStats();
+            ToaService uncached = ToaService.unmarshal(url, cache, stats);
+            assertEquals("First load should miss the cache", 0, stats.getCacheHitCount());
+            assertEquals("First load should populate the cache", 1, cacheDir.listFiles().length);
+
+            stats = new ToaServiceLoadStats();
+            ToaService cached = ToaService.unmarshal(url, cache, stats);
+            assertEquals("Second load should hit the cache", 1, stats.getCacheHitCount());
+            assertTrue("Cache hit should build a new service instance", cached != uncached);
+            for (AdmModel model : uncached.getMessageModels()) {
+                boolean found = false;
+                for (AdmModel cachedModel : cached.getMessageModels()) {
+                    found |= cachedModel == model;
+                }
+                assertTrue("Cache hit should reuse the parsed model " + model.getFullName(), found);
+            }
+
+            // a new cache over the same directory (e.g. after a restart) is populated from disk:
+            stats = new ToaServiceLoadStats();
+            ToaService reloaded = ToaService.unmarshal(url, new ToaServiceModelCache(cacheDir), stats);
+            assertEquals("Load through a new cache instance should hit the cache", 1, stats.getCacheHitCount());
+            assertEquals("Wrong factory count", uncached.getAdmFactories().size(), reloaded.getAdmFactories().size());
+            assertEquals("Wrong role count", uncached.getToRoles().size(), reloaded.getToRoles().size());
+
+            assertEquals("Wrong service name", uncached.getName(), cached.getName());
+            assertEquals("Wrong prefix channel names", uncached.isPrefixChannelNames(), cached.isPrefixChannelNames());
+            assertEquals("Wrong model count", uncached.getMessageModels().size(), cached.getMessageModels().size());
+            assertEquals("Wrong factory count", uncached.getAdmFactories().size(), cached.getAdmFactories().size());
+            assertEquals("Wrong channel count", uncached.getChannels().size(), cached.getChannels().size());
+            assertEquals("Wrong default channel", uncached.getDefaultChannel().getName(), cached.getDefaultChannel().getName());
+            for (ToaServiceChannel channel : uncached.getChannels()) {
+                boolean found = false;
+                for (ToaServiceChannel cachedChannel : cached.getChannels()) {
+                    if (cachedChannel.getName().equals(channel.getName())) {
+                        assertEquals("Wrong key for channel " + channel.getName(), channel.getKey(), cachedChannel.getKey());
+                        assertEquals("Wrong bus for channel " + channel.getName(), channel.getBusName(), cachedChannel.getBusName());
+                        found = true;
+                    }
+                }
+                assertTrue("Cached service is missing channel " + channel.getName(), found);
+            }
+
+            assertEquals("Wrong role count", uncached.getToRoles().size(), cached.getToRoles().size());
+            for (ToaServiceToRole role : uncached.getToRoles()) {
+                ToaServiceToRole cachedRole = cached.getToRole(role.getName());
+                assertNotNull("Cached service is missing role " + role.getName(), cachedRole);
+                assertEquals("Wrong message count for role " + role.getName(), role.getMessages().size(), cachedRole.getMessages().size());
+                for (AdmMessage message : role.getMessages()) {
+                    List<ToaServiceChannel> channels = role.getChannels(message.getFullName());
+                    List<ToaServiceChannel> cachedChannels = cachedRole.getChannels(message.getFullName());
+                    assertNotNull("Cached role is missing message " + message.getFullName(), cachedChannels);
+                    assertEquals("Wrong channel count for " + message.getFullName(), channels.size(), cachedChannels.size());
+                    for (int i = 0; i < channels.size(); i++) {
+                        assertEquals("Wrong channel for " + message.getFullName(), channels.get(i).getName(), cachedChannels.get(i).getName());
+                    }
+                }
+            }
+        }
+        finally {
+            File[] files = cacheDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            cacheDir.delete();
+        }
+    }
+
+    @Test
+    public void testSharedModelParsedOnce() throws Exception {
+        ToaServiceModelCache cache = new ToaServiceModelCache();
+        assertNull("Memory only cache shouldn't have a directory", cache.getDirectory());
+        ToaService service1 = ToaService.unmarshal(getClass().getResource("/defaultChannelTestService.xml"), cache, null);
+        ToaService service2 = ToaService.unmarshal(getClass().getResource("/noPrefixChannelTestService.xml"), cache, null);
+        AdmMessage message1 = service1.getToRole("ServiceA").getMessages().iterator().next();
+        assertTrue("Services loaded through the same cache should share the parsed model", message1 == findMessage(service2, message1.getFullName()));
+
+        // models aren't shared beyond the cache through which they were parsed:
+        ToaService uncached = ToaService.unmarshal(getClass().getResource("/noPrefixChannelTestService.xml"));
+        assertTrue("Services loaded without a cache shouldn't share parsed models", message1 != findMessage(uncached, message1.getFullName()));
+        ToaService otherCache = ToaService.unmarshal(getClass().getResource("/noPrefixChannelTestService.xml"), new ToaServiceModelCache(), null);
+        assertTrue("Services loaded through different caches shouldn't share parsed models", message1 != findMessage(otherCache, message1.getFullName()));
+    }
+
+    @Test
+    public void testSameNamedServicesInDifferentNamespacesAreBothCached() throws Exception {
+        ToaServiceModelCache cache = new ToaServiceModelCache();
+        ToaService service = ToaService.unmarshal(getClass().getResource("/services/forwarderService.xml"), cache, null);
+        ToaService other = ToaService.unmarshal(getClass().getResource("/conflictingForwarderService.xml"), cache, null);
+        assertEquals("Services should have the same name", service.getName().substring(service.getName().lastIndexOf('.')), other.getName().substring(other.getName().lastIndexOf('.')));
+        assertFalse("Services should be in different namespaces", service.getName().equals(other.getName()));
+
+        // loading the other service mustn't have replaced the first, or released the model only the first uses:
+        ToaService again = ToaService.unmarshal(getClass().getResource("/services/forwarderService.xml"), cache, null);
+        for (AdmModel model : service.getMessageModels()) {
+            AdmModel reloaded = null;
+            for (AdmModel candidate : again.getMessageModels()) {
+                if (candidate.getFullName().equals(model.getFullName())) {
+                    reloaded = candidate;
+                }
+            }
+            assertTrue("Model '" + model.getFullName() + "' should still be held by the cache", model == reloaded);
+        }
+    }
+
+    private static AdmMessage findMessage(ToaService service, String fullName) {
+        for (ToaServiceToRole role : service.getToRoles()) {
+            for (AdmMessage message : role.getMessages()) {
+                if (message.getFullName().equals(fullName)) {
+                    return message;
+                }
+            }
+        }
+        fail("Expected service " + service.getName() + " to use message " + fullName);
+        return null;
+    }
+
     @Test
     public void testNoServicePrefix() throws Exception {
         ToaService service = ToaService.unmarshal(getClass().getResource("/noPrefixChannelTestService.xml"));
@@ -124,6 +290,243 @@ public class ServiceModelTest {
 
     }
 
+    @Test
+    public void testValidatedServiceUnmarshals() throws Exception {
+        URL url = getClass().getResource("/multiChannelTestService.xml");
+        DefaultServiceDefinitionLocator.validateServiceDefinitionFile(url);
+        assertTrue("Service should be a valid service definition", DefaultServiceDefinitionLocator.isServiceDefinitionFile(url));
+
+        // validation must not affect the result of subsequently unmarshalling the service:
+        ToaService validated = ToaService.unmarshal(url);
+        ToaService unmarshalled = ToaService.unmarshal(url);
+        assertEquals("Wrong service name", unmarshalled.getName(), validated.getName());
+        assertEquals("Wrong channel count", unmarshalled.getChannels().size(), validated.getChannels().size());
+        assertEquals("Wrong role count", unmarshalled.getToRoles().size(), validated.getToRoles().size());
+        assertNotNull("Expected to find 'ServiceB' role", validated.getToRole("ServiceB"));
+        assertEquals("Message should be mapped to 2 channels", 2, validated.getToRole("ServiceB").getChannels(ModelBMessage1.class.getName()).size());
+    }
+
+    @Test
+    public void testServiceIndexGeneration() throws Exception {
+        File classesDir = new File(System.getProperty("java.io.tmpdir"), "hornet-service-index-" + System.nanoTime());
+        File servicesDir = new File(classesDir, "services");
+        File indexFile = new File(classesDir, DefaultServiceDefinitionLocator.SERVICE_INDEX_RESOURCE);
+        try {
+            assertTrue("Failed to create " + servicesDir, servicesDir.mkdirs());
+            copy(getClass().getResourceAsStream("/services/forwarderService.xml"), new File(servicesDir, "forwarderService.xml"));
+            copy(getClass().getResourceAsStream("/services/invalidService.xml"), new File(servicesDir, "invalidService.xml"));
+
+            List<String> indexed = ServiceIndexGenerator.generate(classesDir, false);
+            assertEquals("Only the valid service should be indexed", Arrays.asList("services/forwarderService.xml"), indexed);
+
+            List<String> entries = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("#")) {
+                        entries.add(line);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+            String digest = ToaServiceModelCache.digest(new File(servicesDir, "forwarderService.xml").toURI().toURL());
+            assertEquals("Wrong index entries", Arrays.asList(digest + " services/forwarderService.xml"), entries);
+
+            try {
+                ServiceIndexGenerator.generate(classesDir, true);
+                fail("Indexing should fail on an invalid service when failOnInvalid is set");
+            }
+            catch (Exception e) {
+                assertTrue("Expected error to name the invalid service but was '" + e.getMessage() + "'", e.getMessage().indexOf("invalidService.xml") >= 0);
+            }
+        }
+        finally {
+            indexFile.delete();
+            indexFile.getParentFile().delete();
+            indexFile.getParentFile().getParentFile().delete();
+            File[] files = servicesDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            servicesDir.delete();
+            classesDir.delete();
+        }
+    }
+
+    @Test
+    public void testServiceIndexOnMixedClasspath() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "hornet-mixed-classpath-" + System.nanoTime());
+        File jar = new File(dir, "indexed.jar");
+        File classesDir = new File(dir, "classes");
+        File servicesDir = new File(classesDir, "services");
+        File unindexed = new File(servicesDir, "unindexedService.xml");
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            assertTrue("Failed to create " + servicesDir, servicesDir.mkdirs());
+            copy(getClass().getResourceAsStream("/services/forwarderService.xml"), unindexed);
+
+            // an indexed jar with a service that isn't in its index:
+            String digest = ToaServiceModelCache.digest(getClass().getResource("/services/forwarderService.xml"));
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+            try {
+                out.putNextEntry(new JarEntry(DefaultServiceDefinitionLocator.SERVICE_INDEX_RESOURCE));
+                out.write((digest + " services/indexedService.xml\n").getBytes("UTF-8"));
+                out.closeEntry();
+                out.putNextEntry(new JarEntry("services/indexedService.xml"));
+                out.write(read(getClass().getResourceAsStream("/services/forwarderService.xml")).getBytes("UTF-8"));
+                out.closeEntry();
+                out.putNextEntry(new JarEntry("services/unlistedService.xml"));
+                out.write(read(getClass().getResourceAsStream("/services/receiverService.xml")).getBytes("UTF-8"));
+                out.closeEntry();
+            }
+            finally {
+                out.close();
+            }
+
+            URLClassLoader classpath = new URLClassLoader(new URL[] { jar.toURI().toURL(), classesDir.toURI().toURL() }, loader);
+            Thread.currentThread().setContextClassLoader(classpath);
+            Set<URL> urls = new HashSet<URL>();
+            new DefaultServiceDefinitionLocator().locateServices(urls);
+
+            Set<String> located = new HashSet<String>();
+            for (URL url : urls) {
+                located.add(url.toString());
+            }
+            String jarRoot = "jar:" + jar.toURI().toURL() + "!/";
+            assertTrue("Indexed service not located: " + located, located.contains(jarRoot + "services/indexedService.xml"));
+            assertFalse("Service missing from the index should not be located: " + located, located.contains(jarRoot + "services/unlistedService.xml"));
+            assertTrue("Service in the unindexed directory not located: " + located, located.contains(unindexed.toURI().toURL().toString()));
+        }
+        finally {
+            Thread.currentThread().setContextClassLoader(loader);
+            unindexed.delete();
+            servicesDir.delete();
+            classesDir.delete();
+            jar.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testServiceIndexIsTrustedWithoutStrictValidation() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "hornet-trusted-index-" + System.nanoTime());
+        File jar = new File(dir, "indexed.jar");
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            assertTrue("Failed to create " + dir, dir.mkdirs());
+
+            // an indexed jar whose index is stale (its digest doesn't match the service's content):
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+            try {
+                out.putNextEntry(new JarEntry(DefaultServiceDefinitionLocator.SERVICE_INDEX_RESOURCE));
+                out.write(("0000000000000000000000000000000000000000 services/staleService.xml\n").getBytes("UTF-8"));
+                out.closeEntry();
+                out.putNextEntry(new JarEntry("services/staleService.xml"));
+                out.write(read(getClass().getResourceAsStream("/services/forwarderService.xml")).getBytes("UTF-8"));
+                out.closeEntry();
+            }
+            finally {
+                out.close();
+            }
+
+            URLClassLoader classpath = new URLClassLoader(new URL[] { jar.toURI().toURL() }, loader);
+            Thread.currentThread().setContextClassLoader(classpath);
+            Set<URL> urls = new HashSet<URL>();
+            new DefaultServiceDefinitionLocator().locateServices(urls);
+
+            Set<String> located = new HashSet<String>();
+            for (URL url : urls) {
+                located.add(url.toString());
+            }
+            String jarRoot = "jar:" + jar.toURI().toURL() + "!/";
+            assertTrue("Indexed service should be located without verifying its digest: " + located, located.contains(jarRoot + "services/staleService.xml"));
+        }
+        finally {
+            Thread.currentThread().setContextClassLoader(loader);
+            jar.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testServiceDiff() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "hornet-service-diff-" + System.nanoTime());
+        File original = new File(dir, "original.xml");
+        File changedKey = new File(dir, "changedKey.xml");
+        File remapped = new File(dir, "remapped.xml");
+        try {
+            assertTrue("Failed to create " + dir, dir.mkdirs());
+            copy(getClass().getResourceAsStream("/multiChannelTestService.xml"), original);
+            String xml = read(getClass().getResourceAsStream("/multiChannelTestService.xml"));
+            write(xml.replaceFirst("name=\"PrimaryChannel\"\\s*key=\"null\"", "name=\"PrimaryChannel\" key=\"orders/\\${Region}\""), changedKey);
+            write(xml.replace("channel=\"PrimaryChannel, SecondaryChannel\"", "channel=\"PrimaryChannel\""), remapped);
+
+            ToaService live = ToaService.unmarshal(original.toURI().toURL());
+            ToaServiceDiff diff = ToaServiceDiff.compute(live, ToaService.unmarshal(original.toURI().toURL()));
+            assertTrue("Identical services should have an empty diff: " + diff, diff.isEmpty());
+
+            diff = ToaServiceDiff.compute(live, ToaService.unmarshal(changedKey.toURI().toURL()));
+            assertFalse("A key change should be detected: " + diff, diff.isEmpty());
+            assertEquals("Wrong number of changes: " + diff, 1, diff.getChanges().size());
+            assertTrue("Change should name the re-keyed channel: " + diff, diff.getChanges().get(0).indexOf("'PrimaryChannel' key changed") >= 0);
+
+            diff = ToaServiceDiff.compute(live, ToaService.unmarshal(remapped.toURI().toURL()));
+            assertFalse("A message channel remapping should be detected: " + diff, diff.isEmpty());
+            assertEquals("Wrong number of changes: " + diff, 1, diff.getChanges().size());
+        }
+        finally {
+            original.delete();
+            changedKey.delete();
+            remapped.delete();
+            dir.delete();
+        }
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static void write(String content, File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void copy(InputStream in, File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+            out.close();
+        }
+    }
+
     @Test
     public void testNoServicePrefixByProperty() throws Exception {
         XRuntime.getProps().setProperty(ToaService.PROP_PREFIX_CHANNEL_NAMES, "false");
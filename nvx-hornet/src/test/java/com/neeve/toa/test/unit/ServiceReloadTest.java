@@ -0,0 +1,228 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.ci.XRuntime;
+import com.neeve.lang.XString;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.sma.MessageChannel.RawKeyResolutionTable;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
+import com.neeve.toa.spi.ServiceDefinitionLocator;
+import com.neeve.toa.spi.TopicResolver;
+import com.neeve.toa.test.unit.modelB.ModelBMessage1;
+
+/**
+ * Tests that a changed service definition is picked up by the service definition watcher: 
+ * the topic resolvers of its messages are re-resolved, and changes to its messaging topology 
+ * are not applied.
+ */
+public class ServiceReloadTest extends AbstractToaTest {
+    private static volatile File serviceFile;
+
+    private static final class WatchedServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(serviceFile.toURI().toURL());
+        }
+    }
+
+    /**
+     * Resolves the topics of {@link ModelBMessage1} and records the version of the service it was 
+     * looked up for.
+     */
+    private static final class VersionRecordingTopicResolver implements TopicResolver<ModelBMessage1> {
+        private final int version;
+        private final List<Integer> sentVersions;
+
+        VersionRecordingTopicResolver(final int version, final List<Integer> sentVersions) {
+            this.version = version;
+            this.sentVersions = sentVersions;
+        }
+
+        @Override
+        public void initialize(ToaServiceChannel serviceChannel) {}
+
+        @Override
+        public XString resolveTopic(ModelBMessage1 message, RawKeyResolutionTable krt) throws Exception {
+            return resolveTopic(message, (Properties)null);
+        }
+
+        @Override
+        public XString resolveTopic(ModelBMessage1 message, Properties krt) throws Exception {
+            sentVersions.add(version);
+            return XString.create("reload/" + version, true, true);
+        }
+    }
+
+    /**
+     * Sends {@link ModelBMessage1} on its primary and secondary channels with topic resolvers 
+     * that record whether they were looked up for the originally loaded or a reloaded service.
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class ReloadTestApp extends AbstractToaTestApp {
+        final List<Integer> sentVersions = Collections.synchronizedList(new ArrayList<Integer>());
+        private volatile ToaService loadedService;
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new WatchedServiceDefinitionLocator();
+        }
+
+        @Override
+        public TopicResolver<?> getTopicResolver(ToaService service, ToaServiceChannel channel, Class<?> messageClass) {
+            if (messageClass == ModelBMessage1.class) {
+                if (loadedService == null) {
+                    loadedService = service;
+                }
+                return new VersionRecordingTopicResolver(service == loadedService ? 0 : 1, sentVersions);
+            }
+            return null;
+        }
+
+        ToaService getLiveService() {
+            return getServiceModels().iterator().next();
+        }
+    }
+
+    @Before
+    public void enableServiceReload() throws Exception {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_SERVICE_RELOAD_INTERVAL, "50");
+        File dir = new File(System.getProperty("java.io.tmpdir"), "hornet-service-reload-" + System.nanoTime());
+        assertTrue("Failed to create " + dir, dir.mkdirs());
+        serviceFile = new File(dir, "multiChannelTestService.xml");
+        write(read(getClass().getResourceAsStream("/multiChannelTestService.xml")), serviceFile);
+    }
+
+    @After
+    public void clearServiceReload() {
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_SERVICE_RELOAD_INTERVAL);
+        serviceFile.delete();
+        serviceFile.getParentFile().delete();
+    }
+
+    @Test
+    public void testChangedDefinitionReResolvesTopicResolvers() throws Throwable {
+        ReloadTestApp app = createApp(testcaseName.getMethodName(), "standalone", ReloadTestApp.class);
+        app.sendMessage(ModelBMessage1.create());
+        assertEquals("Message should be sent with the loaded service's resolvers", Arrays.asList(0, 0), app.sentVersions);
+
+        // change the definition's content without changing its messaging topology, the 
+        // application's topic resolver provider is consulted again for the reloaded service:
+        final long lastModified = serviceFile.lastModified();
+        write(read(getClass().getResourceAsStream("/multiChannelTestService.xml")) + "\n<!-- reloaded -->\n", serviceFile);
+        serviceFile.setLastModified(lastModified + 10000);
+
+        // each send uses either the loaded or the reloaded send contexts for both of its channels: 
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            app.sentVersions.clear();
+            app.sendMessage(ModelBMessage1.create());
+            assertEquals("Wrong number of channels sent on", 2, app.sentVersions.size());
+            assertEquals("A send shouldn't mix loaded and reloaded send contexts: " + app.sentVersions, app.sentVersions.get(0), app.sentVersions.get(1));
+            if (app.sentVersions.get(0) == 1) {
+                break;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("Changed service definition not applied to the send path");
+            }
+            Thread.sleep(10);
+        }
+
+        // the reloaded send contexts stay in use:
+        app.sentVersions.clear();
+        app.sendMessage(ModelBMessage1.create());
+        assertEquals("Message should be sent with the reloaded service's resolvers", Arrays.asList(1, 1), app.sentVersions);
+    }
+
+    @Test
+    public void testChangedTopologyIsNotApplied() throws Throwable {
+        ReloadTestApp app = createApp(testcaseName.getMethodName(), "standalone", ReloadTestApp.class);
+
+        // re-key a channel (which can't be applied to a running engine):
+        final long lastModified = serviceFile.lastModified();
+        final String xml = read(getClass().getResourceAsStream("/multiChannelTestService.xml"));
+        final String rekeyed = xml.replaceFirst("name=\"PrimaryChannel\"\\s*key=\"null\"", "name=\"PrimaryChannel\" key=\"orders/\\${Region}\"");
+        assertTrue("Failed to re-key the channel", !rekeyed.equals(xml));
+        write(rekeyed, serviceFile);
+        serviceFile.setLastModified(lastModified + 10000);
+
+        // give the watcher (polling every 50ms) ample time to see the change:
+        Thread.sleep(1000);
+        app.sendMessage(ModelBMessage1.create());
+        assertEquals("Message should still be sent with the loaded service's resolvers", Arrays.asList(0, 0), app.sentVersions);
+        assertEquals("The live service should keep its channel key", "null", app.getLiveService().getChannel("PrimaryChannel").getKey());
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static void write(String content, File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
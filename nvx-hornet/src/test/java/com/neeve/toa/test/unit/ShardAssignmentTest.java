@@ -0,0 +1,118 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.neeve.toa.ShardAssignment;
+import com.neeve.toa.service.ToaService;
+import com.neeve.toa.service.ToaServiceChannel;
+
+/**
+ * Tests for {@link ShardAssignment}
+ */
+public class ShardAssignmentTest {
+
+    @Test
+    public void testShardOfIsDeterministicAndInRange() {
+        final int count = 4;
+        final int[] owned = new int[count];
+        for (int i = 0; i < 1000; i++) {
+            final ShardAssignment assignment = new ShardAssignment("orders", count, i % count, "stringField");
+            final int shard = assignment.shardOf("account-" + i);
+            assertTrue("Shard " + shard + " out of range", shard >= 0 && shard < count);
+            assertEquals("Assignment should not depend on the owning shard", shard, new ShardAssignment("orders", count, 0, "stringField").shardOf("account-" + i));
+            assertEquals("Integral keys should be assigned by value", assignment.shardOf(Long.valueOf(i)), assignment.shardOf(Integer.valueOf(i)));
+            owned[shard]++;
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue("Shard " + i + " owns too few keys (" + owned[i] + ")", owned[i] > 150);
+        }
+    }
+
+    @Test
+    public void testInvalidAssignment() {
+        try {
+            new ShardAssignment("orders", 4, 4, "stringField");
+            fail("Shard index beyond shard count should be rejected");
+        }
+        catch (IllegalArgumentException expected) {}
+
+        try {
+            new ShardAssignment("orders", 4, 0, "");
+            fail("Empty shard key field should be rejected");
+        }
+        catch (IllegalArgumentException expected) {}
+    }
+
+    @Test
+    public void testChannelFilter() throws Exception {
+        final ToaService service = ToaService.unmarshal(getClass().getResource("/services/forwarderService.xml"));
+        final ToaServiceChannel sharded = new ToaServiceChannel(service, "forwarder", "OrdersChannel", "orders/${Shard}/${stringField}");
+        final ToaServiceChannel shardedWithDefault = new ToaServiceChannel(service, "forwarder", "OrdersChannel2", "orders/${Shard::0}");
+        final ToaServiceChannel unsharded = new ToaServiceChannel(service, "forwarder", "TradesChannel", "trades/${stringField}");
+
+        assertTrue(ShardAssignment.isSharded(sharded));
+        assertTrue(ShardAssignment.isSharded(shardedWithDefault));
+        assertFalse(ShardAssignment.isSharded(unsharded));
+
+        final ShardAssignment assignment = new ShardAssignment("orders", 4, 2, "stringField");
+        assertEquals("Shard=2", assignment.getChannelFilter(service, sharded));
+        assertEquals("Shard=2", assignment.getChannelFilter(service, shardedWithDefault));
+        assertNull("Unsharded channel should not be filtered", assignment.getChannelFilter(service, unsharded));
+    }
+
+    @Test
+    public void testShardOfMessage() {
+        final ShardAssignment assignment = new ShardAssignment("orders", 4, 0, "stringField");
+
+        final ForwarderMessage1 message = ForwarderMessage1.create();
+        assertEquals("Message without shard key should not be assigned", -1, assignment.shardOf(message));
+
+        message.setStringField("account-1");
+        assertEquals(assignment.shardOf("account-1"), assignment.shardOf(message));
+        message.dispose();
+
+        final ShardAssignment byInt = new ShardAssignment("orders", 4, 0, "intField");
+        final ShardAssignment byLong = new ShardAssignment("orders", 4, 0, "longField");
+        for (int i = 0; i < 100; i++) {
+            final ForwarderMessage1 integral = ForwarderMessage1.create();
+            integral.setIntField(i);
+            integral.setLongField(i);
+            assertEquals("Int shard key should be assigned by value", byInt.shardOf(Integer.valueOf(i)), byInt.shardOf(integral));
+            assertEquals("Long shard key should be assigned by value", byLong.shardOf(Long.valueOf(i)), byLong.shardOf(integral));
+            integral.dispose();
+        }
+
+        final ShardAssignment byMissingField = new ShardAssignment("orders", 4, 0, "noSuchField");
+        final ForwarderMessage1 other = ForwarderMessage1.create();
+        other.setStringField("account-1");
+        assertEquals("Message without shard key field should not be assigned", -1, byMissingField.shardOf(other));
+        other.dispose();
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2016 Neeve Research, LLC
+ *
+ * This product includes software developed at Neeve Research, LLC
+ * (http://www.neeveresearch.com/) as well as software licenced to
+ * Neeve Research, LLC under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * Neeve Research licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neeve.toa.test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.neeve.aep.AepEngine.HAPolicy;
+import com.neeve.aep.annotations.EventHandler;
+import com.neeve.ci.XRuntime;
+import com.neeve.server.app.annotations.AppHAPolicy;
+import com.neeve.toa.MessageInjector.InjectionOutcome;
+import com.neeve.toa.ShardAssignment;
+import com.neeve.toa.ToaException;
+import com.neeve.toa.TopicOrientedApplication;
+import com.neeve.toa.spi.AbstractServiceDefinitionLocator;
+import com.neeve.toa.spi.ServiceDefinitionLocator;
+
+/**
+ * Tests the routing of injected messages between the shards of a partitioned application 
+ * hosted in the same process, and the resolution of the shard of sent messages. 
+ */
+public class ShardRoutingTest extends AbstractToaTest {
+    private static final int SHARD_COUNT = 2;
+    private static final String SHARD_FIELD = "stringField";
+
+    private static volatile boolean failInitialization;
+    private static final PingPongShardApp[] pingPongShards = new PingPongShardApp[SHARD_COUNT];
+
+    private static final class ShardedServiceDefinitionLocator extends AbstractServiceDefinitionLocator {
+
+        /* (non-Javadoc)
+         * @see com.neeve.toa.spi.ServiceDefinitionLocator#locateServices(java.util.Set)
+         */
+        @Override
+        public void locateServices(Set<URL> urls) throws Exception {
+            urls.add(getClass().getResource("/shardedService.xml"));
+        }
+    }
+
+    /**
+     * A shard that handles {@link ForwarderMessage1}, which is sent on a sharded channel. 
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class ShardTestApp extends AbstractToaTestApp {
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new ShardedServiceDefinitionLocator();
+        }
+
+        @Override
+        protected void onAppInitialized() throws Exception {
+            if (failInitialization) {
+                throw new IllegalStateException("Simulated initialization failure");
+            }
+        }
+
+        @EventHandler
+        public void onForwarderMessage1(ForwarderMessage1 message) {
+            recordReceipt(message);
+        }
+    }
+
+    /**
+     * A shard whose handler passes {@link ForwarderMessage1} back and forth between the shards, 
+     * decrementing its hop count. 
+     */
+    @AppHAPolicy(HAPolicy.EventSourcing)
+    public static class PingPongShardApp extends AbstractToaTestApp {
+        final AtomicInteger unstableReceipts = new AtomicInteger();
+
+        @Override
+        public ServiceDefinitionLocator getServiceDefinitionLocator() {
+            return new ShardedServiceDefinitionLocator();
+        }
+
+        @EventHandler
+        public void onForwarderMessage1(ForwarderMessage1 message) {
+            recordReceipt(message);
+            final int peer = 1 - getShardAssignment().getIndex();
+
+            // a routed message must not be dispatched before the transaction that injected it is stable:
+            if (message.getLongField() > 0 && pingPongShards[peer].getAepEngine().getStats().getNumCommitsCompleted() < message.getLongField()) {
+                unstableReceipts.incrementAndGet();
+            }
+
+            if (message.getIntField() > 0) {
+                ForwarderMessage1 next = ForwarderMessage1.create();
+                next.setStringField(keyOwnedBy(peer));
+                next.setIntField(message.getIntField() - 1);
+                next.setLongField(getEngine().getStats().getNumCommitsStarted() + 1);
+                getMessageInjector().injectMessage(next);
+            }
+        }
+    }
+
+    @Before
+    public void enableSharding() {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_SHARD_COUNT, String.valueOf(SHARD_COUNT));
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_SHARD_FIELD, SHARD_FIELD);
+    }
+
+    @After
+    public void clearSharding() {
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_SHARD_COUNT);
+        XRuntime.getProps().remove(TopicOrientedApplication.PROP_SHARD_FIELD);
+        failInitialization = false;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            pingPongShards[i] = null;
+        }
+    }
+
+    private final ShardTestApp createShard(final int index) throws Throwable {
+        // the shard index is taken from the engine name:
+        return createApp(testcaseName.getMethodName() + "-" + index, "standalone", ShardTestApp.class);
+    }
+
+    private static final String keyOwnedBy(final int shard) {
+        final ShardAssignment assignment = new ShardAssignment("keys", SHARD_COUNT, 0, SHARD_FIELD);
+        for (int i = 0;; i++) {
+            if (assignment.shardOf("account-" + i) == shard) {
+                return "account-" + i;
+            }
+        }
+    }
+
+    private static final ForwarderMessage1 messageOwnedBy(final int shard) {
+        final ForwarderMessage1 message = ForwarderMessage1.create();
+        message.setStringField(keyOwnedBy(shard));
+        return message;
+    }
+
+    private static final void assertReceived(final ShardTestApp shard, final String key) throws Exception {
+        shard.assertExpectedReceipt(5, 1);
+        assertEquals("Wrong message received by " + shard.getAepEngine().getName(), key, ((ForwarderMessage1)shard.received.get(0)).getStringField());
+    }
+
+    @Test
+    public void testInjectMessageRoutedToOwningShard() throws Throwable {
+        ShardTestApp shard0 = createShard(0);
+        ShardTestApp shard1 = createShard(1);
+        assertEquals(0, shard0.getShardAssignment().getIndex());
+        assertEquals(1, shard1.getShardAssignment().getIndex());
+
+        shard0.injectMessage(messageOwnedBy(1));
+        assertReceived(shard1, keyOwnedBy(1));
+        shard0.assertExpectedReceipt(1, 0);
+
+        shard1.injectMessage(messageOwnedBy(1));
+        shard1.assertExpectedReceipt(5, 2);
+
+        // messages that aren't assigned to a shard are injected locally:
+        shard0.injectMessage(ForwarderMessage1.create());
+        shard0.assertExpectedReceipt(5, 1);
+    }
+
+    @Test
+    public void testTryInjectMessageRoutedToOwningShard() throws Throwable {
+        ShardTestApp shard0 = createShard(0);
+        ShardTestApp shard1 = createShard(1);
+
+        assertEquals("Routed injection should be accepted", InjectionOutcome.Accepted, shard1.tryInjectMessage(messageOwnedBy(0)));
+        assertReceived(shard0, keyOwnedBy(0));
+        shard1.assertExpectedReceipt(1, 0);
+    }
+
+    @Test
+    public void testScheduleInjectionRoutedToOwningShard() throws Throwable {
+        ShardTestApp shard0 = createShard(0);
+        ShardTestApp shard1 = createShard(1);
+
+        assertNotNull(shard0.scheduleInjection(messageOwnedBy(1), 10000));
+        assertReceived(shard1, keyOwnedBy(1));
+        shard0.assertExpectedReceipt(1, 0);
+    }
+
+    @Test
+    public void testInjectionForShardNotHostedFails() throws Throwable {
+        ShardTestApp shard0 = createShard(0);
+        ForwarderMessage1 message = messageOwnedBy(1);
+        try {
+            shard0.injectMessage(message);
+            fail("Injection of a message owned by a shard that isn't hosted should fail");
+        }
+        catch (ToaException expected) {
+            assertTrue("Unexpected error: " + expected.getMessage(), expected.getMessage().indexOf("not hosted in this process") >= 0);
+        }
+        finally {
+            message.dispose();
+        }
+    }
+
+    @Test
+    public void testShardResolvedInTopic() throws Throwable {
+        ShardTestApp shard0 = createShard(0);
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            ForwarderMessage1 message = messageOwnedBy(shard);
+            message.acquire();
+            shard0.sendMessage(message);
+            assertEquals("Sharded channel topic should contain the owning shard", "orders/" + shard + "/" + keyOwnedBy(shard), message.getMessageKey());
+            message.dispose();
+        }
+
+        // unsharded channels are resolved as usual: 
+        ForwarderMessage2 unsharded = ForwarderMessage2.create();
+        unsharded.setStringField(keyOwnedBy(1));
+        unsharded.acquire();
+        shard0.sendMessage(unsharded);
+        assertEquals("trades/" + keyOwnedBy(1), unsharded.getMessageKey());
+        unsharded.dispose();
+    }
+
+    @Test
+    public void testFailedStartUnregistersShard() throws Throwable {
+        failInitialization = true;
+        SingleAppToaServer<ShardTestApp> server = createServer(testcaseName.getMethodName() + "-0", "standalone", ShardTestApp.class);
+        try {
+            server.start();
+            fail("App shouldn't have loaded");
+        }
+        catch (Throwable thrown) {
+            assertNotNull("Expected a startup error from the server", server.getStartupError());
+        }
+        failInitialization = false;
+
+        // the failed shard mustn't hold on to its registration:
+        ShardTestApp shard0 = createShard(0);
+        ShardTestApp shard1 = createShard(1);
+        shard1.injectMessage(messageOwnedBy(0));
+        assertReceived(shard0, keyOwnedBy(0));
+    }
+
+    @Test
+    public void testShardsInjectingIntoEachOtherFromHandlers() throws Throwable {
+        // tiny lanes that a dispatch thread would fill and then wait on if it injected through them:
+        Map<String, String> env = new HashMap<String, String>();
+        env.put(TopicOrientedApplication.PROP_ENABLE_DISPATCH_INJECTION, "true");
+        env.put(TopicOrientedApplication.PROP_INJECTION_LANES, "1");
+        env.put(TopicOrientedApplication.PROP_INJECTION_LANE_CAPACITY, "2");
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            pingPongShards[i] = createApp(testcaseName.getMethodName() + "-" + i, "standalone", PingPongShardApp.class, env);
+            pingPongShards[i].setHoldMessages(false);
+        }
+
+        final int chains = 100;
+        final int hops = 20;
+        for (int i = 0; i < chains; i++) {
+            ForwarderMessage1 message = ForwarderMessage1.create();
+            message.setStringField(keyOwnedBy(i % SHARD_COUNT));
+            message.setIntField(hops);
+            pingPongShards[i % SHARD_COUNT].injectMessage(message);
+        }
+
+        final int expected = chains * (hops + 1);
+        final long timeout = System.currentTimeMillis() + 30000;
+        int received = 0;
+        while ((received = pingPongShards[0].receivedMessageCount + pingPongShards[1].receivedMessageCount) < expected && System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+        }
+        assertEquals("Shards injecting into each other from handlers didn't receive all messages", expected, received);
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            assertEquals("Routed message dispatched before its injecting transaction was stable", 0, pingPongShards[i].unstableReceipts.get());
+        }
+    }
+}
@@ -49,6 +49,7 @@ import com.neeve.aep.annotations.EventHandler;
 import com.neeve.aep.event.AepApplicationExceptionEvent;
 import com.neeve.aep.event.AepChannelUpEvent;
 import com.neeve.aep.event.AepUnhandledMessageEvent;
+import com.neeve.ci.XRuntime;
 import com.neeve.event.alert.AlertEvent;
 import com.neeve.rog.IRogMessage;
 import com.neeve.rog.log.RogLogUtil;
@@ -59,6 +60,7 @@ import com.neeve.server.mon.alert.SrvMonUnhandledMessageMessage;
 import com.neeve.sma.MessageChannel;
 import com.neeve.sma.MessageChannel.Qos;
 import com.neeve.sma.event.UnhandledMessageEvent;
+import com.neeve.toa.TopicOrientedApplication;
 import com.neeve.toa.service.ToaService;
 import com.neeve.toa.service.ToaServiceChannel;
 import com.neeve.toa.test.unit.injectiontests.UnhandledInjectionMessage;
@@ -448,6 +450,17 @@ public class ToaMessagingTest extends AbstractToaTest {
         testSenderForwarderReceiver(Qos.Guaranteed);
     }
 
+    @Test
+    public final void testSenderForwarderReceiverLazyMessageResolution() throws Throwable {
+        XRuntime.getProps().setProperty(TopicOrientedApplication.PROP_LAZY_MESSAGE_RESOLUTION, "true");
+        try {
+            testSenderForwarderReceiver(Qos.Guaranteed);
+        }
+        finally {
+            XRuntime.getProps().remove(TopicOrientedApplication.PROP_LAZY_MESSAGE_RESOLUTION);
+        }
+    }
+
     @Test
     @Ignore
     public final void testSenderForwarderReceiverLongDuration() throws Throwable {